@@ -0,0 +1,159 @@
+package com.ctzen.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * Requests, responses and bodies shared by the benchmarks, sized like a busy API call.
+ *
+ * @author cchang
+ */
+public final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @return printable ASCII, like a JSON body
+     */
+    public static byte[] body(final int size) {
+        final byte[] ret = new byte[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = (byte)(' ' + i % 95);
+        }
+        return ret;
+    }
+
+    public static String text(final int size) {
+        return new String(body(size), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return request with many headers, cookies, parameters, attributes and a session
+     */
+    public static MockHttpServletRequest largeRequest(final byte[] body) {
+        final MockHttpServletRequest ret = new MockHttpServletRequest("POST", "/orders/12345/items");
+        ret.setQueryString("expand=lines&page=2");
+        ret.setContentType("application/json");
+        ret.setCharacterEncoding("UTF-8");
+        ret.setContent(body);
+        for (int i = 0; i < 40; i++) {
+            ret.addHeader("X-Header-" + i, "value-" + i + "-" + text(40));
+        }
+        ret.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko)");
+        final Cookie[] cookies = new Cookie[10];
+        for (int i = 0; i < cookies.length; i++) {
+            cookies[i] = new Cookie("cookie" + i, "v" + i);
+        }
+        ret.setCookies(cookies);
+        for (int i = 0; i < 20; i++) {
+            ret.addParameter("param" + i, new String[] {"value" + i, "other" + i});
+        }
+        for (int i = 0; i < 20; i++) {
+            ret.setAttribute("attribute" + i, Arrays.asList("a" + i, "b" + i));
+        }
+        final MockHttpSession session = new MockHttpSession();
+        for (int i = 0; i < 20; i++) {
+            session.setAttribute("sessionAttribute" + i, "value-" + i + "-" + text(20));
+        }
+        ret.setSession(session);
+        return ret;
+    }
+
+    public static MockHttpServletResponse largeResponse() {
+        final MockHttpServletResponse ret = new MockHttpServletResponse();
+        ret.setStatus(500);
+        ret.setContentType("application/json");
+        for (int i = 0; i < 20; i++) {
+            ret.addHeader("X-Response-Header-" + i, "value-" + i);
+        }
+        return ret;
+    }
+
+    /**
+     * Input stream over a fixed body, {@link #rewind()} to read it again without allocating.
+     */
+    public static final class RewindableServletInputStream extends ServletInputStream {
+
+        public RewindableServletInputStream(final byte[] body) {
+            this.body = body;
+        }
+
+        private final byte[] body;
+
+        private int position;
+
+        public void rewind() {
+            position = 0;
+        }
+
+        @Override
+        public int read() {
+            return position < body.length ? body[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (position >= body.length) {
+                return -1;
+            }
+            final int n = Math.min(len, body.length - position);
+            System.arraycopy(body, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return position >= body.length;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    /**
+     * Output stream that discards, so only the capturing is measured.
+     */
+    public static final class NullServletOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(final int b) throws IOException {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
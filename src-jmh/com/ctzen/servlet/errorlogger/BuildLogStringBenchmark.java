@@ -0,0 +1,70 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.ctzen.servlet.BenchmarkFixtures;
+import com.ctzen.servlet.util.ServletToStringUtil;
+
+/**
+ * {@link ErrorLoggingFilter#buildLogString} of a request with large headers, session and bodies.
+ *
+ * @author cchang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BuildLogStringBenchmark {
+
+    @Param({"1024", "65536"})
+    private int bodySize;
+
+    private ErrorLoggingFilter filter;
+
+    private MockHttpServletRequest req;
+
+    private byte[] reqBody;
+
+    private MockHttpServletResponse resp;
+
+    private byte[] respBody;
+
+    private Exception ex;
+
+    @Setup
+    public void setup() {
+        filter = new ErrorLoggingFilter(Arrays.asList(500),
+                new RequestAttributeExceptionGetter("ex"),
+                new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet()),
+                null);
+        reqBody = BenchmarkFixtures.body(bodySize);
+        req = BenchmarkFixtures.largeRequest(reqBody);
+        resp = BenchmarkFixtures.largeResponse();
+        respBody = BenchmarkFixtures.body(bodySize);
+        ex = new IllegalStateException("benchmark", new IllegalArgumentException("cause"));
+    }
+
+    @Benchmark
+    public String buildLogString() {
+        return filter.buildLogString("0123456789ABC", req, reqBody, resp, respBody, ex);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.ctzen.servlet.BenchmarkFixtures;
+import com.ctzen.servlet.util.ServletToStringUtil;
+
+/**
+ * {@link ErrorLoggingFilter#doFilter} success path, i.e. the cost every request pays.
+ * Subtract {@link #chainOnly()} for the filter's own share, the mocks are not free.
+ *
+ * @author cchang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ErrorLoggingFilterBenchmark {
+
+    /**
+     * Request and response body size, 0 for a GET without bodies.
+     */
+    @Param({"0", "2048", "65536"})
+    private int bodySize;
+
+    private byte[] body;
+
+    private ErrorLoggingFilter filter;
+
+    private FilterChain chain;
+
+    @Setup
+    public void setup() {
+        body = BenchmarkFixtures.body(bodySize);
+        filter = new ErrorLoggingFilter(Arrays.asList(500),
+                new RequestAttributeExceptionGetter("ex"),
+                new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet()),
+                new ErrorLogger() {
+                    @Override
+                    public void log(final String errorId, final String error) throws IOException {
+                        throw new IllegalStateException("success path only");
+                    }
+                });
+        chain = new FilterChain() {
+            private final byte[] b = new byte[4096];
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+                final ServletInputStream in = request.getInputStream();
+                while (in.read(b) != -1) {
+                    // drain like a JSON parser would
+                }
+                if (body.length > 0) {
+                    final ServletOutputStream out = response.getOutputStream();
+                    out.write(body);
+                }
+            }
+        };
+    }
+
+    private MockHttpServletRequest request() {
+        final MockHttpServletRequest ret = new MockHttpServletRequest(body.length == 0 ? "GET" : "POST", "/orders/12345");
+        if (body.length > 0) {
+            ret.setContentType("application/json");
+            ret.setContent(body);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse chainOnly() throws Exception {
+        final MockHttpServletResponse ret = new MockHttpServletResponse();
+        chain.doFilter(request(), ret);
+        return ret;
+    }
+
+    @Benchmark
+    public MockHttpServletResponse filter() throws Exception {
+        final MockHttpServletResponse ret = new MockHttpServletResponse();
+        filter.doFilter(request(), ret, chain);
+        return ret;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctzen.servlet.BenchmarkFixtures;
+
+/**
+ * {@link FileErrorLogger} throughput, one file per error as in production.
+ * The folder is emptied after each iteration so the directory does not grow without bound.
+ *
+ * @author cchang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileErrorLoggerBenchmark {
+
+    @Param({"8192", "131072"})
+    private int reportSize;
+
+    private String report;
+
+    private File folder;
+
+    private FileErrorLogger errorLogger;
+
+    private long sequence;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        report = BenchmarkFixtures.text(reportSize);
+        folder = Files.createTempDirectory("file-error-logger-benchmark").toFile();
+        errorLogger = new FileErrorLogger(folder);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        final File[] files = folder.listFiles();
+        if (files != null) {
+            for (final File f: files) {
+                f.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    @Benchmark
+    public void logString() throws IOException {
+        errorLogger.log(Long.toString(sequence++), report);
+    }
+
+    @Benchmark
+    public void logReport() throws IOException {
+        errorLogger.log(Long.toString(sequence++), new ErrorReport() {
+            @Override
+            public void writeTo(final Writer out) throws IOException {
+                out.write(report);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.ctzen.servlet.errorlogger.collector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ctzen.servlet.BenchmarkFixtures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link HttpCollectorErrorLogger} end to end throughput, against an in-process collector that discards
+ * the batches: each invocation logs {@value #ERRORS} errors and waits for them to be sent.
+ *
+ * @author cchang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpCollectorErrorLoggerBenchmark {
+
+    private static final int ERRORS = 500;
+
+    @Param({"2048", "16384"})
+    private int reportSize;
+
+    private String report;
+
+    private HttpServer server;
+
+    private File spoolFolder;
+
+    private HttpCollectorErrorLogger errorLogger;
+
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        report = BenchmarkFixtures.text(reportSize);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.createContext("/errors", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] scratch = new byte[8192];
+                try (final InputStream in = exchange.getRequestBody()) {
+                    while (in.read(scratch) != -1) {
+                        // discard
+                    }
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        spoolFolder = Files.createTempDirectory("http-collector-benchmark").toFile();
+        errorLogger = new HttpCollectorErrorLogger(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/errors"),
+                spoolFolder, 4 * ERRORS, ERRORS, HttpCollectorErrorLogger.DEFAULT_MAX_BATCH_BYTES, 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        errorLogger.close();
+        server.stop(0);
+        final File[] files = spoolFolder.listFiles();
+        if (files != null) {
+            for (final File f: files) {
+                f.delete();
+            }
+        }
+        spoolFolder.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ERRORS)
+    public void logAndSend() throws IOException {
+        final long target = errorLogger.getRecordsSent() + errorLogger.getDroppedCount() + ERRORS;
+        for (int i = 0; i < ERRORS; i++) {
+            errorLogger.log(Long.toString(sequence++), report);
+        }
+        while (errorLogger.getRecordsSent() + errorLogger.getDroppedCount() < target) {
+            LockSupport.parkNanos(10000);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.ctzen.servlet.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.ctzen.servlet.BenchmarkFixtures;
+
+/**
+ * {@link ServletToStringUtil} rendering of a large request, response and session,
+ * as Strings and through a {@link ServletToStringRenderer} into a reused buffer.
+ * {@link #request()} against {@link #renderedRequest()} is the allocation saved by the renderer.
+ *
+ * @author cchang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServletToStringUtilBenchmark {
+
+    private ServletToStringUtil util;
+
+    private ServletToStringRenderer renderer;
+
+    private final StringBuffer buffer = new StringBuffer(16384);
+
+    private MockHttpServletRequest req;
+
+    private MockHttpServletResponse resp;
+
+    @Setup
+    public void setup() {
+        util = new ServletToStringUtil(new HashSet<>(Arrays.asList("org.springframework.", "*.FILTERED")),
+                new HashSet<>(Arrays.asList("SPRING_SECURITY_")));
+        renderer = util.newRenderer();
+        req = BenchmarkFixtures.largeRequest(new byte[0]);
+        resp = BenchmarkFixtures.largeResponse();
+    }
+
+    @Benchmark
+    public String request() {
+        return util.toString(req);
+    }
+
+    @Benchmark
+    public String response() {
+        return util.toString(resp);
+    }
+
+    @Benchmark
+    public String session() {
+        return util.toString(req.getSession());
+    }
+
+    @Benchmark
+    public int renderedRequest() {
+        buffer.setLength(0);
+        renderer.append(buffer, req);
+        return buffer.length();
+    }
+
+    @Benchmark
+    public int rendered() {
+        buffer.setLength(0);
+        renderer.append(buffer, req);
+        renderer.append(buffer, resp);
+        renderer.append(buffer, req.getSession());
+        return buffer.length();
+    }
+
+}
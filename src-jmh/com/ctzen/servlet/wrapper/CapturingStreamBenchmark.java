@@ -0,0 +1,136 @@
+package com.ctzen.servlet.wrapper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.ctzen.servlet.BenchmarkFixtures;
+import com.ctzen.servlet.BenchmarkFixtures.NullServletOutputStream;
+import com.ctzen.servlet.BenchmarkFixtures.RewindableServletInputStream;
+
+/**
+ * {@link CapturingServletInputStream} reads and {@link CapturingServletOutputStream} writes of a whole body,
+ * single-byte, bulk, and {@code print} of lines. The capture buffer is released after each body, as the filter does.
+ *
+ * @author cchang
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CapturingStreamBenchmark {
+
+    private static final int BULK_SIZE = 4096;
+
+    private static final int LINE_SIZE = 80;
+
+    @Param({"1024", "65536"})
+    private int bodySize;
+
+    /**
+     * Capture limit head and tail, 0 for unlimited.
+     */
+    @Param({"0", "4096"})
+    private int limit;
+
+    /**
+     * Response character encoding for {@code print}.
+     */
+    @Param({"ISO-8859-1", "UTF-8"})
+    private String charset;
+
+    private RewindableServletInputStream source;
+
+    private CaptureBuffer inBuffer;
+
+    private CapturingServletInputStream in;
+
+    private CaptureBuffer outBuffer;
+
+    private CapturingServletOutputStream out;
+
+    private byte[] body;
+
+    private byte[] bulk;
+
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        body = BenchmarkFixtures.body(bodySize);
+        bulk = new byte[BULK_SIZE];
+        lines = new String[bodySize / LINE_SIZE];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = BenchmarkFixtures.text(LINE_SIZE);
+        }
+        final ChunkPool pool = ChunkPool.getDefault();
+        final CaptureLimit captureLimit = limit == 0 ? CaptureLimit.UNLIMITED : CaptureLimit.of(limit, limit);
+        source = new RewindableServletInputStream(body);
+        inBuffer = new CaptureBuffer(captureLimit, pool);
+        in = new CapturingServletInputStream(source, inBuffer);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCharacterEncoding(charset);
+        outBuffer = new CaptureBuffer(captureLimit, pool);
+        out = new CapturingServletOutputStream(new NullServletOutputStream(), outBuffer, response);
+    }
+
+    @Benchmark
+    public void readSingle(final Blackhole bh) throws IOException {
+        source.rewind();
+        int b;
+        while ((b = in.read()) != -1) {
+            bh.consume(b);
+        }
+        inBuffer.release();
+    }
+
+    @Benchmark
+    public void readBulk(final Blackhole bh) throws IOException {
+        source.rewind();
+        int n;
+        while ((n = in.read(bulk)) != -1) {
+            bh.consume(n);
+        }
+        inBuffer.release();
+    }
+
+    @Benchmark
+    public void writeSingle() throws IOException {
+        for (final byte b: body) {
+            out.write(b);
+        }
+        outBuffer.release();
+    }
+
+    @Benchmark
+    public void writeBulk() throws IOException {
+        for (int off = 0; off < body.length; off += BULK_SIZE) {
+            out.write(body, off, Math.min(BULK_SIZE, body.length - off));
+        }
+        outBuffer.release();
+    }
+
+    @Benchmark
+    public void printLines() throws IOException {
+        for (final String line: lines) {
+            out.println(line);
+        }
+        outBuffer.release();
+    }
+
+}
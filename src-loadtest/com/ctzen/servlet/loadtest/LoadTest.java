@@ -0,0 +1,161 @@
+package com.ctzen.servlet.loadtest;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Boots the {@link LoadTestServer} once per {@link Sink}, drives each endpoint with the {@link LoadTestClient},
+ * and prints throughput and p50/p99/p999 latency, e.g.
+ * <pre>
+ * gradle loadTest -PloadTestArgs='threads=16 warmup=5 seconds=20 failRate=0.05 sinks=OFF,FILE'
+ * </pre>
+ * Runs on localhost only, so offline.
+ *
+ * @author cchang
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    private static final String FORM_BODY;
+
+    static {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append(i == 0 ? "" : "&").append("field").append(i).append("=value+").append(i);
+        }
+        FORM_BODY = sb.toString();
+    }
+
+    private static final String JSON_BODY;
+
+    static {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 40; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item ").append(i).append("\"}");
+        }
+        JSON_BODY = sb.append(']').toString();
+    }
+
+    private static final class Endpoint {
+
+        Endpoint(final String name, final String path, final String method, final String contentType, final String body) {
+            this.name = name;
+            this.path = path;
+            this.method = method;
+            this.contentType = contentType;
+            this.body = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        final String name;
+
+        final String path;
+
+        final String method;
+
+        final String contentType;
+
+        final byte[] body;
+
+    }
+
+    private static final List<Endpoint> ENDPOINTS = new ArrayList<>();
+
+    static {
+        ENDPOINTS.add(new Endpoint("json", LoadTestServer.JSON_PATH, "GET", null, null));
+        ENDPOINTS.add(new Endpoint("json-post", LoadTestServer.JSON_PATH, "POST", "application/json", JSON_BODY));
+        ENDPOINTS.add(new Endpoint("stream-256k", LoadTestServer.STREAM_PATH + "?kb=256", "GET", null, null));
+        ENDPOINTS.add(new Endpoint("form", LoadTestServer.FORM_PATH, "POST", "application/x-www-form-urlencoded", FORM_BODY));
+        ENDPOINTS.add(new Endpoint("fail", LoadTestServer.FAIL_PATH, "POST", "application/json", JSON_BODY));
+    }
+
+    /**
+     * @param args  {@code name=value}: threads (default 8), warmup and seconds (default 5 and 15),
+     *              failRate (default 0.01), sinks (comma separated {@link Sink}s, default all),
+     *              serverThreads (default 200), folder (default build/loadtest)
+     */
+    public static void main(final String[] args) throws Exception {
+        int threads = 8;
+        long warmupMillis = 5000;
+        long measureMillis = 15000;
+        double failRate = 0.01;
+        int serverThreads = 200;
+        File folder = new File("build/loadtest");
+        Sink[] sinks = Sink.values();
+        for (final String arg: args) {
+            final int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            final String name = arg.substring(0, eq);
+            final String value = arg.substring(eq + 1);
+            switch (name) {
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    warmupMillis = Long.parseLong(value) * 1000;
+                    break;
+                case "seconds":
+                    measureMillis = Long.parseLong(value) * 1000;
+                    break;
+                case "failRate":
+                    failRate = Double.parseDouble(value);
+                    break;
+                case "serverThreads":
+                    serverThreads = Integer.parseInt(value);
+                    break;
+                case "folder":
+                    folder = new File(value);
+                    break;
+                case "sinks":
+                    final String[] names = value.split(",");
+                    sinks = new Sink[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        sinks[i] = Sink.valueOf(names[i].trim());
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + name);
+            }
+        }
+        final PrintStream out = System.out;
+        out.printf("threads=%d, warmup=%ds, seconds=%ds, failRate=%s, serverThreads=%d%n",
+                threads, warmupMillis / 1000, measureMillis / 1000, failRate, serverThreads);
+        out.printf("%-12s %-12s %10s %10s %10s %10s %8s %8s%n",
+                "sink", "endpoint", "req/s", "p50 us", "p99 us", "p999 us", "non2xx", "errors");
+        final LoadTestClient client = new LoadTestClient(threads, warmupMillis, measureMillis);
+        for (final Sink sink: sinks) {
+            final File sinkFolder = new File(folder, sink.name().toLowerCase(Locale.ENGLISH));
+            delete(sinkFolder);
+            sinkFolder.mkdirs();
+            try (final LoadTestServer server = new LoadTestServer(sink, sinkFolder, failRate, serverThreads)) {
+                for (final Endpoint endpoint: ENDPOINTS) {
+                    final URL url = new URL("http", "127.0.0.1", server.getPort(), endpoint.path);
+                    final LoadTestClient.Result r = client.run(url, endpoint.method, endpoint.contentType, endpoint.body);
+                    out.printf("%-12s %-12s %10.0f %10.0f %10.0f %10.0f %8d %8d%n",
+                            sink, endpoint.name, r.getThroughput(),
+                            r.getPercentileMicros(50), r.getPercentileMicros(99), r.getPercentileMicros(99.9),
+                            r.getFailures(), r.getErrors());
+                }
+            }
+        }
+    }
+
+    private static void delete(final File f) {
+        final File[] children = f.listFiles();
+        if (children != null) {
+            for (final File child: children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+}
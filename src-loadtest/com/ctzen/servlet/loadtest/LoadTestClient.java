@@ -0,0 +1,241 @@
+package com.ctzen.servlet.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives one endpoint from several threads over keep-alive connections, for a warmup then a measured period,
+ * recording every request's latency.
+ *
+ * @author cchang
+ */
+public class LoadTestClient {
+
+    /**
+     * @param threads       client threads, each with one request in flight
+     * @param warmupMillis  not measured
+     * @param measureMillis measured
+     */
+    public LoadTestClient(final int threads, final long warmupMillis, final long measureMillis) {
+        this.threads = threads;
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    private final int threads;
+
+    private final long warmupMillis;
+
+    private final long measureMillis;
+
+    /**
+     * @param url           endpoint
+     * @param method        GET or POST
+     * @param contentType   of the body, {@code null} for none
+     * @param body          request body, {@code null} for none
+     */
+    public Result run(final URL url, final String method, final String contentType, final byte[] body) throws InterruptedException {
+        final List<Worker> workers = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        final long measureTo = measureFrom + TimeUnit.MILLISECONDS.toNanos(measureMillis);
+        for (int i = 0; i < threads; i++) {
+            final Worker worker = new Worker(url, method, contentType, body, measureFrom, measureTo, done);
+            workers.add(worker);
+            final Thread t = new Thread(worker, getClass().getSimpleName() + "-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        long count = 0;
+        for (final Worker worker: workers) {
+            count += worker.count;
+        }
+        final long[] latencies = new long[(int)count];
+        int n = 0;
+        long errors = 0;
+        long failures = 0;
+        for (final Worker worker: workers) {
+            System.arraycopy(worker.latencies, 0, latencies, n, worker.count);
+            n += worker.count;
+            errors += worker.errors;
+            failures += worker.failures;
+        }
+        Arrays.sort(latencies);
+        return new Result(latencies, measureMillis, errors, failures);
+    }
+
+    private static final class Worker implements Runnable {
+
+        Worker(final URL url, final String method, final String contentType, final byte[] body,
+                final long measureFrom, final long measureTo, final CountDownLatch done) {
+            this.url = url;
+            this.method = method;
+            this.contentType = contentType;
+            this.body = body;
+            this.measureFrom = measureFrom;
+            this.measureTo = measureTo;
+            this.done = done;
+        }
+
+        private final URL url;
+
+        private final String method;
+
+        private final String contentType;
+
+        private final byte[] body;
+
+        private final long measureFrom;
+
+        private final long measureTo;
+
+        private final CountDownLatch done;
+
+        private final byte[] scratch = new byte[16384];
+
+        long[] latencies = new long[65536];
+
+        int count;
+
+        /**
+         * Non 2xx.
+         */
+        long failures;
+
+        /**
+         * I/O errors.
+         */
+        long errors;
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final long start = System.nanoTime();
+                    if (start >= measureTo) {
+                        return;
+                    }
+                    final int status = request();
+                    final long end = System.nanoTime();
+                    if (start >= measureFrom) {
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count << 1);
+                        }
+                        latencies[count++] = end - start;
+                        if (status < 0) {
+                            errors++;
+                        }
+                        else if (status < 200 || status > 299) {
+                            failures++;
+                        }
+                    }
+                }
+            }
+            finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * @return status, -1 on I/O error
+         */
+        private int request() {
+            HttpURLConnection conn = null;
+            try {
+                conn = (HttpURLConnection)url.openConnection();
+                conn.setRequestMethod(method);
+                if (body != null) {
+                    conn.setDoOutput(true);
+                    conn.setRequestProperty("Content-Type", contentType);
+                    try (final OutputStream out = conn.getOutputStream()) {
+                        out.write(body);
+                    }
+                }
+                final int status = conn.getResponseCode();
+                // read fully and close, so the connection is kept alive for reuse
+                try (final InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                    if (in != null) {
+                        while (in.read(scratch) != -1) {
+                            // discard
+                        }
+                    }
+                }
+                return status;
+            }
+            catch (final IOException e) {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+                return -1;
+            }
+        }
+
+    }
+
+    /**
+     * Latencies of the measured period.
+     */
+    public static final class Result {
+
+        Result(final long[] sortedNanos, final long measureMillis, final long errors, final long failures) {
+            this.sortedNanos = sortedNanos;
+            this.measureMillis = measureMillis;
+            this.errors = errors;
+            this.failures = failures;
+        }
+
+        private final long[] sortedNanos;
+
+        private final long measureMillis;
+
+        public long getCount() {
+            return sortedNanos.length;
+        }
+
+        public double getThroughput() {
+            return sortedNanos.length * 1000.0 / measureMillis;
+        }
+
+        /**
+         * @param percentile    0 to 100
+         * @return latency in microseconds, nearest rank
+         */
+        public double getPercentileMicros(final double percentile) {
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            final int rank = (int)Math.ceil(percentile / 100 * sortedNanos.length);
+            return sortedNanos[Math.max(0, Math.min(sortedNanos.length, rank) - 1)] / 1000.0;
+        }
+
+        private final long errors;
+
+        /**
+         * @return requests that failed with an I/O error
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        private final long failures;
+
+        /**
+         * @return requests answered with a non 2xx status
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.ctzen.servlet.loadtest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.ctzen.servlet.errorlogger.ErrorLogger;
+import com.ctzen.servlet.errorlogger.ErrorLoggingFilter;
+import com.ctzen.servlet.errorlogger.RequestAttributeExceptionGetter;
+import com.ctzen.servlet.util.ServletToStringUtil;
+
+/**
+ * Embedded Jetty on a free localhost port, with the {@link SampleServlets} behind the
+ * {@link ErrorLoggingFilter}, unless the sink is {@link Sink#OFF}.
+ *
+ * @author cchang
+ */
+public class LoadTestServer implements Closeable {
+
+    public static final String JSON_PATH = "/json";
+
+    public static final String STREAM_PATH = "/stream";
+
+    public static final String FORM_PATH = "/form";
+
+    public static final String FAIL_PATH = "/fail";
+
+    /**
+     * @param sink          filter and error logger configuration
+     * @param folder        where the error logger writes
+     * @param failRate      0 to 1, share of {@link #FAIL_PATH} requests answered with a 500
+     * @param maxThreads    container threads
+     */
+    public LoadTestServer(final Sink sink, final File folder, final double failRate, final int maxThreads) throws Exception {
+        this.sink = sink;
+        server = new Server(new QueuedThreadPool(maxThreads));
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        errorLogger = sink.newErrorLogger(folder);
+        if (errorLogger != null) {
+            filter = new ErrorLoggingFilter(Arrays.asList(500),
+                    new RequestAttributeExceptionGetter("exception"),
+                    new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet()),
+                    errorLogger);
+            context.addFilter(new FilterHolder(filter), "/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+        }
+        else {
+            filter = null;
+        }
+        context.addServlet(new ServletHolder(new SampleServlets.JsonServlet()), JSON_PATH);
+        context.addServlet(new ServletHolder(new SampleServlets.StreamingServlet()), STREAM_PATH);
+        context.addServlet(new ServletHolder(new SampleServlets.FormServlet()), FORM_PATH);
+        final ServletHolder failing = new ServletHolder(new SampleServlets.FailingServlet());
+        failing.setInitParameter("failRate", Double.toString(failRate));
+        context.addServlet(failing, FAIL_PATH);
+        server.setHandler(context);
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    private final Sink sink;
+
+    public Sink getSink() {
+        return sink;
+    }
+
+    private final Server server;
+
+    private final ErrorLogger errorLogger;
+
+    private final ErrorLoggingFilter filter;
+
+    /**
+     * @return {@code null} if {@link Sink#OFF}
+     */
+    public ErrorLoggingFilter getFilter() {
+        return filter;
+    }
+
+    private final int port;
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Stops the server, and closes the error logger if {@link Closeable}, e.g. to drain an async one.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            server.stop();
+        }
+        catch (final Exception e) {
+            throw new IOException("Unable to stop server", e);
+        }
+        if (errorLogger instanceof Closeable) {
+            ((Closeable)errorLogger).close();
+        }
+    }
+
+}
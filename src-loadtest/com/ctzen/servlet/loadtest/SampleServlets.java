@@ -0,0 +1,136 @@
+package com.ctzen.servlet.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Endpoints the load test drives, shaped like typical API calls.
+ *
+ * @author cchang
+ */
+public final class SampleServlets {
+
+    private SampleServlets() {
+    }
+
+    private static final byte[] SMALL_JSON = ("{\"id\":12345,\"name\":\"widget\",\"price\":9.99,"
+            + "\"tags\":[\"a\",\"b\",\"c\"],\"inStock\":true}").getBytes(StandardCharsets.UTF_8);
+
+    private static void drain(final HttpServletRequest req) throws IOException {
+        final InputStream in = req.getInputStream();
+        final byte[] b = new byte[4096];
+        while (in.read(b) != -1) {
+            // like a JSON parser would
+        }
+    }
+
+    /**
+     * GET, small JSON; POST, reads the body then the same.
+     */
+    public static class JsonServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            resp.setContentType("application/json");
+            resp.setContentLength(SMALL_JSON.length);
+            resp.getOutputStream().write(SMALL_JSON);
+        }
+
+        @Override
+        protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            drain(req);
+            doGet(req, resp);
+        }
+
+    }
+
+    /**
+     * Streams {@code kb} kilobytes, default 256, in 8K writes.
+     */
+    public static class StreamingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte[] CHUNK = new byte[8192];
+
+        static {
+            for (int i = 0; i < CHUNK.length; i++) {
+                CHUNK[i] = (byte)('a' + i % 26);
+            }
+        }
+
+        @Override
+        protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            final String kb = req.getParameter("kb");
+            final long total = (kb == null ? 256 : Long.parseLong(kb)) * 1024;
+            resp.setContentType("application/octet-stream");
+            final ServletOutputStream out = resp.getOutputStream();
+            for (long written = 0; written < total; written += CHUNK.length) {
+                out.write(CHUNK, 0, (int)Math.min(CHUNK.length, total - written));
+            }
+        }
+
+    }
+
+    /**
+     * Form post, echoes the parameter count.
+     */
+    public static class FormServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            int values = 0;
+            for (final Map.Entry<String, String[]> e: req.getParameterMap().entrySet()) {
+                values += e.getValue().length;
+            }
+            resp.setContentType("application/json");
+            resp.getOutputStream().print("{\"values\":" + values + "}");
+        }
+
+    }
+
+    /**
+     * Small JSON, or a 500 at the {@code failRate} init parameter, 0 to 1, default 0.01.
+     */
+    public static class FailingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private double failRate;
+
+        @Override
+        public void init() throws ServletException {
+            final String rate = getInitParameter("failRate");
+            failRate = rate == null ? 0.01 : Double.parseDouble(rate);
+        }
+
+        @Override
+        protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            drain(req);
+            if (ThreadLocalRandom.current().nextDouble() < failRate) {
+                resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                resp.setContentType("application/json");
+                resp.getOutputStream().print("{\"error\":\"simulated failure\"}");
+                return;
+            }
+            resp.setContentType("application/json");
+            resp.setContentLength(SMALL_JSON.length);
+            resp.getOutputStream().write(SMALL_JSON);
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.ctzen.servlet.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.ctzen.servlet.errorlogger.AsyncErrorLogger;
+import com.ctzen.servlet.errorlogger.ErrorLogger;
+import com.ctzen.servlet.errorlogger.FileErrorLogger;
+import com.ctzen.servlet.errorlogger.store.SegmentedErrorLogger;
+
+/**
+ * Load test configurations, from no filter at all to the filter with each {@link ErrorLogger}.
+ *
+ * @author cchang
+ */
+public enum Sink {
+
+    /**
+     * No filter, the baseline.
+     */
+    OFF {
+        @Override
+        ErrorLogger newErrorLogger(final File folder) {
+            return null;
+        }
+    },
+
+    /**
+     * Filter on, errors discarded, i.e. capture and rendering only.
+     */
+    DISCARD {
+        @Override
+        ErrorLogger newErrorLogger(final File folder) {
+            return new ErrorLogger() {
+                @Override
+                public void log(final String errorId, final String error) throws IOException {
+                }
+            };
+        }
+    },
+
+    FILE {
+        @Override
+        ErrorLogger newErrorLogger(final File folder) {
+            return new FileErrorLogger(folder);
+        }
+    },
+
+    ASYNC_FILE {
+        @Override
+        ErrorLogger newErrorLogger(final File folder) {
+            return new AsyncErrorLogger(new FileErrorLogger(folder));
+        }
+    },
+
+    SEGMENTED {
+        @Override
+        ErrorLogger newErrorLogger(final File folder) throws IOException {
+            return new SegmentedErrorLogger(folder);
+        }
+    };
+
+    /**
+     * @return {@code null} for no filter
+     */
+    abstract ErrorLogger newErrorLogger(File folder) throws IOException;
+
+}
@@ -17,6 +17,7 @@ import org.springframework.web.bind.annotation.RequestBody
 import org.springframework.web.bind.annotation.RequestMapping
 
 import com.ctzen.servlet.errorlogger.ErrorLoggingFilter
+import com.ctzen.servlet.wrapper.CaptureBuffer
 
 /**
  * @author cchang
@@ -107,9 +108,9 @@ class TestController {
         final Exception e) {
         resp.setHeader('X-Handler', 'ILLEGAL_ARGUMENT')
         final String errorId = errorLoggingFilter.getErrorId(resp)
-        final ByteArrayOutputStream reqBody = (ByteArrayOutputStream)req.getAttribute(ErrorLoggingFilter.REQUEST_BODY_ATTRIBUTE)
+        final CaptureBuffer reqBody = (CaptureBuffer)req.getAttribute(ErrorLoggingFilter.REQUEST_BODY_ATTRIBUTE)
         assert e.localizedMessage.bytes == reqBody.toByteArray()
-        final ByteArrayOutputStream respBody = (ByteArrayOutputStream)req.getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE)
+        final CaptureBuffer respBody = (CaptureBuffer)req.getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE)
         assert 'HELLO'.bytes == respBody.toByteArray()
         return new ResponseEntity<>(e.getLocalizedMessage(), HttpStatus.INTERNAL_SERVER_ERROR)
     }
@@ -139,9 +140,9 @@ class TestController {
         resp.setHeader('X-Handler', 'ILLEGAL_ACCESS')
         req.setAttribute(ErrorLoggingFilter.DONT_LOG_ATTRIBUTE, true)
         final String errorId = errorLoggingFilter.getErrorId(resp)
-        final ByteArrayOutputStream reqBody = (ByteArrayOutputStream)req.getAttribute(ErrorLoggingFilter.REQUEST_BODY_ATTRIBUTE)
+        final CaptureBuffer reqBody = (CaptureBuffer)req.getAttribute(ErrorLoggingFilter.REQUEST_BODY_ATTRIBUTE)
         assert e.localizedMessage.bytes == reqBody.toByteArray()
-        final ByteArrayOutputStream respBody = (ByteArrayOutputStream)req.getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE)
+        final CaptureBuffer respBody = (CaptureBuffer)req.getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE)
         final String logText = errorLoggingFilter.buildLogString(errorId, req, reqBody.toByteArray(), resp, respBody.toByteArray(), e)
         errorLoggingFilter.log(errorId, logText)
         return new ResponseEntity<>(e.localizedMessage, HttpStatus.INTERNAL_SERVER_ERROR)
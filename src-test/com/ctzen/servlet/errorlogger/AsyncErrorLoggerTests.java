@@ -0,0 +1,108 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.AsyncErrorLogger.OverflowPolicy;
+import com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.CollectingErrorLogger;
+import com.ctzen.servlet.metrics.LongAdderErrorLoggingMetrics;
+
+/**
+ * @author cchang
+ */
+@Test
+public class AsyncErrorLoggerTests {
+
+    public void drainOnClose() throws Exception {
+        final CollectingErrorLogger delegate = new CollectingErrorLogger();
+        final AsyncErrorLogger logger = new AsyncErrorLogger(delegate, 64, 2, OverflowPolicy.BLOCK, 1000);
+        for (int i = 0; i < 100; i++) {
+            logger.log("id" + i, "error" + i);
+        }
+        logger.close();
+        assertThat(logger.isClosed()).isTrue();
+        assertThat(delegate.logged).hasSize(100);
+        assertThat(delegate.logged.get("id42")).isEqualTo("error42");
+        assertThat(logger.getDroppedCount()).isZero();
+    }
+
+    public void dropNewest() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingErrorLogger delegate = new CollectingErrorLogger(gate);
+        final AsyncErrorLogger logger = new AsyncErrorLogger(delegate, 4, 1, OverflowPolicy.DROP_NEWEST, 0);
+        for (int i = 0; i < 20; i++) {
+            logger.log("id" + i, "error" + i);
+        }
+        // at most 4 queued plus 1 held by the blocked writer
+        assertThat(logger.getDroppedCount()).isGreaterThanOrEqualTo(15);
+        gate.countDown();
+        logger.close();
+        assertThat(delegate.logged.size() + logger.getDroppedCount()).isEqualTo(20);
+        assertThat(delegate.logged).containsKey("id0");
+        assertThat(delegate.logged).doesNotContainKey("id19");
+    }
+
+    public void dropOldest() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingErrorLogger delegate = new CollectingErrorLogger(gate);
+        final AsyncErrorLogger logger = new AsyncErrorLogger(delegate, 4, 1, OverflowPolicy.DROP_OLDEST, 0);
+        for (int i = 0; i < 20; i++) {
+            logger.log("id" + i, "error" + i);
+        }
+        gate.countDown();
+        logger.close();
+        assertThat(delegate.logged.size() + logger.getDroppedCount()).isEqualTo(20);
+        assertThat(delegate.logged).containsKey("id19");
+    }
+
+    public void busyDelegateNotClosed() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicBoolean delegateClosed = new AtomicBoolean();
+        final AsyncErrorLogger logger = new AsyncErrorLogger(new CollectingErrorLogger(gate) {
+            @Override
+            public void close() {
+                delegateClosed.set(true);
+            }
+        }, 4, 1, OverflowPolicy.FALLBACK_LOG, 0);
+        logger.setShutdownTimeoutMillis(50);
+        logger.log("id0", "error0");
+        Thread.sleep(20);       // the writer is blocked on the gate
+        logger.close();
+        assertThat(delegateClosed.get()).isFalse();
+        gate.countDown();
+    }
+
+    public void queueDepthRegisteredOnce() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AsyncErrorLogger logger = new AsyncErrorLogger(new CollectingErrorLogger(gate), 8, 1, OverflowPolicy.BLOCK, 1000);
+        final LongAdderErrorLoggingMetrics metrics = new LongAdderErrorLoggingMetrics();
+        final LongAdderErrorLoggingMetrics replaced = new LongAdderErrorLoggingMetrics();
+        logger.setMetrics(replaced);
+        logger.setMetrics(metrics);
+        logger.setMetrics(metrics);
+        for (int i = 0; i < 3; i++) {
+            logger.log("id" + i, "error" + i);
+        }
+        Thread.sleep(20);       // the writer holds one, blocked on the gate
+        assertThat(metrics.getQueueDepth()).isEqualTo(2);
+        assertThat(replaced.getQueueDepth()).isZero();
+        gate.countDown();
+        logger.close();
+        logger.log("late", "too late");
+        assertThat(metrics.getQueueDepth()).isZero();
+    }
+
+    public void logAfterCloseFallsBack() throws Exception {
+        final CollectingErrorLogger delegate = new CollectingErrorLogger();
+        final AsyncErrorLogger logger = new AsyncErrorLogger(delegate);
+        logger.close();
+        logger.log("late", "too late");
+        assertThat(delegate.logged).isEmpty();
+        assertThat(logger.getDroppedCount()).isEqualTo(1);
+    }
+
+}
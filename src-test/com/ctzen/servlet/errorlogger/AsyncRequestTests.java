@@ -0,0 +1,149 @@
+package com.ctzen.servlet.errorlogger;
+
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.filter;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.CollectingErrorLogger;
+
+/**
+ * @author cchang
+ */
+@Test
+public class AsyncRequestTests {
+
+    private final CollectingErrorLogger errorLogger = new CollectingErrorLogger();
+
+    private ErrorLoggingFilter newFilter() {
+        errorLogger.texts.clear();
+        return filter(errorLogger);
+    }
+
+    private static MockHttpServletRequest newRequest() {
+        final MockHttpServletRequest req = new MockHttpServletRequest("GET", "/poll");
+        req.setAsyncSupported(true);
+        return req;
+    }
+
+    /**
+     * Starts async and returns, like a long-poll endpoint.
+     */
+    private static final FilterChain START_ASYNC = new FilterChain() {
+        @Override
+        public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+            request.startAsync();
+            response.getOutputStream().print("waiting;");
+        }
+    };
+
+    private static void write(final AsyncContext ctx, final String s, final int status) throws IOException {
+        ((HttpServletResponse)ctx.getResponse()).setStatus(status);
+        ctx.getResponse().getOutputStream().print(s);
+    }
+
+    public void loggedOnComplete() throws Exception {
+        final ErrorLoggingFilter filter = newFilter();
+        final MockHttpServletRequest req = newRequest();
+        filter.doFilter(req, new MockHttpServletResponse(), START_ASYNC);
+        assertThat(errorLogger.texts).isEmpty();
+        final AsyncContext ctx = req.getAsyncContext();
+        write(ctx, "failed", 500);
+        ctx.complete();
+        assertThat(errorLogger.texts).hasSize(1);
+        assertThat(errorLogger.texts.get(0)).contains("waiting;failed");
+    }
+
+    public void notLoggedOnSuccess() throws Exception {
+        final ErrorLoggingFilter filter = newFilter();
+        final MockHttpServletRequest req = newRequest();
+        filter.doFilter(req, new MockHttpServletResponse(), START_ASYNC);
+        write(req.getAsyncContext(), "done", 200);
+        req.getAsyncContext().complete();
+        assertThat(errorLogger.texts).isEmpty();
+    }
+
+    public void errorAndTimeout() throws Exception {
+        for (final boolean timeout: new boolean[] { false, true }) {
+            final ErrorLoggingFilter filter = newFilter();
+            final MockHttpServletRequest req = newRequest();
+            filter.doFilter(req, new MockHttpServletResponse(), START_ASYNC);
+            final MockAsyncContext ctx = (MockAsyncContext)req.getAsyncContext();
+            ctx.setTimeout(30000);
+            // what the container does
+            for (final AsyncListener listener: ctx.getListeners()) {
+                if (timeout) {
+                    listener.onTimeout(new AsyncEvent(ctx, ctx.getRequest(), ctx.getResponse()));
+                }
+                else {
+                    listener.onError(new AsyncEvent(ctx, ctx.getRequest(), ctx.getResponse(), new IllegalStateException("backend down")));
+                }
+            }
+            ctx.complete();
+            assertThat(errorLogger.texts).hasSize(1);
+            assertThat(errorLogger.texts.get(0)).contains(timeout
+                    ? "ErrorLoggingFilter$AsyncTimeoutException: Async request timed out after 30000 ms"
+                    : "IllegalStateException: backend down");
+        }
+    }
+
+    public void dispatched() throws Exception {
+        final ErrorLoggingFilter filter = newFilter();
+        final MockHttpServletRequest req = newRequest();
+        filter.doFilter(req, new MockHttpServletResponse(), START_ASYNC);
+        final AsyncContext ctx = req.getAsyncContext();
+        // container dispatches the async context back through the filter
+        req.setDispatcherType(DispatcherType.ASYNC);
+        filter.doFilter(ctx.getRequest(), ctx.getResponse(), new FilterChain() {
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+                ((HttpServletResponse)response).setStatus(500);
+                response.getOutputStream().print("dispatched");
+            }
+        });
+        assertThat(errorLogger.texts).isEmpty();
+        ctx.complete();
+        assertThat(errorLogger.texts).hasSize(1);
+        assertThat(errorLogger.texts.get(0)).contains("waiting;dispatched");
+    }
+
+    public void dispatchedNotAsyncStarted() throws Exception {
+        final ErrorLoggingFilter filter = newFilter();
+        final MockHttpServletRequest req = newRequest();
+        final MockHttpServletResponse resp = new MockHttpServletResponse();
+        filter.doFilter(req, resp, START_ASYNC);
+        final MockAsyncContext ctx = (MockAsyncContext)req.getAsyncContext();
+        // as a real container: during the async dispatch the request is no longer async started
+        req.setDispatcherType(DispatcherType.ASYNC);
+        req.setAsyncStarted(false);
+        filter.doFilter(req, resp, new FilterChain() {
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+                ((HttpServletResponse)response).setStatus(500);
+                response.getOutputStream().print("dispatched");
+            }
+        });
+        assertThat(errorLogger.texts).isEmpty();
+        for (final AsyncListener listener: ctx.getListeners()) {
+            listener.onComplete(new AsyncEvent(ctx, req, resp));
+        }
+        assertThat(errorLogger.texts).hasSize(1);
+        assertThat(errorLogger.texts.get(0)).contains("waiting;dispatched");
+    }
+
+}
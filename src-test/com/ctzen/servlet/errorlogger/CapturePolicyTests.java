@@ -0,0 +1,49 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class CapturePolicyTests {
+
+    private final CapturePolicy policy = new CapturePolicy(Arrays.asList(
+            new CaptureRule(CaptureMode.BYPASS, "/health"),
+            new CaptureRule(CaptureMode.BYPASS, "/static/"),
+            new CaptureRule(CaptureMode.FULL, "/static/api/"),
+            new CaptureRule(CaptureMode.METADATA_ONLY, "/upload", Arrays.asList("post", "PUT"), Arrays.asList("multipart/")),
+            new CaptureRule(CaptureMode.BYPASS, "/upload", null, null)),
+            CaptureMode.FULL);
+
+    public void longestPrefixWins() {
+        assertThat(policy.getMode("/health", "GET", null)).isEqualTo(CaptureMode.BYPASS);
+        assertThat(policy.getMode("/healthz", "GET", null)).isEqualTo(CaptureMode.BYPASS);
+        assertThat(policy.getMode("/static/app.js", "GET", null)).isEqualTo(CaptureMode.BYPASS);
+        assertThat(policy.getMode("/static/api/x", "GET", null)).isEqualTo(CaptureMode.FULL);
+        assertThat(policy.getMode("/stat", "GET", null)).isEqualTo(CaptureMode.FULL);
+        assertThat(policy.getMode("/other", "GET", null)).isEqualTo(CaptureMode.FULL);
+    }
+
+    public void methodAndContentType() {
+        assertThat(policy.getMode("/upload/1", "POST", "Multipart/form-data; boundary=x")).isEqualTo(CaptureMode.METADATA_ONLY);
+        assertThat(policy.getMode("/upload/1", "POST", "application/json")).isEqualTo(CaptureMode.BYPASS);
+        assertThat(policy.getMode("/upload/1", "GET", "multipart/form-data")).isEqualTo(CaptureMode.BYPASS);
+    }
+
+    public void request() {
+        final MockHttpServletRequest req = new MockHttpServletRequest("POST", "/ctx/upload");
+        req.setContextPath("/ctx");
+        req.setContentType("multipart/form-data");
+        assertThat(policy.getMode(req)).isEqualTo(CaptureMode.METADATA_ONLY);
+        req.setRequestURI("/ctx/health");
+        assertThat(policy.getMode(req)).isEqualTo(CaptureMode.BYPASS);
+        assertThat(CapturePolicy.CAPTURE_ALL.getMode(req)).isEqualTo(CaptureMode.FULL);
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.ctzen.servlet.errorlogger;
+
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.assertMarker;
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.fail;
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.filter;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.CollectingErrorLogger;
+
+/**
+ * @author cchang
+ */
+@Test
+public class ErrorDeduplicatorTests {
+
+    private static MockHttpServletRequest request(final String uri) {
+        return new MockHttpServletRequest("GET", uri);
+    }
+
+    private static Exception exception(final String message) {
+        return new IllegalStateException(message);    // same line, same stack trace
+    }
+
+    public void fingerprint() {
+        final ErrorFingerprinter fingerprinter = new ErrorFingerprinter();
+        final long fp = fingerprinter.fingerprint(request("/orders/123/items"), 500, exception("a"));
+        assertThat(fingerprinter.fingerprint(request("/orders/456/items"), 500, exception("b"))).isEqualTo(fp);
+        assertThat(fingerprinter.fingerprint(request("/orders/3f2504e0-4f89-11d3-9a0c-0305e82c3301/items"), 500, exception("c")))
+            .isEqualTo(fp);
+        assertThat(fingerprinter.fingerprint(request("/orders/123/lines"), 500, exception("a"))).isNotEqualTo(fp);
+        assertThat(fingerprinter.fingerprint(request("/orders/123/items"), 503, exception("a"))).isNotEqualTo(fp);
+        assertThat(fingerprinter.fingerprint(request("/orders/123/items"), 500, new IllegalArgumentException()))
+            .isNotEqualTo(fp);
+        assertThat(fingerprinter.fingerprint(request("/orders/123/items"), 500, null)).isNotEqualTo(fp);
+    }
+
+    public void idSegments() {
+        assertThat(ErrorFingerprinter.isIdSegment("12345", 0, 5)).isTrue();
+        assertThat(ErrorFingerprinter.isIdSegment("deadbeef01", 0, 10)).isTrue();
+        assertThat(ErrorFingerprinter.isIdSegment("deadbeef", 0, 8)).isFalse();     // no digit, could be a word
+        assertThat(ErrorFingerprinter.isIdSegment("orders", 0, 6)).isFalse();
+        assertThat(ErrorFingerprinter.isIdSegment("v2", 0, 2)).isFalse();
+        assertThat(ErrorFingerprinter.isIdSegment("", 0, 0)).isFalse();
+    }
+
+    public void firstFewInFull() {
+        final ErrorDeduplicator dedup = new ErrorDeduplicator(new ErrorFingerprinter(), 16, 2, 60000);
+        assertThat(dedup.check(1L, "a")).isNull();
+        assertThat(dedup.check(1L, "b")).isNull();
+        assertThat(dedup.check(1L, "c")).isEqualTo("a");
+        assertThat(dedup.check(1L, "d")).isEqualTo("a");
+        assertThat(dedup.check(2L, "e")).isNull();
+        assertThat(dedup.getSuppressedCount()).isEqualTo(2);
+        dedup.flush();
+        assertThat(dedup.check(1L, "f")).isEqualTo("a");
+    }
+
+    public void windowExpires() throws Exception {
+        final ErrorDeduplicator dedup = new ErrorDeduplicator(new ErrorFingerprinter(), 16, 1, 20);
+        assertThat(dedup.check(1L, "a")).isNull();
+        assertThat(dedup.check(1L, "b")).isEqualTo("a");
+        Thread.sleep(40);
+        assertThat(dedup.check(1L, "c")).isNull();
+        assertThat(dedup.check(1L, "d")).isEqualTo("c");
+    }
+
+    public void occurrenceCounted() throws Exception {
+        final ErrorDeduplicator dedup = new ErrorDeduplicator(new ErrorFingerprinter(), 16, 1, 20);
+        assertThat(dedup.checkDuplicate(1L, "a")).isNull();
+        assertThat(dedup.checkDuplicate(1L, "b").getOccurrence()).isEqualTo(2);
+        final ErrorDeduplicator.Duplicate third = dedup.checkDuplicate(1L, "c");
+        assertThat(third.getFirstErrorId()).isEqualTo("a");
+        assertThat(third.getOccurrence()).isEqualTo(3);
+        Thread.sleep(40);
+        assertThat(dedup.checkDuplicate(1L, "d")).isNull();
+        assertThat(dedup.checkDuplicate(1L, "e").getOccurrence()).isEqualTo(2);
+    }
+
+    public void suppressedLoggedUnderItsWindow() throws Exception {
+        final List<String> logged = new ArrayList<>();
+        final ErrorDeduplicator dedup = new ErrorDeduplicator(new ErrorFingerprinter(), 16, 1, 20) {
+            @Override
+            void logSuppressed(final long fingerprint, final long suppressed, final String firstErrorId) {
+                logged.add(suppressed + " " + firstErrorId);
+            }
+        };
+        dedup.check(1L, "a");
+        dedup.check(1L, "b");
+        dedup.check(1L, "c");
+        Thread.sleep(40);
+        dedup.check(1L, "d");
+        dedup.check(1L, "e");
+        dedup.flush();
+        assertThat(logged).containsExactly("2 a", "1 d");
+    }
+
+    public void flushedWithoutErrors() throws Exception {
+        final ErrorDeduplicator dedup = new ErrorDeduplicator(new ErrorFingerprinter(), 16, 1, 20);
+        final long created = dedup.getLastFlushMillis();
+        dedup.start();
+        assertThat(dedup.check(1L, "a")).isNull();
+        assertThat(dedup.check(1L, "b")).isEqualTo("a");
+        Thread.sleep(100);       // no more errors
+        assertThat(dedup.getLastFlushMillis()).isGreaterThan(created);
+        dedup.close();
+    }
+
+    public void bounded() {
+        final ErrorDeduplicator dedup = new ErrorDeduplicator(new ErrorFingerprinter(), 1, 1, 60000);
+        for (long fp = 0; fp < 10000; fp++) {
+            assertThat(dedup.check(fp, "x" + fp)).isNull();
+        }
+        // long evicted
+        assertThat(dedup.check(0L, "again")).isNull();
+    }
+
+    public void duplicateInFilter() throws Exception {
+        final CollectingErrorLogger errorLogger = new CollectingErrorLogger();
+        final ErrorLoggingFilter filter = filter(errorLogger);
+        filter.setDeduplicator(new ErrorDeduplicator(new ErrorFingerprinter(), 16, 1, 60000));
+        final MockHttpServletResponse first = fail(filter, "/orders/1");
+        final MockHttpServletResponse second = fail(filter, "/orders/2");
+        assertThat(errorLogger.texts).hasSize(2);
+        assertThat(errorLogger.texts.get(0)).contains("REQUEST BODY:");
+        assertMarker(errorLogger.texts.get(1), second, "/orders/2");
+        assertThat(errorLogger.texts.get(1))
+            .contains("DUPLICATE OF: " + first.getHeader(ErrorLoggingFilter.ERROR_ID_HEADER_NAME))
+            .contains("OCCURRENCE: 2");
+        filter.destroy();
+    }
+
+}
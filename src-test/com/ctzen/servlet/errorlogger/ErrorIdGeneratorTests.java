@@ -0,0 +1,79 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class ErrorIdGeneratorTests {
+
+    public void timeOrdered() {
+        final TimeOrderedErrorIdGenerator generator = new TimeOrderedErrorIdGenerator(5);
+        final long before = System.currentTimeMillis();
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {          // more than a millisecond's worth of sequence
+            ids.add(generator.nextErrorId());
+        }
+        final List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        assertThat(sorted).isEqualTo(ids);
+        assertThat(new HashSet<>(ids)).hasSize(ids.size());
+        for (final String id: ids) {
+            assertThat(id).hasSize(TimeOrderedErrorIdGenerator.LENGTH);
+            assertThat(ErrorReportServlet.isValidErrorId(id)).isTrue();
+        }
+        assertThat(TimeOrderedErrorIdGenerator.getTimestamp(ids.get(0))).isGreaterThanOrEqualTo(before)
+            .isLessThanOrEqualTo(System.currentTimeMillis());
+    }
+
+    public void roundTrip() {
+        for (final long id: new long[] { 0, 1, 31, 32, Long.MAX_VALUE, 0x0123456789abcdefL }) {
+            final String s = TimeOrderedErrorIdGenerator.encode(id);
+            assertThat(TimeOrderedErrorIdGenerator.decode(s)).isEqualTo(id);
+            assertThat(TimeOrderedErrorIdGenerator.decode(s.toLowerCase(Locale.ENGLISH))).isEqualTo(id);
+        }
+        assertThat(TimeOrderedErrorIdGenerator.getTimestamp("not-an-id")).isEqualTo(-1);
+        assertThat(TimeOrderedErrorIdGenerator.getTimestamp("ZZZZZZZZZZZZZ")).isEqualTo(-1);
+        assertThat(TimeOrderedErrorIdGenerator.getTimestamp("0000000000I00")).isEqualTo(-1);
+    }
+
+    public void concurrentUnique() throws Exception {
+        final TimeOrderedErrorIdGenerator generator = new TimeOrderedErrorIdGenerator();
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    final List<String> local = new ArrayList<>();
+                    for (int i = 0; i < 5000; i++) {
+                        local.add(generator.nextErrorId());
+                    }
+                    ids.addAll(local);
+                }
+            });
+        }
+        for (final Thread thread: threads) {
+            thread.start();
+        }
+        for (final Thread thread: threads) {
+            thread.join();
+        }
+        assertThat(ids).hasSize(8 * 5000);
+    }
+
+    public void uuid() {
+        assertThat(UuidErrorIdGenerator.INSTANCE.nextErrorId()).hasSize(36);
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.ctzen.servlet.util.ServletToStringUtil;
+
+/**
+ * Error logger, filter and chain shared by the tests.
+ *
+ * @author cchang
+ */
+final class ErrorLoggerFixtures {
+
+    private ErrorLoggerFixtures() {
+    }
+
+    /**
+     * Collects what is logged, optionally waiting on a gate and failing first.
+     */
+    static class CollectingErrorLogger implements ErrorLogger, Closeable {
+
+        /**
+         * In logging order.
+         */
+        final List<String> texts = new CopyOnWriteArrayList<>();
+
+        /**
+         * By error id.
+         */
+        final Map<String, String> logged = new ConcurrentHashMap<>();
+
+        final CountDownLatch gate;
+
+        /**
+         * Fail this many times before logging.
+         */
+        final AtomicInteger failures;
+
+        CollectingErrorLogger() {
+            this(new CountDownLatch(0), 0);
+        }
+
+        CollectingErrorLogger(final CountDownLatch gate) {
+            this(gate, 0);
+        }
+
+        CollectingErrorLogger(final CountDownLatch gate, final int failures) {
+            this.gate = gate;
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void log(final String errorId, final String error) throws IOException {
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("unavailable");
+            }
+            texts.add(error);
+            logged.put(errorId, error);
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+
+    }
+
+    /**
+     * Sets status 500.
+     */
+    static final FilterChain FAILING_CHAIN = new FilterChain() {
+        @Override
+        public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+            ((HttpServletResponse)response).setStatus(500);
+        }
+    };
+
+    static ServletToStringUtil util() {
+        return new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet());
+    }
+
+    /**
+     * @return filter logging 500s, the exception in request attribute "ex"
+     */
+    static ErrorLoggingFilter filter(final ErrorLogger errorLogger) {
+        return filter(util(), errorLogger);
+    }
+
+    static ErrorLoggingFilter filter(final ServletToStringUtil util, final ErrorLogger errorLogger) {
+        return new ErrorLoggingFilter(Arrays.asList(500), new RequestAttributeExceptionGetter("ex"), util, errorLogger);
+    }
+
+    /**
+     * GET the uri through the filter and {@link #FAILING_CHAIN}.
+     */
+    static MockHttpServletResponse fail(final ErrorLoggingFilter filter, final String uri) throws IOException, ServletException {
+        final MockHttpServletResponse ret = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", uri), ret, FAILING_CHAIN);
+        return ret;
+    }
+
+    /**
+     * Assert the error was logged as a marker, i.e. without the bodies.
+     */
+    static void assertMarker(final String error, final MockHttpServletResponse resp, final String uri) {
+        final String errorId = resp.getHeader(ErrorLoggingFilter.ERROR_ID_HEADER_NAME);
+        assertThat(errorId).isNotNull();
+        assertThat(error)
+            .startsWith("ERROR ID: " + errorId)
+            .contains("REQUEST: GET " + uri)
+            .doesNotContain("REQUEST BODY:");
+    }
+
+}
@@ -9,6 +9,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.io.File;
+import java.nio.file.Files;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -53,6 +54,10 @@ public class ErrorLoggingFilterTests extends AbstractTestNGSpringContextTests {
         final String errorId = r.getResponse().getHeader(ErrorLoggingFilter.ERROR_ID_HEADER_NAME);
         final File logFile = new File(((FileErrorLogger)errorLoggingFilter.getErrorLogger()).getFolder(), errorId);
         assertThat(logFile).exists();
+        final String logged = new String(Files.readAllBytes(logFile.toPath()));
+        assertThat(logged).startsWith("ERROR ID: " + errorId)
+                          .contains("\n\nREQUEST BODY:\n" + content + "\n\nRESPONSE:\n")
+                          .contains("\n\nEXCEPTION:\njava.lang.IllegalMonitorStateException");
     }
 
     public void handledAndFilterLogged() throws Exception {
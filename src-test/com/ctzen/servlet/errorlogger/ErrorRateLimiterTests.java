@@ -0,0 +1,107 @@
+package com.ctzen.servlet.errorlogger;
+
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.assertMarker;
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.fail;
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.filter;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.CollectingErrorLogger;
+
+/**
+ * @author cchang
+ */
+@Test
+public class ErrorRateLimiterTests {
+
+    private static MockHttpServletRequest request(final String uri) {
+        return new MockHttpServletRequest("GET", uri);
+    }
+
+    public void globalBurst() {
+        final ErrorRateLimiter limiter = new ErrorRateLimiter(0.001, 3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.acquire(request("/a"), 500, null)).isNull();
+        }
+        assertThat(limiter.acquire(request("/a"), 500, null)).isEqualTo("global");
+        assertThat(limiter.acquire(request("/b"), 503, null)).isEqualTo("global");
+        assertThat(limiter.getSuppressedCount()).isEqualTo(2);
+    }
+
+    public void refill() throws Exception {
+        final ErrorRateLimiter limiter = new ErrorRateLimiter(100, 1);
+        assertThat(limiter.acquire(request("/a"), 500, null)).isNull();
+        assertThat(limiter.acquire(request("/a"), 500, null)).isNotNull();
+        Thread.sleep(30);
+        assertThat(limiter.acquire(request("/a"), 500, null)).isNull();
+    }
+
+    public void perKey() {
+        final ErrorRateLimiter limiter = new ErrorRateLimiter(1000, 1000);
+        limiter.setKeyLimit(ErrorRateLimiter.Key.ROUTE, 0.001, 1);
+        limiter.setKeyLimit(ErrorRateLimiter.Key.EXCEPTION, 0.001, 2);
+        final Exception ex = new IllegalStateException();
+        assertThat(limiter.acquire(request("/orders/1"), 500, ex)).isNull();
+        assertThat(limiter.acquire(request("/orders/2"), 500, ex)).isEqualTo("route");
+        assertThat(limiter.acquire(request("/users/1"), 500, ex)).isNull();
+        assertThat(limiter.acquire(request("/items/1"), 500, ex)).isEqualTo("exception");
+        assertThat(limiter.acquire(request("/things/1"), 500, new IllegalArgumentException())).isNull();
+    }
+
+    public void suppressedNotCharged() {
+        final ErrorRateLimiter limiter = new ErrorRateLimiter(0.001, 1);
+        limiter.setKeyLimit(ErrorRateLimiter.Key.STATUS, 0.001, 2);
+        assertThat(limiter.acquire(request("/a"), 500, null)).isNull();
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.acquire(request("/a"), 500, null)).isEqualTo("global");     // status tokens given back
+        }
+    }
+
+    public void concurrent() throws Exception {
+        final ErrorRateLimiter limiter = new ErrorRateLimiter(0.001, 1000);
+        final int[] granted = new int[8];
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < granted.length; t++) {
+            final int slot = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.acquire(request("/a"), 500, null) == null) {
+                            granted[slot]++;
+                        }
+                    }
+                }
+            });
+        }
+        for (final Thread thread: threads) {
+            thread.start();
+        }
+        int total = 0;
+        for (int t = 0; t < granted.length; t++) {
+            threads.get(t).join();
+            total += granted[t];
+        }
+        assertThat(total).isEqualTo(1000);
+        assertThat(limiter.getSuppressedCount()).isEqualTo(7000);
+    }
+
+    public void suppressedInFilter() throws Exception {
+        final CollectingErrorLogger errorLogger = new CollectingErrorLogger();
+        final ErrorLoggingFilter filter = filter(errorLogger);
+        filter.setRateLimiter(new ErrorRateLimiter(0.001, 1));
+        fail(filter, "/a");
+        final MockHttpServletResponse second = fail(filter, "/b");
+        assertThat(errorLogger.texts).hasSize(2);
+        assertThat(errorLogger.texts.get(0)).contains("REQUEST BODY:");
+        assertMarker(errorLogger.texts.get(1), second, "/b");
+        assertThat(errorLogger.texts.get(1)).contains("SUPPRESSED: global rate limit");
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class ErrorReportServletTests {
+
+    private final ErrorReportServlet servlet = new ErrorReportServlet(new ErrorReportReader() {
+        @Override
+        public String read(final String errorId) throws IOException {
+            return "abc-123".equals(errorId) ? "REPORT \u00e9" : null;
+        }
+    });
+
+    private MockHttpServletResponse get(final String pathInfo, final String id) throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest("GET", "/errors" + (pathInfo == null ? "" : pathInfo));
+        req.setPathInfo(pathInfo);
+        if (id != null) {
+            req.setParameter(ErrorReportServlet.ERROR_ID_PARAMETER, id);
+        }
+        final MockHttpServletResponse resp = new MockHttpServletResponse();
+        servlet.service(req, resp);
+        return resp;
+    }
+
+    public void found() throws Exception {
+        final MockHttpServletResponse resp = get("/abc-123", null);
+        assertThat(resp.getStatus()).isEqualTo(200);
+        assertThat(resp.getContentType()).startsWith("text/plain");
+        assertThat(resp.getContentAsString()).isEqualTo("REPORT \u00e9");
+        assertThat(get(null, "abc-123").getStatus()).isEqualTo(200);
+    }
+
+    public void notFound() throws Exception {
+        assertThat(get("/abc-124", null).getStatus()).isEqualTo(404);
+    }
+
+    public void invalid() throws Exception {
+        assertThat(get("/../etc/passwd", null).getStatus()).isEqualTo(400);
+        assertThat(get(null, null).getStatus()).isEqualTo(400);
+    }
+
+    public void readOnly() throws Exception {
+        final MockHttpServletRequest req = new MockHttpServletRequest("POST", "/errors/abc-123");
+        req.setPathInfo("/abc-123");
+        req.setProtocol("HTTP/1.1");
+        final MockHttpServletResponse resp = new MockHttpServletResponse();
+        servlet.service(req, resp);
+        assertThat(resp.getStatus()).isEqualTo(405);
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.AsyncErrorLogger.OverflowPolicy;
+import com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.CollectingErrorLogger;
+
+/**
+ * @author cchang
+ */
+@Test
+public class FanOutErrorLoggerTests {
+
+    public void slowSinkDoesNotStallOthers() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CollectingErrorLogger slow = new CollectingErrorLogger(gate);
+        final CollectingErrorLogger fast = new CollectingErrorLogger();
+        final AsyncErrorLogger slowSink = new AsyncErrorLogger(slow, 4, 1, OverflowPolicy.DROP_NEWEST, 0);
+        final FanOutErrorLogger logger = new FanOutErrorLogger(Arrays.asList(slowSink, fast));
+        final String error = "error";
+        final long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            logger.log("id" + i, error);
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+        Thread.sleep(20);
+        assertThat(slowSink.getLagMillis()).isGreaterThan(0);
+        assertThat(slowSink.getDroppedCount()).isGreaterThanOrEqualTo(15);
+        assertThat(logger.getSinks().get(1).getDroppedCount()).isZero();
+        assertThat(logger.toString()).contains("CollectingErrorLogger, queued=");
+        gate.countDown();
+        logger.close();
+        assertThat(fast.logged).hasSize(20);
+        assertThat(fast.logged.get("id7")).isSameAs(error);         // shared, not copied
+        assertThat(slow.logged.get("id0")).isSameAs(error);
+        assertThat(slowSink.getLagMillis()).isZero();
+    }
+
+    public void retried() throws Exception {
+        final CollectingErrorLogger flaky = new CollectingErrorLogger(new CountDownLatch(0), 2);
+        final AsyncErrorLogger sink = new AsyncErrorLogger(flaky);
+        sink.setRetryPolicy(new RetryPolicy(3, 1, 5));
+        final FanOutErrorLogger logger = new FanOutErrorLogger(Arrays.asList(sink));
+        logger.log("id", "error");
+        logger.close();
+        assertThat(flaky.logged).containsKey("id");
+        assertThat(sink.getRetriedCount()).isEqualTo(2);
+        assertThat(sink.getFailedCount()).isZero();
+        assertThat(sink.getConsecutiveFailures()).isZero();
+        assertThat(sink.getLastSuccessMillis()).isGreaterThan(0);
+    }
+
+    public void givenUp() throws Exception {
+        final CollectingErrorLogger down = new CollectingErrorLogger(new CountDownLatch(0), Integer.MAX_VALUE);
+        final AsyncErrorLogger sink = new AsyncErrorLogger(down);
+        sink.setRetryPolicy(new RetryPolicy(2, 1, 1));
+        final FanOutErrorLogger logger = new FanOutErrorLogger(Arrays.asList(sink));
+        logger.log("id1", "error");
+        logger.log("id2", "error");
+        logger.close();
+        assertThat(down.logged).isEmpty();
+        assertThat(sink.getFailedCount()).isEqualTo(2);
+        assertThat(sink.getConsecutiveFailures()).isEqualTo(2);
+    }
+
+    public void backoff() {
+        final RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        assertThat(policy.getBackoffMillis(1)).isEqualTo(100);
+        assertThat(policy.getBackoffMillis(2)).isEqualTo(200);
+        assertThat(policy.getBackoffMillis(4)).isEqualTo(800);
+        assertThat(policy.getBackoffMillis(5)).isEqualTo(1000);
+        assertThat(policy.getBackoffMillis(100)).isEqualTo(1000);
+        assertThat(RetryPolicy.NONE.getBackoffMillis(1)).isZero();
+    }
+
+}
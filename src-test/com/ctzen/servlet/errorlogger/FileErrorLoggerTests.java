@@ -0,0 +1,146 @@
+package com.ctzen.servlet.errorlogger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class FileErrorLoggerTests {
+
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private static File newFolder(final String name) {
+        final File folder = new File("build/reports/file-retention", name);
+        delete(folder);
+        return folder;
+    }
+
+    private static void delete(final File f) {
+        final File[] children = f.listFiles();
+        if (children != null) {
+            for (final File child: children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static FileErrorLogger newLogger(final File folder, final FileErrorLogger.Sharding sharding,
+            final FileRetention retention) {
+        final FileErrorLogger logger = new FileErrorLogger(folder, sharding, retention);
+        logger.setJanitorIntervalMillis(3600000);     // passes run by the tests
+        return logger;
+    }
+
+    private static String read(final File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    public void shardPaths() {
+        assertThat(FileErrorLogger.datePath(0)).isEqualTo("1970-01-01/00");
+        assertThat(FileErrorLogger.datePath(1476700000000L)).isEqualTo("2016-10-17/10");
+        assertThat(FileErrorLogger.hashPath("some-error")).matches("[0-9a-f]{2}/[0-9a-f]{2}")
+                .isEqualTo(FileErrorLogger.hashPath("some-error"));
+        assertThat(FileErrorLogger.hashPath("some-error")).isNotEqualTo(FileErrorLogger.hashPath("other-error"));
+    }
+
+    public void sharded() throws Exception {
+        final File folder = newFolder("sharded");
+        final TimeOrderedErrorIdGenerator generator = new TimeOrderedErrorIdGenerator(1);
+        final String errorId = generator.nextErrorId();
+        final FileErrorLogger date = new FileErrorLogger(new File(folder, "date"), FileErrorLogger.Sharding.DATE);
+        date.log(errorId, "by date");
+        final File dateFile = date.getFile(errorId);
+        assertThat(dateFile.getParentFile().getParentFile().getParentFile()).isEqualTo(date.getFolder());
+        assertThat(dateFile.getParentFile().getParentFile().getName())
+                .isEqualTo(FileErrorLogger.datePath(TimeOrderedErrorIdGenerator.getTimestamp(errorId)).substring(0, 10));
+        assertThat(read(dateFile)).isEqualTo("by date");
+        final FileErrorLogger hash = new FileErrorLogger(new File(folder, "hash"), FileErrorLogger.Sharding.HASH);
+        hash.log("not-time-ordered", "by hash");
+        assertThat(read(new File(hash.getFolder(), FileErrorLogger.hashPath("not-time-ordered") + "/not-time-ordered")))
+                .isEqualTo("by hash");
+    }
+
+    public void unlimitedNoJanitor() throws Exception {
+        final FileRetention unlimited = new FileRetention(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertThat(unlimited.isUnlimited()).isTrue();
+        assertThat(unlimited).isEqualTo(FileRetention.UNLIMITED);
+        assertThat(new FileRetention(Long.MAX_VALUE, 10, Long.MAX_VALUE).isUnlimited()).isFalse();
+        final FileErrorLogger logger = new FileErrorLogger(newFolder("unlimited"), FileErrorLogger.Sharding.NONE, unlimited);
+        assertThat(logger.getJanitor()).isNull();
+        logger.close();
+    }
+
+    public void oldestDeletedFirst() throws Exception {
+        final File folder = newFolder("count");
+        final FileErrorLogger logger = newLogger(folder, FileErrorLogger.Sharding.HASH, new FileRetention(20, 3, Long.MAX_VALUE));
+        for (int i = 1; i <= 5; i++) {
+            logger.log("e" + i, "error");                // 5 bytes each, same millis are ordered by name
+            Thread.sleep(2);
+        }
+        assertThat(logger.getFileCount()).isEqualTo(5);
+        assertThat(logger.getTotalBytes()).isEqualTo(25);
+        logger.getJanitor().runOnce();
+        assertThat(logger.getFileCount()).isEqualTo(3);
+        assertThat(logger.getDeletedCount()).isEqualTo(2);
+        assertThat(logger.getFile("e1").exists()).isFalse();
+        assertThat(logger.getFile("e1").getParentFile().exists()).isFalse();     // emptied shard removed
+        assertThat(logger.getFile("e3").exists()).isTrue();
+        logger.log("e6", "a longer error");
+        logger.getJanitor().runOnce();
+        assertThat(logger.getTotalBytes()).isLessThanOrEqualTo(20);
+        assertThat(logger.getFile("e6").exists()).isTrue();
+        logger.close();
+    }
+
+    public void scanned() throws Exception {
+        final File folder = newFolder("scanned");
+        final File shard = new File(folder, "ab/cd");
+        shard.mkdirs();
+        for (int i = 0; i < 25; i++) {
+            final File f = new File(i % 2 == 0 ? folder : shard, "old" + i);
+            Files.write(f.toPath(), "old".getBytes(StandardCharsets.US_ASCII));
+            f.setLastModified(System.currentTimeMillis() - (i < 5 ? 3 : 1) * DAY_MILLIS);
+        }
+        final FileErrorLogger logger = newLogger(folder, FileErrorLogger.Sharding.HASH, new FileRetention(Long.MAX_VALUE, Long.MAX_VALUE, 2 * DAY_MILLIS));
+        logger.setScanBatchSize(10);
+        assertThat(logger.getFileCount()).isZero();     // no index, nothing stat'ed on startup
+        logger.getJanitor().runOnce();
+        assertThat(logger.getJanitor().getScannedCount()).isLessThanOrEqualTo(10);
+        for (int i = 0; i < 5; i++) {
+            logger.getJanitor().runOnce();
+        }
+        assertThat(logger.getJanitor().getScannedCount()).isEqualTo(25);
+        assertThat(logger.getDeletedCount()).isEqualTo(5);                       // older than 2 days
+        assertThat(logger.getFileCount()).isEqualTo(20);
+        assertThat(new File(folder, "old0").exists()).isFalse();
+        assertThat(new File(shard, "old1").exists()).isFalse();
+        assertThat(new File(shard, "old5").exists()).isTrue();
+        logger.close();
+    }
+
+    public void indexLoadedOnRestart() throws Exception {
+        final File folder = newFolder("index");
+        final FileRetention retention = new FileRetention(Long.MAX_VALUE, 100, Long.MAX_VALUE);
+        final FileErrorLogger logger = newLogger(folder, FileErrorLogger.Sharding.DATE, retention);
+        logger.log("e1", "error 1");
+        logger.log("e2", "error 2");
+        logger.close();
+        assertThat(new File(folder, FileErrorLoggerJanitor.INDEX_FILE).exists()).isTrue();
+        final FileErrorLogger restarted = newLogger(folder, FileErrorLogger.Sharding.DATE, retention);
+        assertThat(restarted.getFileCount()).isEqualTo(2);
+        assertThat(restarted.getTotalBytes()).isEqualTo(14);
+        restarted.getJanitor().runOnce();
+        assertThat(restarted.getJanitor().getScannedCount()).isZero();             // all known
+        restarted.close();
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.ctzen.servlet.errorlogger;
+
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.filter;
+import static com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.util;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.ErrorLoggerFixtures.CollectingErrorLogger;
+import com.ctzen.servlet.errorlogger.record.ErrorRecord;
+import com.ctzen.servlet.util.Redactor;
+import com.ctzen.servlet.util.ServletToStringUtil;
+
+/**
+ * @author cchang
+ */
+@Test
+public class StructuredErrorLoggerTests {
+
+    private static class CollectingStructuredErrorLogger extends CollectingErrorLogger implements StructuredErrorLogger {
+
+        final List<ErrorRecord> records = new ArrayList<>();
+
+        final List<String> requestBodies = new ArrayList<>();
+
+        @Override
+        public void log(final ErrorRecord record) throws IOException {
+            records.add(record);
+            final StringBuilder sb = new StringBuilder();
+            try (final InputStream in = record.getRequestBody().getInputStream()) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    sb.append((char)b);
+                }
+            }
+            requestBodies.add(sb.toString());
+        }
+
+    }
+
+    private static class FailingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+            final InputStream in = req.getInputStream();
+            while (in.read() != -1) {
+                // drain
+            }
+            req.getSession().setAttribute("user", "bob");
+            resp.setStatus(500);
+            resp.setHeader("X-Failed", "yes");
+            resp.getWriter().write("oops");
+            resp.getWriter().flush();
+        }
+
+    }
+
+    public void structured() throws Exception {
+        final CollectingStructuredErrorLogger errorLogger = new CollectingStructuredErrorLogger();
+        final ErrorLoggingFilter filter = filter(errorLogger);
+        final MockHttpServletRequest req = new MockHttpServletRequest("POST", "/orders");
+        req.setContent("request body".getBytes());
+        req.setParameter("q", "1");
+        req.addHeader("Accept", "text/plain");
+        final MockHttpServletResponse resp = new MockHttpServletResponse();
+        filter.doFilter(req, resp, new MockFilterChain(new FailingServlet()));
+        assertThat(errorLogger.texts).isEmpty();
+        assertThat(errorLogger.records).hasSize(1);
+        final ErrorRecord record = errorLogger.records.get(0);
+        assertThat(record.getErrorId()).isEqualTo(resp.getHeader(ErrorLoggingFilter.ERROR_ID_HEADER_NAME));
+        assertThat(record.getMethod()).isEqualTo("POST");
+        assertThat(record.getRequestUri()).isEqualTo("/orders");
+        assertThat(record.getParameters().get("q")).containsExactly("1");
+        assertThat(record.getRequestHeaders().get("Accept")).containsExactly("text/plain");
+        assertThat(record.getStatus()).isEqualTo(500);
+        assertThat(record.getResponseHeaders().get("X-Failed")).containsExactly("yes");
+        assertThat(record.getResponseBody().getTotal()).isEqualTo(4);
+        assertThat(record.getSessionAttributes().get("user")).isEqualTo("bob");
+        assertThat(record.getExceptionClass()).isNull();
+        assertThat(record.getDurationMillis()).isGreaterThanOrEqualTo(0);
+        assertThat(errorLogger.requestBodies).containsExactly("request body");
+    }
+
+    public void redacted() throws Exception {
+        final CollectingStructuredErrorLogger errorLogger = new CollectingStructuredErrorLogger();
+        final ServletToStringUtil util = util();
+        util.setRedactor(new Redactor(Arrays.asList("=Authorization"), Arrays.asList("password"), null, Arrays.asList("password")));
+        final ErrorLoggingFilter filter = filter(util, errorLogger);
+        final MockHttpServletRequest req = new MockHttpServletRequest("POST", "/login");
+        req.setContentType("application/json");
+        req.setContent("{\"user\":\"bob\",\"password\":\"s3cret\"}".getBytes());
+        req.setQueryString("password=s3cret");
+        req.setParameter("password", "s3cret");
+        req.addHeader("Authorization", "Basic s3cret");
+        filter.doFilter(req, new MockHttpServletResponse(), new MockFilterChain(new FailingServlet()));
+        final ErrorRecord record = errorLogger.records.get(0);
+        assertThat(record.getQueryString()).isEqualTo("password=****");
+        assertThat(record.getParameters().get("password")).containsExactly("****");
+        assertThat(record.getRequestHeaders().get("Authorization")).containsExactly("****");
+        assertThat(errorLogger.requestBodies).containsExactly("{\"user\":\"bob\",\"password\":\"****\"}");
+        assertThat(record.getRequestBody().getTotal()).isEqualTo(34);
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.ctzen.servlet.errorlogger.collector;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.RetryPolicy;
+import com.ctzen.servlet.metrics.LongAdderErrorLoggingMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Against an in-process stand-in collector.
+ *
+ * @author cchang
+ */
+@Test(singleThreaded = true)
+public class HttpCollectorErrorLoggerTests {
+
+    private HttpServer server;
+
+    private URL url;
+
+    /**
+     * Lines of each batch received.
+     */
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger status = new AtomicInteger(200);
+
+    private File spoolFolder;
+
+    @BeforeMethod
+    public void start() throws IOException {
+        batches.clear();
+        clientPorts.clear();
+        status.set(200);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.createContext("/errors", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                final List<String> lines = new CopyOnWriteArrayList<>();
+                assertThat(exchange.getRequestHeaders().getFirst("Content-Encoding")).isEqualTo("gzip");
+                try (final BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(exchange.getRequestBody()), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        lines.add(line);
+                    }
+                }
+                final int code = status.get();
+                if (code == 200) {
+                    assertThat(exchange.getRequestHeaders().getFirst(HttpCollectorErrorLogger.BATCH_RECORDS_HEADER_NAME))
+                        .isEqualTo(Integer.toString(lines.size()));
+                    batches.add(lines);
+                }
+                exchange.sendResponseHeaders(code, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/errors");
+        spoolFolder = new File("build/reports/collector-spool/" + System.nanoTime());
+    }
+
+    @AfterMethod
+    public void stop() {
+        server.stop(0);
+    }
+
+    private int received() {
+        int ret = 0;
+        for (final List<String> batch: batches) {
+            ret += batch.size();
+        }
+        return ret;
+    }
+
+    private static void await(final long millis, final Check check) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + millis;
+        while (!check.done() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Check {
+        boolean done();
+    }
+
+    public void batchedByCount() throws Exception {
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 10, 1024 * 1024, 60000);
+        for (int i = 0; i < 25; i++) {
+            logger.log("id" + i, "line 1\n\"line\" 2");
+        }
+        logger.close();
+        assertThat(batches).hasSize(3);
+        assertThat(batches.get(0)).hasSize(10);
+        assertThat(batches.get(2)).hasSize(5);
+        assertThat(batches.get(0).get(0)).startsWith("{\"errorId\":\"id0\",\"timestamp\":")
+            .endsWith(",\"error\":\"line 1\\n\\\"line\\\" 2\"}");
+        assertThat(clientPorts).hasSize(1);        // kept alive
+        assertThat(logger.getBatchesSent()).isEqualTo(3);
+        assertThat(logger.getRecordsSent()).isEqualTo(25);
+    }
+
+    public void batchedByBytes() throws Exception {
+        assertThat(HttpCollectorErrorLogger.utf8Length("a\u00e9\u20ac\ud83d\ude00")).isEqualTo(10);
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 100, 20, 60000);
+        for (int i = 0; i < 4; i++) {
+            logger.log("a", "\u00e9\u00e9\u00e9\u00e9\u00e9");     // 11 bytes, 6 chars
+        }
+        logger.close();
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).hasSize(2);
+    }
+
+    public void survivesFailedPass() throws Exception {
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 1, 1024 * 1024, 10);
+        logger.log("bad", null);        // fails the pass batching it
+        logger.log("ok", "error ok");
+        logger.close();
+        assertThat(received()).isEqualTo(2);
+        assertThat(logger.getDroppedCount()).isZero();
+    }
+
+    public void batchedByLinger() throws Exception {
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 100, 1024 * 1024, 50);
+        logger.log("a", "error a");
+        logger.log("b", "error b");
+        await(5000, new Check() {
+            @Override
+            public boolean done() {
+                return !batches.isEmpty();
+            }
+        });
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).hasSize(2);
+        logger.close();
+    }
+
+    public void spooledWhileDown() throws Exception {
+        status.set(503);
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 5, 1024 * 1024, 10);
+        logger.setRetryPolicy(new RetryPolicy(2, 1, 20));
+        for (int i = 0; i < 12; i++) {
+            logger.log("id" + i, "error " + i);
+        }
+        await(5000, new Check() {
+            @Override
+            public boolean done() {
+                return logger.getSpooledBatches() == 3;
+            }
+        });
+        assertThat(logger.getSpooledBatches()).isEqualTo(3);
+        assertThat(logger.getSpoolBytes()).isGreaterThan(0);
+        assertThat(spoolFolder.list()).hasSize(3);
+        assertThat(batches).isEmpty();
+        status.set(200);
+        await(5000, new Check() {
+            @Override
+            public boolean done() {
+                return received() == 12 && logger.getSpoolBytes() == 0;
+            }
+        });
+        assertThat(received()).isEqualTo(12);
+        assertThat(batches.get(0).get(0)).contains("\"id0\"");        // oldest first
+        assertThat(logger.getSpoolBytes()).isZero();
+        assertThat(spoolFolder.list()).isEmpty();
+        logger.close();
+    }
+
+    public void spoolResentAfterRestart() throws Exception {
+        status.set(503);
+        final HttpCollectorErrorLogger down = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 100, 1024 * 1024, 10);
+        down.setRetryPolicy(RetryPolicy.NONE);
+        down.log("id", "error");
+        down.close();
+        assertThat(spoolFolder.list()).hasSize(1);
+        status.set(200);
+        final HttpCollectorErrorLogger up = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 100, 1024 * 1024, 10);
+        await(5000, new Check() {
+            @Override
+            public boolean done() {
+                return received() == 1;
+            }
+        });
+        assertThat(received()).isEqualTo(1);
+        up.close();
+    }
+
+    public void spoolBounded() throws Exception {
+        status.set(503);
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 1, 1024 * 1024, 10);
+        logger.setRetryPolicy(RetryPolicy.NONE);
+        logger.setMaxSpoolBytes(1);
+        logger.log("id0", "error");
+        logger.log("id1", "error");
+        logger.close();
+        assertThat(spoolFolder.list()).isEmpty();
+        assertThat(logger.getDroppedCount()).isEqualTo(2);
+    }
+
+    public void metrics() throws Exception {
+        final LongAdderErrorLoggingMetrics metrics = new LongAdderErrorLoggingMetrics();
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 2, 1, 1024 * 1024, 60000);
+        logger.setMetrics(metrics);
+        status.set(503);
+        logger.setRetryPolicy(RetryPolicy.NONE);
+        logger.setMaxSpoolBytes(1);
+        logger.log("spooled", "error");
+        await(5000, new Check() {
+            @Override
+            public boolean done() {
+                return metrics.getDropped() == 1;
+            }
+        });
+        status.set(200);
+        logger.log("sent", "error");
+        await(5000, new Check() {
+            @Override
+            public boolean done() {
+                return received() == 1;
+            }
+        });
+        logger.close();
+        logger.log("closed", "error");
+        assertThat(metrics.getSinkWrites()).isEqualTo(1);
+        assertThat(metrics.getDropped()).isEqualTo(2);
+        assertThat(metrics.getQueueDepth()).isZero();
+    }
+
+    /**
+     * Throughput is measured by HttpCollectorErrorLoggerBenchmark.
+     */
+    public void manyBatches() throws Exception {
+        final HttpCollectorErrorLogger logger = new HttpCollectorErrorLogger(url, spoolFolder, 1024, 50, 1024 * 1024, 20);
+        for (int i = 0; i < 200; i++) {
+            logger.log("id" + i, "error " + i);
+        }
+        logger.close();
+        assertThat(received()).isEqualTo(200);
+        for (final List<String> batch: batches) {
+            assertThat(batch.size()).isLessThanOrEqualTo(50);
+        }
+        assertThat(logger.getRecordsSent()).isEqualTo(200);
+        assertThat(logger.getDroppedCount()).isZero();
+        assertThat(logger.getBytesSent()).isGreaterThan(0);
+    }
+
+}
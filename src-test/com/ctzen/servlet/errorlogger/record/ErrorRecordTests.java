@@ -0,0 +1,93 @@
+package com.ctzen.servlet.errorlogger.record;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+import com.ctzen.servlet.wrapper.CaptureLimit;
+
+/**
+ * @author cchang
+ */
+@Test
+public class ErrorRecordTests {
+
+    private static ErrorRecord newRecord(final CaptureBuffer reqBody) {
+        final ErrorRecord ret = new ErrorRecord();
+        ret.setErrorId("id1");
+        ret.setTimestamp(1413158400000L);
+        ret.setDurationMillis(12);
+        ret.setThread("Thread[main,5,main]");
+        ret.setMethod("POST");
+        ret.setRequestUri("/orders");
+        ret.setProtocol("HTTP/1.1");
+        final Map<String, List<String>> headers = new TreeMap<>();
+        headers.put("Accept", Arrays.asList("text/plain", "application/json"));
+        ret.setRequestHeaders(headers);
+        ret.setRequestAttributes(Collections.singletonMap("quote", "say \"hi\"\n"));
+        ret.setRequestBody(ErrorRecord.Body.of(reqBody));
+        ret.setStatus(500);
+        ret.setResponseBody(ErrorRecord.Body.attached("response-body", 1234));
+        ret.setExceptionClass("java.lang.IllegalStateException");
+        ret.setExceptionMessage("boom");
+        ret.setStackTrace("java.lang.IllegalStateException: boom\n\tat Foo.bar(Foo.java:1)");
+        return ret;
+    }
+
+    private static CaptureBuffer body(final String s, final CaptureLimit limit) {
+        final CaptureBuffer ret = new CaptureBuffer(limit);
+        ret.write(s.getBytes(StandardCharsets.US_ASCII));
+        return ret;
+    }
+
+    public void json() throws Exception {
+        final StringWriter out = new StringWriter();
+        JsonErrorRecordRenderer.INSTANCE.render(newRecord(body("{\"a\":1}\t", CaptureLimit.UNLIMITED)), out);
+        final String json = out.toString();
+        assertThat(json).startsWith("{\"errorId\":\"id1\",\"timestamp\":1413158400000,\"durationMillis\":12,")
+                        .contains("\"headers\":{\"Accept\":[\"text/plain\",\"application/json\"]}")
+                        .contains("\"attributes\":{\"quote\":\"say \\\"hi\\\"\\n\"}")
+                        .contains("\"body\":{\"total\":8,\"truncated\":false,\"content\":\"{\\\"a\\\":1}\\t\"}")
+                        .contains("\"body\":{\"total\":1234,\"truncated\":false,\"attachment\":\"response-body\"}")
+                        .contains("\"session\":null")
+                        .endsWith("\"stackTrace\":\"java.lang.IllegalStateException: boom\\n\\tat Foo.bar(Foo.java:1)\"}}");
+        assertThat(json).doesNotContain("\n");
+    }
+
+    public void text() throws Exception {
+        final StringWriter out = new StringWriter();
+        TextErrorRecordRenderer.INSTANCE.render(newRecord(body("hello", CaptureLimit.UNLIMITED)), out);
+        assertThat(out.toString()).startsWith("ERROR ID: id1\n\nTHREAD: Thread[main,5,main]\n\nREQUEST:\n")
+                                  .contains("\nREQUEST BODY:\nhello\n\nRESPONSE:\nstatus=500\n")
+                                  .contains("<1234 bytes, see attachment response-body>")
+                                  .endsWith("\n\nEXCEPTION:\njava.lang.IllegalStateException: boom\n\tat Foo.bar(Foo.java:1)\n");
+    }
+
+    public void binaryRoundTrip() throws Exception {
+        final CaptureBuffer reqBody = body("0123456789", CaptureLimit.of(2, 2));
+        final ErrorRecord record = newRecord(reqBody);
+        final byte[] encoded = BinaryErrorRecordCodec.encode(record);
+        final ErrorRecord decoded = BinaryErrorRecordCodec.decode(new ByteArrayInputStream(encoded));
+        final StringWriter expected = new StringWriter();
+        JsonErrorRecordRenderer.INSTANCE.render(record, expected);
+        final StringWriter actual = new StringWriter();
+        JsonErrorRecordRenderer.INSTANCE.render(decoded, actual);
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+        assertThat(decoded.getRequestBody().isTruncated()).isTrue();
+        assertThat(decoded.getRequestBody().getTotal()).isEqualTo(10);
+        assertThat(decoded.getResponseBody().getAttachment()).isEqualTo("response-body");
+        assertThat(decoded.getSessionId()).isNull();
+        assertThat(encoded.length).isLessThan(expected.toString().length());
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class DeflateRecordCodecTests {
+
+    private static String report(final int i) {
+        return "ERROR ID: id" + i
+                + "\n\nTHREAD: Thread[http-nio-8080-exec-" + (i % 10) + ",5,main]"
+                + "\n\nREQUEST:\nmethod=GET\nrequestURI=/orders/" + i
+                + "\nheaders={Accept=text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\nConnection=keep-alive}"
+                + "\n\nREQUEST BODY:\n\n\nRESPONSE:\nstatus=500\n\nRESPONSE BODY:\n\n\nSESSION:\n<null>"
+                + "\n\nEXCEPTION:\njava.lang.IllegalStateException: order " + i
+                + "\n\tat com.example.OrderController.get(OrderController.java:42)"
+                + "\n\tat org.springframework.web.servlet.DispatcherServlet.doDispatch(DispatcherServlet.java:938)"
+                + "\n\tat org.springframework.web.servlet.DispatcherServlet.doService(DispatcherServlet.java:870)"
+                + "\n\tat javax.servlet.http.HttpServlet.service(HttpServlet.java:727)\n";
+    }
+
+    private static byte[] bytes(final String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void roundTrip() throws Exception {
+        try (final DeflateRecordCodec codec = new DeflateRecordCodec()) {
+            final byte[] data = bytes(report(1));
+            final byte[] encoded = codec.encode(data);
+            assertThat(encoded.length).isLessThan(data.length / 2);
+            assertThat(codec.decode(encoded)).isEqualTo(data);
+            assertThat(codec.encode(bytes("x"))).isNull();
+        }
+    }
+
+    public void trainedDictionary() throws Exception {
+        final List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            samples.add(report(i));
+        }
+        final byte[] dictionary = DeflateRecordCodec.trainDictionary(samples, 4096);
+        assertThat(dictionary.length).isLessThanOrEqualTo(4096);
+        final byte[] data = bytes(report(100));
+        try (final DeflateRecordCodec plain = new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, null);
+                final DeflateRecordCodec trained = new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, dictionary)) {
+            final byte[] encoded = trained.encode(data);
+            assertThat(encoded.length).isLessThan(plain.encode(data).length / 2);
+            assertThat(trained.decode(encoded)).isEqualTo(data);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void wrongDictionary() throws Exception {
+        try (final DeflateRecordCodec a = new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, bytes("dictionary a"));
+                final DeflateRecordCodec b = new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, bytes("dictionary b"))) {
+            b.decode(a.encode(bytes(report(1))));
+        }
+    }
+
+    public void segmentedErrorLogger() throws Exception {
+        final File folder = new File("build/reports/segments/deflate");
+        final File[] files = folder.listFiles();
+        if (files != null) {
+            for (final File f: files) {
+                f.delete();
+            }
+        }
+        long raw = 0;
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 64 * 1024)) {
+            logger.log("plain", report(-1));
+            logger.setCodec(new DeflateRecordCodec());
+            for (int i = 0; i < 200; i++) {
+                logger.log("id" + i, report(i));
+                raw += report(i).length();
+            }
+            assertThat(logger.read("plain")).isEqualTo(report(-1));
+            assertThat(logger.read("id0")).isEqualTo(report(0));
+            assertThat(logger.read("id199")).isEqualTo(report(199));
+        }
+        long stored = 0;
+        for (final long sequence: SegmentedErrorLogger.listSequences(folder)) {
+            stored += new File(folder, Segment.getFileName(sequence)).length();
+        }
+        assertThat(stored).isLessThan(raw / 3);
+    }
+
+    public void switchedDictionary() throws Exception {
+        final File folder = new File("build/reports/segments/dictionary");
+        final File[] files = folder.listFiles();
+        if (files != null) {
+            for (final File f: files) {
+                f.delete();
+            }
+        }
+        final List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            samples.add(report(i));
+        }
+        final byte[] trained = DeflateRecordCodec.trainDictionary(samples, 4096);
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder)) {
+            logger.setCodec(new DeflateRecordCodec());
+            logger.log("default", report(1));
+            logger.setCodec(new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, trained));
+            logger.log("trained", report(2));
+            logger.setCodec(new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, null));
+            logger.log("none", report(3));
+            assertThat(logger.read("default")).isEqualTo(report(1));
+            assertThat(logger.read("trained")).isEqualTo(report(2));
+            assertThat(logger.read("none")).isEqualTo(report(3));
+        }
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder)) {
+            logger.setCodec(new DeflateRecordCodec());
+            assertThat(logger.read("default")).isEqualTo(report(1));
+            try {
+                logger.read("trained");
+                throw new AssertionError("read without the trained dictionary");
+            }
+            catch (final IOException e) {
+                // expected
+            }
+            logger.addDecoder(new DeflateRecordCodec(Deflater.DEFAULT_COMPRESSION, trained));
+            assertThat(logger.read("trained")).isEqualTo(report(2));
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.TimeOrderedErrorIdGenerator;
+
+/**
+ * @author cchang
+ */
+@Test
+public class SegmentedErrorLoggerTests {
+
+    private static File newFolder(final String name) {
+        final File ret = new File("build/reports/segments/" + name);
+        final File[] files = ret.listFiles();
+        if (files != null) {
+            for (final File f: files) {
+                f.delete();
+            }
+        }
+        return ret;
+    }
+
+    private static List<String> readAll(final File folder) throws Exception {
+        final List<String> ret = new ArrayList<>();
+        for (final long sequence: SegmentedErrorLogger.listSequences(folder)) {
+            try (final Segment segment = Segment.openForRead(new File(folder, Segment.getFileName(sequence)))) {
+                long position = Segment.FILE_HEADER_SIZE;
+                Segment.Record record;
+                while ((record = segment.read(position)) != null) {
+                    ret.add(record.getErrorId() + "=" + new String(record.getPayload(), StandardCharsets.UTF_8));
+                    position = record.getNextPosition();
+                }
+            }
+        }
+        return ret;
+    }
+
+    public void appendAndRoll() throws Exception {
+        final File folder = newFolder("roll");
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 256)) {
+            for (int i = 0; i < 20; i++) {
+                logger.log("id" + i, "error \u00e9 " + i);
+            }
+            assertThat(logger.getActiveSequence()).isGreaterThan(0);
+        }
+        final List<String> records = readAll(folder);
+        assertThat(records).hasSize(20);
+        assertThat(records.get(0)).isEqualTo("id0=error \u00e9 0");
+        assertThat(records.get(19)).isEqualTo("id19=error \u00e9 19");
+        for (final File f: folder.listFiles()) {
+            assertThat(f.length()).isLessThanOrEqualTo(256);
+        }
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 256)) {
+            logger.log("id20", "appended after reopen");
+        }
+        assertThat(readAll(folder)).hasSize(21);
+    }
+
+    public void tornTailTruncated() throws Exception {
+        final File folder = newFolder("torn");
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder)) {
+            logger.log("id0", "first");
+            logger.log("id1", "second");
+        }
+        final File segment = new File(folder, Segment.getFileName(0));
+        final long good = segment.length();
+        try (final RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(good);
+            raf.writeInt(1000);             // length of a record that never made it
+            raf.writeInt(0);
+            raf.write(new byte[] { 0, 3, 'i', 'd' });
+        }
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder)) {
+            assertThat(segment.length()).isEqualTo(good);
+            logger.log("id2", "third");
+        }
+        assertThat(readAll(folder)).containsExactly("id0=first", "id1=second", "id2=third");
+    }
+
+    public void corruptRecordTruncated() throws Exception {
+        final File folder = newFolder("corrupt");
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder)) {
+            logger.log("id0", "first");
+            logger.log("id1", "second");
+        }
+        final File segment = new File(folder, Segment.getFileName(0));
+        try (final RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('X');                 // flip a payload byte of the last record
+        }
+        new SegmentedErrorLogger(folder).close();
+        assertThat(readAll(folder)).containsExactly("id0=first");
+    }
+
+    public void readById() throws Exception {
+        final File folder = newFolder("read");
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 4096)) {
+            for (int i = 0; i < 500; i++) {
+                logger.log("id" + i, "error " + i);
+            }
+            logger.log("id7", "error 7 again");
+            assertThat(SegmentIndex.getFile(folder, 0).exists()).isTrue();
+            assertThat(logger.read("id0")).isEqualTo("error 0");
+            assertThat(logger.read("id499")).isEqualTo("error 499");
+            assertThat(logger.read("id7")).isEqualTo("error 7 again");
+            assertThat(logger.read("nope")).isNull();
+        }
+        SegmentIndex.getFile(folder, 1).delete();
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 4096)) {
+            assertThat(SegmentIndex.getFile(folder, 1).exists()).isTrue();
+            for (int i = 0; i < 500; i++) {
+                assertThat(logger.read("id" + i)).isEqualTo(i == 7 ? "error 7 again" : "error " + i);
+            }
+        }
+    }
+
+    public void indexFind() throws Exception {
+        final File folder = newFolder("index");
+        folder.mkdirs();
+        final Map<String, Long> positions = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            positions.put("id" + i, (long)i);
+        }
+        final File file = SegmentIndex.getFile(folder, 0);
+        SegmentIndex.write(file, positions);
+        final SegmentIndex index = SegmentIndex.load(file);
+        assertThat(index.getCount()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(index.find(SegmentIndex.hash("id" + i))).containsOnly((long)i);
+        }
+        int found = 0;
+        for (int i = 1000; i < 2000; i++) {
+            found += index.find(SegmentIndex.hash("id" + i)).length;
+        }
+        assertThat(found).isZero();
+    }
+
+    public void findByTime() throws Exception {
+        final File folder = newFolder("time");
+        final TimeOrderedErrorIdGenerator generator = new TimeOrderedErrorIdGenerator(1);
+        final List<String> early = new ArrayList<>();
+        final List<String> late = new ArrayList<>();
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 256)) {
+            for (int i = 0; i < 10; i++) {
+                final String errorId = generator.nextErrorId();
+                early.add(errorId);
+                logger.log(errorId, "early " + i);
+            }
+            logger.log("not-time-ordered", "ignored");
+            final long middle = TimeOrderedErrorIdGenerator.getTimestamp(early.get(early.size() - 1)) + 1;
+            while (System.currentTimeMillis() < middle) {
+                Thread.sleep(1);
+            }
+            for (int i = 0; i < 10; i++) {
+                final String errorId = generator.nextErrorId();
+                late.add(errorId);
+                logger.log(errorId, "late " + i);
+            }
+            assertThat(logger.getActiveSequence()).isGreaterThan(1);
+            assertThat(logger.findErrorIds(0, middle)).isEqualTo(early);
+            assertThat(logger.findErrorIds(middle, Long.MAX_VALUE)).isEqualTo(late);
+            assertThat(logger.findErrorIds(0, 1000)).isEmpty();
+        }
+        try (final SegmentedErrorLogger logger = new SegmentedErrorLogger(folder, 256)) {
+            final List<String> all = new ArrayList<>(early);
+            all.addAll(late);
+            assertThat(logger.findErrorIds(0, Long.MAX_VALUE)).isEqualTo(all);
+        }
+    }
+
+}
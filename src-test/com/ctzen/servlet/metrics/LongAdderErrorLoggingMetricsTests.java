@@ -0,0 +1,133 @@
+package com.ctzen.servlet.metrics;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.ErrorLogger;
+import com.ctzen.servlet.errorlogger.ErrorLoggingFilter;
+import com.ctzen.servlet.errorlogger.FileErrorLogger;
+import com.ctzen.servlet.errorlogger.RequestAttributeExceptionGetter;
+import com.ctzen.servlet.util.ServletToStringUtil;
+
+/**
+ * @author cchang
+ */
+@Test
+public class LongAdderErrorLoggingMetricsTests {
+
+    public void histogram() {
+        final LongAdderHistogram histogram = new LongAdderHistogram();
+        assertThat(histogram.getPercentile(99)).isZero();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 10);
+        }
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getSum()).isEqualTo(50500);
+        assertThat(histogram.getMax()).isEqualTo(1000);
+        assertThat(histogram.getMean()).isEqualTo(505.0);
+        final long p50 = histogram.getPercentile(50);
+        assertThat(p50).isGreaterThanOrEqualTo(500).isLessThan(1000);      // within a power of 2
+        assertThat(histogram.getPercentile(100)).isEqualTo(1000);
+        histogram.record(0);
+        histogram.record(-1);
+        assertThat(histogram.getCount()).isEqualTo(102);
+        assertThat(histogram.getPercentile(0.5)).isZero();
+        histogram.reset();
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.getMax()).isZero();
+    }
+
+    public void filter() throws Exception {
+        final LongAdderErrorLoggingMetrics metrics = new LongAdderErrorLoggingMetrics();
+        final FileErrorLogger errorLogger = new FileErrorLogger(new File("build/reports/metrics-errors"));
+        errorLogger.setMetrics(metrics);
+        final ErrorLoggingFilter filter = new ErrorLoggingFilter(Arrays.asList(500),
+                new RequestAttributeExceptionGetter("ex"),
+                new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet()),
+                errorLogger);
+        filter.setMetrics(metrics);
+        final FilterChain chain = new FilterChain() {
+            @Override
+            public void doFilter(final ServletRequest request, final ServletResponse response) throws IOException, ServletException {
+                final byte[] b = new byte[8];
+                while (request.getInputStream().read(b) != -1) {
+                    // drain
+                }
+                response.getOutputStream().print("0123456789");
+                if (request.getParameter("fail") != null) {
+                    ((HttpServletResponse)response).setStatus(500);
+                }
+            }
+        };
+        final MockHttpServletRequest ok = new MockHttpServletRequest("POST", "/ok");
+        ok.setContent(new byte[20]);
+        filter.doFilter(ok, new MockHttpServletResponse(), chain);
+        final MockHttpServletRequest failing = new MockHttpServletRequest("POST", "/fail");
+        failing.setParameter("fail", "true");
+        failing.setContent(new byte[5]);
+        filter.doFilter(failing, new MockHttpServletResponse(), chain);
+        assertThat(metrics.getRequestsWrapped()).isEqualTo(2);
+        assertThat(metrics.getRequestBytesCaptured()).isEqualTo(25);
+        assertThat(metrics.getResponseBytesCaptured()).isEqualTo(20);
+        assertThat(metrics.getReportsLogged()).isEqualTo(1);
+        assertThat(metrics.getSinkWrites()).isEqualTo(1);
+        assertThat(metrics.getRenderTimeNanos().getSum()).isGreaterThanOrEqualTo(metrics.getSinkWriteNanos().getSum());
+        assertThat(metrics.getFailures()).isZero();
+        final ErrorLoggingFilter broken = new ErrorLoggingFilter(Arrays.asList(500),
+                new RequestAttributeExceptionGetter("ex"),
+                new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet()),
+                new ErrorLogger() {
+                    @Override
+                    public void log(final String errorId, final String error) throws IOException {
+                        throw new IOException("disk full");
+                    }
+                });
+        broken.setMetrics(metrics);
+        broken.doFilter(failing, new MockHttpServletResponse(), chain);
+        assertThat(metrics.getFailures()).isEqualTo(1);
+    }
+
+    public void mbean() throws Exception {
+        final LongAdderErrorLoggingMetrics metrics = new LongAdderErrorLoggingMetrics();
+        final String name = "com.ctzen.servlet:type=ErrorLoggingMetrics,name=test";
+        metrics.register(name);
+        metrics.register(name);      // replaces
+        metrics.reportDropped();
+        final LongSupplier depth = new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return 3;
+            }
+        };
+        metrics.queue(depth);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName on = new ObjectName(name);
+        assertThat(server.getAttribute(on, "Dropped")).isEqualTo(1L);
+        assertThat(server.getAttribute(on, "QueueDepth")).isEqualTo(3L);
+        metrics.unqueue(depth);
+        assertThat(server.getAttribute(on, "QueueDepth")).isEqualTo(0L);
+        server.invoke(on, "reset", null, null);
+        assertThat(metrics.getDropped()).isZero();
+        metrics.unregister();
+        assertThat(server.isRegistered(on)).isFalse();
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.ctzen.servlet.util;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class AttributeNameFilterTests {
+
+    private static AttributeNameFilter filter(final String... rules) {
+        return new AttributeNameFilter(Arrays.asList(rules));
+    }
+
+    public void prefix() {
+        final AttributeNameFilter filter = filter("org.springframework.", "javax.servlet.");
+        assertThat(filter.matches("org.springframework.web.servlet.View")).isTrue();
+        assertThat(filter.matches("javax.servlet.error.exception")).isTrue();
+        assertThat(filter.matches("org.springframework")).isFalse();
+        assertThat(filter.matches("user")).isFalse();
+        assertThat(filter.matches("")).isFalse();
+        assertThat(filter.matches(null)).isFalse();
+    }
+
+    public void exact() {
+        final AttributeNameFilter filter = filter("=user", "=");
+        assertThat(filter.matches("user")).isTrue();
+        assertThat(filter.matches("")).isTrue();
+        assertThat(filter.matches("username")).isFalse();
+        assertThat(filter.matches("use")).isFalse();
+    }
+
+    public void glob() {
+        final AttributeNameFilter filter = filter("*.FILTERED", "org.*.View?", "tmp*");
+        assertThat(filter.matches("a.b.FILTERED")).isTrue();
+        assertThat(filter.matches(".FILTERED")).isTrue();
+        assertThat(filter.matches("a.FILTERED.not")).isFalse();
+        assertThat(filter.matches("org.springframework.web.ViewX")).isTrue();
+        assertThat(filter.matches("org.springframework.web.View")).isFalse();
+        assertThat(filter.matches("tmp")).isTrue();
+        assertThat(filter.matches("tmpfile")).isTrue();
+        assertThat(filter.matches("tm")).isFalse();
+    }
+
+    public void globMatcher() {
+        assertThat(AttributeNameFilter.matchesGlob("abcbcd", 0, "a*bcd", 0)).isTrue();
+        assertThat(AttributeNameFilter.matchesGlob("abc", 0, "a**c", 0)).isTrue();
+        assertThat(AttributeNameFilter.matchesGlob("abc", 0, "a?", 0)).isFalse();
+        assertThat(AttributeNameFilter.matchesGlob("xabc", 1, "zabc", 1)).isTrue();
+    }
+
+    public void mixed() {
+        final AttributeNameFilter filter = filter("org.", "=org", "org.a*z");
+        assertThat(filter.matches("org")).isTrue();
+        assertThat(filter.matches("org.anything")).isTrue();
+        assertThat(filter.matches("orgx")).isFalse();
+    }
+
+    public void ignoreCase() {
+        final AttributeNameFilter filter = new AttributeNameFilter(Arrays.asList("=Authorization", "X-Api-", "*Token*"), true);
+        assertThat(filter.matches("authorization")).isTrue();
+        assertThat(filter.matches("AUTHORIZATION")).isTrue();
+        assertThat(filter.matches("x-api-key")).isTrue();
+        assertThat(filter.matches("X-Csrf-TOKEN")).isTrue();
+        assertThat(filter.matches(new StringBuilder("refresh_token"))).isTrue();
+        assertThat(filter.matches("Accept")).isFalse();
+        assertThat(filter("=Authorization").matches("authorization")).isFalse();
+    }
+
+    public void sessionFilterSeparate() {
+        final ServletToStringUtil util = new ServletToStringUtil(
+                new HashSet<>(Arrays.asList("request.")), new HashSet<>(Arrays.asList("session.")));
+        assertThat(util.isRequestAttributeFiltered("request.a")).isTrue();
+        assertThat(util.isRequestAttributeFiltered("session.a")).isFalse();
+        assertThat(util.isSessionAttributeFiltered("session.a")).isTrue();
+        assertThat(util.isSessionAttributeFiltered("request.a")).isFalse();
+        final ServletToStringUtil none = new ServletToStringUtil(null, Collections.<String>emptySet());
+        assertThat(none.isRequestAttributeFiltered("anything")).isFalse();
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.ctzen.servlet.util;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.http.Cookie;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.annotations.Test;
+
+import com.ctzen.servlet.errorlogger.ErrorLoggingFilter;
+import com.ctzen.servlet.errorlogger.RequestAttributeExceptionGetter;
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+import com.ctzen.servlet.wrapper.CaptureLimit;
+
+/**
+ * @author cchang
+ */
+@Test
+public class RedactorTests {
+
+    private static final Redactor REDACTOR = new Redactor(
+            Arrays.asList("=Authorization", "X-Api-Key"),
+            Arrays.asList("password", "*token*"),
+            Arrays.asList("=JSESSIONID"),
+            Arrays.asList("password", "=secret", "*token"));
+
+    private static String redact(final String contentType, final String body, final int chunk) throws IOException {
+        final StringWriter ret = new StringWriter();
+        final Writer writer = REDACTOR.redactBody(ret, contentType);
+        for (int i = 0; i < body.length(); i += chunk) {
+            writer.write(body, i, Math.min(chunk, body.length() - i));
+        }
+        return ret.toString();
+    }
+
+    private static void assertRedacted(final String contentType, final String body, final String expected) throws IOException {
+        for (final int chunk: new int[] { body.length(), 1, 3, 7 }) {
+            assertThat(redact(contentType, body, chunk)).isEqualTo(expected);
+        }
+    }
+
+    private static final String MARKER = "\n... [cut] ...\n";
+
+    private static String redactTruncated(final String contentType, final String head, final String tail, final int chunk)
+            throws IOException {
+        final StringWriter ret = new StringWriter();
+        final Writer writer = REDACTOR.redactBody(ret, contentType);
+        for (int i = 0; i < head.length(); i += chunk) {
+            writer.write(head, i, Math.min(chunk, head.length() - i));
+        }
+        REDACTOR.writeTruncationMarker(writer, MARKER);
+        for (int i = 0; i < tail.length(); i += chunk) {
+            writer.write(tail, i, Math.min(chunk, tail.length() - i));
+        }
+        return ret.toString();
+    }
+
+    private static void assertTruncated(final String contentType, final String head, final String tail, final String expected)
+            throws IOException {
+        for (final int chunk: new int[] { head.length() + tail.length(), 1, 3, 7 }) {
+            assertThat(redactTruncated(contentType, head, tail, chunk)).isEqualTo(expected);
+        }
+    }
+
+    public void json() throws IOException {
+        assertRedacted("application/json; charset=UTF-8",
+                "{\"user\":\"bob\",\"password\" : \"s3cr\\\"et\",\"n\":1}",
+                "{\"user\":\"bob\",\"password\" : \"****\",\"n\":1}");
+        assertRedacted("application/json",
+                "{\"a\":[{\"secret\":42},{\"Secret\":true,\"x\":\"secret\"}],\"access_token\":null}",
+                "{\"a\":[{\"secret\":\"****\"},{\"Secret\":\"****\",\"x\":\"secret\"}],\"access_token\":\"****\"}");
+        assertRedacted("application/problem+json",
+                "{\"secret\":{\"k\":\"}\",\"l\":[1,{}]},\"pass\\u0077ord\":[\"a\",\"b\"],\"ok\":\"password\"}",
+                "{\"secret\":\"****\",\"pass\\u0077ord\":\"****\",\"ok\":\"password\"}");
+        assertRedacted("application/json",
+                "[\"password\", {\"secret\" : 1.5e3 }]",
+                "[\"password\", {\"secret\" : \"****\" }]");
+    }
+
+    public void jsonMalformed() throws IOException {
+        assertRedacted("application/json", "{\"secret\":\"cut sh", "{\"secret\":\"****\"");
+        assertRedacted("application/json", "{\"secret\":{\"a\":[1,2", "{\"secret\":\"****\"");
+        assertRedacted("application/json", "not json, \"secret\": 1", "not json, \"secret\": 1");
+        assertRedacted("application/json", "{\"secret\",\"x\":1}", "{\"secret\",\"x\":1}");
+    }
+
+    public void jsonTruncated() throws IOException {
+        assertTruncated("application/json", "{\"a\":1,", "23\",\"password\":\"hunter2\"}",
+                "{\"a\":1," + MARKER + "\"****\":\"****\"}");
+        assertTruncated("application/json", "{\"a\":1,\"passw", "ord\":\"hunter2\",\"b\" : 2}",
+                "{\"a\":1,\"passw" + MARKER + "\"****\":\"****\",\"b\" : 2}");
+        assertTruncated("application/json", "{\"password\":\"hun", "ter2\",\"n\":{\"secret\":[1]}}",
+                "{\"password\":\"****\"" + MARKER + "\"****\":{\"secret\":\"****\"}}");
+        assertTruncated("application/json", "{\"secret\":{\"a\":\"b", "c\"},\"x\":1}",
+                "{\"secret\":\"****\"" + MARKER + "\"****\"");
+        assertTruncated("application/json", "[1,", "2]", "[1," + MARKER + "\"****\"");
+    }
+
+    public void formTruncated() throws IOException {
+        assertTruncated("application/x-www-form-urlencoded", "a=1&pass", "word=hunter2&b=2&token=x",
+                "a=1&pass" + MARKER + "****&b=2&token=****");
+        assertTruncated("text/plain", "a=1&pass", "word=hunter2", "a=1&pass" + MARKER + "word=hunter2");
+    }
+
+    public void form() throws IOException {
+        assertRedacted("application/x-www-form-urlencoded",
+                "user=bob&password=s3cret&pass%77ord=x&csrf+token=abc&n=1",
+                "user=bob&password=****&pass%77ord=****&csrf+token=****&n=1");
+        assertThat(REDACTOR.redactQueryString("a=1&password=2")).isEqualTo("a=1&password=****");
+        assertThat(REDACTOR.redactQueryString("a=1")).isEqualTo("a=1");
+        assertThat(REDACTOR.redactQueryString(null)).isNull();
+    }
+
+    public void contentTypes() {
+        final Writer out = new StringWriter();
+        assertThat(REDACTOR.redactBody(out, "text/plain")).isSameAs(out);
+        assertThat(REDACTOR.redactBody(out, null)).isSameAs(out);
+        assertThat(REDACTOR.redactBody(out, "text/jsonish")).isSameAs(out);
+        assertThat(REDACTOR.isBodyRedacted("application/vnd.api+json")).isTrue();
+        assertThat(REDACTOR.isBodyRedacted("Application/X-WWW-Form-Urlencoded")).isTrue();
+        assertThat(Redactor.NONE.redactBody(out, "application/json")).isSameAs(out);
+    }
+
+    public void headers() {
+        assertThat(REDACTOR.redactHeader("authorization", "Bearer abc")).isEqualTo("****");
+        assertThat(REDACTOR.redactHeader("X-API-KEY-2", "abc")).isEqualTo("****");
+        assertThat(REDACTOR.redactHeader("Accept", "text/plain")).isEqualTo("text/plain");
+        assertThat(REDACTOR.redactHeader("Cookie", "a=1; JSESSIONID=abc; b=2")).isEqualTo("a=1; JSESSIONID=****; b=2");
+        assertThat(REDACTOR.redactHeader("Cookie", "a=1")).isEqualTo("a=1");
+        assertThat(REDACTOR.redactHeader("Set-Cookie", "jsessionid=abc; Path=/; HttpOnly")).isEqualTo("jsessionid=****; Path=/; HttpOnly");
+        assertThat(REDACTOR.isHeaderRedacted("cookie")).isTrue();
+        assertThat(REDACTOR.isHeaderRedacted("Accept")).isFalse();
+    }
+
+    private static MockHttpServletRequest request() {
+        final MockHttpServletRequest req = new MockHttpServletRequest("POST", "/login");
+        req.setQueryString("next=/home&token=abc");
+        req.setParameter("user", "bob");
+        req.setParameter("password", "s3cret");
+        req.addHeader("Authorization", "Basic Ym9iOnMzY3JldA==");
+        req.addHeader("Cookie", "JSESSIONID=abc; theme=dark");
+        req.setCookies(new Cookie("JSESSIONID", "abc"), new Cookie("theme", "dark"));
+        req.setContentType("application/json");
+        return req;
+    }
+
+    public void rendered() {
+        final ServletToStringUtil util = new ServletToStringUtil(null, null);
+        util.setRedactor(REDACTOR);
+        final MockHttpServletRequest req = request();
+        final String s = util.toString(req);
+        assertThat(s).doesNotContain("s3cret").doesNotContain("Ym9i").doesNotContain("token=abc").doesNotContain("JSESSIONID=abc")
+                .contains("theme=dark").contains("bob").contains("next=/home&token=****");
+        assertThat(s.replaceAll("@[0-9a-f]+\\[", "@["))
+                .isEqualTo(util.newRenderer().append(new StringBuffer(), req).toString().replaceAll("@[0-9a-f]+\\[", "@["));
+    }
+
+    public void filterBodies() {
+        final ServletToStringUtil util = new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet());
+        util.setRedactor(REDACTOR);
+        final ErrorLoggingFilter filter = new ErrorLoggingFilter(Arrays.asList(500),
+                new RequestAttributeExceptionGetter("ex"), util, null);
+        final MockHttpServletResponse resp = new MockHttpServletResponse();
+        resp.setStatus(500);
+        resp.setContentType("application/json");
+        final String s = filter.buildLogString("E1", request(),
+                "{\"user\":\"bob\",\"password\":\"s3cret\"}".getBytes(Charset.defaultCharset()),
+                resp, "{\"error\":\"boom\",\"refresh_token\":\"xyz\"}".getBytes(Charset.defaultCharset()), null);
+        assertThat(s).contains("{\"user\":\"bob\",\"password\":\"****\"}")
+                .contains("{\"error\":\"boom\",\"refresh_token\":\"****\"}")
+                .doesNotContain("s3cret").doesNotContain("xyz");
+    }
+
+    public void filterTruncatedBody() {
+        final ServletToStringUtil util = new ServletToStringUtil(Collections.<String>emptySet(), Collections.<String>emptySet());
+        util.setRedactor(REDACTOR);
+        final ErrorLoggingFilter filter = new ErrorLoggingFilter(Arrays.asList(500),
+                new RequestAttributeExceptionGetter("ex"), util, null);
+        final CaptureBuffer body = new CaptureBuffer(CaptureLimit.of(7, 25));
+        body.write("{\"a\":1,\"b\":\"123\",\"password\":\"hunter2\"}".getBytes(Charset.defaultCharset()));
+        assertThat(body.isTruncated()).isTrue();
+        final String s = filter.buildLogString("E1", request(), body, new MockHttpServletResponse(), null, null);
+        assertThat(s).contains("{\"a\":1,\n... [truncated, 38 bytes total").contains("] ...\n\"****\":\"****\"}")
+                .doesNotContain("hunter2");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidMask() {
+        new Redactor(null, null, null, null, "a=b");
+    }
+
+}
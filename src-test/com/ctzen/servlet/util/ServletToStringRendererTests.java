@@ -0,0 +1,79 @@
+package com.ctzen.servlet.util;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.servlet.http.Cookie;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class ServletToStringRendererTests {
+
+    private static final ServletToStringUtil UTIL = new ServletToStringUtil(
+            new HashSet<>(Arrays.asList("org.springframework.")),
+            new HashSet<>(Arrays.asList("SPRING_")));
+
+    private static MockHttpServletRequest request() {
+        final MockHttpServletRequest req = new MockHttpServletRequest("POST", "/orders/123");
+        req.setQueryString("a=1&b=2");
+        req.setParameter("b", "2");
+        req.setParameter("a", new String[] { "1", "one" });
+        req.addHeader("X-Zebra", "z");
+        req.addHeader("Accept", "text/plain");
+        req.addHeader("Accept", "text/html");
+        req.setCookies(new Cookie("zed", "1"), new Cookie("alpha", "2"), new Cookie("zed", "3"));
+        req.setAttribute("user", "bob");
+        req.setAttribute("org.springframework.web.servlet.View", "filtered");
+        final MockHttpSession sess = new MockHttpSession();
+        sess.setAttribute("cart", "3 items");
+        sess.setAttribute("SPRING_SECURITY_CONTEXT", "filtered");
+        req.setSession(sess);
+        return req;
+    }
+
+    private static MockHttpServletResponse response() {
+        final MockHttpServletResponse resp = new MockHttpServletResponse();
+        resp.setStatus(500);
+        resp.setContentType("text/plain");
+        resp.addHeader("X-Error-Id", "0J5RZ6Y8A04G1");
+        resp.addHeader("Cache-Control", "no-cache");
+        return resp;
+    }
+
+    /**
+     * Enumerations are new objects each call, identity hash codes differ.
+     */
+    private static String normalize(final String s) {
+        return s.replaceAll("@[0-9a-f]+\\[", "@[");
+    }
+
+    public void sameAsToString() {
+        final MockHttpServletRequest req = request();
+        final MockHttpServletResponse resp = response();
+        final ServletToStringRenderer renderer = UTIL.newRenderer();
+        assertThat(normalize(renderer.append(new StringBuffer(), req).toString())).isEqualTo(normalize(UTIL.toString(req)));
+        assertThat(normalize(renderer.append(new StringBuffer(), resp).toString())).isEqualTo(normalize(UTIL.toString(resp)));
+        assertThat(normalize(renderer.append(new StringBuffer(), req.getSession()).toString()))
+            .isEqualTo(normalize(UTIL.toString(req.getSession())));
+        final MockHttpServletRequest bare = new MockHttpServletRequest();
+        assertThat(normalize(renderer.append(new StringBuffer(), bare).toString())).isEqualTo(normalize(UTIL.toString(bare)));
+    }
+
+    public void unsorted() {
+        final ServletToStringUtil util = new ServletToStringUtil(null, null);
+        util.setSortNames(false);
+        final String s = util.newRenderer().append(new StringBuffer(), request()).toString();
+        assertThat(s.indexOf("X-Zebra")).isLessThan(s.indexOf("Accept"));
+        assertThat(s).contains("user").contains("org.springframework.web.servlet.View");
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.ctzen.servlet.wrapper;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author cchang
+ */
+@Test
+public class CaptureBufferTests {
+
+    private static byte[] bytes(final String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String string(final CaptureBuffer buffer) {
+        return new String(buffer.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    public void unlimited() {
+        final CaptureBuffer buffer = new CaptureBuffer();
+        buffer.write(bytes("0123456789"));
+        buffer.write('A');
+        assertThat(buffer.isTruncated()).isFalse();
+        assertThat(buffer.getTotal()).isEqualTo(11);
+        assertThat(string(buffer)).isEqualTo("0123456789A");
+    }
+
+    public void withinWindow() {
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(4, 4));
+        buffer.write(bytes("0123"));
+        buffer.write(bytes("456"));
+        assertThat(buffer.isTruncated()).isFalse();
+        assertThat(string(buffer)).isEqualTo("0123456");
+    }
+
+    public void headAndTail() {
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(3, 4));
+        buffer.write(bytes("01234"));
+        for (final byte b: bytes("56789")) {
+            buffer.write(b);
+        }
+        buffer.write(bytes("ABCDEF"), 1, 4);
+        assertThat(buffer.getTotal()).isEqualTo(14);
+        assertThat(buffer.size()).isEqualTo(7);
+        assertThat(buffer.isTruncated()).isTrue();
+        assertThat(string(buffer)).isEqualTo("012" + new String(CaptureBuffer.getTruncationMarker(14), StandardCharsets.US_ASCII) + "BCDE");
+    }
+
+    public void bulkWriteLargerThanTail() {
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(2, 3));
+        buffer.write(bytes("0123456789"));
+        assertThat(string(buffer)).startsWith("01").endsWith("789");
+    }
+
+    public void chunked() throws Exception {
+        final ChunkPool pool = new ChunkPool(16, 1024 * 1024);
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(40, 20), pool);
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            final String s = Integer.toString(i);
+            expected.append(s);
+            buffer.write(bytes(s));
+        }
+        final String all = expected.toString();
+        final String marker = new String(CaptureBuffer.getTruncationMarker(all.length()), StandardCharsets.US_ASCII);
+        final String captured = all.substring(0, 40) + marker + all.substring(all.length() - 20);
+        assertThat(string(buffer)).isEqualTo(captured);
+        final StringBuilder views = new StringBuilder();
+        for (final ByteBuffer view: buffer.asByteBuffers()) {
+            assertThat(view.isReadOnly()).isTrue();
+            final byte[] b = new byte[view.remaining()];
+            view.get(b);
+            views.append(new String(b, StandardCharsets.US_ASCII));
+        }
+        assertThat(views.toString()).isEqualTo(captured);
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try (final InputStream in = buffer.getInputStream()) {
+            final byte[] b = new byte[7];
+            int n;
+            while ((n = in.read(b)) != -1) {
+                streamed.write(b, 0, n);
+            }
+        }
+        assertThat(new String(streamed.toByteArray(), StandardCharsets.US_ASCII)).isEqualTo(captured);
+        buffer.release();
+        assertThat(buffer.getTotal()).isZero();
+        assertThat(pool.getPooledCount()).isEqualTo(3 + 2);    // 40 bytes head, 20 bytes tail in 16 byte chunks
+        buffer.write(bytes("again"));
+        assertThat(string(buffer)).isEqualTo("again");
+    }
+
+    public void headOnly() {
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(2, 0));
+        buffer.write(bytes("0123456789"));
+        buffer.write('X');
+        assertThat(buffer.size()).isEqualTo(2);
+        assertThat(buffer.getTotal()).isEqualTo(11);
+        assertThat(string(buffer)).startsWith("01").contains("11 bytes total");
+    }
+
+    public void budgetExhaustedMidCapture() {
+        final ChunkPool pool = new ChunkPool(16, 1024 * 1024);
+        final CaptureBudget budget = new CaptureBudget(32);
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(100, 10), pool, budget);
+        buffer.write(bytes("0123456789012345678901234567890123456789"));
+        assertThat(budget.getUsedBytes()).isEqualTo(32);
+        assertThat(buffer.size()).isEqualTo(32);
+        assertThat(buffer.getTruncationReason()).isEqualTo(TruncationReason.BUDGET_EXHAUSTED);
+        assertThat(string(buffer)).contains("40 bytes total, capture budget exhausted");
+        buffer.release();
+        assertThat(budget.getUsedBytes()).isZero();
+    }
+
+    public void budgetDegradesNewCaptures() {
+        final ChunkPool pool = new ChunkPool(16, 1024 * 1024);
+        final CaptureBudget budget = new CaptureBudget(64);
+        budget.setDegradeThreshold(0.5);
+        budget.setDegradedLimit(CaptureLimit.of(8, 0));
+        final CaptureBuffer first = new CaptureBuffer(CaptureLimit.of(48, 0), pool, budget);
+        first.write(bytes("0123456789012345678901234567890123456789"));
+        assertThat(first.getTruncationReason()).isNull();
+        final CaptureBuffer degraded = new CaptureBuffer(CaptureLimit.of(48, 0), pool, budget);
+        assertThat(degraded.getLimit()).isEqualTo(CaptureLimit.of(8, 0));
+        degraded.write(bytes("0123456789"));
+        assertThat(degraded.getTruncationReason()).isEqualTo(TruncationReason.BUDGET_LOW);
+        final CaptureBuffer exhausted = new CaptureBuffer(CaptureLimit.of(48, 0), pool, budget);
+        assertThat(exhausted.getLimit()).isEqualTo(CaptureLimit.NONE);
+        exhausted.write(bytes("0123456789"));
+        assertThat(exhausted.size()).isZero();
+        assertThat(exhausted.getTruncationReason()).isEqualTo(TruncationReason.BUDGET_EXHAUSTED);
+        assertThat(budget.getDegradedCount()).isEqualTo(1);
+        first.release();
+        degraded.release();
+        exhausted.release();
+        assertThat(budget.getUsedBytes()).isZero();
+    }
+
+    private static final File SPILL_DIR = new File("build/reports/capture-spill");
+
+    public void spill() throws Exception {
+        final ChunkPool pool = new ChunkPool(16, 1024 * 1024);
+        final CaptureBudget budget = new CaptureBudget(1024);
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(4, 0), pool, budget);
+        buffer.setSpillPolicy(new SpillPolicy(SPILL_DIR, 40));
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            final String s = Integer.toString(i);
+            expected.append(s);
+            buffer.write(bytes(s));
+            buffer.write(';');
+            expected.append(';');
+        }
+        assertThat(buffer.isSpilled()).isTrue();
+        assertThat(buffer.isTruncated()).isFalse();
+        assertThat(budget.getUsedBytes()).isEqualTo(16);       // staging chunk only
+        assertThat(string(buffer)).isEqualTo(expected.toString());
+        final ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        buffer.writeTo(Channels.newChannel(transferred));
+        assertThat(new String(transferred.toByteArray(), StandardCharsets.US_ASCII)).isEqualTo(expected.toString());
+        final File target = new File(SPILL_DIR, "moved.body");
+        target.delete();
+        assertThat(buffer.moveTo(target.toPath())).isTrue();
+        assertThat(new String(Files.readAllBytes(target.toPath()), StandardCharsets.US_ASCII)).isEqualTo(expected.toString());
+        assertThat(buffer.isSpilled()).isFalse();
+        assertThat(buffer.getTotal()).isZero();
+        assertThat(budget.getUsedBytes()).isZero();
+    }
+
+    public void spillDeletedOnRelease() throws Exception {
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.UNLIMITED, new ChunkPool(16, 1024 * 1024));
+        buffer.setSpillPolicy(new SpillPolicy(SPILL_DIR, 0));
+        buffer.write(bytes("spilled right away"));
+        assertThat(buffer.isSpilled()).isTrue();
+        final int before = SPILL_DIR.list().length;
+        buffer.release();
+        assertThat(SPILL_DIR.list().length).isEqualTo(before - 1);
+        assertThat(buffer.size()).isZero();
+    }
+
+    public void notSpilledBelowThreshold() {
+        final CaptureBuffer buffer = new CaptureBuffer(CaptureLimit.of(4, 0), new ChunkPool(16, 1024 * 1024));
+        buffer.setSpillPolicy(new SpillPolicy(SPILL_DIR, 64));
+        buffer.write(bytes("not spilled, limit ignored"));
+        assertThat(buffer.isSpilled()).isFalse();
+        assertThat(string(buffer)).isEqualTo("not spilled, limit ignored");
+        buffer.release();
+    }
+
+}
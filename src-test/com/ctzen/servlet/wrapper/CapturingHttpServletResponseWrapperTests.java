@@ -6,10 +6,16 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
 import org.springframework.test.context.web.WebAppConfiguration;
@@ -34,25 +40,103 @@ public class CapturingHttpServletResponseWrapperTests extends AbstractTestNGSpri
     public void captureByStream() throws Exception {
         final String content = "WRITE BY STREAM.";
         final String content2 = StringUtils.repeat(content, 2);
-        final MvcResult r = mockMvc.perform(get("/write-by-stream").content(content))
-                .andDo(reporter())
-                .andExpect(status().isOk())
-                .andExpect(content().string(content2))
-                .andReturn();
-        final ByteArrayOutputStream captured = (ByteArrayOutputStream)r.getRequest().getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE);
-        assertThat(captured.toByteArray()).isEqualTo(content2.getBytes());
+        final MockHttpServletResponse mock = new MockHttpServletResponse();
+        final CapturingHttpServletResponseWrapper resp = new CapturingHttpServletResponseWrapper(mock);
+        final ServletOutputStream stream = resp.getOutputStream();
+        stream.print(content);
+        stream.write(content.getBytes());
+        stream.close();
+        assertThat(mock.getContentAsString()).isEqualTo(content2);
+        assertThat(resp.getBuffer().toByteArray()).isEqualTo(content2.getBytes());
+        resp.getBuffer().release();
     }
 
     public void captureByWriter() throws Exception {
         final String content = "WRITE BY WRITER.";
         final String content2 = StringUtils.repeat(content, 2);
-        final MvcResult r = mockMvc.perform(get("/write-by-writer").content(content))
+        final MockHttpServletResponse mock = new MockHttpServletResponse();
+        final CapturingHttpServletResponseWrapper resp = new CapturingHttpServletResponseWrapper(mock);
+        final PrintWriter writer = resp.getWriter();
+        writer.print(content);
+        writer.write(content);
+        writer.close();
+        assertThat(mock.getContentAsString()).isEqualTo(content2);
+        assertThat(resp.getBuffer().toByteArray()).isEqualTo(content2.getBytes());
+        resp.getBuffer().release();
+    }
+
+    public void releasedByFilter() throws Exception {
+        final String content = "WRITE BY STREAM.";
+        final String content2 = StringUtils.repeat(content, 2);
+        final MvcResult r = mockMvc.perform(get("/write-by-stream").content(content))
                 .andDo(reporter())
                 .andExpect(status().isOk())
                 .andExpect(content().string(content2))
                 .andReturn();
-        final ByteArrayOutputStream captured = (ByteArrayOutputStream)r.getRequest().getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE);
-        assertThat(captured.toByteArray()).isEqualTo(content2.getBytes());
+        final CaptureBuffer captured = (CaptureBuffer)r.getRequest().getAttribute(ErrorLoggingFilter.RESPONSE_BODY_ATTRIBUTE);
+        assertThat(captured.size()).isZero();
+    }
+
+    /**
+     * Discards everything, the base print(String) only takes ISO-8859-1.
+     */
+    private static class NullServletOutputStream extends ServletOutputStream {
+
+        @Override
+        public void print(final String s) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+        }
+
+    }
+
+    public void printEncoded() throws Exception {
+        final MockHttpServletResponse mock = new MockHttpServletResponse();
+        mock.setCharacterEncoding("UTF-8");
+        final CaptureBuffer buffer = new CaptureBuffer();
+        final CapturingServletOutputStream stream = new CapturingServletOutputStream(new NullServletOutputStream(), buffer, mock);
+        final StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longText.append(i % 2 == 0 ? "a\u00e9" : "\ud83d\ude00");      // surrogate pairs across scratch boundaries
+        }
+        stream.print("caf\u00e9 ");
+        stream.print(42);
+        stream.print(' ');
+        stream.print(-7L);
+        stream.print(true);
+        stream.println(1.5d);
+        stream.print(0.25f);
+        stream.println('\u00e9');
+        stream.println((String)null);
+        stream.print(longText.toString());
+        final String expected = "caf\u00e9 42 -7true1.5\r\n0.25\u00e9\r\nnull\r\n" + longText;
+        assertThat(new String(buffer.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(expected);
+        // charset changes are followed
+        buffer.release();
+        mock.setCharacterEncoding("UTF-16BE");
+        stream.print("\u00e9");
+        stream.print(false);
+        assertThat(buffer.toByteArray()).isEqualTo("\u00e9false".getBytes(StandardCharsets.UTF_16BE));
+        buffer.release();
+    }
+
+    public void printDefaultCharset() throws Exception {
+        final CaptureBuffer buffer = new CaptureBuffer();
+        final CapturingServletOutputStream stream = new CapturingServletOutputStream(new NullServletOutputStream(), buffer);
+        stream.print("caf\u00e9 \u20ac");
+        assertThat(buffer.toByteArray()).isEqualTo("caf\u00e9 ?".getBytes(StandardCharsets.ISO_8859_1));
+        buffer.release();
     }
 
 }
@@ -0,0 +1,398 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctzen.servlet.metrics.ErrorLoggingMetrics;
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+
+/**
+ * {@link ErrorLogger} decorator that hands errors to background writer threads,
+ * so the request thread never waits on the delegate (e.g. disk I/O).<br>
+ * <br>
+ * Errors are queued in a bounded lock-free {@link ErrorQueue}. What happens when the buffer
+ * is full is decided by the {@link OverflowPolicy}.<br>
+ * <br>
+ * {@link #close()} stops accepting errors, drains the buffer to the delegate,
+ * then closes the delegate if it is {@link Closeable} and no writer is still busy with it.<br>
+ * <br>
+ * Attachments are passed to the delegate right away, on the calling thread, since the body
+ * is only valid during the call. Moving a spilled body is a rename on the same file system.<br>
+ * <br>
+ * Failed writes are retried by the writer per the {@link RetryPolicy}, none by default.
+ * {@link #getLagMillis()} and {@link #getConsecutiveFailures()} tell whether the delegate keeps up.
+ *
+ * @author cchang
+ */
+public class AsyncErrorLogger implements AttachingErrorLogger, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncErrorLogger.class);
+
+    /**
+     * What to do when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the error being logged.
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued error to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Wait up to the block timeout for room, then fall back to SLF4J.
+         */
+        BLOCK,
+        /**
+         * Log the error to SLF4J on the calling thread.
+         */
+        FALLBACK_LOG
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Single writer thread, {@value #DEFAULT_CAPACITY} capacity, {@link OverflowPolicy#FALLBACK_LOG}.
+     *
+     * @param delegate  the real {@link ErrorLogger}
+     */
+    public AsyncErrorLogger(final ErrorLogger delegate) {
+        this(delegate, DEFAULT_CAPACITY, 1, OverflowPolicy.FALLBACK_LOG, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param delegate              the real {@link ErrorLogger}, must be thread-safe if writerThreads &gt; 1
+     * @param capacity              buffer capacity, rounded up to the next power of 2
+     * @param writerThreads         number of background writer threads
+     * @param overflowPolicy        what to do when the buffer is full
+     * @param blockTimeoutMillis    max wait for {@link OverflowPolicy#BLOCK}
+     */
+    public AsyncErrorLogger(final ErrorLogger delegate, final int capacity, final int writerThreads,
+            final OverflowPolicy overflowPolicy, final long blockTimeoutMillis) {
+        if (writerThreads < 1) {
+            throw new IllegalArgumentException("writerThreads must be positive: " + writerThreads);
+        }
+        this.delegate = delegate;
+        this.queue = new ErrorQueue(capacity, LOG);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        LOG.info("capacity={}, writerThreads={}, overflowPolicy={}, blockTimeoutMillis={}",
+                queue.getCapacity(), writerThreads, overflowPolicy, blockTimeoutMillis);
+        for (int i = 0; i < writerThreads; i++) {
+            final Thread writer = new Thread(new Writer(), getClass().getSimpleName() + "-writer-" + i);
+            writer.setDaemon(true);
+            writers.add(writer);
+        }
+        for (final Thread writer: writers) {
+            writer.start();
+        }
+    }
+
+    private final ErrorLogger delegate;
+
+    public ErrorLogger getDelegate() {
+        return delegate;
+    }
+
+    private final ErrorQueue queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    private final long blockTimeoutMillis;
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    private long shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutMillis max wait for {@link #close()} to drain the buffer
+     */
+    public void setShutdownTimeoutMillis(final long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy   retries of failed writes, default {@link RetryPolicy#NONE}
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+        LOG.info("retryPolicy={}", this.retryPolicy);
+    }
+
+    private final List<Thread> writers = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of errors discarded or diverted to SLF4J due to overflow or shutdown
+     */
+    public long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @return number of errors the delegate failed to log, after retries
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private final AtomicLong retriedCount = new AtomicLong();
+
+    /**
+     * @return number of retried writes
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    private final AtomicLong consecutiveFailures = new AtomicLong();
+
+    /**
+     * @return errors the delegate failed to log since the last success, 0 when healthy
+     */
+    public long getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    private volatile long lastSuccessMillis;
+
+    /**
+     * @return when the delegate last logged an error, 0 if never
+     */
+    public long getLastSuccessMillis() {
+        return lastSuccessMillis;
+    }
+
+    /**
+     * When the error being written was queued, 0 when idle.
+     */
+    private volatile long headQueuedMillis;
+
+    /**
+     * @return how long the error being written has waited, 0 when idle
+     */
+    public long getLagMillis() {
+        final long queuedMillis = headQueuedMillis;
+        return queuedMillis == 0 ? 0 : Math.max(0, System.currentTimeMillis() - queuedMillis);
+    }
+
+    public ErrorLoggingMetrics getMetrics() {
+        return queue.getMetrics();
+    }
+
+    /**
+     * @param metrics   records drops, delegate failures, and reads the queue depth until closed,
+     *                  default {@link ErrorLoggingMetrics#NONE}; the queue depth is withdrawn from the one replaced
+     */
+    public void setMetrics(final ErrorLoggingMetrics metrics) {
+        queue.setMetrics(metrics);
+    }
+
+    /**
+     * @return approximate number of errors waiting to be written
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void log(final String errorId, final String error) throws IOException {
+        final ErrorQueue.Entry entry = new ErrorQueue.Entry(errorId, error);
+        if (closed) {
+            queue.fallback(entry, "closed");
+            return;
+        }
+        if (!queue.offer(entry)) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    queue.drop(entry);
+                    break;
+                case DROP_OLDEST:
+                    offerDropOldest(entry);
+                    break;
+                case BLOCK:
+                    offerBlocking(entry);
+                    break;
+                default:
+                    queue.fallback(entry, "overflow");
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public boolean attach(final String errorId, final String name, final CaptureBuffer body) throws IOException {
+        if (closed || !(delegate instanceof AttachingErrorLogger)) {
+            return false;
+        }
+        return ((AttachingErrorLogger)delegate).attach(errorId, name, body);
+    }
+
+    private void offerDropOldest(final ErrorQueue.Entry entry) {
+        while (!queue.offer(entry)) {
+            final ErrorQueue.Entry oldest = queue.poll();
+            if (oldest != null) {
+                queue.drop(oldest);
+            }
+        }
+    }
+
+    private void offerBlocking(final ErrorQueue.Entry entry) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        long parkNanos = 1000;
+        while (!queue.offer(entry)) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || closed) {
+                queue.fallback(entry, "overflow");
+                return;
+            }
+            LockSupport.parkNanos(Math.min(parkNanos, remaining));
+            parkNanos = Math.min(parkNanos << 1, ErrorQueue.MAX_IDLE_PARK_NANOS);
+        }
+    }
+
+    private void write(final ErrorQueue.Entry entry) {
+        headQueuedMillis = entry.getQueuedMillis();
+        final RetryPolicy retryPolicy = this.retryPolicy;
+        for (int attempt = 1;; attempt++) {
+            try {
+                delegate.log(entry.getErrorId(), entry.getError());
+                consecutiveFailures.set(0);
+                lastSuccessMillis = System.currentTimeMillis();
+                break;
+            }
+            catch (final Exception e) {
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    failedCount.incrementAndGet();
+                    consecutiveFailures.incrementAndGet();
+                    queue.getMetrics().logFailed();
+                    LOG.error("Exception trying to log error!!", e);
+                    LOG.error(entry.getError());
+                    break;
+                }
+                retriedCount.incrementAndGet();
+                LOG.warn("Attempt {} of {} to log error {} failed, retrying: {}",
+                        attempt, retryPolicy.getMaxAttempts(), entry.getErrorId(), e.toString());
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(retryPolicy.getBackoffMillis(attempt)));
+            }
+        }
+        if (queue.isEmpty()) {
+            headQueuedMillis = 0;
+        }
+    }
+
+    /**
+     * Stop accepting errors, wait up to {@link #getShutdownTimeoutMillis()} for queued errors
+     * to be written, then close the delegate if it is {@link Closeable}.<br>
+     * <br>
+     * Errors still queued after the timeout are logged to SLF4J. The delegate is left open if a writer
+     * is still busy with it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (final Thread writer: writers) {
+            LockSupport.unpark(writer);
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining > 0) {
+                try {
+                    writer.join(remaining);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        queue.drain("shutdown timeout");
+        int busy = 0;
+        for (final Thread writer: writers) {
+            if (writer.isAlive()) {
+                busy++;
+            }
+        }
+        if (busy > 0) {
+            LOG.warn("{} writer(s) still busy after {} millis, not closing the delegate", busy, shutdownTimeoutMillis);
+        }
+        else if (delegate instanceof Closeable) {
+            ((Closeable)delegate).close();
+        }
+        LOG.info("closed, dropped={}, failed={}", queue.getDroppedCount(), failedCount.get());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + delegate.getClass().getSimpleName()
+                + ", queued=" + getQueueSize()
+                + ", lagMillis=" + getLagMillis()
+                + ", dropped=" + getDroppedCount()
+                + ", failed=" + getFailedCount()
+                + ", retried=" + getRetriedCount()
+                + ", consecutiveFailures=" + getConsecutiveFailures() + "]";
+    }
+
+    private final class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            long parkNanos = 0;
+            for (;;) {
+                final ErrorQueue.Entry entry = queue.poll();
+                if (entry != null) {
+                    write(entry);
+                    parkNanos = 0;
+                }
+                else if (closed) {
+                    return;
+                }
+                else {
+                    parkNanos = ErrorQueue.parkIdle(this, parkNanos);
+                }
+            }
+        }
+
+    }
+
+}
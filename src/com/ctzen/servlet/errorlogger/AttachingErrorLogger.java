@@ -0,0 +1,27 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+
+/**
+ * {@link ErrorLogger} which can also store captured bodies alongside the error, instead of having them
+ * rendered into the error text. Used for bodies spilled to disk, see {@link CaptureBuffer#isSpilled()}.
+ *
+ * @author cchang
+ */
+public interface AttachingErrorLogger extends ErrorLogger {
+
+    /**
+     * Called before {@link #log(String, String)}, on the request thread.
+     * Implementor should avoid copying, e.g. by {@link CaptureBuffer#moveTo(java.nio.file.Path)}.
+     *
+     * @param errorId   error id
+     * @param name      attachment name, e.g. {@value ErrorLoggingFilter#REQUEST_BODY_ATTACHMENT}
+     * @param body      captured body, only valid during this call
+     * @return {@code false} if not stored, the body is then rendered into the error text
+     * @throws IOException
+     */
+    boolean attach(final String errorId, final String name, final CaptureBuffer body) throws IOException;
+
+}
@@ -0,0 +1,25 @@
+package com.ctzen.servlet.errorlogger;
+
+/**
+ * How {@link ErrorLoggingFilter} handles a request, see {@link CapturePolicy}.
+ *
+ * @author cchang
+ */
+public enum CaptureMode {
+
+    /**
+     * Capture bodies and log on error.
+     */
+    FULL,
+
+    /**
+     * Log on error, without bodies. Request and response are not wrapped.
+     */
+    METADATA_ONLY,
+
+    /**
+     * Pass straight through, no wrapping and no logging.
+     */
+    BYPASS
+
+}
@@ -0,0 +1,184 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides the {@link CaptureMode} of each request, so that e.g. health checks, static assets and streaming
+ * endpoints can skip wrapping entirely.<br>
+ * <br>
+ * Rules are compiled once into a trie keyed by URI prefix. A request walks the trie along its URI, once,
+ * and the rule with the longest matching prefix wins; among rules with the same prefix, the first one
+ * whose method and content type also match wins. Content type is only looked up if such a rule is reached.
+ *
+ * @author cchang
+ */
+public class CapturePolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CapturePolicy.class);
+
+    /**
+     * Capture every request.
+     */
+    public static final CapturePolicy CAPTURE_ALL = new CapturePolicy(Collections.<CaptureRule>emptyList(), CaptureMode.FULL);
+
+    private static final CaptureRule[] NO_RULES = new CaptureRule[0];
+
+    /**
+     * @param rules         rules, in precedence order for rules with the same URI prefix
+     * @param defaultMode   mode when no rule matches
+     */
+    public CapturePolicy(final List<CaptureRule> rules, final CaptureMode defaultMode) {
+        this.defaultMode = defaultMode;
+        for (final CaptureRule rule: rules) {
+            Node node = root;
+            final String prefix = rule.getUriPrefix();
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.getOrAddChild(prefix.charAt(i));
+            }
+            node.addRule(rule);
+        }
+        this.empty = rules.isEmpty();
+        if (!empty) {
+            LOG.info("defaultMode={}, rules={}", defaultMode, rules);
+        }
+    }
+
+    private final CaptureMode defaultMode;
+
+    public CaptureMode getDefaultMode() {
+        return defaultMode;
+    }
+
+    private final Node root = new Node();
+
+    private final boolean empty;
+
+    /**
+     * @param req   request
+     * @return capture mode for the request
+     */
+    public CaptureMode getMode(final HttpServletRequest req) {
+        if (empty) {
+            return defaultMode;
+        }
+        final String uri = req.getRequestURI();
+        final String contextPath = req.getContextPath();
+        final int start = contextPath != null && uri != null && uri.startsWith(contextPath) ? contextPath.length() : 0;
+        return getMode(uri, start, req.getMethod(), req, null);
+    }
+
+    /**
+     * @param path          request URI after the context path
+     * @param method        HTTP method
+     * @param contentType   request content type
+     * @return capture mode for such a request
+     */
+    public CaptureMode getMode(final String path, final String method, final String contentType) {
+        if (empty) {
+            return defaultMode;
+        }
+        return getMode(path, 0, method, null, contentType);
+    }
+
+    private CaptureMode getMode(final String uri, final int start, final String method,
+            final HttpServletRequest req, final String contentType) {
+        final ContentTypeHolder ct = new ContentTypeHolder(req, contentType);
+        CaptureMode ret = root.match(method, ct);
+        if (uri != null) {
+            Node node = root;
+            for (int i = start; i < uri.length(); i++) {
+                node = node.getChild(uri.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                final CaptureMode mode = node.match(method, ct);
+                if (mode != null) {
+                    ret = mode;
+                }
+            }
+        }
+        return ret == null ? defaultMode : ret;
+    }
+
+    /**
+     * Looks up the request content type at most once, and only if asked.
+     */
+    private static final class ContentTypeHolder {
+
+        ContentTypeHolder(final HttpServletRequest req, final String contentType) {
+            this.req = req;
+            this.contentType = contentType;
+            this.resolved = req == null;
+        }
+
+        private final HttpServletRequest req;
+
+        private String contentType;
+
+        private boolean resolved;
+
+        String get() {
+            if (!resolved) {
+                contentType = req.getContentType();
+                resolved = true;
+            }
+            return contentType;
+        }
+
+    }
+
+    private static final class Node {
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private CaptureRule[] rules = NO_RULES;
+
+        Node getChild(final char c) {
+            final char[] keys = this.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(final char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                keys[keys.length - 1] = c;
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+
+        void addRule(final CaptureRule rule) {
+            rules = Arrays.copyOf(rules, rules.length + 1);
+            rules[rules.length - 1] = rule;
+        }
+
+        CaptureMode match(final String method, final ContentTypeHolder contentType) {
+            for (final CaptureRule rule: rules) {
+                if (rule.matchesMethod(method)
+                        && (!rule.hasContentTypes() || rule.matchesContentType(contentType.get()))) {
+                    return rule.getMode();
+                }
+            }
+            return null;
+        }
+
+    }
+
+}
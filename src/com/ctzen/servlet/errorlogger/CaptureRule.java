@@ -0,0 +1,108 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A {@link CapturePolicy} rule: requests matching the URI prefix, method and content type get the mode.
+ *
+ * @author cchang
+ */
+public final class CaptureRule {
+
+    /**
+     * Constructor.
+     *
+     * @param mode          mode for matching requests
+     * @param uriPrefix     request URI prefix, after the context path, {@code null} or empty to match all
+     * @param methods       HTTP methods, {@code null} or empty to match all
+     * @param contentTypes  request content type prefixes, e.g. "multipart/", {@code null} or empty to match all
+     */
+    public CaptureRule(final CaptureMode mode, final String uriPrefix,
+            final Collection<String> methods, final Collection<String> contentTypes) {
+        this.mode = mode;
+        this.uriPrefix = uriPrefix == null ? "" : uriPrefix;
+        this.methods = normalize(methods, Locale.ENGLISH, true);
+        this.contentTypes = normalize(contentTypes, Locale.ENGLISH, false).toArray(new String[0]);
+    }
+
+    /**
+     * @param mode          mode for matching requests
+     * @param uriPrefix     request URI prefix, after the context path
+     */
+    public CaptureRule(final CaptureMode mode, final String uriPrefix) {
+        this(mode, uriPrefix, null, null);
+    }
+
+    private static Set<String> normalize(final Collection<String> values, final Locale locale, final boolean upper) {
+        if (values == null || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Set<String> ret = new TreeSet<>();
+        for (final String value: values) {
+            ret.add(upper ? value.trim().toUpperCase(locale) : value.trim().toLowerCase(locale));
+        }
+        return ret;
+    }
+
+    private final CaptureMode mode;
+
+    public CaptureMode getMode() {
+        return mode;
+    }
+
+    private final String uriPrefix;
+
+    public String getUriPrefix() {
+        return uriPrefix;
+    }
+
+    private final Set<String> methods;
+
+    public Set<String> getMethods() {
+        return Collections.unmodifiableSet(methods);
+    }
+
+    private final String[] contentTypes;
+
+    boolean matchesMethod(final String method) {
+        return methods.isEmpty() || method != null && methods.contains(method);
+    }
+
+    boolean hasContentTypes() {
+        return contentTypes.length > 0;
+    }
+
+    boolean matchesContentType(final String contentType) {
+        if (contentTypes.length == 0) {
+            return true;
+        }
+        if (contentType == null) {
+            return false;
+        }
+        for (final String prefix: contentTypes) {
+            if (contentType.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(mode).append(' ').append(uriPrefix.isEmpty() ? "*" : uriPrefix);
+        if (!methods.isEmpty()) {
+            sb.append(" methods=").append(methods);
+        }
+        if (contentTypes.length > 0) {
+            sb.append(" contentTypes=").append(Arrays.toString(contentTypes));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,339 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which errors are logged in full, by fingerprint: only the first few occurrences of
+ * a fingerprint within a window. Later ones are only logged as a reference to the first, and counted.<br>
+ * <br>
+ * Suppressed counts are logged to SLF4J every flush interval, by a daemon thread once {@link #start()}ed,
+ * e.g. by {@link ErrorLoggingFilter#setDeduplicator(ErrorDeduplicator)}, else by whichever thread checking
+ * an error first notices the interval has passed. And when {@link #flush()} is called, or on {@link #close()},
+ * e.g. by {@link ErrorLoggingFilter#destroy()}.<br>
+ * <br>
+ * Fingerprints are kept in a bounded number of stripes, each a small LRU map guarded by its own monitor,
+ * so memory stays bounded and there is no global lock. The least recently seen fingerprints are evicted
+ * first, with their counts logged.
+ *
+ * @author cchang
+ */
+public class ErrorDeduplicator implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ErrorDeduplicator.class);
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final int DEFAULT_MAX_FULL_PER_WINDOW = 5;
+
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * {@value #DEFAULT_CAPACITY} fingerprints, {@value #DEFAULT_MAX_FULL_PER_WINDOW} full reports per
+     * {@value #DEFAULT_WINDOW_MILLIS} ms window, flushed every window.
+     */
+    public ErrorDeduplicator() {
+        this(new ErrorFingerprinter(), DEFAULT_CAPACITY, DEFAULT_MAX_FULL_PER_WINDOW, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param fingerprinter         computes the fingerprints
+     * @param capacity              max fingerprints remembered
+     * @param maxFullPerWindow      occurrences of a fingerprint logged in full per window
+     * @param windowMillis          window length, also the suppressed counts flush interval
+     */
+    public ErrorDeduplicator(final ErrorFingerprinter fingerprinter, final int capacity,
+            final int maxFullPerWindow, final long windowMillis) {
+        this.fingerprinter = fingerprinter;
+        this.maxFullPerWindow = maxFullPerWindow;
+        this.windowMillis = windowMillis;
+        final int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(Math.max(1, capacity / stripeCount));
+        }
+        this.lastFlushMillis = new AtomicLong(System.currentTimeMillis());
+        LOG.info("capacity={}, maxFullPerWindow={}, windowMillis={}, stripes={}",
+                capacity, maxFullPerWindow, windowMillis, stripeCount);
+    }
+
+    private final ErrorFingerprinter fingerprinter;
+
+    public ErrorFingerprinter getFingerprinter() {
+        return fingerprinter;
+    }
+
+    private final int maxFullPerWindow;
+
+    public int getMaxFullPerWindow() {
+        return maxFullPerWindow;
+    }
+
+    private final long windowMillis;
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private final int stripeMask;
+
+    private final Stripe[] stripes;
+
+    private final AtomicLong lastFlushMillis;
+
+    long getLastFlushMillis() {
+        return lastFlushMillis.get();
+    }
+
+    private Thread flusher;
+
+    private volatile boolean closed;
+
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * @return total occurrences not logged in full
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    private Stripe stripe(final long fingerprint) {
+        final long h = fingerprint ^ fingerprint >>> 32;
+        return stripes[(int)(h ^ h >>> 16) & stripeMask];
+    }
+
+    /**
+     * Count an occurrence.
+     *
+     * @param fingerprint   error fingerprint
+     * @param errorId       error id of this occurrence
+     * @return {@code null} to log the error in full, or the error id of the first full report to refer to
+     */
+    public String check(final long fingerprint, final String errorId) {
+        final Duplicate ret = checkDuplicate(fingerprint, errorId);
+        return ret == null ? null : ret.getFirstErrorId();
+    }
+
+    /**
+     * Count an occurrence.
+     *
+     * @param fingerprint   error fingerprint
+     * @param errorId       error id of this occurrence
+     * @return {@code null} to log the error in full, or the first full report to refer to and the occurrence count
+     */
+    public Duplicate checkDuplicate(final long fingerprint, final String errorId) {
+        final long now = System.currentTimeMillis();
+        final Duplicate ret = stripe(fingerprint).check(fingerprint, errorId, now);
+        if (ret != null) {
+            suppressedCount.incrementAndGet();
+        }
+        maybeFlush(now);
+        return ret;
+    }
+
+    private void maybeFlush(final long now) {
+        final long last = lastFlushMillis.get();
+        if (now - last >= windowMillis && lastFlushMillis.compareAndSet(last, now)) {
+            flush();
+        }
+    }
+
+    /**
+     * Start the daemon thread flushing the suppressed counts every window, even when no error comes along.
+     * Does nothing if already started or closed.
+     */
+    public synchronized void start() {
+        if (flusher != null || closed) {
+            return;
+        }
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    final long waitMillis = lastFlushMillis.get() + windowMillis - System.currentTimeMillis();
+                    if (waitMillis > 0) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitMillis));     // unparked on close
+                        continue;
+                    }
+                    try {
+                        maybeFlush(System.currentTimeMillis());
+                    }
+                    catch (final RuntimeException e) {
+                        LOG.error("Flush failed!!", e);
+                    }
+                }
+            }
+        }, getClass().getSimpleName() + "-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stop the flusher thread, and flush.
+     */
+    @Override
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = flusher;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(CLOSE_TIMEOUT_MILLIS);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Log and reset the suppressed counts.
+     */
+    public void flush() {
+        for (final Stripe stripe: stripes) {
+            for (final Entry entry: stripe.drainSuppressed()) {
+                logSuppressed(entry.fingerprint, entry.suppressed, entry.firstErrorId);
+            }
+        }
+    }
+
+    /**
+     * Package-private for testing.
+     */
+    void logSuppressed(final long fingerprint, final long suppressed, final String firstErrorId) {
+        LOG.warn("{} duplicate errors of fingerprint {} not logged in full, see error {}",
+                suppressed, Long.toHexString(fingerprint), firstErrorId);
+    }
+
+    /**
+     * An occurrence not logged in full.
+     */
+    public static final class Duplicate {
+
+        Duplicate(final String firstErrorId, final int occurrence) {
+            this.firstErrorId = firstErrorId;
+            this.occurrence = occurrence;
+        }
+
+        private final String firstErrorId;
+
+        /**
+         * @return error id of the first full report of the fingerprint in the window
+         */
+        public String getFirstErrorId() {
+            return firstErrorId;
+        }
+
+        private final int occurrence;
+
+        /**
+         * @return occurrences of the fingerprint in the window so far, this one included
+         */
+        public int getOccurrence() {
+            return occurrence;
+        }
+
+    }
+
+    private static final class Entry {
+
+        Entry(final long fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        final long fingerprint;
+
+        long windowStart;
+
+        int count;
+
+        String firstErrorId;
+
+        long suppressed;
+
+    }
+
+    private final class Stripe {
+
+        Stripe(final int capacity) {
+            this.entries = new LinkedHashMap<Long, Entry>(Math.min(capacity, 64), 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Long, Entry> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    final Entry entry = eldest.getValue();
+                    if (entry.suppressed > 0) {
+                        logSuppressed(entry.fingerprint, entry.suppressed, entry.firstErrorId);
+                    }
+                    return true;
+                }
+            };
+        }
+
+        private final LinkedHashMap<Long, Entry> entries;
+
+        synchronized Duplicate check(final long fingerprint, final String errorId, final long now) {
+            Entry entry = entries.get(fingerprint);
+            if (entry == null) {
+                entry = new Entry(fingerprint);
+                entry.windowStart = now;
+                entries.put(fingerprint, entry);
+            }
+            else if (now - entry.windowStart >= windowMillis) {
+                if (entry.suppressed > 0) {
+                    // counted against the first report of the window ending, not the next one
+                    logSuppressed(entry.fingerprint, entry.suppressed, entry.firstErrorId);
+                    entry.suppressed = 0;
+                }
+                entry.windowStart = now;
+                entry.count = 0;
+            }
+            if (entry.count++ < maxFullPerWindow) {
+                if (entry.count == 1) {
+                    entry.firstErrorId = errorId;
+                }
+                return null;
+            }
+            entry.suppressed++;
+            return new Duplicate(entry.firstErrorId, entry.count);
+        }
+
+        synchronized List<Entry> drainSuppressed() {
+            final List<Entry> ret = new ArrayList<>();
+            for (final Entry entry: entries.values()) {
+                if (entry.suppressed > 0) {
+                    final Entry copy = new Entry(entry.fingerprint);
+                    copy.suppressed = entry.suppressed;
+                    copy.firstErrorId = entry.firstErrorId;
+                    ret.add(copy);
+                    entry.suppressed = 0;
+                }
+            }
+            return ret;
+        }
+
+    }
+
+}
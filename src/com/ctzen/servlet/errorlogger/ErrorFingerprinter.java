@@ -0,0 +1,173 @@
+package com.ctzen.servlet.errorlogger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Computes a 64 bits fingerprint of an error, identifying repeats of the same failure.<br>
+ * <br>
+ * The fingerprint covers the exception class, the root cause class, the root cause top stack frames
+ * and the request route. Line numbers are left out, so do generated class names (CGLIB, proxies,
+ * reflection accessors) and path segments that look like ids (numbers, UUIDs, long hex strings).
+ * Nothing is allocated per call except what {@link Throwable#getStackTrace()} does.
+ *
+ * @author cchang
+ */
+public class ErrorFingerprinter {
+
+    public static final int DEFAULT_FRAMES = 5;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public ErrorFingerprinter() {
+        this(DEFAULT_FRAMES);
+    }
+
+    /**
+     * @param frames    number of root cause top stack frames to include
+     */
+    public ErrorFingerprinter(final int frames) {
+        this.frames = frames;
+    }
+
+    private final int frames;
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @param req       request
+     * @param status    response status
+     * @param ex        exception, may be {@code null}
+     * @return fingerprint
+     */
+    public long fingerprint(final HttpServletRequest req, final int status, final Throwable ex) {
+        long h = FNV_OFFSET;
+        h = hash(h, req.getMethod());
+        h = hashRoute(h, req.getRequestURI());
+        h = hash(h, status);
+        if (ex != null) {
+            h = hash(h, ex.getClass().getName());
+            Throwable root = ExceptionUtils.getRootCause(ex);
+            if (root == null) {
+                root = ex;
+            }
+            h = hash(h, root.getClass().getName());
+            final StackTraceElement[] trace = root.getStackTrace();
+            for (int i = 0; i < trace.length && i < frames; i++) {
+                h = hashClassName(h, trace[i].getClassName());
+                h = hash(h, trace[i].getMethodName());
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return hash of the request method and route, with id-like path segments normalized
+     */
+    static long route(final HttpServletRequest req) {
+        return hashRoute(hash(FNV_OFFSET, req.getMethod()), req.getRequestURI());
+    }
+
+    /**
+     * @return hash of the exception class name, 0 for none
+     */
+    static long exceptionType(final Throwable ex) {
+        return ex == null ? 0 : hash(FNV_OFFSET, ex.getClass().getName());
+    }
+
+    private static long hash(final long h, final int value) {
+        long ret = h;
+        for (int i = 0; i < 4; i++) {
+            ret ^= value >>> (i << 3) & 0xff;
+            ret *= FNV_PRIME;
+        }
+        return ret;
+    }
+
+    private static long hash(final long h, final String s) {
+        return hash(h, s, 0, s == null ? 0 : s.length());
+    }
+
+    private static long hash(final long h, final String s, final int start, final int end) {
+        long ret = h;
+        for (int i = start; i < end; i++) {
+            ret ^= s.charAt(i);
+            ret *= FNV_PRIME;
+        }
+        ret ^= 0xff;        // terminator, so "ab"+"c" differs from "a"+"bc"
+        ret *= FNV_PRIME;
+        return ret;
+    }
+
+    /**
+     * Hash path segments, with id-like segments hashed as "{}".
+     */
+    private static long hashRoute(final long h, final String uri) {
+        if (uri == null) {
+            return hash(h, null);
+        }
+        long ret = h;
+        int start = 0;
+        while (start <= uri.length()) {
+            int end = uri.indexOf('/', start);
+            if (end < 0) {
+                end = uri.length();
+            }
+            ret = isIdSegment(uri, start, end) ? hash(ret, "{}") : hash(ret, uri, start, end);
+            start = end + 1;
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether the path segment is a number, UUID, or 8+ chars hex string with a digit
+     */
+    static boolean isIdSegment(final String s, final int start, final int end) {
+        if (end <= start) {
+            return false;
+        }
+        boolean digits = true;
+        boolean hex = true;
+        boolean hasDigit = false;
+        int hexChars = 0;
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+                hexChars++;
+            }
+            else {
+                digits = false;
+                if (c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F') {
+                    hexChars++;
+                }
+                else if (c != '-') {
+                    hex = false;
+                }
+            }
+        }
+        return digits || hex && hasDigit && hexChars >= 8;
+    }
+
+    /**
+     * Hash the class name up to any generated suffix, e.g. {@code Foo$$EnhancerBySpringCGLIB$$1a2b3c},
+     * {@code com.sun.proxy.$Proxy12}, {@code sun.reflect.GeneratedMethodAccessor34}, {@code Foo$$Lambda$5/123}.
+     */
+    private static long hashClassName(final long h, final String className) {
+        int end = className.indexOf("$$");
+        if (end < 0) {
+            end = className.length();
+        }
+        // trailing digits of $Proxy12, GeneratedMethodAccessor34, ...
+        while (end > 0 && Character.isDigit(className.charAt(end - 1))) {
+            end--;
+        }
+        return hash(h, className, 0, end);
+    }
+
+}
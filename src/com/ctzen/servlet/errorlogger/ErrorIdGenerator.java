@@ -0,0 +1,15 @@
+package com.ctzen.servlet.errorlogger;
+
+/**
+ * Generates the error ids of {@link ErrorLoggingFilter}. Must be thread-safe.
+ *
+ * @author cchang
+ */
+public interface ErrorIdGenerator {
+
+    /**
+     * @return unique error id, only {@code [A-Za-z0-9_-]} so it can be looked up by {@link ErrorReportServlet}
+     */
+    String nextErrorId();
+
+}
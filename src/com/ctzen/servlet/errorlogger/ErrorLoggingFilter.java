@@ -1,15 +1,36 @@
 package com.ctzen.servlet.errorlogger;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.UUID;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -20,12 +41,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ctzen.common.tostring.ToStringUtil;
+import com.ctzen.servlet.errorlogger.record.ErrorRecord;
+import com.ctzen.servlet.errorlogger.record.TextErrorRecordRenderer;
+import com.ctzen.servlet.metrics.ErrorLoggingMetrics;
+import com.ctzen.servlet.util.Redactor;
+import com.ctzen.servlet.util.ServletToStringRenderer;
 import com.ctzen.servlet.util.ServletToStringUtil;
+import com.ctzen.servlet.wrapper.CaptureBudget;
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+import com.ctzen.servlet.wrapper.CaptureLimit;
+import com.ctzen.servlet.wrapper.ChunkPool;
+import com.ctzen.servlet.wrapper.SpillPolicy;
 import com.ctzen.servlet.wrapper.CapturingHttpServletRequestWrapper;
 import com.ctzen.servlet.wrapper.CapturingHttpServletResponseWrapper;
 
 /**
- * Request and response body capturing, error logging servlet filter.
+ * Request and response body capturing, error logging servlet filter.<br>
+ * <br>
+ * If the request goes async, the status check, exception lookup and logging are deferred to an
+ * {@link AsyncListener}, on completion; errors and timeouts are always logged. Map the filter for
+ * {@link DispatcherType#ASYNC} too, async dispatches then keep writing through the same capture wrappers.
  *
  * @author cchang
  */
@@ -34,15 +69,22 @@ public class ErrorLoggingFilter implements Filter {
     private static final Logger LOG = LoggerFactory.getLogger(ErrorLoggingFilter.class);
 
     /**
-     * Request attribute name for the request body {@link ByteArrayOutputStream} buffer.
+     * Request attribute name for the request body {@link CaptureBuffer}.
+     * The buffer is released when the filter returns, or the async request completes, do not read it afterwards.
      */
     public static final String REQUEST_BODY_ATTRIBUTE = ErrorLoggingFilter.class.getName() + ".REQUEST_BODY";
 
     /**
-     * Request attribute name for the response body {@link ByteArrayOutputStream} buffer.
+     * Request attribute name for the response body {@link CaptureBuffer}.
+     * The buffer is released when the filter returns, or the async request completes, do not read it afterwards.
      */
     public static final String RESPONSE_BODY_ATTRIBUTE = ErrorLoggingFilter.class.getName() + ".RESPONSE_BODY";
 
+    /**
+     * Request attribute name for the capture state of a request, kept across async dispatches.
+     */
+    private static final String CAPTURE_ATTRIBUTE = ErrorLoggingFilter.class.getName() + ".CAPTURE";
+
     /**
      * Set this in request attribute (to any value except {@code null}) to skip logging.
      */
@@ -53,6 +95,20 @@ public class ErrorLoggingFilter implements Filter {
      */
     public static final String ERROR_ID_HEADER_NAME = "X-Error-Id";
 
+    /**
+     * {@link AttachingErrorLogger} attachment name for a spilled request body.
+     */
+    public static final String REQUEST_BODY_ATTACHMENT = "request-body";
+
+    /**
+     * {@link AttachingErrorLogger} attachment name for a spilled response body.
+     */
+    public static final String RESPONSE_BODY_ATTACHMENT = "response-body";
+
+    private static final int BODY_DECODE_BUFFER_SIZE = 4096;
+
+    private static final int RENDER_BUFFER_SIZE = 8192;
+
     /**
      * Constructor.
      *
@@ -99,50 +155,375 @@ public class ErrorLoggingFilter implements Filter {
         return errorLogger;
     }
 
+    private CaptureLimit requestBodyCaptureLimit = CaptureLimit.UNLIMITED;
+
+    public CaptureLimit getRequestBodyCaptureLimit() {
+        return requestBodyCaptureLimit;
+    }
+
+    /**
+     * @param requestBodyCaptureLimit   how much of the request body to capture, default {@link CaptureLimit#UNLIMITED}
+     */
+    public void setRequestBodyCaptureLimit(final CaptureLimit requestBodyCaptureLimit) {
+        this.requestBodyCaptureLimit = requestBodyCaptureLimit;
+        LOG.info("requestBodyCaptureLimit={}", requestBodyCaptureLimit);
+    }
+
+    private CaptureLimit responseBodyCaptureLimit = CaptureLimit.UNLIMITED;
+
+    public CaptureLimit getResponseBodyCaptureLimit() {
+        return responseBodyCaptureLimit;
+    }
+
+    /**
+     * @param responseBodyCaptureLimit  how much of the response body to capture, default {@link CaptureLimit#UNLIMITED}
+     */
+    public void setResponseBodyCaptureLimit(final CaptureLimit responseBodyCaptureLimit) {
+        this.responseBodyCaptureLimit = responseBodyCaptureLimit;
+        LOG.info("responseBodyCaptureLimit={}", responseBodyCaptureLimit);
+    }
+
+    private SpillPolicy requestBodySpillPolicy;
+
+    public SpillPolicy getRequestBodySpillPolicy() {
+        return requestBodySpillPolicy;
+    }
+
+    /**
+     * @param requestBodySpillPolicy    capture the entire request body, spilling to disk, instead of
+     *                                  using the capture limit, default {@code null} for no spilling
+     */
+    public void setRequestBodySpillPolicy(final SpillPolicy requestBodySpillPolicy) {
+        this.requestBodySpillPolicy = requestBodySpillPolicy;
+        LOG.info("requestBodySpillPolicy={}", requestBodySpillPolicy);
+    }
+
+    private SpillPolicy responseBodySpillPolicy;
+
+    public SpillPolicy getResponseBodySpillPolicy() {
+        return responseBodySpillPolicy;
+    }
+
+    /**
+     * @param responseBodySpillPolicy   capture the entire response body, spilling to disk, instead of
+     *                                  using the capture limit, default {@code null} for no spilling
+     */
+    public void setResponseBodySpillPolicy(final SpillPolicy responseBodySpillPolicy) {
+        this.responseBodySpillPolicy = responseBodySpillPolicy;
+        LOG.info("responseBodySpillPolicy={}", responseBodySpillPolicy);
+    }
+
+    private ChunkPool chunkPool = ChunkPool.getDefault();
+
+    public ChunkPool getChunkPool() {
+        return chunkPool;
+    }
+
+    /**
+     * @param chunkPool     where capture buffers get their chunks from, default {@link ChunkPool#getDefault()}
+     */
+    public void setChunkPool(final ChunkPool chunkPool) {
+        this.chunkPool = chunkPool;
+    }
+
+    private CaptureBudget captureBudget;
+
+    public CaptureBudget getCaptureBudget() {
+        return captureBudget;
+    }
+
+    /**
+     * @param captureBudget     memory budget shared by all body captures, default {@code null} for none
+     */
+    public void setCaptureBudget(final CaptureBudget captureBudget) {
+        this.captureBudget = captureBudget;
+    }
+
+    private CapturePolicy capturePolicy = CapturePolicy.CAPTURE_ALL;
+
+    public CapturePolicy getCapturePolicy() {
+        return capturePolicy;
+    }
+
+    /**
+     * @param capturePolicy     which requests to capture, log without bodies, or bypass entirely,
+     *                          default {@link CapturePolicy#CAPTURE_ALL}
+     */
+    public void setCapturePolicy(final CapturePolicy capturePolicy) {
+        this.capturePolicy = capturePolicy;
+    }
+
+    private ErrorIdGenerator errorIdGenerator = new TimeOrderedErrorIdGenerator();
+
+    public ErrorIdGenerator getErrorIdGenerator() {
+        return errorIdGenerator;
+    }
+
+    /**
+     * @param errorIdGenerator  default {@link TimeOrderedErrorIdGenerator}, with the node derived from the process
+     */
+    public void setErrorIdGenerator(final ErrorIdGenerator errorIdGenerator) {
+        this.errorIdGenerator = errorIdGenerator;
+    }
+
+    private ErrorDeduplicator deduplicator;
+
+    public ErrorDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Starts the deduplicator flushing its counts every window, closes the one it replaces.
+     *
+     * @param deduplicator  log only the first few occurrences of the same error in full,
+     *                      later ones as a reference to the first, default {@code null} to log all in full
+     */
+    public void setDeduplicator(final ErrorDeduplicator deduplicator) {
+        if (this.deduplicator != null && this.deduplicator != deduplicator) {
+            this.deduplicator.close();
+        }
+        this.deduplicator = deduplicator;
+        if (deduplicator != null) {
+            deduplicator.start();
+        }
+    }
+
+    private ErrorRateLimiter rateLimiter;
+
+    public ErrorRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param rateLimiter   errors over the limits are logged as a short suppressed marker instead of in full,
+     *                      default {@code null} for no limits
+     */
+    public void setRateLimiter(final ErrorRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    private ErrorLoggingMetrics metrics = ErrorLoggingMetrics.NONE;
+
+    public ErrorLoggingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics   records requests wrapped, bytes captured, render time, failures and suppressions,
+     *                  default {@link ErrorLoggingMetrics#NONE}
+     */
+    public void setMetrics(final ErrorLoggingMetrics metrics) {
+        this.metrics = metrics == null ? ErrorLoggingMetrics.NONE : metrics;
+    }
+
     @Override
     public void init(final FilterConfig filterConfig) throws ServletException {
     }
 
+    /**
+     * Closes the {@link ErrorDeduplicator}, flushing its counts, and closes the {@link ErrorLogger} if it is {@link Closeable},
+     * e.g. to drain an {@link AsyncErrorLogger}.
+     */
     @Override
     public void destroy() {
+        if (deduplicator != null) {
+            deduplicator.close();
+        }
+        if (errorLogger instanceof Closeable) {
+            try {
+                ((Closeable)errorLogger).close();
+            }
+            catch (final Exception e) {
+                LOG.error("Exception trying to close error logger!!", e);
+            }
+        }
     }
 
     @Override
     public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
-        final CapturingHttpServletRequestWrapper req = new CapturingHttpServletRequestWrapper((HttpServletRequest)request);
+        final CaptureMode mode = capturePolicy.getMode((HttpServletRequest)request);
+        if (mode == CaptureMode.BYPASS) {
+            chain.doFilter(request, response);
+        }
+        else if (mode == CaptureMode.METADATA_ONLY) {
+            doFilterMetadataOnly((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        }
+        else {
+            doFilterCapturing((HttpServletRequest)request, (HttpServletResponse)response, chain);
+        }
+    }
+
+    private void doFilterCapturing(final HttpServletRequest request, final HttpServletResponse response, final FilterChain chain) throws IOException, ServletException {
+        if (redispatch(request, response, chain)) {
+            return;
+        }
+        final long startMillis = System.currentTimeMillis();
+        final CapturingHttpServletRequestWrapper req = new CapturingHttpServletRequestWrapper(request,
+                newCaptureBuffer(requestBodyCaptureLimit, requestBodySpillPolicy));
         req.setAttribute(REQUEST_BODY_ATTRIBUTE, req.getBuffer());
-        final CapturingHttpServletResponseWrapper resp = new CapturingHttpServletResponseWrapper((HttpServletResponse)response);
+        final CapturingHttpServletResponseWrapper resp = new CapturingHttpServletResponseWrapper(response,
+                newCaptureBuffer(responseBodyCaptureLimit, responseBodySpillPolicy));
         req.setAttribute(RESPONSE_BODY_ATTRIBUTE, resp.getBuffer());
-        try {
-            chain.doFilter(req, resp);
+        req.setCapturingResponse(resp);
+        metrics.requestWrapped();
+        new Capture(startMillis, req, req.getBuffer(), resp, resp.getBuffer()).chain(req, resp, chain);
+    }
+
+    /**
+     * Errors are still logged, without the bodies.
+     */
+    private void doFilterMetadataOnly(final HttpServletRequest req, final HttpServletResponse resp, final FilterChain chain) throws IOException, ServletException {
+        if (redispatch(req, resp, chain)) {
+            return;
         }
-        catch (final Exception e) {
-            doLog(req, resp, e);
-            throw e;
+        new Capture(System.currentTimeMillis(), req, null, resp, null).chain(req, resp, chain);
+    }
+
+    /**
+     * Async dispatch of a request already going through the filter.
+     *
+     * @return whether it was
+     */
+    private boolean redispatch(final HttpServletRequest request, final HttpServletResponse response, final FilterChain chain) throws IOException, ServletException {
+        if (request.getDispatcherType() != DispatcherType.ASYNC) {
+            return false;
         }
-        if (statusCodes.contains(resp.getStatus()) && req.getAttribute(DONT_LOG_ATTRIBUTE) == null) {
-            final Exception ex = exceptionGetter.getException(req);
-            doLog(req, resp, ex);
+        final Object capture = request.getAttribute(CAPTURE_ATTRIBUTE);
+        if (!(capture instanceof Capture)) {
+            return false;
         }
+        ((Capture)capture).chain(request, response, chain);
+        return true;
     }
 
-    private void doLog(final CapturingHttpServletRequestWrapper req, final CapturingHttpServletResponseWrapper resp, final Exception ex) {
+    private CaptureBuffer newCaptureBuffer(final CaptureLimit limit, final SpillPolicy spillPolicy) {
+        final CaptureBuffer ret = new CaptureBuffer(limit, chunkPool, captureBudget);
+        if (spillPolicy != null) {
+            ret.setSpillPolicy(spillPolicy);
+        }
+        return ret;
+    }
+
+    private void doLog(final long startMillis, final HttpServletRequest req, final CaptureBuffer reqBody,
+            final HttpServletResponse resp, final CaptureBuffer respBody, final Exception ex) {
+        final long startNanos = System.nanoTime();
         try {
             final String errorId = getErrorId(resp);
-            final String logText = buildLogString(errorId, req, req.getBuffer().toByteArray(),
-                    resp, resp.getBuffer().toByteArray(), ex);
-            log(errorId, logText);
+            if (deduplicator != null) {
+                final long fingerprint = deduplicator.getFingerprinter().fingerprint(req, resp.getStatus(), ex);
+                final ErrorDeduplicator.Duplicate duplicate = deduplicator.checkDuplicate(fingerprint, errorId);
+                if (duplicate != null) {
+                    metrics.reportSuppressed();
+                    log(errorId, buildMarkerLogString(errorId,
+                            "DUPLICATE OF: " + duplicate.getFirstErrorId()
+                            + "\n\nOCCURRENCE: " + duplicate.getOccurrence()
+                            + "\n\nFINGERPRINT: " + Long.toHexString(fingerprint),
+                            req, resp, ex));
+                    return;
+                }
+            }
+            if (rateLimiter != null) {
+                final String limit = rateLimiter.acquire(req, resp.getStatus(), ex);
+                if (limit != null) {
+                    metrics.reportSuppressed();
+                    log(errorId, buildMarkerLogString(errorId, "SUPPRESSED: " + limit + " rate limit", req, resp, ex));
+                    return;
+                }
+            }
+            final long reqBodyAttached = attach(errorId, REQUEST_BODY_ATTACHMENT, reqBody);
+            final long respBodyAttached = attach(errorId, RESPONSE_BODY_ATTACHMENT, respBody);
+            if (errorLogger instanceof StructuredErrorLogger) {
+                log(buildErrorRecord(errorId, startMillis,
+                        req, toRecordBody(REQUEST_BODY_ATTACHMENT, reqBody, reqBodyAttached, req.getContentType()),
+                        resp, toRecordBody(RESPONSE_BODY_ATTACHMENT, respBody, respBodyAttached, resp.getContentType()),
+                        ex));
+            }
+            else {
+                final String reqBodyNote = toBodyNote(REQUEST_BODY_ATTACHMENT, reqBodyAttached);
+                final String respBodyNote = toBodyNote(RESPONSE_BODY_ATTACHMENT, respBodyAttached);
+                final Report report = new Report(errorId, req, reqBody, reqBodyNote, resp, respBody, respBodyNote, ex);
+                log(errorId, report);
+            }
+            metrics.reportLogged(System.nanoTime() - startNanos);
         }
         catch (final Exception e) {
+            metrics.logFailed();
             LOG.error("Exception trying to log error!!", e);
         }
     }
 
+    /**
+     * Spilled bodies are handed to an {@link AttachingErrorLogger} rather than rendered into the error text.
+     *
+     * @return bytes attached, or -1 if not attached
+     */
+    private long attach(final String errorId, final String name, final CaptureBuffer body) {
+        if (body == null || !body.isSpilled() || !(errorLogger instanceof AttachingErrorLogger)) {
+            return -1;
+        }
+        final long total = body.getTotal();
+        try {
+            if (((AttachingErrorLogger)errorLogger).attach(errorId, name, body)) {
+                return total;
+            }
+        }
+        catch (final Exception e) {
+            LOG.error("Exception trying to attach " + name + ", rendering it instead", e);
+        }
+        return -1;
+    }
+
+    /**
+     * A body the {@link Redactor} masks is copied masked, records are rendered or stored as they are.
+     */
+    private ErrorRecord.Body toRecordBody(final String name, final CaptureBuffer body, final long attached,
+            final String contentType) throws IOException {
+        if (body == null) {
+            return null;
+        }
+        if (attached >= 0) {
+            return ErrorRecord.Body.attached(name, attached);
+        }
+        final Redactor redactor = servletToStringUtil.getRedactor();
+        if (!redactor.isBodyRedacted(contentType)) {
+            return ErrorRecord.Body.of(body);
+        }
+        final ByteArrayOutputStream redacted = new ByteArrayOutputStream(body.size());
+        final Writer writer = new OutputStreamWriter(redacted, Charset.defaultCharset());
+        writeBody(redactor, redactor.redactBody(writer, contentType), BodyInput.of(body), null,
+                new char[BODY_DECODE_BUFFER_SIZE]);
+        writer.flush();
+        return ErrorRecord.Body.of(redacted.toByteArray(), body.getTotal(), body.isTruncated());
+    }
+
+    /**
+     * @return note to render in place of an attached body, or {@code null} if not attached
+     */
+    private static String toBodyNote(final String name, final long attached) {
+        return attached < 0 ? null : "<" + attached + " bytes, see attachment " + name + ">";
+    }
+
+    /**
+     * @return compact record of an error not logged in full, e.g. a duplicate or over the rate limit
+     */
+    private static String buildMarkerLogString(final String errorId, final String marker,
+            final HttpServletRequest req, final HttpServletResponse resp, final Exception ex) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("ERROR ID: ").append(errorId)
+          .append("\n\n").append(marker)
+          .append("\n\nREQUEST: ").append(req.getMethod()).append(' ').append(req.getRequestURI())
+          .append("\n\nSTATUS: ").append(resp.getStatus());
+        if (ex != null) {
+            sb.append("\n\nEXCEPTION: ").append(ex);
+        }
+        return sb.append("\n").toString();
+    }
+
     /**
      * @return unique error id
      */
     public String getErrorId() {
-        return UUID.randomUUID().toString();
+        return errorIdGenerator.nextErrorId();
     }
 
     /**
@@ -170,37 +551,536 @@ public class ErrorLoggingFilter implements Filter {
         return errorId;
     }
 
+    /**
+     * @param startMillis   when the request entered the filter
+     * @return structured error, the bodies are only valid as long as their buffers
+     */
+    public ErrorRecord buildErrorRecord(final String errorId, final long startMillis,
+            final HttpServletRequest req, final ErrorRecord.Body reqBody,
+            final HttpServletResponse resp, final ErrorRecord.Body respBody,
+            final Exception ex) {
+        final ErrorRecord ret = new ErrorRecord();
+        ret.setErrorId(errorId);
+        ret.setTimestamp(startMillis);
+        ret.setDurationMillis(System.currentTimeMillis() - startMillis);
+        ret.setThread(String.valueOf(Thread.currentThread()));
+        ret.setMethod(req.getMethod());
+        ret.setRequestUri(req.getRequestURI());
+        final Redactor redactor = servletToStringUtil.getRedactor();
+        ret.setQueryString(redactor.redactQueryString(req.getQueryString()));
+        ret.setProtocol(req.getProtocol());
+        ret.setRemoteAddr(req.getRemoteAddr());
+        ret.setRequestContentType(req.getContentType());
+        ret.setRequestHeaders(headersOf(req, redactor));
+        final Map<String, List<String>> parameters = new TreeMap<>();
+        for (final Map.Entry<String, String[]> e: req.getParameterMap().entrySet()) {
+            if (redactor.isParameterRedacted(e.getKey())) {
+                parameters.put(e.getKey(), Collections.nCopies(e.getValue().length, redactor.getMask()));
+            }
+            else {
+                parameters.put(e.getKey(), Arrays.asList(e.getValue()));
+            }
+        }
+        ret.setParameters(parameters);
+        final Map<String, String> requestAttributes = new TreeMap<>();
+        for (final String name: Collections.list(req.getAttributeNames())) {
+            if (!servletToStringUtil.isRequestAttributeFiltered(name)) {
+                requestAttributes.put(name, String.valueOf(req.getAttribute(name)));
+            }
+        }
+        ret.setRequestAttributes(requestAttributes);
+        ret.setRequestBody(reqBody);
+        ret.setStatus(resp.getStatus());
+        ret.setResponseContentType(resp.getContentType());
+        final Map<String, List<String>> responseHeaders = new TreeMap<>();
+        for (final String name: resp.getHeaderNames()) {
+            final List<String> values = new ArrayList<>(resp.getHeaders(name));
+            if (redactor.isHeaderRedacted(name)) {
+                for (int i = 0; i < values.size(); i++) {
+                    values.set(i, redactor.redactHeader(name, values.get(i)));
+                }
+            }
+            responseHeaders.put(name, values);
+        }
+        ret.setResponseHeaders(responseHeaders);
+        ret.setResponseBody(respBody);
+        final HttpSession sess = req.getSession(false);
+        if (sess != null) {
+            ret.setSessionId(sess.getId());
+            final Map<String, String> sessionAttributes = new TreeMap<>();
+            for (final String name: Collections.list(sess.getAttributeNames())) {
+                if (!servletToStringUtil.isSessionAttributeFiltered(name)) {
+                    sessionAttributes.put(name, String.valueOf(sess.getAttribute(name)));
+                }
+            }
+            ret.setSessionAttributes(sessionAttributes);
+        }
+        if (ex != null) {
+            ret.setExceptionClass(ex.getClass().getName());
+            ret.setExceptionMessage(ex.getMessage());
+            ret.setStackTrace(ExceptionUtils.getStackTrace(ex));
+        }
+        return ret;
+    }
+
+    private static Map<String, List<String>> headersOf(final HttpServletRequest req, final Redactor redactor) {
+        final Map<String, List<String>> ret = new TreeMap<>();
+        final Enumeration<String> names = req.getHeaderNames();
+        if (names != null) {
+            while (names.hasMoreElements()) {
+                final String name = names.nextElement();
+                final List<String> values = Collections.list(req.getHeaders(name));
+                if (redactor.isHeaderRedacted(name)) {
+                    for (int i = 0; i < values.size(); i++) {
+                        values.set(i, redactor.redactHeader(name, values.get(i)));
+                    }
+                }
+                ret.put(name, values);
+            }
+        }
+        return ret;
+    }
+
     public String buildLogString(final String errorId, final HttpServletRequest req, final byte[] reqBody,
             final HttpServletResponse resp, final byte[] respBody,
             final Exception ex) {
-        final StringBuilder ret = new StringBuilder();
-        ret.append("ERROR ID: ").append(errorId)
-           .append("\n\nTHREAD: ").append(Thread.currentThread())
-           .append("\n\nREQUEST:\n")
-           .append(servletToStringUtil.toString(req))
-           .append("\n\nREQUEST BODY:\n")
-           .append(reqBody == null ? ToStringUtil.NULL_STRING : new String(reqBody));
-        ret.append("\n\nRESPONSE:\n")
-           .append(servletToStringUtil.toString(resp))
-           .append("\n\nRESPONSE BODY:\n")
-           .append(respBody == null ? ToStringUtil.NULL_STRING : new String(respBody));
-        final HttpSession sess = req.getSession(false);
-        ret.append("\n\nSESSION:\n")
-           .append(sess == null ? ToStringUtil.NULL_STRING : servletToStringUtil.toString(sess));
-        ret.append("\n\nEXCEPTION:\n")
-           .append(ex == null ? ToStringUtil.NULL_STRING : ExceptionUtils.getStackTrace(ex));
-        ret.append("\n");
+        return buildLogString(errorId,
+                req, BodyInput.of(reqBody), null,
+                resp, BodyInput.of(respBody), null,
+                ex);
+    }
+
+    /**
+     * Same as {@link #buildLogString(String, HttpServletRequest, byte[], HttpServletResponse, byte[], Exception)},
+     * but reads the bodies straight from the capture buffers without copying them first.
+     */
+    public String buildLogString(final String errorId, final HttpServletRequest req, final CaptureBuffer reqBody,
+            final HttpServletResponse resp, final CaptureBuffer respBody,
+            final Exception ex) {
+        return buildLogString(errorId,
+                req, BodyInput.of(reqBody), null,
+                resp, BodyInput.of(respBody), null,
+                ex);
+    }
+
+    private String buildLogString(final String errorId,
+            final HttpServletRequest req, final BodyInput reqBody, final String reqBodyNote,
+            final HttpServletResponse resp, final BodyInput respBody, final String respBodyNote,
+            final Exception ex) {
+        final StringWriter ret = new StringWriter();
+        try {
+            writeReport(ret, errorId, req, reqBody, reqBodyNote, resp, respBody, respBodyNote, ex);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);     // not possible, writing to memory
+        }
         return ret.toString();
     }
 
+    /**
+     * Render the report section by section into out, bodies are decoded through a bounded scratch buffer.
+     */
+    private void writeReport(final Writer out, final String errorId,
+            final HttpServletRequest req, final BodyInput reqBody, final String reqBodyNote,
+            final HttpServletResponse resp, final BodyInput respBody, final String respBodyNote,
+            final Exception ex) throws IOException {
+        final ServletToStringRenderer renderer = servletToStringUtil.newRenderer();
+        final StringBuffer sb = new StringBuffer(RENDER_BUFFER_SIZE);
+        final char[] scratch = new char[BODY_DECODE_BUFFER_SIZE];
+        out.append("ERROR ID: ").append(errorId)
+           .append("\n\nTHREAD: ").append(String.valueOf(Thread.currentThread()))
+           .append("\n\nREQUEST:\n");
+        write(out, renderer.append(sb, req), scratch);
+        final Redactor redactor = servletToStringUtil.getRedactor();
+        out.append("\n\nREQUEST BODY:\n");
+        writeBody(redactor, redactor.redactBody(out, req.getContentType()), reqBody, reqBodyNote, scratch);
+        out.append("\n\nRESPONSE:\n");
+        sb.setLength(0);
+        write(out, renderer.append(sb, resp), scratch);
+        out.append("\n\nRESPONSE BODY:\n");
+        writeBody(redactor, redactor.redactBody(out, resp.getContentType()), respBody, respBodyNote, scratch);
+        final HttpSession sess = req.getSession(false);
+        out.append("\n\nSESSION:\n");
+        if (sess == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            sb.setLength(0);
+            write(out, renderer.append(sb, sess), scratch);
+        }
+        out.append("\n\nEXCEPTION:\n");
+        if (ex == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            // same as ExceptionUtils.getStackTrace(ex), without the intermediate String
+            final PrintWriter pw = new PrintWriter(out);
+            ex.printStackTrace(pw);
+            pw.flush();
+            if (pw.checkError()) {
+                throw new IOException("Unable to write the stack trace");
+            }
+        }
+        out.append("\n");
+    }
+
+    /**
+     * Copy through the scratch array, {@link Writer#append(CharSequence)} would copy to a String first.
+     */
+    private static void write(final Writer out, final StringBuffer sb, final char[] scratch) throws IOException {
+        final int length = sb.length();
+        for (int start = 0; start < length; start += scratch.length) {
+            final int end = Math.min(length, start + scratch.length);
+            sb.getChars(start, end, scratch, 0);
+            out.write(scratch, 0, end - start);
+        }
+    }
+
+    /**
+     * Decodes body with the platform charset, same as {@code new String(byte[])}.
+     * A spilled body is read through memory-mapped views. The head and the tail of a truncated body are decoded
+     * apart, the redactor marks the cut.
+     */
+    private static void writeBody(final Redactor redactor, final Writer out, final BodyInput body, final String note,
+            final char[] scratch) throws IOException {
+        if (note != null) {
+            out.append(note);
+            return;
+        }
+        if (body == null) {
+            out.append(ToStringUtil.NULL_STRING);
+            return;
+        }
+        decode(out, body.head, scratch);
+        if (body.marker != null) {
+            redactor.writeTruncationMarker(out, body.marker);
+            decode(out, body.tail, scratch);
+        }
+    }
+
+    private static void decode(final Writer out, final InputStream in, final char[] scratch) throws IOException {
+        try (final Reader reader = new InputStreamReader(in, Charset.defaultCharset())) {
+            int n;
+            while ((n = reader.read(scratch)) != -1) {
+                out.write(scratch, 0, n);
+            }
+        }
+    }
+
+    /**
+     * A body to render: the head, then the truncation marker and the tail if truncated.
+     */
+    private static final class BodyInput {
+
+        static BodyInput of(final byte[] body) {
+            return body == null ? null : new BodyInput(new ByteArrayInputStream(body), null, null);
+        }
+
+        static BodyInput of(final CaptureBuffer body) {
+            if (body == null) {
+                return null;
+            }
+            if (!body.isTruncated()) {
+                return new BodyInput(body.getHeadInputStream(), null, null);
+            }
+            final byte[] marker = CaptureBuffer.getTruncationMarker(body.getTotal(), body.getTruncationReason());
+            return new BodyInput(body.getHeadInputStream(), new String(marker, StandardCharsets.US_ASCII),
+                    body.getTailInputStream());
+        }
+
+        BodyInput(final InputStream head, final String marker, final InputStream tail) {
+            this.head = head;
+            this.marker = marker;
+            this.tail = tail;
+        }
+
+        final InputStream head;
+
+        final String marker;
+
+        final InputStream tail;
+
+    }
+
+    /**
+     * Capture state of a request, from the filter until the response completes, across async dispatches.
+     */
+    private final class Capture implements AsyncListener {
+
+        Capture(final long startMillis, final HttpServletRequest req, final CaptureBuffer reqBody,
+                final HttpServletResponse resp, final CaptureBuffer respBody) {
+            this.startMillis = startMillis;
+            this.req = req;
+            this.reqBody = reqBody;
+            this.resp = resp;
+            this.respBody = respBody;
+            req.setAttribute(CAPTURE_ATTRIBUTE, this);
+        }
+
+        private final long startMillis;
+
+        private final HttpServletRequest req;
+
+        private final CaptureBuffer reqBody;
+
+        private final HttpServletResponse resp;
+
+        private final CaptureBuffer respBody;
+
+        private volatile Exception asyncException;
+
+        private volatile boolean listening;
+
+        /**
+         * Chain, and unless the request went async, log if need be and release the buffers.
+         * On an async dispatch the request and response may be others, wrapping ours or not.
+         */
+        void chain(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+            final ServletRequest chainRequest = wraps(request, req) ? request : req;
+            final ServletResponse chainResponse = chainRequest == req ? resp : response;
+            boolean async = false;
+            try {
+                try {
+                    chain.doFilter(chainRequest, chainResponse);
+                }
+                catch (final Exception e) {
+                    async = listen();
+                    if (!async) {
+                        doLog(startMillis, req, reqBody, resp, respBody, e);
+                    }
+                    throw e;
+                }
+                async = listen();
+                if (!async) {
+                    logIfError(null);
+                }
+            }
+            finally {
+                if (!async) {
+                    release();
+                }
+            }
+        }
+
+        private boolean wraps(final ServletRequest request, final ServletRequest wrapped) {
+            return request == wrapped
+                    || request instanceof ServletRequestWrapper && ((ServletRequestWrapper)request).isWrapperFor(wrapped);
+        }
+
+        /**
+         * Once listening, logging and releasing are left to {@link #onComplete(AsyncEvent)}, also on an async
+         * dispatch, where the container reports the request as no longer async started.
+         *
+         * @return whether the request went async, if so, completion is listened to
+         */
+        private boolean listen() {
+            if (listening) {
+                return true;
+            }
+            if (!req.isAsyncStarted()) {
+                return false;
+            }
+            req.getAsyncContext().addListener(this);
+            listening = true;
+            return true;
+        }
+
+        private void logIfError(final Exception asyncException) {
+            if (asyncException != null) {
+                doLog(startMillis, req, reqBody, resp, respBody, asyncException);
+            }
+            else if (statusCodes.contains(resp.getStatus()) && req.getAttribute(DONT_LOG_ATTRIBUTE) == null) {
+                doLog(startMillis, req, reqBody, resp, respBody, exceptionGetter.getException(req));
+            }
+        }
+
+        private void release() {
+            req.removeAttribute(CAPTURE_ATTRIBUTE);
+            if (reqBody != null && respBody != null) {
+                metrics.bytesCaptured(reqBody.getTotal(), respBody.getTotal());
+            }
+            if (reqBody != null) {
+                reqBody.release();
+            }
+            if (respBody != null) {
+                respBody.release();
+            }
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) throws IOException {
+            try {
+                logIfError(asyncException);
+            }
+            finally {
+                release();
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) throws IOException {
+            if (asyncException == null) {
+                asyncException = new AsyncTimeoutException("Async request timed out after "
+                        + event.getAsyncContext().getTimeout() + " ms");
+            }
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) throws IOException {
+            final Throwable t = event.getThrowable();
+            if (t instanceof Exception) {
+                asyncException = (Exception)t;
+            }
+            else {
+                asyncException = t == null ? new ServletException("Async error") : new ServletException(t);
+            }
+        }
+
+        /**
+         * A new async cycle drops the listeners, listen again.
+         */
+        @Override
+        public void onStartAsync(final AsyncEvent event) throws IOException {
+            event.getAsyncContext().addListener(this);
+        }
+
+    }
+
+    /**
+     * Logged for an async request that timed out.
+     */
+    public static class AsyncTimeoutException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        public AsyncTimeoutException(final String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Rendered from the capture buffers each time, they stay valid until released.
+     */
+    private final class Report implements ErrorReport {
+
+        Report(final String errorId,
+                final HttpServletRequest req, final CaptureBuffer reqBody, final String reqBodyNote,
+                final HttpServletResponse resp, final CaptureBuffer respBody, final String respBodyNote,
+                final Exception ex) {
+            this.errorId = errorId;
+            this.req = req;
+            this.reqBody = reqBody;
+            this.reqBodyNote = reqBodyNote;
+            this.resp = resp;
+            this.respBody = respBody;
+            this.respBodyNote = respBodyNote;
+            this.ex = ex;
+        }
+
+        private final String errorId;
+
+        private final HttpServletRequest req;
+
+        private final CaptureBuffer reqBody;
+
+        private final String reqBodyNote;
+
+        private final HttpServletResponse resp;
+
+        private final CaptureBuffer respBody;
+
+        private final String respBodyNote;
+
+        private final Exception ex;
+
+        @Override
+        public void writeTo(final Writer out) throws IOException {
+            writeReport(out, errorId,
+                    req, reqBodyNote == null ? BodyInput.of(reqBody) : null, reqBodyNote,
+                    resp, respBodyNote == null ? BodyInput.of(respBody) : null, respBodyNote,
+                    ex);
+        }
+
+        @Override
+        public String toString() {
+            return buildLogString(errorId,
+                    req, reqBodyNote == null ? BodyInput.of(reqBody) : null, reqBodyNote,
+                    resp, respBodyNote == null ? BodyInput.of(respBody) : null, respBodyNote,
+                    ex);
+        }
+
+    }
+
     public void log(final String errorId, final String logText) {
         try {
             errorLogger.log(errorId, logText);
         }
         catch (Exception e) {
+            metrics.logFailed();
             LOG.error("Exception trying to log error!!", e);
             LOG.error(logText);
         }
     }
 
+    /**
+     * Streams the report into a {@link StreamingErrorLogger}, or renders it for any other {@link ErrorLogger}.
+     */
+    public void log(final String errorId, final ErrorReport report) {
+        try {
+            if (errorLogger instanceof StreamingErrorLogger) {
+                ((StreamingErrorLogger)errorLogger).log(errorId, report);
+            }
+            else {
+                errorLogger.log(errorId, render(report));
+            }
+        }
+        catch (Exception e) {
+            metrics.logFailed();
+            LOG.error("Exception trying to log error!!", e);
+            try {
+                LOG.error(render(report));
+            }
+            catch (final Exception e2) {
+                LOG.error("Exception trying to render error!!", e2);
+            }
+        }
+    }
+
+    /**
+     * Hands the record to a {@link StructuredErrorLogger}, or renders it as text for any other {@link ErrorLogger}.
+     */
+    public void log(final ErrorRecord record) {
+        try {
+            if (errorLogger instanceof StructuredErrorLogger) {
+                ((StructuredErrorLogger)errorLogger).log(record);
+            }
+            else {
+                errorLogger.log(record.getErrorId(), render(record));
+            }
+        }
+        catch (Exception e) {
+            metrics.logFailed();
+            LOG.error("Exception trying to log error!!", e);
+            try {
+                LOG.error(render(record));
+            }
+            catch (final Exception e2) {
+                LOG.error("Exception trying to render error!!", e2);
+            }
+        }
+    }
+
+    private static String render(final ErrorRecord record) throws IOException {
+        final StringWriter ret = new StringWriter();
+        TextErrorRecordRenderer.INSTANCE.render(record, ret);
+        return ret.toString();
+    }
+
+    private static String render(final ErrorReport report) throws IOException {
+        final StringWriter ret = new StringWriter();
+        report.writeTo(ret);
+        return ret.toString();
+    }
+
 }
@@ -0,0 +1,223 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+
+import com.ctzen.servlet.metrics.ErrorLoggingMetrics;
+import com.ctzen.servlet.util.BoundedRingBuffer;
+
+/**
+ * Errors queued between request threads and the background thread(s) of an {@link ErrorLogger},
+ * e.g. {@link AsyncErrorLogger} and {@link com.ctzen.servlet.errorlogger.collector.HttpCollectorErrorLogger}.<br>
+ * <br>
+ * A bounded lock-free ring buffer, plus the accounting of errors that do not make it through: they are counted,
+ * reported to the {@link ErrorLoggingMetrics} and logged to SLF4J instead. The queue depth is read by the
+ * metrics until {@link #drain(String)}ed.<br>
+ * <br>
+ * Once drained, i.e. the background threads have polled for the last time, errors offered are logged to SLF4J.
+ *
+ * @author cchang
+ */
+public class ErrorQueue {
+
+    static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Back off progressively while idle, so an idle background thread costs next to nothing.
+     * Unpark the thread to wake it up early.
+     *
+     * @param blocker       park blocker
+     * @param parkNanos     returned by the previous call, 0 if there was work since
+     * @return how long it parked
+     */
+    public static long parkIdle(final Object blocker, final long parkNanos) {
+        final long ret = parkNanos == 0 ? 1000 : Math.min(parkNanos << 1, MAX_IDLE_PARK_NANOS);
+        LockSupport.parkNanos(blocker, ret);
+        return ret;
+    }
+
+    /**
+     * @param capacity  rounded up to the next power of 2
+     * @param log       the owner's logger, errors that do not make it through are logged here
+     */
+    public ErrorQueue(final int capacity, final Logger log) {
+        this.buffer = new BoundedRingBuffer<>(capacity);
+        this.log = log;
+    }
+
+    private final BoundedRingBuffer<Entry> buffer;
+
+    public int getCapacity() {
+        return buffer.getCapacity();
+    }
+
+    private final Logger log;
+
+    /**
+     * Set before the last poll, anything offered after is logged to SLF4J.
+     */
+    private volatile boolean drained;
+
+    public boolean isDrained() {
+        return drained;
+    }
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @return errors dropped or logged to SLF4J instead
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private volatile ErrorLoggingMetrics metrics = ErrorLoggingMetrics.NONE;
+
+    private final LongSupplier depth = new LongSupplier() {
+        @Override
+        public long getAsLong() {
+            return buffer.size();
+        }
+    };
+
+    public ErrorLoggingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics   records drops, and reads the queue depth until drained,
+     *                  default {@link ErrorLoggingMetrics#NONE}; the queue depth is withdrawn from the one replaced
+     */
+    public synchronized void setMetrics(final ErrorLoggingMetrics metrics) {
+        this.metrics.unqueue(depth);
+        this.metrics = metrics == null ? ErrorLoggingMetrics.NONE : metrics;
+        if (!drained) {
+            this.metrics.queue(depth);
+        }
+    }
+
+    /**
+     * @return approximate number of errors queued
+     */
+    public int size() {
+        return buffer.size();
+    }
+
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    /**
+     * Errors offered once drained are logged to SLF4J, and so is anything left in the queue
+     * should it be drained while offering.
+     *
+     * @return {@code false} if the queue is full, the caller decides what to do with the error
+     */
+    public boolean offer(final Entry entry) {
+        if (drained) {
+            fallback(entry, "closed");
+            return true;
+        }
+        if (!buffer.offer(entry)) {
+            return false;
+        }
+        if (drained) {
+            // drained while queueing, after the last poll
+            fallbackAll("closed");
+        }
+        return true;
+    }
+
+    /**
+     * @return the oldest error, or {@code null} if none
+     */
+    public Entry poll() {
+        return buffer.poll();
+    }
+
+    /**
+     * Discard an error the queue has no room for.
+     */
+    public void drop(final Entry entry) {
+        countDropped(1);
+        log.warn("Buffer full, dropped error: {}", entry.getErrorId());
+    }
+
+    /**
+     * Count errors dropped after being polled, logging them is up to the caller.
+     */
+    public void countDropped(final int errors) {
+        droppedCount.addAndGet(errors);
+        final ErrorLoggingMetrics metrics = this.metrics;
+        for (int i = 0; i < errors; i++) {
+            metrics.reportDropped();
+        }
+    }
+
+    /**
+     * Log an error to SLF4J instead.
+     */
+    public void fallback(final Entry entry, final String reason) {
+        countDropped(1);
+        log.error("Unable to queue error ({}), logging here instead: {}", reason, entry.getErrorId());
+        log.error(entry.getError());
+    }
+
+    /**
+     * Log the queued errors to SLF4J instead.
+     */
+    public void fallbackAll(final String reason) {
+        Entry entry;
+        while ((entry = buffer.poll()) != null) {
+            fallback(entry, reason);
+        }
+    }
+
+    /**
+     * Called once the background threads have stopped polling: stops accepting errors, logs the ones left
+     * to SLF4J, and withdraws the queue depth from the metrics.
+     */
+    public void drain(final String reason) {
+        synchronized (this) {
+            drained = true;
+            metrics.unqueue(depth);
+        }
+        fallbackAll(reason);
+    }
+
+    /**
+     * A queued error.
+     */
+    public static final class Entry {
+
+        public Entry(final String errorId, final String error) {
+            this.errorId = errorId;
+            this.error = error;
+            this.queuedMillis = System.currentTimeMillis();
+        }
+
+        private final String errorId;
+
+        public String getErrorId() {
+            return errorId;
+        }
+
+        private final String error;
+
+        public String getError() {
+            return error;
+        }
+
+        private final long queuedMillis;
+
+        public long getQueuedMillis() {
+            return queuedMillis;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket rate limits on full error reports: a global limit, plus optional per-key limits,
+ * keyed by status code, request route or exception type.<br>
+ * <br>
+ * Each bucket is a single "theoretical arrival time" updated by CAS (GCRA), so checking is lock-free
+ * and allocation free. Per-key buckets are a fixed number of slots per key type, keys are hashed into
+ * the slots, so memory is bounded; keys sharing a slot share the budget.
+ *
+ * @author cchang
+ */
+public class ErrorRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ErrorRateLimiter.class);
+
+    /**
+     * What per-key limits are keyed by.
+     */
+    public enum Key {
+        /**
+         * Response status code.
+         */
+        STATUS,
+        /**
+         * Request method and URI, with id-like path segments normalized, e.g. GET /orders/{}.
+         */
+        ROUTE,
+        /**
+         * Exception class.
+         */
+        EXCEPTION
+    }
+
+    public static final int DEFAULT_KEY_SLOTS = 1024;
+
+    /**
+     * @param perSecond     global full reports per second
+     * @param burst         global full reports allowed at once
+     */
+    public ErrorRateLimiter(final double perSecond, final int burst) {
+        this.global = new Limit("global", perSecond, burst, 1);
+        LOG.info("global={}", global);
+    }
+
+    private final long originNanos = System.nanoTime();
+
+    private final Limit global;
+
+    private static final int KEY_COUNT = Key.values().length;
+
+    private final Map<Key, Limit> keyLimits = new EnumMap<>(Key.class);
+
+    /**
+     * Add a per-key limit, {@value #DEFAULT_KEY_SLOTS} slots. Not thread-safe, configure before use.
+     *
+     * @param key           what to key by
+     * @param perSecond     full reports per second per key
+     * @param burst         full reports allowed at once per key
+     */
+    public void setKeyLimit(final Key key, final double perSecond, final int burst) {
+        final Limit limit = new Limit(key.name().toLowerCase(Locale.ENGLISH), perSecond, burst, DEFAULT_KEY_SLOTS);
+        keyLimits.put(key, limit);
+        LOG.info("{}={}", key, limit);
+    }
+
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * @return number of errors over the limits
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    /**
+     * Take a token from each applicable bucket, per-key first,
+     * so a single hot key does not use up the global budget.
+     * If a bucket is empty, the tokens already taken are given back, a suppressed error is not charged.
+     *
+     * @param req       request
+     * @param status    response status
+     * @param ex        exception, may be {@code null}
+     * @return {@code null} if within limits, otherwise the name of the limit exceeded
+     */
+    public String acquire(final HttpServletRequest req, final int status, final Throwable ex) {
+        final long now = System.nanoTime() - originNanos;
+        String exceeded = null;
+        // to give the tokens back without hashing again
+        final long[] hashes = new long[KEY_COUNT];
+        int acquired = 0;
+        for (final Map.Entry<Key, Limit> e: keyLimits.entrySet()) {
+            final Limit limit = e.getValue();
+            final long hash = keyHash(e.getKey(), req, status, ex);
+            if (!limit.tryAcquire(hash, now)) {
+                exceeded = limit.name;
+                break;
+            }
+            hashes[acquired++] = hash;
+        }
+        if (exceeded == null) {
+            if (global.tryAcquire(0, now)) {
+                return null;
+            }
+            exceeded = global.name;
+        }
+        int i = 0;
+        for (final Limit limit: keyLimits.values()) {
+            if (i == acquired) {
+                break;
+            }
+            limit.release(hashes[i++]);
+        }
+        suppressedCount.incrementAndGet();
+        return exceeded;
+    }
+
+    private static long keyHash(final Key key, final HttpServletRequest req, final int status, final Throwable ex) {
+        switch (key) {
+            case STATUS:
+                return status;
+            case ROUTE:
+                return ErrorFingerprinter.route(req);
+            default:
+                return ErrorFingerprinter.exceptionType(ex);
+        }
+    }
+
+    private static final class Limit {
+
+        Limit(final String name, final double perSecond, final int burst, final int slots) {
+            if (perSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("perSecond and burst must be positive: " + perSecond + ", " + burst);
+            }
+            this.name = name;
+            this.intervalNanos = Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / perSecond));
+            this.toleranceNanos = intervalNanos * burst;
+            final int size = slots <= 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+            this.mask = size - 1;
+            this.arrivals = new AtomicLongArray(size);
+        }
+
+        final String name;
+
+        final long intervalNanos;
+
+        final long toleranceNanos;
+
+        final int mask;
+
+        /**
+         * Per slot theoretical arrival time, nanos since origin.
+         */
+        final AtomicLongArray arrivals;
+
+        private int slot(final long key) {
+            final long h = key * 0x9e3779b97f4a7c15L;
+            return (int)(h ^ h >>> 32) & mask;
+        }
+
+        boolean tryAcquire(final long key, final long now) {
+            final int slot = slot(key);
+            for (;;) {
+                final long tat = arrivals.get(slot);
+                final long next = Math.max(tat, now) + intervalNanos;
+                if (next - now > toleranceNanos) {
+                    return false;
+                }
+                if (arrivals.compareAndSet(slot, tat, next)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Give back a token taken by {@link #tryAcquire(long, long)}.
+         */
+        void release(final long key) {
+            arrivals.addAndGet(slot(key), -intervalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return (double)TimeUnit.SECONDS.toNanos(1) / intervalNanos + "/s, burst " + toleranceNanos / intervalNanos
+                    + ", slots " + arrivals.length();
+        }
+
+    }
+
+}
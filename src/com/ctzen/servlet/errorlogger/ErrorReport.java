@@ -0,0 +1,20 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * An error report, rendered on demand straight into a {@link StreamingErrorLogger}'s output.
+ *
+ * @author cchang
+ */
+public interface ErrorReport {
+
+    /**
+     * Render the report. May be called more than once, but only during the {@link StreamingErrorLogger#log(String, ErrorReport)} call.
+     *
+     * @param out   where to render, not closed
+     */
+    void writeTo(final Writer out) throws IOException;
+
+}
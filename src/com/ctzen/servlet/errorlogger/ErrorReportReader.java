@@ -0,0 +1,18 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+
+/**
+ * Reads back errors logged by an {@link ErrorLogger}, by error id.
+ *
+ * @author cchang
+ */
+public interface ErrorReportReader {
+
+    /**
+     * @param errorId   error id, e.g. from the {@value ErrorLoggingFilter#ERROR_ID_HEADER_NAME} response header
+     * @return the error logged with the id, or {@code null} if not found
+     */
+    String read(final String errorId) throws IOException;
+
+}
@@ -0,0 +1,82 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Read-only servlet that returns a logged error by id, as plain text.<br>
+ * <br>
+ * The id is taken from the path info, e.g. {@code GET /errors/<errorId>},
+ * or the {@value #ERROR_ID_PARAMETER} parameter.<br>
+ * <br>
+ * Error reports contain request and session data, map it behind access control.
+ *
+ * @author cchang
+ */
+public class ErrorReportServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String ERROR_ID_PARAMETER = "id";
+
+    private static final int MAX_ERROR_ID_LENGTH = 128;
+
+    /**
+     * @param reader    where to read errors from
+     */
+    public ErrorReportServlet(final ErrorReportReader reader) {
+        this.reader = reader;
+    }
+
+    private final ErrorReportReader reader;
+
+    public ErrorReportReader getReader() {
+        return reader;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        String errorId = req.getPathInfo();
+        if (errorId == null || errorId.length() <= 1) {
+            errorId = req.getParameter(ERROR_ID_PARAMETER);
+        }
+        else {
+            errorId = errorId.substring(1);
+        }
+        if (!isValidErrorId(errorId)) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid error id");
+            return;
+        }
+        final String report = reader.read(errorId);
+        if (report == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Error not found: " + errorId);
+            return;
+        }
+        final byte[] bytes = report.getBytes(StandardCharsets.UTF_8);
+        resp.setContentType("text/plain;charset=UTF-8");
+        resp.setContentLength(bytes.length);
+        resp.getOutputStream().write(bytes);
+    }
+
+    /**
+     * Error ids are generated by {@link ErrorLoggingFilter}, anything else is rejected, e.g. path traversal.
+     */
+    static boolean isValidErrorId(final String errorId) {
+        if (errorId == null || errorId.isEmpty() || errorId.length() > MAX_ERROR_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < errorId.length(); i++) {
+            final char c = errorId.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
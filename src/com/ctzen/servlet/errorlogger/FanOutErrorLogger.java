@@ -0,0 +1,102 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ErrorLogger} that logs each error to several sinks, e.g. local disk, a central collector and a summary log,
+ * without one slow or failing sink holding up the others or the request thread.<br>
+ * <br>
+ * Each sink is an {@link AsyncErrorLogger}, with its own bounded queue, writer, {@link AsyncErrorLogger.OverflowPolicy}
+ * and {@link RetryPolicy}. The error is rendered once, and the same String is queued to every sink.<br>
+ * <br>
+ * {@link #toString()} shows each sink's queue, lag, drops and failures.
+ *
+ * @author cchang
+ */
+public class FanOutErrorLogger implements ErrorLogger, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FanOutErrorLogger.class);
+
+    /**
+     * @param sinks     {@link AsyncErrorLogger}s as configured, any other {@link ErrorLogger} is wrapped in
+     *                  an {@link AsyncErrorLogger} with the defaults
+     */
+    public FanOutErrorLogger(final List<? extends ErrorLogger> sinks) {
+        if (sinks == null || sinks.isEmpty()) {
+            throw new IllegalArgumentException("No sinks");
+        }
+        final List<AsyncErrorLogger> asyncSinks = new ArrayList<>(sinks.size());
+        for (final ErrorLogger sink: sinks) {
+            asyncSinks.add(sink instanceof AsyncErrorLogger ? (AsyncErrorLogger)sink : new AsyncErrorLogger(sink));
+        }
+        this.sinks = Collections.unmodifiableList(asyncSinks);
+        LOG.info("sinks={}", this.sinks);
+    }
+
+    private final List<AsyncErrorLogger> sinks;
+
+    public List<AsyncErrorLogger> getSinks() {
+        return sinks;
+    }
+
+    /**
+     * Queues the error to every sink.
+     *
+     * @throws IOException  only if no sink took the error
+     */
+    @Override
+    public void log(final String errorId, final String error) throws IOException {
+        Exception failure = null;
+        int failed = 0;
+        for (final AsyncErrorLogger sink: sinks) {
+            try {
+                sink.log(errorId, error);
+            }
+            catch (final IOException | RuntimeException e) {
+                failed++;
+                if (failure == null) {
+                    failure = e;
+                }
+                LOG.error("Unable to queue error " + errorId + " to " + sink, e);
+            }
+        }
+        if (failed == sinks.size()) {
+            throw new IOException("Unable to queue error to any sink: " + errorId, failure);
+        }
+    }
+
+    /**
+     * Closes every sink, draining what each can in its shutdown timeout.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (final AsyncErrorLogger sink: sinks) {
+            try {
+                sink.close();
+            }
+            catch (final IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                LOG.error("Exception trying to close " + sink, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sinks.toString();
+    }
+
+}
@@ -1,34 +1,111 @@
 package com.ctzen.servlet.errorlogger;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ctzen.servlet.metrics.ErrorLoggingMetrics;
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+
 /**
- * {@link ErrorLogger} that logs to individual files in the designated folder.
+ * {@link ErrorLogger} that logs to individual files in the designated folder.<br>
+ * <br>
+ * Attachments are stored as {@code <errorId>.<name>} files next to the error, spilled bodies are moved there.<br>
+ * <br>
+ * {@link ErrorReport}s are encoded straight into the file through a bounded buffer.<br>
+ * <br>
+ * Files can be spread over {@link Sharding} subdirectories, so no directory grows unbounded,
+ * and kept within a {@link FileRetention} by a background janitor that deletes the oldest files first.
  *
  * @author cchang
  */
-public class FileErrorLogger implements ErrorLogger {
+public class FileErrorLogger implements AttachingErrorLogger, StreamingErrorLogger, Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileErrorLogger.class);
 
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    public static final long DEFAULT_JANITOR_INTERVAL_MILLIS = 10000;
+
+    public static final int DEFAULT_SCAN_BATCH_SIZE = 1000;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Subdirectories of the folder the files go to.
+     */
+    public enum Sharding {
+
+        /**
+         * All files in the folder.
+         */
+        NONE,
+
+        /**
+         * {@code yyyy-MM-dd/HH} UTC subdirectories, by the timestamp of {@link TimeOrderedErrorIdGenerator} error ids,
+         * or the log time for other ids. Old files are whole old directories.
+         */
+        DATE,
+
+        /**
+         * {@code xx/xx} subdirectories, 256 by 256, by the hash of the error id.
+         */
+        HASH
+
+    }
+
     /**
      * @param folder    directory to log to
      */
     public FileErrorLogger(final File folder) {
+        this(folder, Sharding.NONE, FileRetention.UNLIMITED);
+    }
+
+    /**
+     * @param folder    directory to log to
+     * @param sharding  subdirectories of the folder
+     */
+    public FileErrorLogger(final File folder, final Sharding sharding) {
+        this(folder, sharding, FileRetention.UNLIMITED);
+    }
+
+    /**
+     * @param folder    directory to log to
+     * @param sharding  subdirectories of the folder
+     * @param retention limits enforced by a background janitor, {@link FileRetention#UNLIMITED} for no janitor
+     */
+    public FileErrorLogger(final File folder, final Sharding sharding, final FileRetention retention) {
         this.folder = folder;
+        this.sharding = sharding;
         if (!folder.exists()) {
             folder.mkdirs();
         }
         if (!folder.isDirectory()) {
             throw new IllegalArgumentException("Unable to make directory: " + folder);
         }
-        LOG.info("folder={}", folder.getAbsolutePath());
+        LOG.info("folder={}, sharding={}, retention={}", folder.getAbsolutePath(), sharding, retention);
+        if (!retention.isUnlimited()) {
+            janitor = new FileErrorLoggerJanitor(folder.toPath(), retention);
+            janitor.start();
+        }
+        else {
+            janitor = null;
+        }
     }
 
     private final File folder;
@@ -37,10 +114,203 @@ public class FileErrorLogger implements ErrorLogger {
         return folder;
     }
 
+    private final Sharding sharding;
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    private final FileErrorLoggerJanitor janitor;
+
+    public FileRetention getRetention() {
+        return janitor == null ? FileRetention.UNLIMITED : janitor.getRetention();
+    }
+
+    /**
+     * @param janitorIntervalMillis pause between janitor passes, default {@value #DEFAULT_JANITOR_INTERVAL_MILLIS}
+     */
+    public void setJanitorIntervalMillis(final long janitorIntervalMillis) {
+        if (janitor != null) {
+            janitor.setIntervalMillis(janitorIntervalMillis);
+        }
+    }
+
+    /**
+     * @param scanBatchSize directory entries the janitor scans per pass, default {@value #DEFAULT_SCAN_BATCH_SIZE}
+     */
+    public void setScanBatchSize(final int scanBatchSize) {
+        if (janitor != null) {
+            janitor.setScanBatchSize(scanBatchSize);
+        }
+    }
+
+    /**
+     * @return files kept by the janitor, -1 without retention
+     */
+    public long getFileCount() {
+        return janitor == null ? -1 : janitor.getFileCount();
+    }
+
+    /**
+     * @return bytes kept by the janitor, -1 without retention
+     */
+    public long getTotalBytes() {
+        return janitor == null ? -1 : janitor.getTotalBytes();
+    }
+
+    /**
+     * @return files deleted by the janitor
+     */
+    public long getDeletedCount() {
+        return janitor == null ? 0 : janitor.getDeletedCount();
+    }
+
+    FileErrorLoggerJanitor getJanitor() {
+        return janitor;
+    }
+
+    private ErrorLoggingMetrics metrics = ErrorLoggingMetrics.NONE;
+
+    public ErrorLoggingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics   records write latency, default {@link ErrorLoggingMetrics#NONE}
+     */
+    public void setMetrics(final ErrorLoggingMetrics metrics) {
+        this.metrics = metrics == null ? ErrorLoggingMetrics.NONE : metrics;
+    }
+
+    /**
+     * @return the file of the error, with {@link Sharding#DATE} only stable for time-ordered error ids
+     */
+    public File getFile(final String errorId) {
+        return new File(getShardFolder(errorId), errorId);
+    }
+
+    private File getShardFolder(final String errorId) {
+        switch (sharding) {
+            case DATE:
+                long timestamp = TimeOrderedErrorIdGenerator.getTimestamp(errorId);
+                if (timestamp < 0) {
+                    timestamp = System.currentTimeMillis();
+                }
+                return new File(folder, datePath(timestamp));
+            case HASH:
+                return new File(folder, hashPath(errorId));
+            default:
+                return folder;
+        }
+    }
+
+    static String datePath(final long timestamp) {
+        final LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(timestamp, 1000), 0, ZoneOffset.UTC);
+        final StringBuilder sb = new StringBuilder(13).append(time.getYear()).append('-');
+        pad2(sb, time.getMonthValue()).append('-');
+        pad2(sb, time.getDayOfMonth()).append('/');
+        return pad2(sb, time.getHour()).toString();
+    }
+
+    private static StringBuilder pad2(final StringBuilder sb, final int value) {
+        return sb.append((char)('0' + value / 10)).append((char)('0' + value % 10));
+    }
+
+    /**
+     * @return two levels of two hex digits of the 32 bits FNV-1a hash of the error id
+     */
+    static String hashPath(final String errorId) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < errorId.length(); i++) {
+            h ^= errorId.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        return new String(new char[] {
+            HEX[(h >>> 12) & 0xf], HEX[(h >>> 8) & 0xf], '/', HEX[(h >>> 4) & 0xf], HEX[h & 0xf]
+        });
+    }
+
+    /**
+     * Opens for append, making the shard directory if missing, or removed by the janitor once emptied.
+     */
+    private static FileChannel openAppend(final Path path) throws IOException {
+        try {
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        catch (final NoSuchFileException e) {
+            Files.createDirectories(path.getParent());
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
     @Override
     public void log(final String errorId, final String error) throws IOException {
-        final File f = new File(folder, errorId);
-        Files.write(f.toPath(), error.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        final long startNanos = System.nanoTime();
+        final Path path = getFile(errorId).toPath();
+        final ByteBuffer bytes = ByteBuffer.wrap(error.getBytes());
+        try (final FileChannel channel = openAppend(path)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        if (janitor != null) {
+            janitor.written(path, bytes.capacity());
+        }
+        metrics.sinkWritten(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Encodes with the platform charset, same as {@link #log(String, String)}.
+     */
+    @Override
+    public void log(final String errorId, final ErrorReport report) throws IOException {
+        final long startNanos = System.nanoTime();
+        final Path path = getFile(errorId).toPath();
+        final long bytes;
+        try (final FileChannel channel = openAppend(path)) {
+            final long startSize = janitor == null ? 0 : channel.size();
+            final Writer writer = Channels.newWriter(channel, Charset.defaultCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE), WRITE_BUFFER_SIZE);
+            report.writeTo(writer);
+            writer.flush();
+            bytes = janitor == null ? 0 : channel.size() - startSize;
+        }
+        if (janitor != null) {
+            janitor.written(path, bytes);
+        }
+        metrics.sinkWritten(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public boolean attach(final String errorId, final String name, final CaptureBuffer body) throws IOException {
+        final File dir = getShardFolder(errorId);
+        if (sharding != Sharding.NONE) {
+            Files.createDirectories(dir.toPath());
+        }
+        final Path path = new File(dir, errorId + "." + name).toPath();
+        if (!body.moveTo(path)) {
+            try (final FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                body.writeTo(channel);
+            }
+        }
+        if (janitor != null) {
+            janitor.written(path, Files.size(path));
+        }
+        return true;
+    }
+
+    /**
+     * Stop the janitor, if any, and save its index.
+     */
+    @Override
+    public void close() throws IOException {
+        if (janitor != null) {
+            janitor.close();
+            LOG.info("closed, {}", janitor);
+        }
     }
 
 }
@@ -0,0 +1,442 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background janitor keeping a {@link FileErrorLogger} folder within its {@link FileRetention}.<br>
+ * <br>
+ * Files are indexed oldest first. The logger adds what it writes, so enforcing the limits only deletes from
+ * the head of the index, no directory is walked. The index is saved to {@value #INDEX_FILE} in the folder,
+ * at most every {@value #INDEX_SAVE_INTERVAL_MILLIS} millis and on close, and loaded on startup instead of
+ * stat'ing every file.<br>
+ * <br>
+ * Files missing from the index, written after the last save or by someone else, are picked up by a
+ * reconciliation scan. It visits at most {@code scanBatchSize} directory entries per pass and only stats
+ * names not in the index, a full scan starts every {@value #RESCAN_INTERVAL_MILLIS} millis.
+ * Shard directories emptied by deletes are removed.
+ *
+ * @author cchang
+ */
+final class FileErrorLoggerJanitor implements Runnable, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileErrorLoggerJanitor.class);
+
+    static final String INDEX_FILE = ".index";
+
+    private static final String INDEX_TEMP_FILE = ".index.tmp";
+
+    static final long INDEX_SAVE_INTERVAL_MILLIS = 60000;
+
+    static final long RESCAN_INTERVAL_MILLIS = 3600000;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    private static final Comparator<Entry> OLDEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry e1, final Entry e2) {
+            final int c = Long.compare(e1.createdMillis, e2.createdMillis);
+            return c != 0 ? c : e1.key.compareTo(e2.key);
+        }
+    };
+
+    /**
+     * @param root          the logger folder
+     * @param retention     limits to enforce
+     */
+    FileErrorLoggerJanitor(final Path root, final FileRetention retention) {
+        this.root = root;
+        this.retention = retention;
+        load();
+        thread = new Thread(this, FileErrorLogger.class.getSimpleName() + "-janitor");
+        thread.setDaemon(true);
+    }
+
+    private final Path root;
+
+    private final FileRetention retention;
+
+    FileRetention getRetention() {
+        return retention;
+    }
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private volatile long intervalMillis = FileErrorLogger.DEFAULT_JANITOR_INTERVAL_MILLIS;
+
+    void setIntervalMillis(final long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        LockSupport.unpark(thread);
+    }
+
+    private volatile int scanBatchSize = FileErrorLogger.DEFAULT_SCAN_BATCH_SIZE;
+
+    void setScanBatchSize(final int scanBatchSize) {
+        this.scanBatchSize = scanBatchSize;
+    }
+
+    private final Object lock = new Object();
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private final PriorityQueue<Entry> oldest = new PriorityQueue<>(64, OLDEST_FIRST);
+
+    private long totalBytes;
+
+    private boolean dirty;
+
+    long getTotalBytes() {
+        synchronized (lock) {
+            return totalBytes;
+        }
+    }
+
+    long getFileCount() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    private volatile long deletedCount;
+
+    long getDeletedCount() {
+        return deletedCount;
+    }
+
+    private volatile long scannedCount;
+
+    /**
+     * @return files found by the reconciliation scan
+     */
+    long getScannedCount() {
+        return scannedCount;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @param file      a file the logger wrote to
+     * @param bytes     bytes written
+     */
+    void written(final Path file, final long bytes) {
+        final String key = root.relativize(file).toString();
+        synchronized (lock) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, System.currentTimeMillis());
+                entries.put(key, entry);
+                oldest.add(entry);
+            }
+            entry.bytes += bytes;
+            totalBytes += bytes;
+            dirty = true;
+        }
+    }
+
+    private boolean add(final String key, final long bytes, final long createdMillis) {
+        synchronized (lock) {
+            if (entries.containsKey(key)) {
+                return false;
+            }
+            final Entry entry = new Entry(key, createdMillis);
+            entry.bytes = bytes;
+            entries.put(key, entry);
+            oldest.add(entry);
+            totalBytes += bytes;
+            dirty = true;
+            return true;
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastRunNanos = System.nanoTime();
+        while (!closed) {
+            final long waitNanos = lastRunNanos + TimeUnit.MILLISECONDS.toNanos(intervalMillis) - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(this, waitNanos);     // unparked on close or interval change
+                continue;
+            }
+            try {
+                runOnce();
+            }
+            catch (final RuntimeException e) {
+                LOG.error("Janitor pass failed!!", e);
+            }
+            lastRunNanos = System.nanoTime();
+        }
+    }
+
+    private long nextScanMillis;
+
+    private long lastSaveMillis;
+
+    /**
+     * One pass: a batch of the reconciliation scan, then deletes down to the limits, then the index save if due.
+     */
+    synchronized void runOnce() {
+        final long now = System.currentTimeMillis();
+        try {
+            scan(scanBatchSize, now);
+        }
+        catch (final IOException | DirectoryIteratorException e) {
+            LOG.warn("Scan of {} failed, restarting next pass: {}", root, e.toString());
+            closeScan();
+            scanDirs.clear();
+        }
+        evict(now);
+        if (now - lastSaveMillis >= INDEX_SAVE_INTERVAL_MILLIS) {
+            save(now);
+        }
+    }
+
+    private void evict(final long now) {
+        final long minCreatedMillis = now - retention.getMaxAgeMillis();
+        for (;;) {
+            final Entry entry;
+            synchronized (lock) {
+                entry = oldest.peek();
+                if (entry == null
+                        || totalBytes <= retention.getMaxTotalBytes()
+                        && entries.size() <= retention.getMaxFileCount()
+                        && entry.createdMillis >= minCreatedMillis) {
+                    return;
+                }
+                oldest.poll();
+                entries.remove(entry.key);
+                totalBytes -= entry.bytes;
+                dirty = true;
+            }
+            delete(root.resolve(entry.key));
+        }
+    }
+
+    private void delete(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+            deletedCount++;
+        }
+        catch (final IOException e) {
+            LOG.warn("Unable to delete {}: {}", file, e.toString());
+            return;
+        }
+        Path dir = file.getParent();
+        while (dir != null && !dir.equals(root) && dir.toFile().delete()) {
+            dir = dir.getParent();
+        }
+    }
+
+    private final Deque<Path> scanDirs = new ArrayDeque<>();
+
+    private DirectoryStream<Path> scanStream;
+
+    private Iterator<Path> scanIterator;
+
+    private void scan(final int batchSize, final long now) throws IOException {
+        int remaining = batchSize;
+        while (remaining > 0) {
+            if (scanIterator == null || !scanIterator.hasNext()) {
+                closeScan();
+                final Path dir = scanDirs.poll();
+                if (dir == null) {
+                    if (now < nextScanMillis) {
+                        return;
+                    }
+                    nextScanMillis = now + RESCAN_INTERVAL_MILLIS;
+                    scanDirs.add(root);
+                }
+                else {
+                    try {
+                        scanStream = Files.newDirectoryStream(dir);
+                        scanIterator = scanStream.iterator();
+                    }
+                    catch (final NoSuchFileException e) {
+                        // removed since
+                    }
+                }
+                continue;
+            }
+            final Path path = scanIterator.next();
+            remaining--;
+            if (path.getFileName().toString().startsWith(".")) {
+                continue;
+            }
+            final String key = root.relativize(path).toString();
+            synchronized (lock) {
+                if (entries.containsKey(key)) {
+                    continue;
+                }
+            }
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+            catch (final NoSuchFileException e) {
+                continue;
+            }
+            if (attrs.isDirectory()) {
+                scanDirs.add(path);
+            }
+            else if (attrs.isRegularFile() && add(key, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                scannedCount++;
+            }
+        }
+    }
+
+    private void closeScan() {
+        if (scanStream != null) {
+            try {
+                scanStream.close();
+            }
+            catch (final IOException e) {
+                // nothing to do
+            }
+            scanStream = null;
+        }
+        scanIterator = null;
+    }
+
+    private void load() {
+        final Path index = root.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            LOG.info("No index in {}, files are picked up by the scan", root);
+            return;
+        }
+        int lineNumber = 0;
+        try (final BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final int space1 = line.indexOf(' ');
+                final int space2 = line.indexOf(' ', space1 + 1);
+                if (space1 < 0 || space2 < 0) {
+                    throw new IOException("Malformed line: " + line);
+                }
+                add(line.substring(space2 + 1), Long.parseLong(line.substring(space1 + 1, space2)),
+                        Long.parseLong(line.substring(0, space1)));
+            }
+        }
+        catch (final IOException | NumberFormatException e) {
+            LOG.warn("Unable to load index {} at line {}, files are picked up by the scan: {}", index, lineNumber, e.toString());
+            synchronized (lock) {
+                entries.clear();
+                oldest.clear();
+                totalBytes = 0;
+            }
+            return;
+        }
+        LOG.info("Loaded index of {} files, {} bytes", getFileCount(), getTotalBytes());
+    }
+
+    private void save(final long now) {
+        final Entry[] snapshot;
+        synchronized (lock) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new Entry[entries.size()];
+            int i = 0;
+            for (final Entry entry: entries.values()) {
+                snapshot[i++] = entry.copy();
+            }
+            dirty = false;
+        }
+        final Path temp = root.resolve(INDEX_TEMP_FILE);
+        try {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (final Entry entry: snapshot) {
+                    writer.write(Long.toString(entry.createdMillis));
+                    writer.write(' ');
+                    writer.write(Long.toString(entry.bytes));
+                    writer.write(' ');
+                    writer.write(entry.key);
+                    writer.write('\n');
+                }
+            }
+            Files.move(temp, root.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSaveMillis = now;
+        }
+        catch (final IOException e) {
+            LOG.warn("Unable to save index to {}: {}", root, e.toString());
+            synchronized (lock) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Stop the janitor, and save the index.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeScan();
+            save(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "files=" + getFileCount() + ", bytes=" + getTotalBytes() + ", deleted=" + deletedCount
+                + ", scanned=" + scannedCount + ", " + retention;
+    }
+
+    private static final class Entry {
+
+        Entry(final String key, final long createdMillis) {
+            this.key = key;
+            this.createdMillis = createdMillis;
+        }
+
+        final String key;
+
+        final long createdMillis;
+
+        long bytes;
+
+        Entry copy() {
+            final Entry copy = new Entry(key, createdMillis);
+            copy.bytes = bytes;
+            return copy;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.ctzen.servlet.errorlogger;
+
+/**
+ * Limits a {@link FileErrorLogger} folder is kept within, oldest files are deleted first.
+ *
+ * @author cchang
+ */
+public final class FileRetention {
+
+    /**
+     * Keep everything.
+     */
+    public static final FileRetention UNLIMITED = new FileRetention(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /**
+     * @param maxTotalBytes     max bytes of all files, {@link Long#MAX_VALUE} for no limit
+     * @param maxFileCount      max number of files, attachments included, {@link Long#MAX_VALUE} for no limit
+     * @param maxAgeMillis      files older than this are deleted, {@link Long#MAX_VALUE} for no limit
+     */
+    public FileRetention(final long maxTotalBytes, final long maxFileCount, final long maxAgeMillis) {
+        if (maxTotalBytes < 0 || maxFileCount < 0 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("Negative limit: " + maxTotalBytes + ", " + maxFileCount + ", " + maxAgeMillis);
+        }
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxFileCount = maxFileCount;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    private final long maxTotalBytes;
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    private final long maxFileCount;
+
+    public long getMaxFileCount() {
+        return maxFileCount;
+    }
+
+    private final long maxAgeMillis;
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @return whether there is no limit, same as {@link #UNLIMITED}
+     */
+    public boolean isUnlimited() {
+        return maxTotalBytes == Long.MAX_VALUE && maxFileCount == Long.MAX_VALUE && maxAgeMillis == Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FileRetention)) {
+            return false;
+        }
+        final FileRetention other = (FileRetention)obj;
+        return maxTotalBytes == other.maxTotalBytes && maxFileCount == other.maxFileCount
+                && maxAgeMillis == other.maxAgeMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Long.hashCode(maxTotalBytes) + Long.hashCode(maxFileCount)) + Long.hashCode(maxAgeMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "maxTotalBytes=" + maxTotalBytes + ", maxFileCount=" + maxFileCount + ", maxAgeMillis=" + maxAgeMillis;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.ctzen.servlet.errorlogger;
+
+/**
+ * How often, and how far apart, an {@link AsyncErrorLogger} writer retries a failed write,
+ * backing off exponentially. Retries happen on the writer thread, so only that sink's queue waits.
+ *
+ * @author cchang
+ */
+public final class RetryPolicy {
+
+    /**
+     * One attempt, no retry.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    /**
+     * @param maxAttempts           attempts including the first, at least 1
+     * @param initialBackoffMillis  wait before the first retry, doubled for each retry after
+     * @param maxBackoffMillis      cap of the wait
+     */
+    public RetryPolicy(final int maxAttempts, final long initialBackoffMillis, final long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = Math.max(initialBackoffMillis, maxBackoffMillis);
+    }
+
+    private final int maxAttempts;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    private final long initialBackoffMillis;
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    private final long maxBackoffMillis;
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * @param attempt   the attempt that failed, 1 for the first
+     * @return wait before the next attempt
+     */
+    public long getBackoffMillis(final int attempt) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < attempt && backoff < maxBackoffMillis; i++) {
+            backoff = backoff > maxBackoffMillis / 2 ? maxBackoffMillis : backoff << 1;
+        }
+        return backoff;
+    }
+
+    @Override
+    public String toString() {
+        return "maxAttempts=" + maxAttempts + ", initialBackoffMillis=" + initialBackoffMillis
+                + ", maxBackoffMillis=" + maxBackoffMillis;
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+
+/**
+ * {@link ErrorLogger} that renders reports straight into its output, so logging an error with a large body
+ * does not need the whole report in memory.
+ *
+ * @author cchang
+ */
+public interface StreamingErrorLogger extends ErrorLogger {
+
+    /**
+     * @param errorId   error id
+     * @param report    report to render, only valid during the call
+     */
+    void log(final String errorId, final ErrorReport report) throws IOException;
+
+}
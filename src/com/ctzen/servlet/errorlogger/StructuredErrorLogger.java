@@ -0,0 +1,19 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.io.IOException;
+
+import com.ctzen.servlet.errorlogger.record.ErrorRecord;
+
+/**
+ * {@link ErrorLogger} that takes errors as {@link ErrorRecord}s, skipping the text report altogether.
+ *
+ * @author cchang
+ */
+public interface StructuredErrorLogger extends ErrorLogger {
+
+    /**
+     * @param record    error, its bodies are only valid during the call
+     */
+    void log(final ErrorRecord record) throws IOException;
+
+}
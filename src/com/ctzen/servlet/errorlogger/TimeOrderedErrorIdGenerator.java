@@ -0,0 +1,138 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time-ordered 64 bits error ids: {@value #TIMESTAMP_BITS} bits of milliseconds since 2014-01-01 UTC,
+ * {@value #NODE_BITS} bits of node, {@value #SEQUENCE_BITS} bits of sequence,
+ * as 13 chars of Crockford base32, e.g. {@code 0J5RZ6Y8A04G1}.<br>
+ * <br>
+ * Ids sort by time, as strings too, and are monotonic per generator: a single CAS per id, no lock and no
+ * {@link java.security.SecureRandom}. More than 4096 ids within a millisecond, or the clock going backwards,
+ * borrows from the next milliseconds rather than waiting.<br>
+ * <br>
+ * The node tells apart generators in different JVMs sharing a store; give each a distinct one,
+ * the default is derived from the process name and start time.
+ *
+ * @author cchang
+ */
+public class TimeOrderedErrorIdGenerator implements ErrorIdGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeOrderedErrorIdGenerator.class);
+
+    public static final int TIMESTAMP_BITS = 42;
+
+    public static final int NODE_BITS = 10;
+
+    public static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    /**
+     * 2014-01-01T00:00:00Z
+     */
+    public static final long EPOCH_MILLIS = 1388534400000L;
+
+    public static final int LENGTH = 13;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte)-1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte)i;
+            VALUES[Character.toLowerCase(ALPHABET[i])] = (byte)i;
+        }
+    }
+
+    /**
+     * Node derived from the process name and start time.
+     */
+    public TimeOrderedErrorIdGenerator() {
+        this((ManagementFactory.getRuntimeMXBean().getName().hashCode() * 31 + (int)System.nanoTime()) & MAX_NODE);
+    }
+
+    /**
+     * @param node  0 to {@value #MAX_NODE}
+     */
+    public TimeOrderedErrorIdGenerator(final int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("node must be 0 to " + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+        LOG.info("node={}", node);
+    }
+
+    private final int node;
+
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * Last timestamp and sequence issued, {@code (millis - EPOCH_MILLIS) << SEQUENCE_BITS | sequence}.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    @Override
+    public String nextErrorId() {
+        final long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long prev;
+        long next;
+        do {
+            prev = last.get();
+            next = Math.max(prev + 1, now);
+        }
+        while (!last.compareAndSet(prev, next));
+        final long sequenceMask = (1L << SEQUENCE_BITS) - 1;
+        return encode((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                | (long)node << SEQUENCE_BITS
+                | next & sequenceMask);
+    }
+
+    static String encode(final long id) {
+        final char[] chars = new char[LENGTH];
+        long v = id;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int)v & 31];
+            v >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the id, or -1 if not a time-ordered error id
+     */
+    static long decode(final String errorId) {
+        if (errorId == null || errorId.length() != LENGTH) {
+            return -1;
+        }
+        long ret = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            final char c = errorId.charAt(i);
+            final int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0 || i == 0 && value > 15) {      // 64 bits leave 4 in the first char
+                return -1;
+            }
+            ret = ret << 5 | value;
+        }
+        return ret;
+    }
+
+    /**
+     * @return when the error id was generated, in epoch milliseconds,
+     *         or -1 if not a time-ordered error id
+     */
+    public static long getTimestamp(final String errorId) {
+        final long id = decode(errorId);
+        return id == -1 ? -1 : (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.ctzen.servlet.errorlogger;
+
+import java.util.UUID;
+
+/**
+ * Random UUID error ids, as before {@link TimeOrderedErrorIdGenerator}.<br>
+ * <br>
+ * Note. {@link UUID#randomUUID()} shares one {@link java.security.SecureRandom}, which contends under load
+ * and may block on entropy.
+ *
+ * @author cchang
+ */
+public final class UuidErrorIdGenerator implements ErrorIdGenerator {
+
+    public static final UuidErrorIdGenerator INSTANCE = new UuidErrorIdGenerator();
+
+    private UuidErrorIdGenerator() {
+    }
+
+    @Override
+    public String nextErrorId() {
+        return UUID.randomUUID().toString();
+    }
+
+}
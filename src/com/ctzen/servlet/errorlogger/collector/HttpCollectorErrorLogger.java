@@ -0,0 +1,688 @@
+package com.ctzen.servlet.errorlogger.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctzen.servlet.errorlogger.ErrorLogger;
+import com.ctzen.servlet.errorlogger.ErrorQueue;
+import com.ctzen.servlet.errorlogger.ErrorQueue.Entry;
+import com.ctzen.servlet.errorlogger.RetryPolicy;
+import com.ctzen.servlet.errorlogger.record.JsonErrorRecordRenderer;
+import com.ctzen.servlet.metrics.ErrorLoggingMetrics;
+
+/**
+ * {@link ErrorLogger} that ships errors to a central collector over HTTP, in batches.<br>
+ * <br>
+ * Errors are queued in a bounded lock-free {@link ErrorQueue}, the request thread never waits on the network.
+ * A sender thread sends a batch when it reaches the max records or bytes, or the first error in it has lingered
+ * long enough. A batch is one POST of newline delimited JSON, {@code {"errorId":..,"timestamp":..,"error":..}}
+ * per error, gzipped. Connections are kept alive between batches.<br>
+ * <br>
+ * Failed POSTs are retried per the {@link RetryPolicy}, with jitter. A batch that still fails is spooled, as sent,
+ * to the spool folder, and resent oldest first once the collector is back, including after a restart.
+ * While the collector is down batches are tried once before spooling, so the queue keeps draining.<br>
+ * <br>
+ * Should the sender thread die, errors are logged to SLF4J from then on.
+ *
+ * @author cchang
+ */
+public class HttpCollectorErrorLogger implements ErrorLogger, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpCollectorErrorLogger.class);
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    /**
+     * Request header with the number of errors in the batch.
+     */
+    public static final String BATCH_RECORDS_HEADER_NAME = "X-Batch-Records";
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 500;
+
+    public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+
+    public static final long DEFAULT_LINGER_MILLIS = 1000;
+
+    public static final long DEFAULT_MAX_SPOOL_BYTES = 256L * 1024 * 1024;
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    private static final String SPOOL_SUFFIX = ".ndjson.gz";
+
+    /**
+     * {@value #DEFAULT_CAPACITY} capacity, batches of up to {@value #DEFAULT_MAX_BATCH_RECORDS} errors
+     * or {@value #DEFAULT_MAX_BATCH_BYTES} bytes, lingering {@value #DEFAULT_LINGER_MILLIS} millis.
+     *
+     * @param url           collector endpoint, POSTed to
+     * @param spoolFolder   where failed batches wait for the collector
+     */
+    public HttpCollectorErrorLogger(final URL url, final File spoolFolder) {
+        this(url, spoolFolder, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_RECORDS, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LINGER_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param url               collector endpoint, POSTed to
+     * @param spoolFolder       where failed batches wait for the collector
+     * @param capacity          queue capacity, rounded up to the next power of 2, errors over it are dropped
+     * @param maxBatchRecords   send when the batch has this many errors
+     * @param maxBatchBytes     send when the batch has this many bytes of error text, UTF-8 encoded, before compression
+     * @param lingerMillis      send when the first error in the batch has waited this long
+     */
+    public HttpCollectorErrorLogger(final URL url, final File spoolFolder, final int capacity,
+            final int maxBatchRecords, final int maxBatchBytes, final long lingerMillis) {
+        if (maxBatchRecords < 1) {
+            throw new IllegalArgumentException("maxBatchRecords must be positive: " + maxBatchRecords);
+        }
+        this.url = url;
+        this.spoolFolder = spoolFolder;
+        if (!spoolFolder.exists()) {
+            spoolFolder.mkdirs();
+        }
+        if (!spoolFolder.isDirectory()) {
+            throw new IllegalArgumentException("Unable to make directory: " + spoolFolder);
+        }
+        this.queue = new ErrorQueue(capacity, LOG);
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = lingerMillis;
+        for (final File f: listSpooled()) {
+            spoolBytes.addAndGet(f.length());
+        }
+        LOG.info("url={}, spoolFolder={}, capacity={}, maxBatchRecords={}, maxBatchBytes={}, lingerMillis={}, spooled={}",
+                url, spoolFolder.getAbsolutePath(), queue.getCapacity(), maxBatchRecords, maxBatchBytes, lingerMillis,
+                spoolBytes.get());
+        sender = new Thread(new Sender(), getClass().getSimpleName() + "-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    private final URL url;
+
+    public URL getUrl() {
+        return url;
+    }
+
+    private final File spoolFolder;
+
+    public File getSpoolFolder() {
+        return spoolFolder;
+    }
+
+    private final ErrorQueue queue;
+
+    private final int maxBatchRecords;
+
+    public int getMaxBatchRecords() {
+        return maxBatchRecords;
+    }
+
+    private final int maxBatchBytes;
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    private final long lingerMillis;
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    private volatile RetryPolicy retryPolicy = new RetryPolicy(3, 100, 2000);
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy   retries of a failed POST, with jitter, default 3 attempts 100 to 2000 millis apart.
+     *                      The max backoff is also how often spooled batches are retried while the collector is down.
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+        LOG.info("retryPolicy={}", this.retryPolicy);
+    }
+
+    private volatile long maxSpoolBytes = DEFAULT_MAX_SPOOL_BYTES;
+
+    public long getMaxSpoolBytes() {
+        return maxSpoolBytes;
+    }
+
+    /**
+     * @param maxSpoolBytes     oldest spooled batches are deleted to stay under this, default {@value #DEFAULT_MAX_SPOOL_BYTES}
+     */
+    public void setMaxSpoolBytes(final long maxSpoolBytes) {
+        this.maxSpoolBytes = maxSpoolBytes;
+    }
+
+    private volatile int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param timeoutMillis     connect and read timeout, default {@value #DEFAULT_TIMEOUT_MILLIS}
+     */
+    public void setTimeoutMillis(final int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private long shutdownTimeoutMillis = DEFAULT_SHUTDOWN_TIMEOUT_MILLIS;
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutMillis max wait for {@link #close()} to send the queued errors
+     */
+    public void setShutdownTimeoutMillis(final long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    private final Thread sender;
+
+    private volatile boolean closed;
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return errors dropped, the queue being full, after close, or spooled batches deleted to stay under the max
+     */
+    public long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    public ErrorLoggingMetrics getMetrics() {
+        return queue.getMetrics();
+    }
+
+    /**
+     * @param metrics   records batch POST latency, drops, and reads the queue depth until the sender stops,
+     *                  default {@link ErrorLoggingMetrics#NONE}; the queue depth is withdrawn from the one replaced
+     */
+    public void setMetrics(final ErrorLoggingMetrics metrics) {
+        queue.setMetrics(metrics);
+    }
+
+    private final AtomicLong batchesSent = new AtomicLong();
+
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    private final AtomicLong recordsSent = new AtomicLong();
+
+    public long getRecordsSent() {
+        return recordsSent.get();
+    }
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * @return compressed bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    private final AtomicLong sendNanos = new AtomicLong();
+
+    /**
+     * @return mean time to POST a batch, successful ones only
+     */
+    public double getMeanBatchMillis() {
+        final long batches = batchesSent.get();
+        return batches == 0 ? 0 : sendNanos.get() / 1e6 / batches;
+    }
+
+    /**
+     * @return errors sent per second of POSTing
+     */
+    public double getRecordsPerSecond() {
+        final long nanos = sendNanos.get();
+        return nanos == 0 ? 0 : recordsSent.get() * 1e9 / nanos;
+    }
+
+    private final AtomicLong failedAttempts = new AtomicLong();
+
+    /**
+     * @return failed POSTs, including retried ones
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    private final AtomicLong spooledBatches = new AtomicLong();
+
+    /**
+     * @return batches spooled, since started
+     */
+    public long getSpooledBatches() {
+        return spooledBatches.get();
+    }
+
+    private final AtomicLong spoolBytes = new AtomicLong();
+
+    /**
+     * @return bytes waiting in the spool
+     */
+    public long getSpoolBytes() {
+        return spoolBytes.get();
+    }
+
+    /**
+     * @return approximate number of errors waiting to be batched
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public void log(final String errorId, final String error) throws IOException {
+        final Entry entry = new Entry(errorId, error);
+        if (closed) {
+            queue.fallback(entry, "closed");
+            return;
+        }
+        if (!queue.offer(entry)) {
+            queue.drop(entry);
+        }
+    }
+
+    /**
+     * Stop accepting errors, and wait up to {@link #getShutdownTimeoutMillis()} for the queued ones to be sent or spooled.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(sender);
+        try {
+            sender.join(shutdownTimeoutMillis);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            LOG.warn("Sender still busy after {} millis, {} errors queued", shutdownTimeoutMillis, queue.size());
+        }
+        LOG.info("closed, {}", this);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + url
+                + ", queued=" + getQueueSize()
+                + ", batchesSent=" + getBatchesSent()
+                + ", recordsSent=" + getRecordsSent()
+                + ", bytesSent=" + getBytesSent()
+                + ", meanBatchMillis=" + String.format("%.3f", getMeanBatchMillis())
+                + ", failedAttempts=" + getFailedAttempts()
+                + ", spooledBatches=" + getSpooledBatches()
+                + ", spoolBytes=" + getSpoolBytes()
+                + ", dropped=" + getDroppedCount() + "]";
+    }
+
+    /**
+     * Whether the last POST succeeded.
+     */
+    private boolean available = true;
+
+    private long nextSpoolAttemptMillis;
+
+    private long spoolSequence;
+
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream(64 * 1024);
+
+    private final byte[] scratch = new byte[4096];
+
+    /**
+     * Sends, or spools, a batch. On the sender thread.
+     */
+    private void send(final List<Entry> batch) {
+        final byte[] gzipped;
+        try {
+            gzipped = encode(batch);
+        }
+        catch (final IOException e) {
+            queue.countDropped(batch.size());
+            LOG.error("Exception trying to encode batch, dropped " + batch.size() + " errors", e);
+            return;
+        }
+        if (post(gzipped, batch.size(), available ? retryPolicy.getMaxAttempts() : 1)) {
+            return;
+        }
+        spool(gzipped, batch.size());
+    }
+
+    private byte[] encode(final List<Entry> batch) throws IOException {
+        payload.reset();
+        final GZIPOutputStream gzip = new GZIPOutputStream(payload, scratch.length);
+        final Writer out = new OutputStreamWriter(gzip, StandardCharsets.UTF_8);
+        for (final Entry entry: batch) {
+            out.write("{\"errorId\":");
+            JsonErrorRecordRenderer.writeString(out, entry.getErrorId());
+            out.write(",\"timestamp\":");
+            out.write(Long.toString(entry.getQueuedMillis()));
+            out.write(",\"error\":");
+            JsonErrorRecordRenderer.writeString(out, entry.getError());
+            out.write("}\n");
+        }
+        out.close();
+        return payload.toByteArray();
+    }
+
+    /**
+     * @return whether the collector took the batch
+     */
+    private boolean post(final byte[] gzipped, final int records, final int maxAttempts) {
+        final RetryPolicy retryPolicy = this.retryPolicy;
+        for (int attempt = 1;; attempt++) {
+            final long start = System.nanoTime();
+            final int status = post(gzipped, records);
+            if (status >= 200 && status < 300) {
+                final long nanos = System.nanoTime() - start;
+                sendNanos.addAndGet(nanos);
+                queue.getMetrics().sinkWritten(nanos);
+                batchesSent.incrementAndGet();
+                recordsSent.addAndGet(records);
+                bytesSent.addAndGet(gzipped.length);
+                if (!available) {
+                    LOG.info("Collector available again: {}", url);
+                }
+                available = true;
+                LOG.debug("Sent {} errors, {} bytes, in {} us", records, gzipped.length, TimeUnit.NANOSECONDS.toMicros(nanos));
+                return true;
+            }
+            failedAttempts.incrementAndGet();
+            if (attempt >= maxAttempts) {
+                if (available) {
+                    LOG.warn("Collector unavailable, spooling: {} (status {})", url, status);
+                }
+                available = false;
+                return false;
+            }
+            // equal jitter, half the backoff plus up to the other half
+            final long backoff = retryPolicy.getBackoffMillis(attempt);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1)));
+        }
+    }
+
+    /**
+     * @return HTTP status, or -1 on I/O error
+     */
+    private int post(final byte[] gzipped, final int records) {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection)url.openConnection();
+            conn.setConnectTimeout(timeoutMillis);
+            conn.setReadTimeout(timeoutMillis);
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", CONTENT_TYPE);
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            conn.setRequestProperty(BATCH_RECORDS_HEADER_NAME, Integer.toString(records));
+            conn.setFixedLengthStreamingMode(gzipped.length);
+            try (final OutputStream out = conn.getOutputStream()) {
+                out.write(gzipped);
+            }
+            final int status = conn.getResponseCode();
+            // read fully and close, so the connection goes back to the keep-alive cache
+            try (final InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+                if (in != null) {
+                    while (in.read(scratch) != -1) {
+                        // discard
+                    }
+                }
+            }
+            return status;
+        }
+        catch (final IOException e) {
+            LOG.debug("Exception trying to post to " + url, e);
+            if (conn != null) {
+                conn.disconnect();
+            }
+            return -1;
+        }
+    }
+
+    private void spool(final byte[] gzipped, final int records) {
+        final File f = new File(spoolFolder,
+                String.format("%013d-%06d-%d%s", System.currentTimeMillis(), spoolSequence++ % 1000000, records, SPOOL_SUFFIX));
+        try {
+            Files.write(f.toPath(), gzipped);
+            spooledBatches.incrementAndGet();
+            spoolBytes.addAndGet(gzipped.length);
+        }
+        catch (final IOException e) {
+            queue.countDropped(records);
+            LOG.error("Exception trying to spool batch, dropped " + records + " errors", e);
+            return;
+        }
+        trimSpool();
+    }
+
+    /**
+     * Deletes the oldest spooled batches until under {@link #getMaxSpoolBytes()}.
+     */
+    private void trimSpool() {
+        if (spoolBytes.get() <= maxSpoolBytes) {
+            return;
+        }
+        for (final File f: listSpooled()) {
+            if (spoolBytes.get() <= maxSpoolBytes) {
+                return;
+            }
+            final long length = f.length();
+            if (f.delete()) {
+                spoolBytes.addAndGet(-length);
+                final int records = spooledRecords(f);
+                queue.countDropped(records);
+                LOG.warn("Spool full, deleted {} with {} errors", f.getName(), records);
+            }
+        }
+    }
+
+    /**
+     * Resends the oldest spooled batch, one per call so new errors keep being batched in between.
+     */
+    private void resendSpooled() {
+        final File[] spooled = listSpooled();
+        if (spooled.length == 0) {
+            spoolBytes.set(0);
+            return;
+        }
+        final File f = spooled[0];
+        final byte[] gzipped;
+        try {
+            gzipped = Files.readAllBytes(f.toPath());
+        }
+        catch (final IOException e) {
+            LOG.error("Exception trying to read spooled batch " + f, e);
+            nextSpoolAttemptMillis = System.currentTimeMillis() + retryPolicy.getMaxBackoffMillis();
+            return;
+        }
+        if (!post(gzipped, spooledRecords(f), 1)) {
+            nextSpoolAttemptMillis = System.currentTimeMillis() + retryPolicy.getMaxBackoffMillis();
+            return;
+        }
+        if (f.delete()) {
+            spoolBytes.addAndGet(-gzipped.length);
+        }
+        else {
+            LOG.error("Unable to delete sent spooled batch {}", f);
+            nextSpoolAttemptMillis = System.currentTimeMillis() + retryPolicy.getMaxBackoffMillis();
+        }
+    }
+
+    /**
+     * @return oldest first
+     */
+    private File[] listSpooled() {
+        final File[] ret = spoolFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SPOOL_SUFFIX);
+            }
+        });
+        if (ret == null) {
+            return new File[0];
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * @return UTF-8 encoded length, without encoding
+     */
+    static int utf8Length(final String s) {
+        int ret = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                ret++;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                ret += 2;       // 4 bytes for the pair
+                i++;
+            }
+            else {
+                ret += 2;
+            }
+        }
+        return ret;
+    }
+
+    private static int spooledRecords(final File f) {
+        final String name = f.getName();
+        final int end = name.length() - SPOOL_SUFFIX.length();
+        try {
+            return Integer.parseInt(name.substring(name.lastIndexOf('-', end) + 1, end));
+        }
+        catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private final class Sender implements Runnable {
+
+        private final List<Entry> batch = new ArrayList<>();
+
+        private long batchBytes;
+
+        private long batchStartMillis;
+
+        private long parkNanos;
+
+        @Override
+        public void run() {
+            try {
+                while (!closed || !batch.isEmpty() || !queue.isEmpty()) {
+                    try {
+                        runOnce();
+                    }
+                    catch (final RuntimeException e) {
+                        LOG.error("Sender pass failed!!", e);
+                        nextSpoolAttemptMillis = System.currentTimeMillis() + retryPolicy.getMaxBackoffMillis();
+                    }
+                }
+            }
+            finally {
+                if (!closed) {
+                    LOG.error("Sender died, errors are logged here from now on");
+                }
+                queue.countDropped(batch.size());
+                for (final Entry entry: batch) {
+                    LOG.error("Unsent error: {}", entry.getErrorId());
+                    LOG.error(entry.getError());
+                }
+                queue.drain(closed ? "closed" : "sender stopped");
+            }
+        }
+
+        private void runOnce() {
+            final Entry entry = queue.poll();
+            if (entry != null) {
+                if (batch.isEmpty()) {
+                    batchStartMillis = System.currentTimeMillis();
+                }
+                batch.add(entry);
+                batchBytes += utf8Length(entry.getErrorId()) + utf8Length(entry.getError());
+                if (batch.size() >= maxBatchRecords || batchBytes >= maxBatchBytes) {
+                    sendBatch();
+                }
+                parkNanos = 0;
+                return;
+            }
+            if (!batch.isEmpty() && (closed || System.currentTimeMillis() - batchStartMillis >= lingerMillis)) {
+                sendBatch();
+                return;
+            }
+            if (closed) {
+                return;
+            }
+            if (spoolBytes.get() > 0 && System.currentTimeMillis() >= nextSpoolAttemptMillis) {
+                resendSpooled();
+                return;
+            }
+            parkNanos = ErrorQueue.parkIdle(this, parkNanos);
+        }
+
+        /**
+         * The batch is cleared even if sending throws, a bad error is not sent again and again.
+         */
+        private void sendBatch() {
+            try {
+                send(batch);
+            }
+            catch (final RuntimeException e) {
+                queue.countDropped(batch.size());
+                LOG.error("Exception trying to send batch, dropped " + batch.size() + " errors", e);
+            }
+            finally {
+                batch.clear();
+                batchBytes = 0;
+            }
+        }
+
+    }
+
+}
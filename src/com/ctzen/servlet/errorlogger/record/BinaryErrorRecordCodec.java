@@ -0,0 +1,269 @@
+package com.ctzen.servlet.errorlogger.record;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link ErrorRecord}s for storage.<br>
+ * <br>
+ * A version byte, then the fields in a fixed order. Numbers are unsigned LEB128 varints (timestamps zig-zag),
+ * strings and bodies are varint length-prefixed UTF-8 / bytes with 0 for {@code null} and length + 1 otherwise,
+ * maps are a varint count of entries.
+ *
+ * @author cchang
+ */
+public final class BinaryErrorRecordCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final int BODY_NONE = 0;
+
+    private static final int BODY_CONTENT = 1;
+
+    private static final int BODY_TRUNCATED = 2;
+
+    private static final int BODY_ATTACHED = 3;
+
+    private BinaryErrorRecordCodec() {
+    }
+
+    /**
+     * @param out   where to encode, not closed, buffer it
+     */
+    public static void encode(final ErrorRecord record, final OutputStream out) throws IOException {
+        out.write(VERSION);
+        writeString(out, record.getErrorId());
+        writeVarLong(out, zigZag(record.getTimestamp()));
+        writeVarLong(out, zigZag(record.getDurationMillis()));
+        writeString(out, record.getThread());
+        writeString(out, record.getMethod());
+        writeString(out, record.getRequestUri());
+        writeString(out, record.getQueryString());
+        writeString(out, record.getProtocol());
+        writeString(out, record.getRemoteAddr());
+        writeString(out, record.getRequestContentType());
+        writeMultiMap(out, record.getRequestHeaders());
+        writeMultiMap(out, record.getParameters());
+        writeMap(out, record.getRequestAttributes());
+        writeBody(out, record.getRequestBody());
+        writeVarLong(out, record.getStatus());
+        writeString(out, record.getResponseContentType());
+        writeMultiMap(out, record.getResponseHeaders());
+        writeBody(out, record.getResponseBody());
+        writeString(out, record.getSessionId());
+        writeMap(out, record.getSessionAttributes());
+        writeString(out, record.getExceptionClass());
+        writeString(out, record.getExceptionMessage());
+        writeString(out, record.getStackTrace());
+    }
+
+    /**
+     * @return encoded record
+     */
+    public static byte[] encode(final ErrorRecord record) {
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try {
+            encode(record, ret);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);     // not possible, writing to memory
+        }
+        return ret.toByteArray();
+    }
+
+    /**
+     * @param in    where to decode from, buffer it
+     * @return decoded record, bodies are in memory
+     */
+    public static ErrorRecord decode(final InputStream in) throws IOException {
+        final int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported error record version: " + version);
+        }
+        final ErrorRecord ret = new ErrorRecord();
+        ret.setErrorId(readString(in));
+        ret.setTimestamp(unZigZag(readVarLong(in)));
+        ret.setDurationMillis(unZigZag(readVarLong(in)));
+        ret.setThread(readString(in));
+        ret.setMethod(readString(in));
+        ret.setRequestUri(readString(in));
+        ret.setQueryString(readString(in));
+        ret.setProtocol(readString(in));
+        ret.setRemoteAddr(readString(in));
+        ret.setRequestContentType(readString(in));
+        ret.setRequestHeaders(readMultiMap(in));
+        ret.setParameters(readMultiMap(in));
+        ret.setRequestAttributes(readMap(in));
+        ret.setRequestBody(readBody(in));
+        ret.setStatus((int)readVarLong(in));
+        ret.setResponseContentType(readString(in));
+        ret.setResponseHeaders(readMultiMap(in));
+        ret.setResponseBody(readBody(in));
+        ret.setSessionId(readString(in));
+        ret.setSessionAttributes(readMap(in));
+        ret.setExceptionClass(readString(in));
+        ret.setExceptionMessage(readString(in));
+        ret.setStackTrace(readString(in));
+        return ret;
+    }
+
+    private static long zigZag(final long n) {
+        return n << 1 ^ n >> 63;
+    }
+
+    private static long unZigZag(final long n) {
+        return n >>> 1 ^ -(n & 1);
+    }
+
+    private static void writeVarLong(final OutputStream out, final long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7fL) != 0) {
+            out.write((int)(v & 0x7f | 0x80));
+            v >>>= 7;
+        }
+        out.write((int)v);
+    }
+
+    private static long readVarLong(final InputStream in) throws IOException {
+        long ret = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            ret |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(final OutputStream out, final String s) throws IOException {
+        if (s == null) {
+            out.write(0);
+            return;
+        }
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private static String readString(final InputStream in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(final InputStream in) throws IOException {
+        final long length = readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > Integer.MAX_VALUE - 8) {
+            throw new IOException("Field too long: " + (length - 1));
+        }
+        final byte[] ret = new byte[(int)(length - 1)];
+        int off = 0;
+        while (off < ret.length) {
+            final int n = in.read(ret, off, ret.length - off);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            off += n;
+        }
+        return ret;
+    }
+
+    private static void writeMap(final OutputStream out, final Map<String, String> map) throws IOException {
+        writeVarLong(out, map.size());
+        for (final Map.Entry<String, String> e: map.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(final InputStream in) throws IOException {
+        final int size = (int)readVarLong(in);
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> ret = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            ret.put(readString(in), readString(in));
+        }
+        return ret;
+    }
+
+    private static void writeMultiMap(final OutputStream out, final Map<String, List<String>> map) throws IOException {
+        writeVarLong(out, map.size());
+        for (final Map.Entry<String, List<String>> e: map.entrySet()) {
+            writeString(out, e.getKey());
+            writeVarLong(out, e.getValue().size());
+            for (final String value: e.getValue()) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    private static Map<String, List<String>> readMultiMap(final InputStream in) throws IOException {
+        final int size = (int)readVarLong(in);
+        if (size == 0) {
+            return Collections.emptyMap();
+        }
+        final Map<String, List<String>> ret = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String name = readString(in);
+            final int count = (int)readVarLong(in);
+            final List<String> values = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                values.add(readString(in));
+            }
+            ret.put(name, values);
+        }
+        return ret;
+    }
+
+    private static void writeBody(final OutputStream out, final ErrorRecord.Body body) throws IOException {
+        if (body == null) {
+            out.write(BODY_NONE);
+            return;
+        }
+        if (body.getAttachment() != null) {
+            out.write(BODY_ATTACHED);
+            writeVarLong(out, body.getTotal());
+            writeString(out, body.getAttachment());
+            return;
+        }
+        out.write(body.isTruncated() ? BODY_TRUNCATED : BODY_CONTENT);
+        writeVarLong(out, body.getTotal());
+        writeVarLong(out, body.getLength() + 1);
+        body.writeTo(out);
+    }
+
+    private static ErrorRecord.Body readBody(final InputStream in) throws IOException {
+        final int type = in.read();
+        switch (type) {
+            case BODY_NONE:
+                return null;
+            case BODY_ATTACHED:
+                final long attachedTotal = readVarLong(in);
+                return ErrorRecord.Body.attached(readString(in), attachedTotal);
+            case BODY_CONTENT:
+            case BODY_TRUNCATED:
+                final long total = readVarLong(in);
+                return ErrorRecord.Body.of(readBytes(in), total, type == BODY_TRUNCATED);
+            default:
+                throw new IOException("Malformed body type: " + type);
+        }
+    }
+
+}
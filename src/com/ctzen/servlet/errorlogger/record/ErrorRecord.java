@@ -0,0 +1,369 @@
+package com.ctzen.servlet.errorlogger.record;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.ctzen.servlet.wrapper.CaptureBuffer;
+
+/**
+ * Structured error, for sinks which store or ship errors as data rather than text.<br>
+ * <br>
+ * Render it with an {@link ErrorRecordRenderer}, or store it with {@link BinaryErrorRecordCodec}.
+ * Maps are sorted by name, {@code null} means not available.
+ *
+ * @author cchang
+ */
+public class ErrorRecord {
+
+    private String errorId;
+
+    public String getErrorId() {
+        return errorId;
+    }
+
+    public void setErrorId(final String errorId) {
+        this.errorId = errorId;
+    }
+
+    private long timestamp;
+
+    /**
+     * @return when the request entered the filter, epoch millis
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(final long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    private long durationMillis;
+
+    /**
+     * @return time from entering the filter to logging the error
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(final long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    private String thread;
+
+    public String getThread() {
+        return thread;
+    }
+
+    public void setThread(final String thread) {
+        this.thread = thread;
+    }
+
+    private String method;
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(final String method) {
+        this.method = method;
+    }
+
+    private String requestUri;
+
+    public String getRequestUri() {
+        return requestUri;
+    }
+
+    public void setRequestUri(final String requestUri) {
+        this.requestUri = requestUri;
+    }
+
+    private String queryString;
+
+    public String getQueryString() {
+        return queryString;
+    }
+
+    public void setQueryString(final String queryString) {
+        this.queryString = queryString;
+    }
+
+    private String protocol;
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(final String protocol) {
+        this.protocol = protocol;
+    }
+
+    private String remoteAddr;
+
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    public void setRemoteAddr(final String remoteAddr) {
+        this.remoteAddr = remoteAddr;
+    }
+
+    private String requestContentType;
+
+    public String getRequestContentType() {
+        return requestContentType;
+    }
+
+    public void setRequestContentType(final String requestContentType) {
+        this.requestContentType = requestContentType;
+    }
+
+    private Map<String, List<String>> requestHeaders = Collections.emptyMap();
+
+    public Map<String, List<String>> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    public void setRequestHeaders(final Map<String, List<String>> requestHeaders) {
+        this.requestHeaders = requestHeaders;
+    }
+
+    private Map<String, List<String>> parameters = Collections.emptyMap();
+
+    public Map<String, List<String>> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(final Map<String, List<String>> parameters) {
+        this.parameters = parameters;
+    }
+
+    private Map<String, String> requestAttributes = Collections.emptyMap();
+
+    /**
+     * @return request attributes as strings
+     */
+    public Map<String, String> getRequestAttributes() {
+        return requestAttributes;
+    }
+
+    public void setRequestAttributes(final Map<String, String> requestAttributes) {
+        this.requestAttributes = requestAttributes;
+    }
+
+    private Body requestBody;
+
+    public Body getRequestBody() {
+        return requestBody;
+    }
+
+    public void setRequestBody(final Body requestBody) {
+        this.requestBody = requestBody;
+    }
+
+    private int status;
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(final int status) {
+        this.status = status;
+    }
+
+    private String responseContentType;
+
+    public String getResponseContentType() {
+        return responseContentType;
+    }
+
+    public void setResponseContentType(final String responseContentType) {
+        this.responseContentType = responseContentType;
+    }
+
+    private Map<String, List<String>> responseHeaders = Collections.emptyMap();
+
+    public Map<String, List<String>> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    public void setResponseHeaders(final Map<String, List<String>> responseHeaders) {
+        this.responseHeaders = responseHeaders;
+    }
+
+    private Body responseBody;
+
+    public Body getResponseBody() {
+        return responseBody;
+    }
+
+    public void setResponseBody(final Body responseBody) {
+        this.responseBody = responseBody;
+    }
+
+    private String sessionId;
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(final String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    private Map<String, String> sessionAttributes = Collections.emptyMap();
+
+    /**
+     * @return session attributes as strings
+     */
+    public Map<String, String> getSessionAttributes() {
+        return sessionAttributes;
+    }
+
+    public void setSessionAttributes(final Map<String, String> sessionAttributes) {
+        this.sessionAttributes = sessionAttributes;
+    }
+
+    private String exceptionClass;
+
+    public String getExceptionClass() {
+        return exceptionClass;
+    }
+
+    public void setExceptionClass(final String exceptionClass) {
+        this.exceptionClass = exceptionClass;
+    }
+
+    private String exceptionMessage;
+
+    public String getExceptionMessage() {
+        return exceptionMessage;
+    }
+
+    public void setExceptionMessage(final String exceptionMessage) {
+        this.exceptionMessage = exceptionMessage;
+    }
+
+    private String stackTrace;
+
+    public String getStackTrace() {
+        return stackTrace;
+    }
+
+    public void setStackTrace(final String stackTrace) {
+        this.stackTrace = stackTrace;
+    }
+
+    /**
+     * A captured body, either content or a reference to an attachment.
+     */
+    public static final class Body {
+
+        /**
+         * @param buffer    capture buffer, the body is only valid as long as the buffer
+         */
+        public static Body of(final CaptureBuffer buffer) {
+            return new Body(buffer, null, buffer.getTotal(), buffer.isTruncated(), null);
+        }
+
+        /**
+         * @param content   captured content, including any truncation marker
+         * @param total     bytes in the original body
+         * @param truncated whether the content is truncated
+         */
+        public static Body of(final byte[] content, final long total, final boolean truncated) {
+            return new Body(null, content, total, truncated, null);
+        }
+
+        /**
+         * @param attachment    attachment name the body was stored as
+         * @param total         bytes in the body
+         */
+        public static Body attached(final String attachment, final long total) {
+            return new Body(null, null, total, false, attachment);
+        }
+
+        private Body(final CaptureBuffer buffer, final byte[] content, final long total, final boolean truncated, final String attachment) {
+            this.buffer = buffer;
+            this.content = content;
+            this.total = total;
+            this.truncated = truncated;
+            this.attachment = attachment;
+        }
+
+        private final CaptureBuffer buffer;
+
+        private final byte[] content;
+
+        private final long total;
+
+        /**
+         * @return bytes in the original body
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        private final boolean truncated;
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        private final String attachment;
+
+        /**
+         * @return attachment name, {@code null} if the content is here
+         */
+        public String getAttachment() {
+            return attachment;
+        }
+
+        /**
+         * @return content bytes, including any truncation marker, 0 if attached
+         */
+        public long getLength() {
+            if (content != null) {
+                return content.length;
+            }
+            if (buffer == null) {
+                return 0;
+            }
+            long ret = 0;
+            for (final ByteBuffer view: buffer.asByteBuffers()) {
+                ret += view.remaining();
+            }
+            return ret;
+        }
+
+        /**
+         * @return content, empty if attached
+         */
+        public InputStream getInputStream() {
+            if (buffer != null) {
+                return buffer.getInputStream();
+            }
+            return new ByteArrayInputStream(content == null ? new byte[0] : content);
+        }
+
+        public void writeTo(final OutputStream out) throws IOException {
+            if (buffer != null) {
+                buffer.writeTo(out);
+            }
+            else if (content != null) {
+                out.write(content);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.ctzen.servlet.errorlogger.record;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders an {@link ErrorRecord} as text.
+ *
+ * @author cchang
+ */
+public interface ErrorRecordRenderer {
+
+    /**
+     * @param record    record to render
+     * @param out       where to render, not closed
+     */
+    void render(final ErrorRecord record, final Writer out) throws IOException;
+
+}
@@ -0,0 +1,274 @@
+package com.ctzen.servlet.errorlogger.record;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders an {@link ErrorRecord} as one line of compact JSON, streamed into the writer.<br>
+ * <br>
+ * Bodies are decoded with the platform charset through a bounded scratch buffer.
+ * An attached body is rendered as its attachment name instead.
+ *
+ * @author cchang
+ */
+public class JsonErrorRecordRenderer implements ErrorRecordRenderer {
+
+    public static final JsonErrorRecordRenderer INSTANCE = new JsonErrorRecordRenderer();
+
+    private static final int BODY_DECODE_BUFFER_SIZE = 4096;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public void render(final ErrorRecord record, final Writer out) throws IOException {
+        out.write('{');
+        field(out, "errorId", true);
+        string(out, record.getErrorId());
+        field(out, "timestamp", false);
+        out.write(Long.toString(record.getTimestamp()));
+        field(out, "durationMillis", false);
+        out.write(Long.toString(record.getDurationMillis()));
+        field(out, "thread", false);
+        string(out, record.getThread());
+        out.write(",\"request\":{");
+        field(out, "method", true);
+        string(out, record.getMethod());
+        field(out, "uri", false);
+        string(out, record.getRequestUri());
+        field(out, "queryString", false);
+        string(out, record.getQueryString());
+        field(out, "protocol", false);
+        string(out, record.getProtocol());
+        field(out, "remoteAddr", false);
+        string(out, record.getRemoteAddr());
+        field(out, "contentType", false);
+        string(out, record.getRequestContentType());
+        field(out, "headers", false);
+        multiMap(out, record.getRequestHeaders());
+        field(out, "parameters", false);
+        multiMap(out, record.getParameters());
+        field(out, "attributes", false);
+        map(out, record.getRequestAttributes());
+        field(out, "body", false);
+        body(out, record.getRequestBody());
+        out.write("},\"response\":{");
+        field(out, "status", true);
+        out.write(Integer.toString(record.getStatus()));
+        field(out, "contentType", false);
+        string(out, record.getResponseContentType());
+        field(out, "headers", false);
+        multiMap(out, record.getResponseHeaders());
+        field(out, "body", false);
+        body(out, record.getResponseBody());
+        out.write("},\"session\":");
+        if (record.getSessionId() == null) {
+            out.write("null");
+        }
+        else {
+            out.write('{');
+            field(out, "id", true);
+            string(out, record.getSessionId());
+            field(out, "attributes", false);
+            map(out, record.getSessionAttributes());
+            out.write('}');
+        }
+        out.write(",\"exception\":");
+        if (record.getExceptionClass() == null) {
+            out.write("null");
+        }
+        else {
+            out.write('{');
+            field(out, "class", true);
+            string(out, record.getExceptionClass());
+            field(out, "message", false);
+            string(out, record.getExceptionMessage());
+            field(out, "stackTrace", false);
+            string(out, record.getStackTrace());
+            out.write('}');
+        }
+        out.write('}');
+    }
+
+    private static void field(final Writer out, final String name, final boolean first) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        out.write('"');
+        out.write(name);
+        out.write("\":");
+    }
+
+    /**
+     * Writes a JSON string literal, {@code null} as null.
+     */
+    public static void writeString(final Writer out, final String s) throws IOException {
+        string(out, s);
+    }
+
+    private static void string(final Writer out, final String s) throws IOException {
+        if (s == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        escape(out, s);
+        out.write('"');
+    }
+
+    private static void escape(final Writer out, final CharSequence s) throws IOException {
+        int start = 0;
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            // line and paragraph separators too, they are invalid in JavaScript strings
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            if (i > start) {
+                copy(out, s, start, i);
+            }
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write("\\u");
+                    out.write(HEX[c >> 12 & 0xf]);
+                    out.write(HEX[c >> 8 & 0xf]);
+                    out.write(HEX[c >> 4 & 0xf]);
+                    out.write(HEX[c & 0xf]);
+                    break;
+            }
+        }
+        if (start < len) {
+            copy(out, s, start, len);
+        }
+    }
+
+    private static void copy(final Writer out, final CharSequence s, final int start, final int end) throws IOException {
+        if (s instanceof CharArraySequence) {
+            out.write(((CharArraySequence)s).chars, start, end - start);
+        }
+        else {
+            out.write(s.toString(), start, end - start);
+        }
+    }
+
+    private static void map(final Writer out, final Map<String, String> map) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (final Map.Entry<String, String> e: map.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            string(out, e.getKey());
+            out.write(':');
+            string(out, e.getValue());
+        }
+        out.write('}');
+    }
+
+    private static void multiMap(final Writer out, final Map<String, List<String>> map) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (final Map.Entry<String, List<String>> e: map.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            string(out, e.getKey());
+            out.write(":[");
+            boolean firstValue = true;
+            for (final String value: e.getValue()) {
+                if (!firstValue) {
+                    out.write(',');
+                }
+                firstValue = false;
+                string(out, value);
+            }
+            out.write(']');
+        }
+        out.write('}');
+    }
+
+    private static void body(final Writer out, final ErrorRecord.Body body) throws IOException {
+        if (body == null) {
+            out.write("null");
+            return;
+        }
+        out.write("{\"total\":");
+        out.write(Long.toString(body.getTotal()));
+        out.write(",\"truncated\":");
+        out.write(body.isTruncated() ? "true" : "false");
+        if (body.getAttachment() != null) {
+            out.write(",\"attachment\":");
+            string(out, body.getAttachment());
+        }
+        else {
+            out.write(",\"content\":\"");
+            try (final InputStream in = body.getInputStream();
+                    final Reader reader = new InputStreamReader(in, Charset.defaultCharset())) {
+                final char[] cbuf = new char[BODY_DECODE_BUFFER_SIZE];
+                final CharArraySequence seq = new CharArraySequence(cbuf);
+                int n;
+                while ((n = reader.read(cbuf)) != -1) {
+                    seq.length = n;
+                    escape(out, seq);
+                }
+            }
+            out.write('"');
+        }
+        out.write('}');
+    }
+
+    /**
+     * View of the decode scratch, so it is escaped without copying.
+     */
+    private static final class CharArraySequence implements CharSequence {
+
+        CharArraySequence(final char[] chars) {
+            this.chars = chars;
+        }
+
+        private final char[] chars;
+
+        int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            return new String(chars, start, end - start);
+        }
+
+    }
+
+}
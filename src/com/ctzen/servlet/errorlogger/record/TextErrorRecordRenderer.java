@@ -0,0 +1,103 @@
+package com.ctzen.servlet.errorlogger.record;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import com.ctzen.common.tostring.ToStringUtil;
+
+/**
+ * Renders an {@link ErrorRecord} in the sections of the {@link com.ctzen.servlet.errorlogger.ErrorLoggingFilter}
+ * text report, with one {@code name=value} line per field.
+ *
+ * @author cchang
+ */
+public class TextErrorRecordRenderer implements ErrorRecordRenderer {
+
+    public static final TextErrorRecordRenderer INSTANCE = new TextErrorRecordRenderer();
+
+    private static final int BODY_DECODE_BUFFER_SIZE = 4096;
+
+    @Override
+    public void render(final ErrorRecord record, final Writer out) throws IOException {
+        out.append("ERROR ID: ").append(record.getErrorId())
+           .append("\n\nTHREAD: ").append(record.getThread())
+           .append("\n\nREQUEST:\n");
+        line(out, "timestamp", Long.toString(record.getTimestamp()));
+        line(out, "durationMillis", Long.toString(record.getDurationMillis()));
+        line(out, "method", record.getMethod());
+        line(out, "requestURI", record.getRequestUri());
+        line(out, "queryString", record.getQueryString());
+        line(out, "protocol", record.getProtocol());
+        line(out, "remoteAddr", record.getRemoteAddr());
+        line(out, "contentType", record.getRequestContentType());
+        multiMap(out, "parameters", record.getParameters());
+        multiMap(out, "headers", record.getRequestHeaders());
+        map(out, "attributes", record.getRequestAttributes());
+        out.append("\nREQUEST BODY:\n");
+        body(out, record.getRequestBody());
+        out.append("\n\nRESPONSE:\n");
+        line(out, "status", Integer.toString(record.getStatus()));
+        line(out, "contentType", record.getResponseContentType());
+        multiMap(out, "headers", record.getResponseHeaders());
+        out.append("\nRESPONSE BODY:\n");
+        body(out, record.getResponseBody());
+        out.append("\n\nSESSION:\n");
+        if (record.getSessionId() == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            line(out, "id", record.getSessionId());
+            map(out, "attributes", record.getSessionAttributes());
+        }
+        out.append("\n\nEXCEPTION:\n")
+           .append(record.getStackTrace() == null ? ToStringUtil.NULL_STRING : record.getStackTrace())
+           .append("\n");
+    }
+
+    private static void line(final Writer out, final String name, final String value) throws IOException {
+        out.append(name).append('=').append(value == null ? ToStringUtil.NULL_STRING : value).append('\n');
+    }
+
+    private static void map(final Writer out, final String name, final Map<String, String> map) throws IOException {
+        out.append(name).append("=\n");
+        for (final Map.Entry<String, String> e: map.entrySet()) {
+            out.append("  ");
+            line(out, e.getKey(), e.getValue());
+        }
+    }
+
+    private static void multiMap(final Writer out, final String name, final Map<String, List<String>> map) throws IOException {
+        out.append(name).append("=\n");
+        for (final Map.Entry<String, List<String>> e: map.entrySet()) {
+            out.append("  ");
+            line(out, e.getKey(), e.getValue().size() == 1 ? e.getValue().get(0) : e.getValue().toString());
+        }
+    }
+
+    private static void body(final Writer out, final ErrorRecord.Body body) throws IOException {
+        if (body == null) {
+            out.append(ToStringUtil.NULL_STRING);
+            return;
+        }
+        if (body.getAttachment() != null) {
+            out.append("<").append(Long.toString(body.getTotal())).append(" bytes, see attachment ")
+               .append(body.getAttachment()).append(">");
+            return;
+        }
+        try (final InputStream in = body.getInputStream();
+                final Reader reader = new InputStreamReader(in, Charset.defaultCharset())) {
+            final char[] cbuf = new char[BODY_DECODE_BUFFER_SIZE];
+            int n;
+            while ((n = reader.read(cbuf)) != -1) {
+                out.write(cbuf, 0, n);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate {@link RecordCodec}, with an optional preset dictionary.<br>
+ * <br>
+ * Error reports are small and alike: the same section headings, header names and stack frames.
+ * Compressed one by one they lose most of that redundancy, a dictionary of typical content gives it back.
+ * Records must be read with the dictionary they were written with, the zlib stream checks it.
+ *
+ * @author cchang
+ */
+public class DeflateRecordCodec implements RecordCodec, Closeable {
+
+    public static final int ID = 1;
+
+    /**
+     * {@link #DEFAULT_DICTIONARY} size.
+     */
+    public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+
+    /**
+     * A small dictionary of the {@link com.ctzen.servlet.errorlogger.ErrorLoggingFilter} report layout
+     * and common stack frames. Train one from actual reports with {@link #trainDictionary(Collection, int)}
+     * for better compression.
+     */
+    public static final byte[] DEFAULT_DICTIONARY = String.join("\n",
+            "\tat java.lang.Thread.run(Thread.java",
+            "\tat java.util.concurrent.ThreadPoolExecutor$Worker.run(ThreadPoolExecutor.java",
+            "\tat java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java",
+            "\tat sun.reflect.NativeMethodAccessorImpl.invoke(NativeMethodAccessorImpl.java",
+            "\tat sun.reflect.DelegatingMethodAccessorImpl.invoke(DelegatingMethodAccessorImpl.java",
+            "\tat java.lang.reflect.Method.invoke(Method.java",
+            "\tat org.springframework.web.method.support.InvocableHandlerMethod.invoke(InvocableHandlerMethod.java",
+            "\tat org.springframework.web.method.support.InvocableHandlerMethod.invokeForRequest(InvocableHandlerMethod.java",
+            "\tat org.springframework.web.servlet.mvc.method.annotation.ServletInvocableHandlerMethod.invokeAndHandle(ServletInvocableHandlerMethod.java",
+            "\tat org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter.invokeHandleMethod(RequestMappingHandlerAdapter.java",
+            "\tat org.springframework.web.servlet.mvc.method.AbstractHandlerMethodAdapter.handle(AbstractHandlerMethodAdapter.java",
+            "\tat org.springframework.web.servlet.DispatcherServlet.doDispatch(DispatcherServlet.java",
+            "\tat org.springframework.web.servlet.DispatcherServlet.doService(DispatcherServlet.java",
+            "\tat org.springframework.web.servlet.FrameworkServlet.processRequest(FrameworkServlet.java",
+            "\tat org.springframework.web.servlet.FrameworkServlet.doGet(FrameworkServlet.java",
+            "\tat org.springframework.web.servlet.FrameworkServlet.doPost(FrameworkServlet.java",
+            "\tat org.springframework.web.servlet.FrameworkServlet.service(FrameworkServlet.java",
+            "\tat javax.servlet.http.HttpServlet.service(HttpServlet.java",
+            "\tat org.springframework.web.filter.DelegatingFilterProxy.invokeDelegate(DelegatingFilterProxy.java",
+            "\tat org.springframework.web.filter.DelegatingFilterProxy.doFilter(DelegatingFilterProxy.java",
+            "\tat com.ctzen.servlet.errorlogger.ErrorLoggingFilter.doFilter(ErrorLoggingFilter.java",
+            "\tat org.apache.catalina.core.ApplicationFilterChain.internalDoFilter(ApplicationFilterChain.java",
+            "\tat org.apache.catalina.core.ApplicationFilterChain.doFilter(ApplicationFilterChain.java",
+            "\tat org.apache.catalina.core.StandardWrapperValve.invoke(StandardWrapperValve.java",
+            "\tat org.eclipse.jetty.servlet.ServletHandler$CachedChain.doFilter(ServletHandler.java",
+            "\tat org.eclipse.jetty.servlet.ServletHandler.doHandle(ServletHandler.java",
+            "Caused by: ",
+            "\t... ",
+            " more",
+            "java.lang.NullPointerException",
+            "java.lang.IllegalArgumentException",
+            "java.lang.IllegalStateException",
+            "org.springframework.web.util.NestedServletException: Request processing failed; nested exception is ",
+            "Content-Type=application/json;charset=UTF-8",
+            "Content-Type=application/x-www-form-urlencoded",
+            "Content-Type=text/html;charset=UTF-8",
+            "Accept=text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+            "Accept-Encoding=gzip, deflate",
+            "Accept-Language=en-US,en;q=0.8",
+            "Connection=keep-alive",
+            "Cache-Control=no-cache",
+            "User-Agent=Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome",
+            "Cookie=JSESSIONID=",
+            "X-Forwarded-For=",
+            "Host=",
+            "Referer=http",
+            "characterEncoding=",
+            "contentType=",
+            "headers=",
+            "parameters=",
+            "attributes=",
+            "cookies=",
+            "method=",
+            "requestURI=",
+            "queryString=",
+            "remoteAddr=",
+            "status=500",
+            "creationTime=",
+            "lastAccessedTime=",
+            "maxInactiveInterval=",
+            "<null>",
+            "ERROR ID: ",
+            "\n\nTHREAD: Thread[http-nio-8080-exec-",
+            ",5,main]",
+            "\n\nREQUEST:\n",
+            "\n\nREQUEST BODY:\n",
+            "\n\nRESPONSE:\n",
+            "\n\nRESPONSE BODY:\n",
+            "\n\nSESSION:\n",
+            "\n\nEXCEPTION:\n").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Build a preset dictionary from sample reports.<br>
+     * <br>
+     * Lines found in more than one sample are kept, the most common last (deflate finds near matches
+     * with shorter distances), up to maxSize bytes.
+     *
+     * @param samples   typical error reports
+     * @param maxSize   max dictionary size, deflate uses at most 32K
+     * @return dictionary
+     */
+    public static byte[] trainDictionary(final Collection<String> samples, final int maxSize) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final String sample: samples) {
+            final Set<String> lines = new HashSet<>(Arrays.asList(sample.split("\n")));
+            for (final String line: lines) {
+                if (line.length() > 3) {
+                    final Integer count = counts.get(line);
+                    counts.put(line, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        final List<Map.Entry<String, Integer>> common = new ArrayList<>();
+        for (final Map.Entry<String, Integer> e: counts.entrySet()) {
+            if (e.getValue() > 1) {
+                common.add(e);
+            }
+        }
+        // most common first, to be taken first, then laid out last
+        Collections.sort(common, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(final Map.Entry<String, Integer> a, final Map.Entry<String, Integer> b) {
+                final int ret = Integer.compare(b.getValue(), a.getValue());
+                return ret == 0 ? a.getKey().compareTo(b.getKey()) : ret;
+            }
+        });
+        final List<byte[]> taken = new ArrayList<>();
+        int size = 0;
+        for (final Map.Entry<String, Integer> e: common) {
+            final byte[] line = (e.getKey() + "\n").getBytes(StandardCharsets.UTF_8);
+            if (size + line.length > maxSize) {
+                continue;
+            }
+            taken.add(line);
+            size += line.length;
+        }
+        final byte[] ret = new byte[size];
+        int pos = 0;
+        for (int i = taken.size() - 1; i >= 0; i--) {
+            final byte[] line = taken.get(i);
+            System.arraycopy(line, 0, ret, pos, line.length);
+            pos += line.length;
+        }
+        return ret;
+    }
+
+    /**
+     * Default compression level, {@link #DEFAULT_DICTIONARY}.
+     */
+    public DeflateRecordCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_DICTIONARY);
+    }
+
+    /**
+     * @param level         {@link Deflater} compression level
+     * @param dictionary    preset dictionary, {@code null} for none
+     */
+    public DeflateRecordCodec(final int level, final byte[] dictionary) {
+        this.level = level;
+        this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+        if (this.dictionary == null) {
+            this.dictionaryId = 0;
+        }
+        else {
+            final Adler32 adler = new Adler32();
+            adler.update(this.dictionary);
+            this.dictionaryId = (int)adler.getValue();
+        }
+        this.deflater = new Deflater(level);
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    private final int level;
+
+    public int getLevel() {
+        return level;
+    }
+
+    private final byte[] dictionary;
+
+    private final int dictionaryId;
+
+    /**
+     * @return Adler-32 of the dictionary as recorded in the zlib streams, 0 if none
+     */
+    @Override
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    /**
+     * @return Adler-32 of the dictionary from the zlib stream header, 0 if none
+     */
+    @Override
+    public int getDictionaryId(final byte[] data) throws IOException {
+        if (data.length < 2) {
+            throw new IOException("Truncated compressed record");
+        }
+        if ((data[1] & 0x20) == 0) {       // FDICT
+            return 0;
+        }
+        if (data.length < 6) {
+            throw new IOException("Truncated compressed record");
+        }
+        return (data[2] & 0xff) << 24 | (data[3] & 0xff) << 16 | (data[4] & 0xff) << 8 | (data[5] & 0xff);
+    }
+
+    private final Deflater deflater;
+
+    private byte[] scratch = new byte[4096];
+
+    @Override
+    public byte[] encode(final byte[] data) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == scratch.length) {
+                if (n >= data.length) {
+                    return null;        // not smaller
+                }
+                scratch = Arrays.copyOf(scratch, scratch.length << 1);
+            }
+            n += deflater.deflate(scratch, n, scratch.length - n);
+        }
+        return n < data.length ? Arrays.copyOf(scratch, n) : null;
+    }
+
+    @Override
+    public byte[] decode(final byte[] data) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] ret = new byte[Math.max(256, data.length * 4)];
+            int n = 0;
+            while (!inflater.finished()) {
+                if (n == ret.length) {
+                    ret = Arrays.copyOf(ret, ret.length << 1);
+                }
+                final int inflated = inflater.inflate(ret, n, ret.length - n);
+                n += inflated;
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null || inflater.getAdler() != dictionaryId) {
+                            throw new IOException("Record compressed with another dictionary: " + inflater.getAdler());
+                        }
+                        inflater.setDictionary(dictionary);
+                    }
+                    else if (inflater.needsInput()) {
+                        throw new IOException("Truncated compressed record");
+                    }
+                }
+            }
+            return n == ret.length ? ret : Arrays.copyOf(ret, n);
+        }
+        catch (final DataFormatException e) {
+            throw new IOException("Corrupt compressed record", e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Frees the native deflater.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import java.io.IOException;
+
+/**
+ * Compression of {@link SegmentedErrorLogger} records.<br>
+ * <br>
+ * Each record is encoded on its own, so any record can still be read by position without
+ * decoding its neighbours. The codec id is stored with each record, and a codec with state that changes
+ * how records are encoded, e.g. a preset dictionary, tells it apart by its dictionary id.
+ *
+ * @author cchang
+ */
+public interface RecordCodec {
+
+    /**
+     * Record codec id for uncompressed records.
+     */
+    int NONE = 0;
+
+    /**
+     * @return codec id stored with each record, 1 to 255
+     */
+    int getId();
+
+    /**
+     * @return id of the state new records are encoded with, e.g. a dictionary checksum, 0 if none
+     */
+    default int getDictionaryId() {
+        return 0;
+    }
+
+    /**
+     * @param data  encoded payload
+     * @return {@link #getDictionaryId()} of the codec that encoded it
+     */
+    default int getDictionaryId(final byte[] data) throws IOException {
+        return 0;
+    }
+
+    /**
+     * Called by one thread at a time.
+     *
+     * @param data  record payload
+     * @return encoded payload, or {@code null} if it would not be smaller, to store the record uncompressed
+     */
+    byte[] encode(final byte[] data) throws IOException;
+
+    /**
+     * May be called concurrently.
+     *
+     * @param data  encoded payload
+     * @return record payload
+     */
+    byte[] decode(final byte[] data) throws IOException;
+
+}
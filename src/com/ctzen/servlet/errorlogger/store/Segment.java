@@ -0,0 +1,339 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One segment file of a {@link SegmentedErrorLogger}.<br>
+ * <br>
+ * File layout: an 8 bytes header (magic, version, 3 reserved bytes), then records:
+ * <pre>
+ * int      length of the rest of the record, after the crc
+ * int      CRC32 of the rest of the record
+ * short    error id length
+ * byte     {@link RecordCodec} id of the payload, 0 for none
+ * byte[]   error id, UTF-8
+ * byte[]   payload
+ * </pre>
+ * Not thread-safe, the owning logger serializes access.
+ *
+ * @author cchang
+ */
+final class Segment implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Segment.class);
+
+    static final String SUFFIX = ".seg";
+
+    static final int MAGIC = 0x454c5347;        // "ELSG"
+
+    static final byte VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 8;
+
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 2 + 1;
+
+    static final int MAX_ID_LENGTH = 0xffff;
+
+    /**
+     * @return file name of the segment with the sequence number, sorts in sequence order
+     */
+    static String getFileName(final long sequence) {
+        return String.format("%020d%s", sequence, SUFFIX);
+    }
+
+    /**
+     * @return sequence number of the segment file name, or -1 if not a segment file name
+     */
+    static long parseSequence(final String fileName) {
+        if (!fileName.endsWith(SUFFIX) || fileName.length() != 20 + SUFFIX.length()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(0, 20));
+        }
+        catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Open a segment for appending, creating it if necessary.
+     * A torn or corrupt tail, e.g. from a crash mid-write, is truncated.
+     *
+     * @param positions     filled with the position of the last record of each error id in the segment
+     */
+    static Segment openForAppend(final File folder, final long sequence, final Map<String, Long> positions) throws IOException {
+        final File file = new File(folder, getFileName(sequence));
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final Segment ret = new Segment(file, sequence, channel);
+            if (channel.size() == 0) {
+                ret.writeFileHeader();
+            }
+            else {
+                ret.recover(positions);
+            }
+            return ret;
+        }
+        catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a sealed segment for reading.
+     */
+    static Segment openForRead(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final Segment ret = new Segment(file, parseSequence(file.getName()), channel);
+            ret.checkFileHeader();
+            ret.size = channel.size();
+            return ret;
+        }
+        catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Segment(final File file, final long sequence, final FileChannel channel) {
+        this.file = file;
+        this.sequence = sequence;
+        this.channel = channel;
+    }
+
+    private final File file;
+
+    File getFile() {
+        return file;
+    }
+
+    private final long sequence;
+
+    long getSequence() {
+        return sequence;
+    }
+
+    private final FileChannel channel;
+
+    private long size;
+
+    /**
+     * @return bytes in the segment, which is also where the next record goes
+     */
+    long size() {
+        return size;
+    }
+
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+    private final CRC32 crc = new CRC32();
+
+    private void writeFileHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).put(VERSION).flip();
+        writeFully(header, 0);
+        size = FILE_HEADER_SIZE;
+    }
+
+    private void checkFileHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (!readFully(header, 0) || header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " segment file: " + file);
+        }
+    }
+
+    private void recover(final Map<String, Long> positions) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < FILE_HEADER_SIZE) {
+            // crashed while writing the file header
+            LOG.warn("Reinitializing segment with a partial header: {}", file);
+            channel.truncate(0);
+            writeFileHeader();
+            return;
+        }
+        checkFileHeader();
+        size = fileSize;
+        long position = FILE_HEADER_SIZE;
+        Record record;
+        while ((record = read(position)) != null) {
+            positions.put(record.getErrorId(), position);
+            position = record.getNextPosition();
+        }
+        if (position < fileSize) {
+            LOG.warn("Truncating {} bytes of torn or corrupt records from {} at {}", fileSize - position, file, position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        size = position;
+    }
+
+    /**
+     * @return position of the record
+     */
+    long append(final byte[] errorId, final int codec, final byte[] payload) throws IOException {
+        if (errorId.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Error id too long: " + errorId.length);
+        }
+        crc.reset();
+        recordHeader.clear();
+        recordHeader.putShort(8, (short)errorId.length).put(10, (byte)codec);
+        crc.update(recordHeader.array(), 8, 3);
+        crc.update(errorId);
+        crc.update(payload);
+        recordHeader.putInt(0, 3 + errorId.length + payload.length)
+                    .putInt(4, (int)crc.getValue());
+        final long position = size;
+        final ByteBuffer[] buffers = { recordHeader, ByteBuffer.wrap(errorId), ByteBuffer.wrap(payload) };
+        final long total = RECORD_HEADER_SIZE + errorId.length + payload.length;
+        long written = 0;
+        channel.position(position);
+        while (written < total) {
+            written += channel.write(buffers);
+        }
+        size = position + total;
+        return position;
+    }
+
+    /**
+     * Scan the records.
+     *
+     * @param positions     filled with the position of the last record of each error id in the segment
+     */
+    void scan(final Map<String, Long> positions) throws IOException {
+        long position = FILE_HEADER_SIZE;
+        Record record;
+        while ((record = read(position)) != null) {
+            positions.put(record.getErrorId(), position);
+            position = record.getNextPosition();
+        }
+    }
+
+    /**
+     * May be called concurrently with other reads, but not with appends.
+     *
+     * @return the valid record at the position, or {@code null} if none, torn or corrupt
+     */
+    Record read(final long position) throws IOException {
+        if (position + RECORD_HEADER_SIZE > size) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (!readFully(header, position)) {
+            return null;
+        }
+        final int length = header.getInt(0);
+        final int idLength = header.getShort(8) & 0xffff;
+        if (length < 3 + idLength || position + 8 + length > size) {
+            return null;
+        }
+        final byte[] body = new byte[length - 3];
+        if (!readFully(ByteBuffer.wrap(body), position + RECORD_HEADER_SIZE)) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(header.array(), 8, 3);
+        crc.update(body);
+        if ((int)crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+        final String errorId = new String(body, 0, idLength, StandardCharsets.UTF_8);
+        final byte[] payload = new byte[body.length - idLength];
+        System.arraycopy(body, idLength, payload, 0, payload.length);
+        return new Record(errorId, header.get(10) & 0xff, payload, position, position + 8 + length);
+    }
+
+    private void writeFully(final ByteBuffer buffer, final long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            p += channel.write(buffer, p);
+        }
+    }
+
+    private boolean readFully(final ByteBuffer buffer, final long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, p);
+            if (n < 0) {
+                return false;
+            }
+            p += n;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + "(" + size + " bytes)";
+    }
+
+    /**
+     * A record read back from a segment.
+     */
+    static final class Record {
+
+        Record(final String errorId, final int codec, final byte[] payload, final long position, final long nextPosition) {
+            this.errorId = errorId;
+            this.codec = codec;
+            this.payload = payload;
+            this.position = position;
+            this.nextPosition = nextPosition;
+        }
+
+        private final String errorId;
+
+        String getErrorId() {
+            return errorId;
+        }
+
+        private final int codec;
+
+        int getCodec() {
+            return codec;
+        }
+
+        private final byte[] payload;
+
+        byte[] getPayload() {
+            return payload;
+        }
+
+        private final long position;
+
+        long getPosition() {
+            return position;
+        }
+
+        private final long nextPosition;
+
+        long getNextPosition() {
+            return nextPosition;
+        }
+
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import com.ctzen.servlet.errorlogger.TimeOrderedErrorIdGenerator;
+
+/**
+ * Error id index of a sealed {@link Segment}.<br>
+ * <br>
+ * On disk, {@code <segment>.idx}: a 32 bytes header (magic, version, 3 reserved bytes, entry count,
+ * 4 reserved bytes, min and max {@link TimeOrderedErrorIdGenerator} timestamps), then 16 bytes entries
+ * of error id hash and record position, sorted by hash. The timestamps let lookups by time skip
+ * the segment; they are {@link Long#MAX_VALUE} and -1 if no id is time-ordered.<br>
+ * <br>
+ * In memory, only every {@value #SPARSE_INTERVAL}th hash and a Bloom filter of all hashes are kept.
+ * A lookup that passes the Bloom filter binary searches the sparse hashes, then reads one block of
+ * entries from the file. Hashes may collide, the caller checks the error id of the record.
+ *
+ * @author cchang
+ */
+final class SegmentIndex {
+
+    static final String SUFFIX = ".idx";
+
+    static final int MAGIC = 0x454c4958;        // "ELIX"
+
+    static final byte VERSION = 2;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int ENTRY_SIZE = 16;
+
+    static final int SPARSE_INTERVAL = 64;
+
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+
+    private static final int BLOOM_HASHES = 7;
+
+    private static final int LOAD_BUFFER_ENTRIES = 4096;
+
+    private static final long[] NO_POSITIONS = new long[0];
+
+    /**
+     * @return 64 bits FNV-1a hash of the UTF-8 error id, with a final avalanche mix
+     */
+    static long hash(final String errorId) {
+        final byte[] bytes = errorId.getBytes(StandardCharsets.UTF_8);
+        long h = 0xcbf29ce484222325L;
+        for (final byte b: bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return index file of the segment
+     */
+    static File getFile(final File folder, final long sequence) {
+        final String segmentName = Segment.getFileName(sequence);
+        return new File(folder, segmentName.substring(0, segmentName.length() - Segment.SUFFIX.length()) + SUFFIX);
+    }
+
+    /**
+     * Write the index file, atomically.
+     *
+     * @param positions     record position by error id
+     */
+    static void write(final File file, final Map<String, Long> positions) throws IOException {
+        final long[][] entries = new long[positions.size()][];
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = -1;
+        int i = 0;
+        for (final Map.Entry<String, Long> e: positions.entrySet()) {
+            entries[i++] = new long[] { hash(e.getKey()), e.getValue() };
+            final long timestamp = TimeOrderedErrorIdGenerator.getTimestamp(e.getKey());
+            if (timestamp >= 0) {
+                minTimestamp = Math.min(minTimestamp, timestamp);
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+            }
+        }
+        Arrays.sort(entries, new Comparator<long[]>() {
+            @Override
+            public int compare(final long[] a, final long[] b) {
+                final int ret = Long.compare(a[0], b[0]);
+                return ret == 0 ? Long.compare(a[1], b[1]) : ret;
+            }
+        });
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + entries.length * ENTRY_SIZE);
+        buffer.putInt(MAGIC).put(VERSION).put(new byte[3]).putInt(entries.length).putInt(0)
+              .putLong(minTimestamp).putLong(maxTimestamp);
+        for (final long[] entry: entries) {
+            buffer.putLong(entry[0]).putLong(entry[1]);
+        }
+        buffer.flip();
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the index file once to build the in-memory sparse index and Bloom filter.
+     */
+    static SegmentIndex load(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+                throw new IOException("Not a version " + VERSION + " index file: " + file);
+            }
+            final int count = header.getInt(8);
+            if (channel.size() != HEADER_SIZE + (long)count * ENTRY_SIZE) {
+                throw new IOException("Index file size mismatch: " + file);
+            }
+            final SegmentIndex ret = new SegmentIndex(file, count, header.getLong(16), header.getLong(24));
+            final ByteBuffer buffer = ByteBuffer.allocate(LOAD_BUFFER_ENTRIES * ENTRY_SIZE);
+            int i = 0;
+            while (i < count) {
+                buffer.clear();
+                buffer.limit(Math.min(count - i, LOAD_BUFFER_ENTRIES) * ENTRY_SIZE);
+                readFully(channel, buffer, HEADER_SIZE + (long)i * ENTRY_SIZE);
+                while (buffer.hasRemaining()) {
+                    final long hash = buffer.getLong();
+                    buffer.getLong();
+                    if (i % SPARSE_INTERVAL == 0) {
+                        ret.sparse[i / SPARSE_INTERVAL] = hash;
+                    }
+                    ret.addToBloom(hash);
+                    i++;
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, p);
+            if (n < 0) {
+                throw new IOException("Unexpected end of index file");
+            }
+            p += n;
+        }
+        buffer.flip();
+    }
+
+    private SegmentIndex(final File file, final int count, final long minTimestamp, final long maxTimestamp) {
+        this.file = file;
+        this.count = count;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.sparse = new long[(count + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL];
+        final long bloomBits = Math.max(64, (long)count * BLOOM_BITS_PER_ENTRY);
+        this.bloom = new long[(int)((bloomBits + 63) >>> 6)];
+    }
+
+    private final File file;
+
+    File getFile() {
+        return file;
+    }
+
+    private final int count;
+
+    int getCount() {
+        return count;
+    }
+
+    private final long minTimestamp;
+
+    private final long maxTimestamp;
+
+    /**
+     * @return whether any time-ordered error id in the segment may be within {@code [fromMillis, toMillis)}
+     */
+    boolean overlaps(final long fromMillis, final long toMillis) {
+        return minTimestamp < toMillis && maxTimestamp >= fromMillis;
+    }
+
+    private final long[] sparse;
+
+    private final long[] bloom;
+
+    private void addToBloom(final long hash) {
+        final long bits = (long)bloom.length << 6;
+        final int h1 = (int)hash;
+        final int h2 = (int)(hash >>> 32);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            final long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            bloom[(int)(bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(final long hash) {
+        final long bits = (long)bloom.length << 6;
+        final int h1 = (int)hash;
+        final int h2 = (int)(hash >>> 32);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            final long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            if ((bloom[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return positions of records whose error id has the hash, ascending
+     */
+    long[] find(final long hash) throws IOException {
+        if (count == 0 || !mightContain(hash)) {
+            return NO_POSITIONS;
+        }
+        int block = Arrays.binarySearch(sparse, hash);
+        if (block < 0) {
+            block = -block - 2;     // block whose first hash is below
+            if (block < 0) {
+                return NO_POSITIONS;
+            }
+        }
+        else {
+            while (block > 0 && sparse[block - 1] == hash) {
+                block--;
+            }
+            if (block > 0) {
+                block--;            // equal hashes may end the previous block
+            }
+        }
+        long[] ret = NO_POSITIONS;
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(SPARSE_INTERVAL * ENTRY_SIZE);
+            for (int start = block * SPARSE_INTERVAL; start < count; start += SPARSE_INTERVAL) {
+                buffer.clear();
+                buffer.limit(Math.min(count - start, SPARSE_INTERVAL) * ENTRY_SIZE);
+                readFully(channel, buffer, HEADER_SIZE + (long)start * ENTRY_SIZE);
+                while (buffer.hasRemaining()) {
+                    final long h = buffer.getLong();
+                    final long position = buffer.getLong();
+                    if (h == hash) {
+                        ret = Arrays.copyOf(ret, ret.length + 1);
+                        ret[ret.length - 1] = position;
+                    }
+                    else if (h > hash) {
+                        return ret;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+}
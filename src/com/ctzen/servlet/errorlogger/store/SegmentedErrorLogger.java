@@ -0,0 +1,412 @@
+package com.ctzen.servlet.errorlogger.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctzen.servlet.errorlogger.ErrorLogger;
+import com.ctzen.servlet.errorlogger.ErrorReportReader;
+import com.ctzen.servlet.errorlogger.TimeOrderedErrorIdGenerator;
+import com.ctzen.servlet.metrics.ErrorLoggingMetrics;
+
+/**
+ * {@link ErrorLogger} that appends errors to rolling, fixed-size segment files in the designated folder,
+ * instead of one file per error.<br>
+ * <br>
+ * Records are length-prefixed and checksummed. On startup the last segment is scanned and any torn or
+ * corrupt tail, e.g. from a crash mid-write, is truncated. Errors are encoded in UTF-8.<br>
+ * <br>
+ * Errors can be {@link #read(String)} back by id without scanning. The active segment is indexed in memory;
+ * when a segment is sealed its index is written next to it, see {@link SegmentIndex}. A missing index,
+ * e.g. from a crash before it was written, is rebuilt on startup.<br>
+ * <br>
+ * Records can be compressed one by one with a {@link RecordCodec}, e.g. {@link DeflateRecordCodec},
+ * which keeps them readable by id. Each record is decoded with the codec and dictionary it was written with,
+ * so codecs can be switched, e.g. to a retrained dictionary, while the logger is running.<br>
+ * <br>
+ * All writes go through a single {@link java.nio.channels.FileChannel}, serialized on this logger.
+ * Wrap it in an {@link com.ctzen.servlet.errorlogger.AsyncErrorLogger} to keep request threads
+ * from waiting on each other.
+ *
+ * @author cchang
+ */
+public class SegmentedErrorLogger implements ErrorLogger, ErrorReportReader, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedErrorLogger.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * {@value #DEFAULT_SEGMENT_SIZE} bytes segments.
+     *
+     * @param folder    directory of the segment files
+     */
+    public SegmentedErrorLogger(final File folder) throws IOException {
+        this(folder, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param folder        directory of the segment files
+     * @param segmentSize   roll to a new segment when a record would take the current one past this size
+     */
+    public SegmentedErrorLogger(final File folder, final long segmentSize) throws IOException {
+        this.folder = folder;
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        if (!folder.isDirectory()) {
+            throw new IllegalArgumentException("Unable to make directory: " + folder);
+        }
+        this.segmentSize = segmentSize;
+        final List<Long> sequences = listSequences(folder);
+        for (int i = 0; i < sequences.size() - 1; i++) {
+            sealed.add(new SealedSegment(sequences.get(i), loadIndex(sequences.get(i))));
+        }
+        this.active = Segment.openForAppend(folder, sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1), activeIndex);
+        LOG.info("folder={}, segmentSize={}, segments={}, active={}",
+                folder.getAbsolutePath(), segmentSize, Math.max(1, sequences.size()), active);
+    }
+
+    /**
+     * @return sequence numbers of the segment files in the folder, ascending
+     */
+    static List<Long> listSequences(final File folder) {
+        final List<Long> ret = new ArrayList<>();
+        final String[] names = folder.list();
+        if (names != null) {
+            for (final String name: names) {
+                final long sequence = Segment.parseSequence(name);
+                if (sequence >= 0) {
+                    ret.add(sequence);
+                }
+            }
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private SegmentIndex loadIndex(final long sequence) throws IOException {
+        final File file = SegmentIndex.getFile(folder, sequence);
+        if (file.exists()) {
+            try {
+                return SegmentIndex.load(file);
+            }
+            catch (final IOException e) {
+                LOG.warn("Rebuilding unreadable index " + file, e);
+            }
+        }
+        else {
+            LOG.warn("Rebuilding missing index {}", file);
+        }
+        final Map<String, Long> positions = new HashMap<>();
+        try (final Segment segment = Segment.openForRead(new File(folder, Segment.getFileName(sequence)))) {
+            segment.scan(positions);
+        }
+        SegmentIndex.write(file, positions);
+        return SegmentIndex.load(file);
+    }
+
+    private final File folder;
+
+    public File getFolder() {
+        return folder;
+    }
+
+    private final long segmentSize;
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    private boolean forceOnWrite;
+
+    public boolean isForceOnWrite() {
+        return forceOnWrite;
+    }
+
+    /**
+     * @param forceOnWrite  force each record to the storage device before returning, default {@code false},
+     *                      in which case segments are forced when rolled and closed
+     */
+    public void setForceOnWrite(final boolean forceOnWrite) {
+        this.forceOnWrite = forceOnWrite;
+    }
+
+    private RecordCodec codec;
+
+    public synchronized RecordCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec     compress new records with this, default {@code null} for none.
+     *                  Also kept to decode the records written with it after it is replaced, see {@link #addDecoder(RecordCodec)}.
+     *                  Closed with this logger if {@link Closeable}.
+     */
+    public synchronized void setCodec(final RecordCodec codec) {
+        this.codec = codec;
+        if (codec != null) {
+            addDecoder(codec);
+        }
+        LOG.info("codec={}, dictionaryId={}", codec == null ? null : codec.getClass().getSimpleName(),
+                codec == null ? null : Integer.toHexString(codec.getDictionaryId()));
+    }
+
+    /**
+     * Decoders by codec id and dictionary id, see {@link #decoderKey(int, int)}.
+     */
+    private final Map<Long, RecordCodec> decoders = new HashMap<>();
+
+    /**
+     * Register a codec to read records written with it, e.g. before a restart with an older dictionary.
+     * Codecs set with {@link #setCodec(RecordCodec)} are registered already.
+     * Closed with this logger if {@link Closeable}.
+     *
+     * @param decoder   replaces the decoder of the same codec id and dictionary id
+     */
+    public synchronized void addDecoder(final RecordCodec decoder) {
+        final RecordCodec replaced = decoders.put(decoderKey(decoder.getId(), decoder.getDictionaryId()), decoder);
+        if (replaced != null && replaced != decoder && replaced != codec) {
+            closeCodec(replaced);
+        }
+    }
+
+    private static long decoderKey(final int codecId, final int dictionaryId) {
+        return (long)codecId << 32 | dictionaryId & 0xffffffffL;
+    }
+
+    private synchronized RecordCodec getDecoder(final int codecId, final byte[] payload) throws IOException {
+        for (final RecordCodec decoder: decoders.values()) {
+            if (decoder.getId() == codecId) {
+                return decoders.get(decoderKey(codecId, decoder.getDictionaryId(payload)));
+            }
+        }
+        return null;
+    }
+
+    private static void closeCodec(final RecordCodec codec) {
+        if (codec instanceof Closeable) {
+            try {
+                ((Closeable)codec).close();
+            }
+            catch (final IOException e) {
+                LOG.warn("Close codec failed!!", e);
+            }
+        }
+    }
+
+    private ErrorLoggingMetrics metrics = ErrorLoggingMetrics.NONE;
+
+    public ErrorLoggingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics   records write latency, including waiting for other writers,
+     *                  default {@link ErrorLoggingMetrics#NONE}
+     */
+    public void setMetrics(final ErrorLoggingMetrics metrics) {
+        this.metrics = metrics == null ? ErrorLoggingMetrics.NONE : metrics;
+    }
+
+    private Segment active;
+
+    /**
+     * Error id to record position in the active segment.
+     */
+    private final Map<String, Long> activeIndex = new HashMap<>();
+
+    /**
+     * Oldest first.
+     */
+    private final List<SealedSegment> sealed = new CopyOnWriteArrayList<>();
+
+    private boolean closed;
+
+    /**
+     * @return sequence number of the segment being appended to
+     */
+    public synchronized long getActiveSequence() {
+        return active.getSequence();
+    }
+
+    @Override
+    public void log(final String errorId, final String error) throws IOException {
+        final long startNanos = System.nanoTime();
+        append(errorId, error.getBytes(StandardCharsets.UTF_8));
+        metrics.sinkWritten(System.nanoTime() - startNanos);
+    }
+
+    synchronized long append(final String errorId, final byte[] data) throws IOException {
+        final byte[] id = errorId.getBytes(StandardCharsets.UTF_8);
+        if (closed) {
+            throw new IOException("Closed: " + folder);
+        }
+        final byte[] encoded = codec == null ? null : codec.encode(data);
+        final int codecId = encoded == null ? RecordCodec.NONE : codec.getId();
+        final byte[] payload = encoded == null ? data : encoded;
+        final long recordSize = Segment.RECORD_HEADER_SIZE + id.length + payload.length;
+        if (active.size() > Segment.FILE_HEADER_SIZE && active.size() + recordSize > segmentSize) {
+            roll();
+        }
+        final long position = active.append(id, codecId, payload);
+        activeIndex.put(errorId, position);
+        if (forceOnWrite) {
+            active.force();
+        }
+        return position;
+    }
+
+    private void roll() throws IOException {
+        final Segment full = active;
+        full.force();
+        full.close();
+        final File indexFile = SegmentIndex.getFile(folder, full.getSequence());
+        SegmentIndex.write(indexFile, activeIndex);
+        sealed.add(new SealedSegment(full.getSequence(), SegmentIndex.load(indexFile)));
+        activeIndex.clear();
+        active = Segment.openForAppend(folder, full.getSequence() + 1, activeIndex);
+        LOG.debug("rolled {} to {}", full, active);
+    }
+
+    /**
+     * Looks in the active segment, then the sealed segments newest first.
+     * A sealed segment is only read if its in-memory Bloom filter may contain the id.
+     *
+     * @return the last error logged with the id, or {@code null} if not found
+     */
+    @Override
+    public String read(final String errorId) throws IOException {
+        final byte[] payload = readPayload(errorId);
+        return payload == null ? null : new String(payload, StandardCharsets.UTF_8);
+    }
+
+    byte[] readPayload(final String errorId) throws IOException {
+        final Segment.Record record = readRecord(errorId);
+        if (record == null) {
+            return null;
+        }
+        if (record.getCodec() == RecordCodec.NONE) {
+            return record.getPayload();
+        }
+        final RecordCodec decoder = getDecoder(record.getCodec(), record.getPayload());
+        if (decoder == null) {
+            throw new IOException("No codec " + record.getCodec() + " with the dictionary to decode error " + errorId);
+        }
+        return decoder.decode(record.getPayload());
+    }
+
+    private Segment.Record readRecord(final String errorId) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Closed: " + folder);
+            }
+            final Long position = activeIndex.get(errorId);
+            if (position != null) {
+                final Segment.Record record = active.read(position);
+                if (record != null) {
+                    return record;
+                }
+            }
+        }
+        final long hash = SegmentIndex.hash(errorId);
+        for (int i = sealed.size() - 1; i >= 0; i--) {
+            final SealedSegment segment = sealed.get(i);
+            final long[] positions = segment.index.find(hash);
+            if (positions.length > 0) {
+                try (final Segment reader = Segment.openForRead(new File(folder, Segment.getFileName(segment.sequence)))) {
+                    for (final long position: positions) {
+                        final Segment.Record record = reader.read(position);
+                        if (record != null && record.getErrorId().equals(errorId)) {
+                            return record;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists {@link TimeOrderedErrorIdGenerator} error ids generated within {@code [fromMillis, toMillis)}.
+     * Only sealed segments whose index says they may hold such ids are scanned.
+     *
+     * @return error ids, in time order
+     */
+    public List<String> findErrorIds(final long fromMillis, final long toMillis) throws IOException {
+        final TreeSet<String> ret = new TreeSet<>();
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Closed: " + folder);
+            }
+            addInRange(ret, activeIndex.keySet(), fromMillis, toMillis);
+        }
+        for (final SealedSegment segment: sealed) {
+            if (segment.index.overlaps(fromMillis, toMillis)) {
+                final Map<String, Long> positions = new HashMap<>();
+                try (final Segment reader = Segment.openForRead(new File(folder, Segment.getFileName(segment.sequence)))) {
+                    reader.scan(positions);
+                }
+                addInRange(ret, positions.keySet(), fromMillis, toMillis);
+            }
+        }
+        return new ArrayList<>(ret);
+    }
+
+    private static void addInRange(final TreeSet<String> ret, final Iterable<String> errorIds,
+            final long fromMillis, final long toMillis) {
+        for (final String errorId: errorIds) {
+            final long timestamp = TimeOrderedErrorIdGenerator.getTimestamp(errorId);
+            if (timestamp >= fromMillis && timestamp < toMillis) {
+                ret.add(errorId);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            active.force();
+        }
+        finally {
+            active.close();
+        }
+        // the active segment is indexed again by recovery on startup
+        for (final RecordCodec decoder: decoders.values()) {
+            closeCodec(decoder);
+        }
+        if (codec != null && !decoders.containsValue(codec)) {
+            closeCodec(codec);
+        }
+        LOG.info("closed, active={}", active);
+    }
+
+    private static final class SealedSegment {
+
+        SealedSegment(final long sequence, final SegmentIndex index) {
+            this.sequence = sequence;
+            this.index = index;
+        }
+
+        final long sequence;
+
+        final SegmentIndex index;
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.ctzen.servlet.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receives the capture and logging measurements of the error logging filter and loggers, e.g. to feed
+ * an application's metrics library. Called on request threads, implementations must be thread-safe
+ * and cheap; {@link LongAdderErrorLoggingMetrics} is the built-in one, with JMX.
+ *
+ * @author cchang
+ */
+public interface ErrorLoggingMetrics {
+
+    /**
+     * Records nothing, the default.
+     */
+    ErrorLoggingMetrics NONE = new ErrorLoggingMetrics() {
+
+        @Override
+        public void requestWrapped() {
+        }
+
+        @Override
+        public void bytesCaptured(final long requestBytes, final long responseBytes) {
+        }
+
+        @Override
+        public void reportLogged(final long nanos) {
+        }
+
+        @Override
+        public void sinkWritten(final long nanos) {
+        }
+
+        @Override
+        public void logFailed() {
+        }
+
+        @Override
+        public void reportSuppressed() {
+        }
+
+        @Override
+        public void reportDropped() {
+        }
+
+        @Override
+        public void queue(final LongSupplier depth) {
+        }
+
+        @Override
+        public void unqueue(final LongSupplier depth) {
+        }
+
+    };
+
+    /**
+     * A request was wrapped for body capture.
+     */
+    void requestWrapped();
+
+    /**
+     * A wrapped request is done, with this many body bytes through each direction.
+     */
+    void bytesCaptured(long requestBytes, long responseBytes);
+
+    /**
+     * The filter built and handed a report to the {@link com.ctzen.servlet.errorlogger.ErrorLogger}.
+     *
+     * @param nanos     render time, plus the write if the logger is synchronous
+     */
+    void reportLogged(long nanos);
+
+    /**
+     * A sink wrote a report.
+     *
+     * @param nanos     write latency
+     */
+    void sinkWritten(long nanos);
+
+    /**
+     * Logging a report failed.
+     */
+    void logFailed();
+
+    /**
+     * A report was not logged in full, as a duplicate or over a rate limit.
+     */
+    void reportSuppressed();
+
+    /**
+     * A report was discarded, or diverted to SLF4J, by a queueing logger, see {@link com.ctzen.servlet.errorlogger.ErrorQueue}.
+     */
+    void reportDropped();
+
+    /**
+     * @param depth     depth of an {@link com.ctzen.servlet.errorlogger.ErrorQueue}, read on demand
+     */
+    void queue(LongSupplier depth);
+
+    /**
+     * @param depth     queue depth passed to {@link #queue(LongSupplier)}, no longer read
+     */
+    void unqueue(LongSupplier depth);
+
+}
@@ -0,0 +1,46 @@
+package com.ctzen.servlet.metrics;
+
+/**
+ * JMX view of {@link LongAdderErrorLoggingMetrics}. Times are in microseconds.
+ *
+ * @author cchang
+ */
+public interface ErrorLoggingMetricsMXBean {
+
+    long getRequestsWrapped();
+
+    long getRequestBytesCaptured();
+
+    long getResponseBytesCaptured();
+
+    long getReportsLogged();
+
+    double getRenderTimeMeanMicros();
+
+    long getRenderTimeP50Micros();
+
+    long getRenderTimeP99Micros();
+
+    long getRenderTimeMaxMicros();
+
+    long getSinkWrites();
+
+    double getSinkWriteMeanMicros();
+
+    long getSinkWriteP50Micros();
+
+    long getSinkWriteP99Micros();
+
+    long getSinkWriteMaxMicros();
+
+    long getFailures();
+
+    long getSuppressed();
+
+    long getDropped();
+
+    long getQueueDepth();
+
+    void reset();
+
+}
@@ -0,0 +1,265 @@
+package com.ctzen.servlet.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ErrorLoggingMetrics} kept in {@link LongAdder}s and {@link LongAdderHistogram}s, so recording
+ * is an uncontended add or two, and exposed as an MXBean.<br>
+ * <br>
+ * Share one instance between the filter and its loggers:
+ * <pre>
+ * LongAdderErrorLoggingMetrics metrics = new LongAdderErrorLoggingMetrics();
+ * metrics.register("com.ctzen.servlet:type=ErrorLoggingMetrics");
+ * filter.setMetrics(metrics);
+ * fileErrorLogger.setMetrics(metrics);
+ * </pre>
+ *
+ * @author cchang
+ */
+public class LongAdderErrorLoggingMetrics implements ErrorLoggingMetrics, ErrorLoggingMetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LongAdderErrorLoggingMetrics.class);
+
+    private final LongAdder requestsWrapped = new LongAdder();
+
+    private final LongAdder requestBytesCaptured = new LongAdder();
+
+    private final LongAdder responseBytesCaptured = new LongAdder();
+
+    private final LongAdderHistogram renderNanos = new LongAdderHistogram();
+
+    private final LongAdderHistogram sinkWriteNanos = new LongAdderHistogram();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder suppressed = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final List<LongSupplier> queues = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void requestWrapped() {
+        requestsWrapped.increment();
+    }
+
+    @Override
+    public void bytesCaptured(final long requestBytes, final long responseBytes) {
+        requestBytesCaptured.add(requestBytes);
+        responseBytesCaptured.add(responseBytes);
+    }
+
+    @Override
+    public void reportLogged(final long nanos) {
+        renderNanos.record(nanos);
+    }
+
+    @Override
+    public void sinkWritten(final long nanos) {
+        sinkWriteNanos.record(nanos);
+    }
+
+    @Override
+    public void logFailed() {
+        failures.increment();
+    }
+
+    @Override
+    public void reportSuppressed() {
+        suppressed.increment();
+    }
+
+    @Override
+    public void reportDropped() {
+        dropped.increment();
+    }
+
+    @Override
+    public void queue(final LongSupplier depth) {
+        queues.add(depth);
+    }
+
+    @Override
+    public void unqueue(final LongSupplier depth) {
+        queues.remove(depth);
+    }
+
+    private ObjectName objectName;
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Registers with the platform MBean server, replacing any MBean by that name, e.g. from a redeployed webapp.
+     *
+     * @param name  object name, e.g. "com.ctzen.servlet:type=ErrorLoggingMetrics"
+     */
+    public void register(final String name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName on = new ObjectName(name);
+        if (server.isRegistered(on)) {
+            server.unregisterMBean(on);
+        }
+        server.registerMBean(this, on);
+        objectName = on;
+        LOG.info("registered={}", on);
+    }
+
+    /**
+     * Unregisters from the platform MBean server, if registered.
+     */
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (final JMException e) {
+            LOG.warn("Unable to unregister " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    public LongAdderHistogram getRenderTimeNanos() {
+        return renderNanos;
+    }
+
+    public LongAdderHistogram getSinkWriteNanos() {
+        return sinkWriteNanos;
+    }
+
+    @Override
+    public long getRequestsWrapped() {
+        return requestsWrapped.sum();
+    }
+
+    @Override
+    public long getRequestBytesCaptured() {
+        return requestBytesCaptured.sum();
+    }
+
+    @Override
+    public long getResponseBytesCaptured() {
+        return responseBytesCaptured.sum();
+    }
+
+    @Override
+    public long getReportsLogged() {
+        return renderNanos.getCount();
+    }
+
+    @Override
+    public double getRenderTimeMeanMicros() {
+        return renderNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getRenderTimeP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(renderNanos.getPercentile(50));
+    }
+
+    @Override
+    public long getRenderTimeP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(renderNanos.getPercentile(99));
+    }
+
+    @Override
+    public long getRenderTimeMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(renderNanos.getMax());
+    }
+
+    @Override
+    public long getSinkWrites() {
+        return sinkWriteNanos.getCount();
+    }
+
+    @Override
+    public double getSinkWriteMeanMicros() {
+        return sinkWriteNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getSinkWriteP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(sinkWriteNanos.getPercentile(50));
+    }
+
+    @Override
+    public long getSinkWriteP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(sinkWriteNanos.getPercentile(99));
+    }
+
+    @Override
+    public long getSinkWriteMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(sinkWriteNanos.getMax());
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return total queue depth of the {@link com.ctzen.servlet.errorlogger.ErrorQueue}s reporting here
+     */
+    @Override
+    public long getQueueDepth() {
+        long ret = 0;
+        for (final LongSupplier queue: queues) {
+            ret += queue.getAsLong();
+        }
+        return ret;
+    }
+
+    /**
+     * Zeroes the counters and histograms, the queue depth is live.
+     */
+    @Override
+    public void reset() {
+        requestsWrapped.reset();
+        requestBytesCaptured.reset();
+        responseBytesCaptured.reset();
+        renderNanos.reset();
+        sinkWriteNanos.reset();
+        failures.reset();
+        suppressed.reset();
+        dropped.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "requestsWrapped=" + getRequestsWrapped()
+                + ", requestBytesCaptured=" + getRequestBytesCaptured()
+                + ", responseBytesCaptured=" + getResponseBytesCaptured()
+                + ", reportsLogged=" + getReportsLogged()
+                + ", sinkWrites=" + getSinkWrites()
+                + ", failures=" + getFailures()
+                + ", suppressed=" + getSuppressed()
+                + ", dropped=" + getDropped()
+                + ", queueDepth=" + getQueueDepth();
+    }
+
+}
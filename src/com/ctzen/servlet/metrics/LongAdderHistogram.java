@@ -0,0 +1,94 @@
+package com.ctzen.servlet.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values in power of 2 buckets, recorded with striped {@link LongAdder}s,
+ * so recording is a few nanoseconds and does not contend. Percentiles are the upper bound of the bucket,
+ * i.e. within a factor of 2.
+ *
+ * @author cchang
+ */
+public final class LongAdderHistogram {
+
+    private static final int BUCKETS = 64;
+
+    public LongAdderHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Bucket i counts values below 2^i, and at least 2^(i-1).
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(v)].increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    public long getCount() {
+        long ret = 0;
+        for (final LongAdder bucket: buckets) {
+            ret += bucket.sum();
+        }
+        return ret;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double)getSum() / count;
+    }
+
+    /**
+     * @param percentile    0 to 100
+     * @return upper bound of the bucket the percentile falls in, capped by the max
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long)Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                final long upper = i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (final LongAdder bucket: buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.ctzen.servlet.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Matches attribute names, or any other names, against exclusion rules, compiled once into a trie.<br>
+ * <br>
+ * Rules:
+ * <ul>
+ * <li>{@code org.springframework.} - prefix, names starting with it</li>
+ * <li>{@code =user} - exact, only that name</li>
+ * <li>{@code *.FILTERED}, {@code org.*.View?} - glob, {@code *} matches any chars, {@code ?} any one char</li>
+ * </ul>
+ * A name walks the trie along its chars, once. Globs hang off the trie at their literal prefix, so only
+ * the globs whose prefix the name starts with are tried.<br>
+ * <br>
+ * Optionally case-insensitive, e.g. for HTTP header names, by folding chars to lower case as they are matched.
+ *
+ * @author cchang
+ */
+public final class AttributeNameFilter {
+
+    public static final AttributeNameFilter NONE = new AttributeNameFilter(null);
+
+    private static final String[] NO_GLOBS = new String[0];
+
+    /**
+     * @param rules     exclusion rules, {@code null} or empty for none
+     */
+    public AttributeNameFilter(final Collection<String> rules) {
+        this(rules, false);
+    }
+
+    /**
+     * @param rules         exclusion rules, {@code null} or empty for none
+     * @param ignoreCase    whether names match regardless of case
+     */
+    public AttributeNameFilter(final Collection<String> rules, final boolean ignoreCase) {
+        this.rules = rules == null ? Collections.<String>emptySet() : new TreeSet<>(rules);
+        this.ignoreCase = ignoreCase;
+        for (final String r: this.rules) {
+            final String rule = ignoreCase ? r.toLowerCase(Locale.ENGLISH) : r;
+            if (rule.startsWith("=")) {
+                add(rule, 1, rule.length()).exact = true;
+            }
+            else {
+                final int wildcard = indexOfWildcard(rule);
+                if (wildcard < 0) {
+                    add(rule, 0, rule.length()).prefix = true;
+                }
+                else {
+                    add(rule, 0, wildcard).addGlob(rule);
+                }
+            }
+        }
+    }
+
+    private static int indexOfWildcard(final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '*' || c == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Node add(final String s, final int start, final int end) {
+        Node node = root;
+        for (int i = start; i < end; i++) {
+            node = node.getOrAddChild(s.charAt(i));
+        }
+        return node;
+    }
+
+    private final Set<String> rules;
+
+    public Set<String> getRules() {
+        return Collections.unmodifiableSet(rules);
+    }
+
+    private final boolean ignoreCase;
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Whether there are no rules, nothing matches.
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @return whether the name is excluded, {@code false} for {@code null}
+     */
+    public boolean matches(final CharSequence name) {
+        if (name == null) {
+            return false;
+        }
+        Node node = root;
+        int i = 0;
+        for (;;) {
+            if (node.prefix || node.matchesGlob(name, i, ignoreCase) || node.exact && i == name.length()) {
+                return true;
+            }
+            if (i == name.length()) {
+                return false;
+            }
+            node = node.getChild(fold(name.charAt(i++), ignoreCase));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    private static char fold(final char c, final boolean ignoreCase) {
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    /**
+     * @return whether {@code name} from {@code start} matches {@code glob} from {@code globStart}
+     */
+    static boolean matchesGlob(final CharSequence name, final int start, final String glob, final int globStart) {
+        return matchesGlob(name, start, glob, globStart, false);
+    }
+
+    /**
+     * @param ignoreCase    whether to fold the name to lower case, the glob is already
+     */
+    static boolean matchesGlob(final CharSequence name, final int start, final String glob, final int globStart,
+            final boolean ignoreCase) {
+        int n = start;
+        int g = globStart;
+        int starG = -1;
+        int starN = -1;
+        while (n < name.length()) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) != '*' && glob.charAt(g) == fold(name.charAt(n), ignoreCase))) {
+                n++;
+                g++;
+            }
+            else if (g < glob.length() && glob.charAt(g) == '*') {
+                starG = g++;
+                starN = n;
+            }
+            else if (starG >= 0) {
+                g = starG + 1;
+                n = ++starN;
+            }
+            else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    @Override
+    public String toString() {
+        return rules.toString();
+    }
+
+    private static final class Node {
+
+        private char[] keys = new char[0];
+
+        private Node[] children = new Node[0];
+
+        boolean prefix;
+
+        boolean exact;
+
+        /**
+         * Globs whose literal prefix ends at this node.
+         */
+        private String[] globs = NO_GLOBS;
+
+        private int depth;
+
+        Node getChild(final char c) {
+            final char[] keys = this.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(final char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                child.depth = depth + 1;
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                keys[keys.length - 1] = c;
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+
+        void addGlob(final String glob) {
+            globs = Arrays.copyOf(globs, globs.length + 1);
+            globs[globs.length - 1] = glob;
+        }
+
+        boolean matchesGlob(final CharSequence name, final int start, final boolean ignoreCase) {
+            for (final String glob: globs) {
+                if (AttributeNameFilter.matchesGlob(name, start, glob, depth, ignoreCase)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.ctzen.servlet.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free, multi-producer multi-consumer ring buffer.<br>
+ * <br>
+ * Each slot carries a sequence number which tells producers and consumers whether
+ * the slot is free to write or ready to read, so {@link #offer(Object)} and {@link #poll()}
+ * are a single CAS on the happy path and never block.
+ *
+ * @author cchang
+ */
+public class BoundedRingBuffer<E> {
+
+    /**
+     * @param capacity  rounded up to the next power of 2
+     */
+    public BoundedRingBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException("capacity too large: " + capacity);
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong producerPosition = new AtomicLong();
+
+    private final AtomicLong consumerPosition = new AtomicLong();
+
+    /**
+     * @return actual capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @param e     element to add, not {@code null}
+     * @return {@code false} if the buffer is full
+     */
+    public boolean offer(final E e) {
+        if (e == null) {
+            throw new NullPointerException("null element");
+        }
+        long pos = producerPosition.get();
+        for (;;) {
+            final int index = (int)pos & mask;
+            final long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (producerPosition.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, e);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = producerPosition.get();
+            }
+            else if (diff < 0) {
+                return false;       // full
+            }
+            else {
+                pos = producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return head element, or {@code null} if the buffer is empty
+     */
+    public E poll() {
+        long pos = consumerPosition.get();
+        for (;;) {
+            final int index = (int)pos & mask;
+            final long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (consumerPosition.compareAndSet(pos, pos + 1)) {
+                    final E e = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return e;
+                }
+                pos = consumerPosition.get();
+            }
+            else if (diff < 0) {
+                return null;        // empty
+            }
+            else {
+                pos = consumerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return approximate number of elements in the buffer
+     */
+    public int size() {
+        final long size = producerPosition.get() - consumerPosition.get();
+        return size < 0 ? 0 : (int)Math.min(size, mask + 1);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.ctzen.servlet.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes {@code application/x-www-form-urlencoded} content, or a query string, through to the underlying writer,
+ * with the values of matching parameter names masked.<br>
+ * <br>
+ * A single-pass tokenizer, names are decoded ({@code +} and {@code %XX}, as ISO-8859-1) into a reusable buffer
+ * for matching. Runs of unmasked chars are written straight from the caller's array.<br>
+ * <br>
+ * The tail of a truncated body is masked up to its first {@code &}, see {@link #truncated(String)},
+ * it may be the rest of a value whose name is cut away.<br>
+ * <br>
+ * Nothing is held back, {@link #close()} does not close the underlying writer.
+ *
+ * @author cchang
+ */
+final class FormRedactingWriter extends Writer {
+
+    /**
+     * Longer names are not matched.
+     */
+    private static final int MAX_NAME_LENGTH = 256;
+
+    private static final int NAME = 0;
+
+    private static final int VALUE = 1;
+
+    private static final int MASKED_VALUE = 2;
+
+    FormRedactingWriter(final Writer out, final AttributeNameFilter nameFilter, final String mask) {
+        this.out = out;
+        this.nameFilter = nameFilter;
+        this.mask = mask;
+    }
+
+    private final Writer out;
+
+    private final AttributeNameFilter nameFilter;
+
+    private final String mask;
+
+    private int state = NAME;
+
+    private final StringBuilder name = new StringBuilder();
+
+    /**
+     * Hex digits to go of a {@code %XX} escape in a name.
+     */
+    private int percentDigits;
+
+    private int percent;
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        final int end = off + len;
+        int run = off;
+        for (int i = off; i < end; i++) {
+            final char c = cbuf[i];
+            if (c == '&') {
+                if (state == MASKED_VALUE) {
+                    run = i;
+                }
+                state = NAME;
+                name.setLength(0);
+                percentDigits = 0;
+            }
+            else if (state == NAME) {
+                if (c == '=') {
+                    if (name.length() <= MAX_NAME_LENGTH && nameFilter.matches(name)) {
+                        out.write(cbuf, run, i + 1 - run);
+                        out.write(mask);
+                        state = MASKED_VALUE;
+                    }
+                    else {
+                        state = VALUE;
+                    }
+                }
+                else {
+                    name(c);
+                }
+            }
+        }
+        if (state != MASKED_VALUE) {
+            out.write(cbuf, run, end - run);
+        }
+    }
+
+    private void name(final char c) {
+        if (percentDigits > 0) {
+            final int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                percentDigits = 0;
+                appendName(c);
+            }
+            else {
+                percent = percent << 4 | digit;
+                if (--percentDigits == 0) {
+                    appendName((char)percent);
+                }
+            }
+        }
+        else if (c == '%') {
+            percentDigits = 2;
+            percent = 0;
+        }
+        else {
+            appendName(c == '+' ? ' ' : c);
+        }
+    }
+
+    private void appendName(final char c) {
+        if (name.length() <= MAX_NAME_LENGTH) {
+            name.append(c);
+        }
+    }
+
+    /**
+     * The cut of a truncated body, between its head and its tail.
+     *
+     * @param marker    written as is
+     */
+    void truncated(final String marker) throws IOException {
+        out.write(marker);
+        out.write(mask);
+        state = MASKED_VALUE;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Does not close the underlying writer.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+}
@@ -0,0 +1,439 @@
+package com.ctzen.servlet.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Passes JSON through to the underlying writer, with the values of matching keys masked as {@code "<mask>"}.<br>
+ * <br>
+ * A single-pass tokenizer: only the container nesting and the current key are kept, no tree is built.
+ * Runs of unmasked chars are written straight from the caller's array, keys are decoded (escapes included)
+ * into a reusable buffer for matching. Malformed input is passed through as far as it can be tokenized,
+ * a masked value cut short is masked to the end.<br>
+ * <br>
+ * A truncated body is not JSON past the cut, the tokenizer restarts at {@link #truncated(String)}: the tail
+ * up to its first key is masked, it may be the rest of a value whose key is cut away, and any string followed
+ * by a colon is taken for a key from then on. A masked container cut short masks the whole tail.<br>
+ * <br>
+ * Nothing is held back, {@link #close()} does not close the underlying writer.
+ *
+ * @author cchang
+ */
+final class JsonRedactingWriter extends Writer {
+
+    /**
+     * Longer keys are not matched.
+     */
+    private static final int MAX_KEY_LENGTH = 256;
+
+    private static final int TOKEN = 0;
+
+    private static final int STRING = 1;
+
+    private static final int KEY = 2;
+
+    private static final int RESYNC = 3;
+
+    private static final int RESYNC_VALUE = 4;
+
+    private static final int MASKED_STRING = 5;
+
+    private static final int MASKED_CONTAINER = 6;
+
+    private static final int MASKED_SCALAR = 7;
+
+    private static final int MASKED_PREFIX = 8;
+
+    private static final int MASKED_REST = 9;
+
+    JsonRedactingWriter(final Writer out, final AttributeNameFilter keyFilter, final String mask) {
+        this.out = out;
+        this.keyFilter = keyFilter;
+        this.maskedValue = '"' + mask + '"';
+    }
+
+    private final Writer out;
+
+    private final AttributeNameFilter keyFilter;
+
+    private final String maskedValue;
+
+    private int state = TOKEN;
+
+    /**
+     * The previous char was a backslash, in a string.
+     */
+    private boolean escaped;
+
+    /**
+     * Hex digits to go of a {@code \\u} escape in a key.
+     */
+    private int unicodeDigits;
+
+    private int unicode;
+
+    /**
+     * Container kinds, {@code true} for object, up to depth.
+     */
+    private boolean[] objects = new boolean[16];
+
+    private int depth;
+
+    /**
+     * The next string is a key.
+     */
+    private boolean expectKey;
+
+    /**
+     * The value of the key just read is masked.
+     */
+    private boolean maskValue;
+
+    private final StringBuilder key = new StringBuilder();
+
+    /**
+     * Nesting inside a masked container.
+     */
+    private int maskedDepth;
+
+    private boolean maskedInString;
+
+    /**
+     * Past the cut of a truncated body.
+     */
+    private boolean resync;
+
+    /**
+     * Only whitespace since the last quote, past the cut.
+     */
+    private boolean afterQuote;
+
+    /**
+     * The string before the last quote matches, past the cut.
+     */
+    private boolean candidateMatches;
+
+    /**
+     * No quote yet past the cut, the first string may be the end of a key.
+     */
+    private boolean cut;
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        final int end = off + len;
+        int run = off;
+        for (int i = off; i < end; i++) {
+            final char c = cbuf[i];
+            switch (state) {
+                case STRING:
+                    if (escaped) {
+                        escaped = false;
+                    }
+                    else if (c == '\\') {
+                        escaped = true;
+                    }
+                    else if (c == '"') {
+                        state = TOKEN;
+                    }
+                    break;
+                case KEY:
+                    if (key(c)) {
+                        state = TOKEN;
+                        maskValue = isMasked();
+                    }
+                    break;
+                case RESYNC:
+                    if (resync(c) && candidateMatches) {
+                        state = RESYNC_VALUE;
+                    }
+                    break;
+                case RESYNC_VALUE:
+                    if (!isWhitespace(c)) {
+                        if (c == ',' || c == '}' || c == ']') {
+                            state = RESYNC;
+                            resync(c);
+                        }
+                        else {
+                            out.write(cbuf, run, i - run);
+                            out.write(maskedValue);
+                            mask(c);
+                        }
+                    }
+                    break;
+                case MASKED_PREFIX:
+                    if (resync(c)) {
+                        state = candidateMatches ? RESYNC_VALUE : RESYNC;
+                        run = i;
+                    }
+                    break;
+                case MASKED_REST:
+                    break;
+                case MASKED_STRING:
+                    if (escaped) {
+                        escaped = false;
+                    }
+                    else if (c == '\\') {
+                        escaped = true;
+                    }
+                    else if (c == '"') {
+                        unmasked(true);
+                        run = i + 1;
+                    }
+                    break;
+                case MASKED_CONTAINER:
+                    if (maskedInString) {
+                        if (escaped) {
+                            escaped = false;
+                        }
+                        else if (c == '\\') {
+                            escaped = true;
+                        }
+                        else if (c == '"') {
+                            maskedInString = false;
+                        }
+                    }
+                    else if (c == '"') {
+                        maskedInString = true;
+                    }
+                    else if (c == '{' || c == '[') {
+                        maskedDepth++;
+                    }
+                    else if ((c == '}' || c == ']') && --maskedDepth == 0) {
+                        unmasked(false);
+                        run = i + 1;
+                    }
+                    break;
+                case MASKED_SCALAR:
+                    if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                        unmasked(false);
+                        run = i;
+                        if (resync) {
+                            resync(c);
+                        }
+                        else {
+                            token(c);
+                        }
+                    }
+                    break;
+                default:
+                    if (maskValue && c != ':' && !isWhitespace(c)) {
+                        maskValue = false;
+                        if (c != ',' && c != '}' && c != ']') {
+                            out.write(cbuf, run, i - run);
+                            out.write(maskedValue);
+                            mask(c);
+                            break;
+                        }
+                    }
+                    token(c);
+                    break;
+            }
+        }
+        if (state < MASKED_STRING) {
+            out.write(cbuf, run, end - run);
+        }
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    /**
+     * A char outside strings.
+     */
+    private void token(final char c) {
+        switch (c) {
+            case '"':
+                if (expectKey) {
+                    expectKey = false;
+                    state = KEY;
+                    key.setLength(0);
+                }
+                else {
+                    state = STRING;
+                }
+                break;
+            case '{':
+                push(true);
+                expectKey = true;
+                break;
+            case '[':
+                push(false);
+                expectKey = false;
+                break;
+            case '}':
+            case ']':
+                if (depth > 0) {
+                    depth--;
+                }
+                expectKey = false;
+                break;
+            case ',':
+                expectKey = depth > 0 && objects[depth - 1];
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void push(final boolean object) {
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth << 1);
+        }
+        objects[depth++] = object;
+    }
+
+    /**
+     * Back from a masked value.
+     *
+     * @param quote     the value ends with a quote
+     */
+    private void unmasked(final boolean quote) {
+        if (resync) {
+            state = RESYNC;
+            afterQuote = quote;
+            candidateMatches = false;
+            key.setLength(0);
+        }
+        else {
+            state = TOKEN;
+        }
+    }
+
+    /**
+     * A char past the cut, quotes cannot be told to open or close a string: every string followed by a colon,
+     * the text between two quotes, is taken for a key.
+     *
+     * @return the char is the colon after a key, {@link #candidateMatches} tells whether the key matches
+     */
+    private boolean resync(final char c) {
+        if (afterQuote) {
+            if (c == ':') {
+                afterQuote = false;
+                key.setLength(0);
+                return true;
+            }
+            if (!isWhitespace(c)) {
+                afterQuote = false;     // the quote opened a string
+            }
+        }
+        if (key(c)) {
+            candidateMatches = cut || isMasked();
+            cut = false;
+            afterQuote = true;
+            key.setLength(0);
+        }
+        return false;
+    }
+
+    /**
+     * The first char of a masked value.
+     */
+    private void mask(final char c) {
+        if (c == '"') {
+            state = MASKED_STRING;
+        }
+        else if (c == '{' || c == '[') {
+            state = MASKED_CONTAINER;
+            maskedDepth = 1;
+            maskedInString = false;
+        }
+        else {
+            state = MASKED_SCALAR;
+        }
+    }
+
+    /**
+     * A char of a key, decoded into the key buffer.
+     *
+     * @return the char is the closing quote
+     */
+    private boolean key(final char c) {
+        if (unicodeDigits > 0) {
+            unicode = unicode << 4 | Math.max(0, Character.digit(c, 16));
+            if (--unicodeDigits == 0) {
+                appendKey((char)unicode);
+            }
+        }
+        else if (escaped) {
+            escaped = false;
+            switch (c) {
+                case 'u':
+                    unicodeDigits = 4;
+                    unicode = 0;
+                    break;
+                case 'n':
+                    appendKey('\n');
+                    break;
+                case 't':
+                    appendKey('\t');
+                    break;
+                case 'r':
+                    appendKey('\r');
+                    break;
+                case 'b':
+                    appendKey('\b');
+                    break;
+                case 'f':
+                    appendKey('\f');
+                    break;
+                default:
+                    appendKey(c);
+                    break;
+            }
+        }
+        else if (c == '\\') {
+            escaped = true;
+        }
+        else if (c == '"') {
+            return true;
+        }
+        else {
+            appendKey(c);
+        }
+        return false;
+    }
+
+    private boolean isMasked() {
+        return key.length() <= MAX_KEY_LENGTH && keyFilter.matches(key);
+    }
+
+    private void appendKey(final char c) {
+        if (key.length() <= MAX_KEY_LENGTH) {
+            key.append(c);
+        }
+    }
+
+    /**
+     * The cut of a truncated body, between its head and its tail.
+     *
+     * @param marker    written as is
+     */
+    void truncated(final String marker) throws IOException {
+        out.write(marker);
+        out.write(maskedValue);
+        state = state == MASKED_CONTAINER ? MASKED_REST : MASKED_PREFIX;
+        resync = true;
+        escaped = false;
+        unicodeDigits = 0;
+        maskValue = false;
+        afterQuote = false;
+        cut = true;
+        key.setLength(0);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Does not close the underlying writer.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.ctzen.servlet.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Masks secrets while a report is rendered: header, parameter and cookie values by name,
+ * and values in JSON and form-encoded bodies by key.<br>
+ * <br>
+ * Names are matched case-insensitively by {@link AttributeNameFilter}s, with the same prefix, exact ({@code =name})
+ * and glob rules, e.g. {@code =authorization}, {@code *token*}. With cookie rules, the matching cookies in
+ * {@code Cookie} and {@code Set-Cookie} headers are masked too.<br>
+ * <br>
+ * Bodies are masked in a single pass as they are written, by {@link #redactBody(Writer, String)}:
+ * JSON bodies by key, at any depth, a masked object or array is replaced as a whole;
+ * form-encoded bodies and query strings by parameter name. No tree is built,
+ * malformed bodies are passed through as far as they can be tokenized. A truncated body is not passed through:
+ * the cut is marked by {@link #writeTruncationMarker(Writer, String)}, and the tail is masked up to its first key,
+ * or parameter name.
+ *
+ * @author cchang
+ */
+public final class Redactor {
+
+    public static final String DEFAULT_MASK = "****";
+
+    /**
+     * Masks nothing.
+     */
+    public static final Redactor NONE = new Redactor(null, null, null, null);
+
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    /**
+     * @param headerRules       request and response header names to mask
+     * @param parameterRules    request parameter names to mask, also in query strings and form-encoded bodies
+     * @param cookieRules       cookie names to mask
+     * @param jsonKeyRules      keys to mask in JSON bodies
+     */
+    public Redactor(final Collection<String> headerRules, final Collection<String> parameterRules,
+            final Collection<String> cookieRules, final Collection<String> jsonKeyRules) {
+        this(headerRules, parameterRules, cookieRules, jsonKeyRules, DEFAULT_MASK);
+    }
+
+    /**
+     * @param headerRules       request and response header names to mask
+     * @param parameterRules    request parameter names to mask, also in query strings and form-encoded bodies
+     * @param cookieRules       cookie names to mask
+     * @param jsonKeyRules      keys to mask in JSON bodies
+     * @param mask              replaces masked values, no quotes, backslashes, {@code &}, {@code =} or {@code ;}
+     */
+    public Redactor(final Collection<String> headerRules, final Collection<String> parameterRules,
+            final Collection<String> cookieRules, final Collection<String> jsonKeyRules, final String mask) {
+        for (int i = 0; i < mask.length(); i++) {
+            final char c = mask.charAt(i);
+            if (c == '"' || c == '\\' || c == '&' || c == '=' || c == ';' || c < ' ') {
+                throw new IllegalArgumentException("Invalid mask: " + mask);
+            }
+        }
+        this.headerFilter = new AttributeNameFilter(headerRules, true);
+        this.parameterFilter = new AttributeNameFilter(parameterRules, true);
+        this.cookieFilter = new AttributeNameFilter(cookieRules, true);
+        this.jsonKeyFilter = new AttributeNameFilter(jsonKeyRules, true);
+        this.mask = mask;
+    }
+
+    private final AttributeNameFilter headerFilter;
+
+    public AttributeNameFilter getHeaderFilter() {
+        return headerFilter;
+    }
+
+    private final AttributeNameFilter parameterFilter;
+
+    public AttributeNameFilter getParameterFilter() {
+        return parameterFilter;
+    }
+
+    private final AttributeNameFilter cookieFilter;
+
+    public AttributeNameFilter getCookieFilter() {
+        return cookieFilter;
+    }
+
+    private final AttributeNameFilter jsonKeyFilter;
+
+    public AttributeNameFilter getJsonKeyFilter() {
+        return jsonKeyFilter;
+    }
+
+    private final String mask;
+
+    public String getMask() {
+        return mask;
+    }
+
+    /**
+     * @return whether some values of the header are masked, entirely or cookies in it
+     */
+    public boolean isHeaderRedacted(final String name) {
+        return headerFilter.matches(name) || !cookieFilter.isEmpty() && cookieHeaderKind(name) != 0;
+    }
+
+    /**
+     * @return 1 for {@code Cookie}, 2 for {@code Set-Cookie}, 0 for others
+     */
+    private static int cookieHeaderKind(final String name) {
+        if ("cookie".equalsIgnoreCase(name)) {
+            return 1;
+        }
+        return "set-cookie".equalsIgnoreCase(name) ? 2 : 0;
+    }
+
+    /**
+     * @return the header value, masked
+     */
+    public String redactHeader(final String name, final String value) {
+        if (value == null) {
+            return null;
+        }
+        if (headerFilter.matches(name)) {
+            return mask;
+        }
+        if (cookieFilter.isEmpty()) {
+            return value;
+        }
+        switch (cookieHeaderKind(name)) {
+            case 1:
+                return redactCookies(value, false);
+            case 2:
+                return redactCookies(value, true);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * @param first     only the first name=value pair, the rest are attributes, as in {@code Set-Cookie}
+     */
+    private String redactCookies(final String value, final boolean first) {
+        StringBuilder sb = null;
+        int start = 0;
+        while (start < value.length()) {
+            int end = value.indexOf(';', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            final int eq = value.indexOf('=', start);
+            if (eq > 0 && eq < end && cookieFilter.matches(value.substring(start, eq).trim())) {
+                if (sb == null) {
+                    sb = new StringBuilder(value.length()).append(value, 0, start);
+                }
+                sb.append(value, start, eq + 1).append(mask);
+            }
+            else if (sb != null) {
+                sb.append(value, start, end);
+            }
+            if (first) {
+                if (sb != null) {
+                    sb.append(value, end, value.length());
+                }
+                break;
+            }
+            if (sb != null && end < value.length()) {
+                sb.append(';');
+            }
+            start = end + 1;
+        }
+        return sb == null ? value : sb.toString();
+    }
+
+    public boolean isParameterRedacted(final String name) {
+        return parameterFilter.matches(name);
+    }
+
+    /**
+     * @return the cookie value, masked
+     */
+    public String redactCookie(final String name, final String value) {
+        return value != null && cookieFilter.matches(name) ? mask : value;
+    }
+
+    /**
+     * @return the query string with parameter values masked
+     */
+    public String redactQueryString(final String queryString) {
+        if (queryString == null || parameterFilter.isEmpty()) {
+            return queryString;
+        }
+        final StringWriter ret = new StringWriter(queryString.length());
+        try {
+            new FormRedactingWriter(ret, parameterFilter, mask).write(queryString);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);     // not possible, writing to memory
+        }
+        return ret.toString();
+    }
+
+    /**
+     * @return whether {@link #redactBody(Writer, String)} masks bodies of the content type
+     */
+    public boolean isBodyRedacted(final String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        final String type = contentType.toLowerCase(Locale.ENGLISH);
+        return !jsonKeyFilter.isEmpty() && isJson(type) || !parameterFilter.isEmpty() && type.startsWith(FORM_CONTENT_TYPE);
+    }
+
+    /**
+     * {@code application/json}, {@code application/problem+json}, {@code text/json} and the like.
+     */
+    private static boolean isJson(final String type) {
+        final int params = type.indexOf(';');
+        final String mediaType = (params < 0 ? type : type.substring(0, params)).trim();
+        return mediaType.endsWith("/json") || mediaType.endsWith("+json");
+    }
+
+    /**
+     * Not closed, the returned writer holds nothing back, whatever is written to it is on out
+     * (or masked) when the write returns.
+     *
+     * @param out           where the body goes
+     * @param contentType   of the body
+     * @return writer masking the body into out, or out itself if there is nothing to mask in the content type
+     */
+    public Writer redactBody(final Writer out, final String contentType) {
+        if (contentType == null) {
+            return out;
+        }
+        final String type = contentType.toLowerCase(Locale.ENGLISH);
+        if (!jsonKeyFilter.isEmpty() && isJson(type)) {
+            return new JsonRedactingWriter(out, jsonKeyFilter, mask);
+        }
+        if (!parameterFilter.isEmpty() && type.startsWith(FORM_CONTENT_TYPE)) {
+            return new FormRedactingWriter(out, parameterFilter, mask);
+        }
+        return out;
+    }
+
+    /**
+     * Marks the cut between the head and the tail of a truncated body. The tokenizer restarts after it,
+     * the tail up to its first key, or parameter name, is masked.
+     *
+     * @param body      writer returned by {@link #redactBody(Writer, String)}
+     * @param marker    written as is
+     * @throws IOException
+     */
+    public void writeTruncationMarker(final Writer body, final String marker) throws IOException {
+        if (body instanceof JsonRedactingWriter) {
+            ((JsonRedactingWriter)body).truncated(marker);
+        }
+        else if (body instanceof FormRedactingWriter) {
+            ((FormRedactingWriter)body).truncated(marker);
+        }
+        else {
+            body.write(marker);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "headers=" + headerFilter + ", parameters=" + parameterFilter + ", cookies=" + cookieFilter
+                + ", jsonKeys=" + jsonKeyFilter;
+    }
+
+}
@@ -0,0 +1,355 @@
+package com.ctzen.servlet.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.ctzen.common.tostring.ToStringUtil;
+import com.ctzen.common.tostring.style.MultiLineIndentToStringStyle;
+
+/**
+ * Renders requests, responses and sessions exactly as the {@link ServletToStringUtil} toString() methods do,
+ * into a single {@link StringBuffer}.<br>
+ * <br>
+ * {@link ServletToStringUtil} renders each nested section (parameters, headers, cookies, attributes) into its
+ * own {@link org.apache.commons.lang3.builder.ToStringBuilder}, and sorts names through a {@link java.util.TreeSet}
+ * of {@link java.util.Collections#list(Enumeration)}. This drives the same {@link ToStringStyle}s straight into
+ * the caller's buffer instead, nested sections in place, and sorts names in a reusable scratch array.
+ * The output is identical; individual values are still formatted by {@link ToStringUtil}.<br>
+ * <br>
+ * Not thread-safe, get one per report from {@link ServletToStringUtil#newRenderer()}.
+ *
+ * @author cchang
+ */
+public class ServletToStringRenderer {
+
+    private static final int INITIAL_SCRATCH_SIZE = 32;
+
+    private static final Comparator<Cookie> COOKIE_NAME_ORDER = new Comparator<Cookie>() {
+        @Override
+        public int compare(final Cookie a, final Cookie b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    ServletToStringRenderer(final ServletToStringUtil util, final boolean sortNames) {
+        this.util = util;
+        this.sortNames = sortNames;
+    }
+
+    private final ServletToStringUtil util;
+
+    private final boolean sortNames;
+
+    /**
+     * Whether names are sorted, as {@link ServletToStringUtil} does, or left in enumeration order.
+     */
+    public boolean isSortNames() {
+        return sortNames;
+    }
+
+    private String[] names = new String[INITIAL_SCRATCH_SIZE];
+
+    private Cookie[] cookies = new Cookie[INITIAL_SCRATCH_SIZE];
+
+    /**
+     * What a style appends after a field value, by style.
+     */
+    private final Map<ToStringStyle, String> fieldEnds = new IdentityHashMap<>();
+
+    /**
+     * Same as {@link ServletToStringUtil#toString(HttpServletRequest)}.
+     *
+     * @return out
+     */
+    public StringBuffer append(final StringBuffer out, final HttpServletRequest req) {
+        final ToStringStyle style = MultiLineIndentToStringStyle.STYLE;
+        style.appendStart(out, req);
+        style.append(out, "requestURL", req.getRequestURL(), null);
+        style.append(out, "authType", req.getAuthType(), null);
+        style.append(out, "characterEncoding", req.getCharacterEncoding(), null);
+        style.append(out, "contentLength", req.getContentLengthLong());
+        style.append(out, "contentType", req.getContentType(), null);
+        style.append(out, "contextPath", req.getContextPath(), null);
+        style.append(out, "dispatcherType", req.getDispatcherType(), null);
+        style.append(out, "localAddr", req.getLocalAddr(), null);
+        style.append(out, "localName", req.getLocalName(), null);
+        style.append(out, "localPort", req.getLocalPort());
+        style.append(out, "locale", req.getLocale(), null);
+        style.append(out, "locales", ToStringUtil.toString(req.getLocales()), null);
+        style.append(out, "method", req.getMethod(), null);
+        style.append(out, "pathInfo", req.getPathInfo(), null);
+        style.append(out, "pathTranslated", req.getPathTranslated(), null);
+        style.append(out, "protocol", req.getProtocol(), null);
+        style.append(out, "queryString", util.getRedactor().redactQueryString(req.getQueryString()), null);
+        style.append(out, "remoteAddr", req.getRemoteAddr(), null);
+        style.append(out, "remoteHost", req.getRemoteHost(), null);
+        style.append(out, "remotePort", req.getRemotePort());
+        style.append(out, "remoteUser", req.getRemoteUser(), null);
+        style.append(out, "requestURI", req.getRequestURI(), null);
+        style.append(out, "requestedSessionId", req.getRequestedSessionId(), null);
+        style.append(out, "scheme", req.getScheme(), null);
+        style.append(out, "serverName", req.getServerName(), null);
+        style.append(out, "serverPort", req.getServerPort());
+        style.append(out, "servletPath", req.getServletPath(), null);
+        style.append(out, "userPrincipal", req.getUserPrincipal(), null);
+        style.append(out, "isAsyncStarted", req.isAsyncStarted());
+        style.append(out, "isAsyncSupported", req.isAsyncSupported());
+        style.append(out, "isRequestedSessionIdFromCookie", req.isRequestedSessionIdFromCookie());
+        style.append(out, "isRequestedSessionIdFromURL", req.isRequestedSessionIdFromURL());
+        style.append(out, "isRequestedSessionIdValid", req.isRequestedSessionIdValid());
+        style.append(out, "isSecure", req.isSecure());
+        final ToStringStyle style2 = MultiLineIndentToStringStyle.STYLE_2;
+        // parameters
+        fieldStart(out, style, "parameters");
+        final Enumeration<String> parameterNames = req.getParameterNames();
+        if (parameterNames == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            style2.appendStart(out, parameterNames);
+            final int n = names(parameterNames);
+            for (int i = 0; i < n; i++) {
+                final String name = names[i];
+                style2.append(out, name, util.parameterValuesToString(name, req.getParameterValues(name)), null);
+            }
+            style2.appendEnd(out, parameterNames);
+        }
+        fieldEnd(out, style);
+        // headers
+        fieldStart(out, style, "headers");
+        final Enumeration<String> headerNames = req.getHeaderNames();
+        if (headerNames == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            style2.appendStart(out, headerNames);
+            final int n = names(headerNames);
+            for (int i = 0; i < n; i++) {
+                final String name = names[i];
+                style2.append(out, name, util.headerValuesToString(name, req.getHeaders(name)), null);
+            }
+            style2.appendEnd(out, headerNames);
+        }
+        fieldEnd(out, style);
+        // cookies
+        fieldStart(out, style, "cookies");
+        appendCookies(out, req.getCookies(), style2);
+        fieldEnd(out, style);
+        style.append(out, "asyncContext", req.getAsyncContext(), null);
+        // attributes
+        fieldStart(out, style, "attributes");
+        final Enumeration<String> attributeNames = req.getAttributeNames();
+        if (attributeNames == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            style2.appendStart(out, attributeNames);
+            final int n = names(attributeNames);
+            for (int i = 0; i < n; i++) {
+                final String name = names[i];
+                if (!util.isRequestAttributeFiltered(name)) {
+                    style2.append(out, name, req.getAttribute(name), null);
+                }
+            }
+            style2.appendEnd(out, attributeNames);
+        }
+        fieldEnd(out, style);
+        style.appendEnd(out, req);
+        return out;
+    }
+
+    /**
+     * Same as {@link ServletToStringUtil#toString(HttpServletResponse)}.
+     *
+     * @return out
+     */
+    public StringBuffer append(final StringBuffer out, final HttpServletResponse resp) {
+        final ToStringStyle style = MultiLineIndentToStringStyle.STYLE;
+        style.appendStart(out, resp);
+        style.append(out, "bufferSize", resp.getBufferSize());
+        style.append(out, "characterEncoding", resp.getCharacterEncoding(), null);
+        style.append(out, "contentType", resp.getContentType(), null);
+        style.append(out, "isCommitted", resp.isCommitted());
+        style.append(out, "locale", resp.getLocale(), null);
+        style.append(out, "status", util.responseStatusToString(resp.getStatus()), null);
+        fieldStart(out, style, "headers");
+        final Collection<String> headerNames = resp.getHeaderNames();
+        if (headerNames == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            final ToStringStyle style2 = MultiLineIndentToStringStyle.STYLE_2;
+            style2.appendStart(out, headerNames);
+            final int n = names(headerNames);
+            for (int i = 0; i < n; i++) {
+                final String name = names[i];
+                style2.append(out, name, util.headerValuesToString(name, resp.getHeaders(name)), null);
+            }
+            style2.appendEnd(out, headerNames);
+        }
+        fieldEnd(out, style);
+        style.appendEnd(out, resp);
+        return out;
+    }
+
+    /**
+     * Same as {@link ServletToStringUtil#toString(HttpSession)}.
+     *
+     * @return out
+     */
+    public StringBuffer append(final StringBuffer out, final HttpSession sess) {
+        final ToStringStyle style = MultiLineIndentToStringStyle.STYLE;
+        style.appendStart(out, sess);
+        style.append(out, "id", sess.getId(), null);
+        style.append(out, "creationTime", sess.getCreationTime() + " (" + new Date(sess.getCreationTime()) + ")", null);
+        style.append(out, "lastAccessedTime", sess.getLastAccessedTime() + " (" + new Date(sess.getLastAccessedTime()) + ")", null);
+        style.append(out, "maxInactiveInterval", sess.getMaxInactiveInterval());
+        fieldStart(out, style, "attributes");
+        final Enumeration<String> attributeNames = sess.getAttributeNames();
+        if (attributeNames == null) {
+            out.append(ToStringUtil.NULL_STRING);
+        }
+        else {
+            final ToStringStyle style2 = MultiLineIndentToStringStyle.STYLE_2;
+            style2.appendStart(out, attributeNames);
+            final int n = names(attributeNames);
+            for (int i = 0; i < n; i++) {
+                final String name = names[i];
+                if (!util.isSessionAttributeFiltered(name)) {
+                    style2.append(out, name, sess.getAttribute(name), null);
+                }
+            }
+            style2.appendEnd(out, attributeNames);
+        }
+        fieldEnd(out, style);
+        style.appendEnd(out, sess);
+        return out;
+    }
+
+    private void appendCookies(final StringBuffer out, final Cookie[] all, final ToStringStyle style) {
+        if (all == null) {
+            out.append(ToStringUtil.NULL_STRING);
+            return;
+        }
+        style.appendStart(out, all);
+        final ToStringStyle style2 = MultiLineIndentToStringStyle.get(((MultiLineIndentToStringStyle)style).getLevel() + 1);
+        int n = all.length;
+        if (sortNames) {
+            // as a TreeMap by name: sorted, the last of the same name wins
+            if (cookies.length < n) {
+                cookies = new Cookie[Math.max(n, cookies.length << 1)];
+            }
+            System.arraycopy(all, 0, cookies, 0, n);
+            Arrays.sort(cookies, 0, n, COOKIE_NAME_ORDER);        // stable
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (i + 1 < n && cookies[i].getName().equals(cookies[i + 1].getName())) {
+                    continue;
+                }
+                cookies[kept++] = cookies[i];
+            }
+            n = kept;
+        }
+        for (int i = 0; i < n; i++) {
+            final Cookie cookie = sortNames ? cookies[i] : all[i];
+            fieldStart(out, style, null);
+            style2.appendStart(out, cookie);
+            style2.append(out, "name", cookie.getName(), null);
+            style2.append(out, "value", util.getRedactor().redactCookie(cookie.getName(), cookie.getValue()), null);
+            style2.append(out, "comment", cookie.getComment(), null);
+            style2.append(out, "domain", cookie.getDomain(), null);
+            style2.append(out, "maxAge", cookie.getMaxAge());
+            style2.append(out, "path", cookie.getPath(), null);
+            style2.append(out, "secure", cookie.getSecure());
+            style2.append(out, "version", cookie.getVersion());
+            style2.append(out, "isHttpOnly", cookie.isHttpOnly());
+            style2.appendEnd(out, cookie);
+            fieldEnd(out, style);
+        }
+        if (sortNames) {
+            Arrays.fill(cookies, 0, all.length, null);
+        }
+        style.appendEnd(out, all);
+    }
+
+    /**
+     * Collect the names into the scratch array, sorted without duplicates as a set would be if sorting.
+     *
+     * @return number of names
+     */
+    private int names(final Enumeration<String> e) {
+        int n = 0;
+        while (e.hasMoreElements()) {
+            if (n == names.length) {
+                names = Arrays.copyOf(names, n << 1);
+            }
+            names[n++] = e.nextElement();
+        }
+        return sortNames(n);
+    }
+
+    private int names(final Collection<String> c) {
+        if (names.length < c.size()) {
+            names = new String[Math.max(c.size(), names.length << 1)];
+        }
+        int n = 0;
+        for (final String name: c) {
+            if (n == names.length) {
+                names = Arrays.copyOf(names, n << 1);
+            }
+            names[n++] = name;
+        }
+        return sortNames(n);
+    }
+
+    private int sortNames(final int n) {
+        if (!sortNames) {
+            return n;
+        }
+        Arrays.sort(names, 0, n);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (kept == 0 || !names[i].equals(names[kept - 1])) {
+                names[kept++] = names[i];
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Start a field whose value is rendered in place, same as {@code style.append(out, fieldName, value, null)}
+     * up to the value.
+     */
+    private void fieldStart(final StringBuffer out, final ToStringStyle style, final String fieldName) {
+        style.append(out, fieldName, "", null);
+        out.setLength(out.length() - fieldEnd(style).length());
+    }
+
+    private void fieldEnd(final StringBuffer out, final ToStringStyle style) {
+        out.append(fieldEnd(style));
+    }
+
+    private String fieldEnd(final ToStringStyle style) {
+        String ret = fieldEnds.get(style);
+        if (ret == null) {
+            final StringBuffer probe = new StringBuffer();
+            style.append(probe, "f", "\u0000", null);
+            ret = probe.substring(probe.lastIndexOf("\u0000") + 1);
+            fieldEnds.put(style, ret);
+        }
+        return ret;
+    }
+
+}
@@ -1,9 +1,12 @@
 package com.ctzen.servlet.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -31,38 +34,112 @@ public class ServletToStringUtil {
     /**
      * Constructor.
      *
-     * @param requestAttributesFilter   exclude request attributes starting with these
-     * @param sessionAttributesFilter   exclude session attributes starting with these
+     * @param requestAttributesFilter   exclude request attributes matching these, see {@link AttributeNameFilter}
+     * @param sessionAttributesFilter   exclude session attributes matching these, see {@link AttributeNameFilter}
      */
     public ServletToStringUtil(final Set<String> requestAttributesFilter, final Set<String> sessionAttributesFilter) {
-        if (requestAttributesFilter == null) {
-            this.requestAttributesFilter = Collections.emptySet();
+        this.requestAttributesFilter = new AttributeNameFilter(requestAttributesFilter);
+        this.sessionAttributesFilter = new AttributeNameFilter(sessionAttributesFilter);
+    }
+
+    private final AttributeNameFilter requestAttributesFilter;
+
+    public AttributeNameFilter getRequestAttributesFilter() {
+        return requestAttributesFilter;
+    }
+
+    private final AttributeNameFilter sessionAttributesFilter;
+
+    public AttributeNameFilter getSessionAttributesFilter() {
+        return sessionAttributesFilter;
+    }
+
+    /**
+     * @return whether the request attribute is excluded
+     */
+    public boolean isRequestAttributeFiltered(final String name) {
+        return requestAttributesFilter.matches(name);
+    }
+
+    /**
+     * @return whether the session attribute is excluded
+     */
+    public boolean isSessionAttributeFiltered(final String name) {
+        return sessionAttributesFilter.matches(name);
+    }
+
+    private boolean sortNames = true;
+
+    public boolean isSortNames() {
+        return sortNames;
+    }
+
+    /**
+     * @param sortNames     whether {@link #newRenderer()} renderers sort names, default {@code true},
+     *                      {@code false} leaves them in enumeration order and skips sorting
+     */
+    public void setSortNames(final boolean sortNames) {
+        this.sortNames = sortNames;
+    }
+
+    private Redactor redactor = Redactor.NONE;
+
+    public Redactor getRedactor() {
+        return redactor;
+    }
+
+    /**
+     * @param redactor      masks header, parameter and cookie values, and the query string, default {@link Redactor#NONE}
+     */
+    public void setRedactor(final Redactor redactor) {
+        this.redactor = redactor == null ? Redactor.NONE : redactor;
+    }
+
+    /**
+     * @return header values as rendered, masked
+     */
+    public String headerValuesToString(final String name, final Enumeration<String> values) {
+        if (values == null || !redactor.isHeaderRedacted(name)) {
+            return ToStringUtil.toString(values, true);
         }
-        else {
-            this.requestAttributesFilter = requestAttributesFilter;
+        final List<String> redacted = new ArrayList<>();
+        while (values.hasMoreElements()) {
+            redacted.add(redactor.redactHeader(name, values.nextElement()));
         }
-        if (sessionAttributesFilter == null) {
-            this.sessionAttributesFilter = Collections.emptySet();
+        return ToStringUtil.toString(Collections.enumeration(redacted), true);
+    }
+
+    /**
+     * @return header values as rendered, masked
+     */
+    public String headerValuesToString(final String name, final Collection<String> values) {
+        if (values == null || !redactor.isHeaderRedacted(name)) {
+            return ToStringUtil.toString(values, true);
         }
-        else {
-            this.sessionAttributesFilter = requestAttributesFilter;
+        final List<String> redacted = new ArrayList<>(values.size());
+        for (final String value: values) {
+            redacted.add(redactor.redactHeader(name, value));
         }
+        return ToStringUtil.toString(redacted, true);
     }
 
-    private final Set<String> requestAttributesFilter;
-
-    private final Set<String> sessionAttributesFilter;
-
-    private boolean isFiltered(final String name, final Set<String> filters) {
-        if (name == null) {
-            return false;
-        }
-        for (String filter: filters) {
-            if (name.startsWith(filter)) {
-                return true;
-            }
+    /**
+     * @return parameter values as rendered, masked
+     */
+    public String parameterValuesToString(final String name, final String[] values) {
+        if (values == null || !redactor.isParameterRedacted(name)) {
+            return ToStringUtil.toString(values, true);
         }
-        return false;
+        final String[] redacted = new String[values.length];
+        Arrays.fill(redacted, redactor.getMask());
+        return ToStringUtil.toString(redacted, true);
+    }
+
+    /**
+     * @return renderer into a single buffer, with the same output as the toString() methods if sorting names
+     */
+    public ServletToStringRenderer newRenderer() {
+        return new ServletToStringRenderer(this, sortNames);
     }
 
     public String toString(final HttpServletRequest req) {
@@ -83,7 +160,7 @@ public class ServletToStringUtil {
            .append("pathInfo", req.getPathInfo())
            .append("pathTranslated", req.getPathTranslated())
            .append("protocol", req.getProtocol())
-           .append("queryString", req.getQueryString())
+           .append("queryString", redactor.redactQueryString(req.getQueryString()))
            .append("remoteAddr", req.getRemoteAddr())
            .append("remoteHost", req.getRemoteHost())
            .append("remotePort", req.getRemotePort())
@@ -140,7 +217,7 @@ public class ServletToStringUtil {
         final ToStringBuilder tsb = new ToStringBuilder(names, style);
         final Set<String> sortedNames = new TreeSet<>(Collections.list(names));
         for (final String name: sortedNames) {
-            tsb.append(name, ToStringUtil.toString(req.getHeaders(name), true));
+            tsb.append(name, headerValuesToString(name, req.getHeaders(name)));
         }
         return tsb.toString();
     }
@@ -153,7 +230,7 @@ public class ServletToStringUtil {
         final ToStringBuilder tsb = new ToStringBuilder(names, style);
         final Set<String> sortedNames = new TreeSet<>(names);
         for (final String name: sortedNames) {
-            tsb.append(name, ToStringUtil.toString(resp.getHeaders(name), true));
+            tsb.append(name, headerValuesToString(name, resp.getHeaders(name)));
         }
         return tsb.toString();
     }
@@ -166,7 +243,7 @@ public class ServletToStringUtil {
         final ToStringBuilder tsb = new ToStringBuilder(names, style);
         final Set<String> sortedNames = new TreeSet<>(Collections.list(names));
         for (final String name: sortedNames) {
-            tsb.append(name, ToStringUtil.toString(req.getParameterValues(name), true));
+            tsb.append(name, parameterValuesToString(name, req.getParameterValues(name)));
         }
         return tsb.toString();
     }
@@ -179,7 +256,7 @@ public class ServletToStringUtil {
         final ToStringBuilder tsb = new ToStringBuilder(names, style);
         final Set<String> sortedNames = new TreeSet<>(Collections.list(names));
         for (final String name: sortedNames) {
-            if (!isFiltered(name, requestAttributesFilter)) {
+            if (!requestAttributesFilter.matches(name)) {
                 tsb.append(name, req.getAttribute(name));
             }
         }
@@ -194,7 +271,7 @@ public class ServletToStringUtil {
         final ToStringBuilder tsb = new ToStringBuilder(names, style);
         final Set<String> sortedNames = new TreeSet<>(Collections.list(names));
         for (final String name: sortedNames) {
-            if (!isFiltered(name, sessionAttributesFilter)) {
+            if (!sessionAttributesFilter.matches(name)) {
                 tsb.append(name, sess.getAttribute(name));
             }
         }
@@ -229,7 +306,7 @@ public class ServletToStringUtil {
         }
         final ToStringBuilder tsb = new ToStringBuilder(cookie, style);
         tsb.append("name", cookie.getName())
-           .append("value", cookie.getValue())
+           .append("value", redactor.redactCookie(cookie.getName(), cookie.getValue()))
            .append("comment", cookie.getComment())
            .append("domain", cookie.getDomain())
            .append("maxAge", cookie.getMaxAge())
@@ -0,0 +1,157 @@
+package com.ctzen.servlet.wrapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory budget shared by all {@link CaptureBuffer}s, bounding the bytes held by in-flight captures.<br>
+ * <br>
+ * Buffers reserve budget one chunk at a time when they take a chunk from the {@link ChunkPool},
+ * and give it back on {@link CaptureBuffer#release()}, so the shared counter is touched once per chunk,
+ * never per {@code write()}.<br>
+ * <br>
+ * When usage is above the degrade threshold, new captures get the smaller degraded limit.
+ * When the budget is exhausted, new captures keep no body at all (headers only), and captures in progress
+ * stop growing. Either way the buffer records the {@link TruncationReason}.
+ *
+ * @author cchang
+ */
+public class CaptureBudget {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CaptureBudget.class);
+
+    public static final double DEFAULT_DEGRADE_THRESHOLD = 0.75;
+
+    public static final CaptureLimit DEFAULT_DEGRADED_LIMIT = CaptureLimit.of(4096, 0);
+
+    /**
+     * @param maxBytes  max bytes held by all captures
+     */
+    public CaptureBudget(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        setDegradeThreshold(DEFAULT_DEGRADE_THRESHOLD);
+        LOG.info("maxBytes={}", maxBytes);
+    }
+
+    private final long maxBytes;
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @return bytes currently reserved
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private double degradeThreshold;
+
+    private long degradeBytes;
+
+    public double getDegradeThreshold() {
+        return degradeThreshold;
+    }
+
+    /**
+     * @param degradeThreshold  fraction of {@link #getMaxBytes()} above which new captures are degraded
+     */
+    public void setDegradeThreshold(final double degradeThreshold) {
+        if (degradeThreshold < 0 || degradeThreshold > 1) {
+            throw new IllegalArgumentException("degradeThreshold must be within [0, 1]: " + degradeThreshold);
+        }
+        this.degradeThreshold = degradeThreshold;
+        this.degradeBytes = (long)(maxBytes * degradeThreshold);
+    }
+
+    private CaptureLimit degradedLimit = DEFAULT_DEGRADED_LIMIT;
+
+    public CaptureLimit getDegradedLimit() {
+        return degradedLimit;
+    }
+
+    /**
+     * @param degradedLimit     limit for new captures when usage is above the degrade threshold
+     */
+    public void setDegradedLimit(final CaptureLimit degradedLimit) {
+        this.degradedLimit = degradedLimit;
+    }
+
+    private final AtomicLong degradedCount = new AtomicLong();
+
+    /**
+     * @return number of captures started with the degraded limit
+     */
+    public long getDegradedCount() {
+        return degradedCount.get();
+    }
+
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    /**
+     * @return number of captures started without body, or cut short, because the budget was exhausted
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    /**
+     * @param requested     limit asked for
+     * @return limit to use given current usage, one of requested, {@link #getDegradedLimit()} or {@link CaptureLimit#NONE}
+     */
+    CaptureLimit limitFor(final CaptureLimit requested) {
+        final long used = usedBytes.get();
+        if (used >= maxBytes) {
+            exhaustedCount.incrementAndGet();
+            return CaptureLimit.NONE;
+        }
+        if (used >= degradeBytes && isLarger(requested, degradedLimit)) {
+            degradedCount.incrementAndGet();
+            return degradedLimit;
+        }
+        return requested;
+    }
+
+    private static boolean isLarger(final CaptureLimit a, final CaptureLimit b) {
+        return (long)a.getHead() + a.getTail() > (long)b.getHead() + b.getTail();
+    }
+
+    /**
+     * @param bytes     bytes to reserve
+     * @return {@code false} if that would exceed the budget, nothing is reserved then
+     */
+    boolean tryReserve(final long bytes) {
+        for (;;) {
+            final long used = usedBytes.get();
+            final long next = used + bytes;
+            if (next > maxBytes) {
+                exhaustedCount.incrementAndGet();
+                return false;
+            }
+            if (usedBytes.compareAndSet(used, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param bytes     bytes previously reserved
+     */
+    void release(final long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[used=" + usedBytes.get() + ", max=" + maxBytes + "]";
+    }
+
+}
@@ -0,0 +1,749 @@
+package com.ctzen.servlet.wrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Body capture buffer which keeps at most the first {@link CaptureLimit#getHead()} bytes
+ * and the last {@link CaptureLimit#getTail()} bytes written, and counts the rest.<br>
+ * <br>
+ * Bytes are kept in fixed-size chunks taken from a {@link ChunkPool}, and given back by {@link #release()}.
+ * Nothing is copied to read the content back, see {@link #asByteBuffers()}, {@link #getInputStream()},
+ * and the {@code writeTo()} methods.<br>
+ * <br>
+ * Once the head is full and there is no tail, writes cost only a counter update.
+ * Otherwise, at most the last {@link CaptureLimit#getTail()} bytes of each write are copied.<br>
+ * <br>
+ * With a {@link CaptureBudget}, the limit may be lowered when capture starts, and capture stops
+ * growing if the budget runs out, see {@link #getTruncationReason()}.<br>
+ * <br>
+ * With a {@link SpillPolicy}, the limit is ignored and the entire body is kept: in memory up to the threshold,
+ * then in a temp file, which is read back through memory-mapped views, or moved by {@link #moveTo(Path)}.
+ * If the budget runs out before the threshold, the buffer spills early.<br>
+ * <br>
+ * Not thread-safe, a body is written by one thread at a time.
+ *
+ * @author cchang
+ */
+public class CaptureBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CaptureBuffer.class);
+
+    private static final byte[][] NO_CHUNKS = new byte[0][];
+
+    /**
+     * Unlimited capture buffer using the default {@link ChunkPool}.
+     */
+    public CaptureBuffer() {
+        this(CaptureLimit.UNLIMITED);
+    }
+
+    /**
+     * @param limit     how much to keep
+     */
+    public CaptureBuffer(final CaptureLimit limit) {
+        this(limit, ChunkPool.getDefault());
+    }
+
+    /**
+     * @param limit     how much to keep
+     * @param pool      where to get chunks from
+     */
+    public CaptureBuffer(final CaptureLimit limit, final ChunkPool pool) {
+        this(limit, pool, null);
+    }
+
+    /**
+     * @param limit     how much to keep, may be lowered by the budget
+     * @param pool      where to get chunks from
+     * @param budget    memory budget shared with other buffers, {@code null} for none
+     */
+    public CaptureBuffer(final CaptureLimit limit, final ChunkPool pool, final CaptureBudget budget) {
+        this.limit = budget == null ? limit : budget.limitFor(limit);
+        this.pool = pool;
+        this.budget = budget;
+        this.chunkShift = pool.getChunkShift();
+        this.chunkMask = pool.getChunkSize() - 1;
+        if (this.limit.equals(limit)) {
+            this.initialReason = TruncationReason.LIMIT;
+        }
+        else if (this.limit == CaptureLimit.NONE) {
+            this.initialReason = TruncationReason.BUDGET_EXHAUSTED;
+        }
+        else {
+            this.initialReason = TruncationReason.BUDGET_LOW;
+        }
+        resetLimits();
+    }
+
+    private final CaptureLimit limit;
+
+    /**
+     * @return limit in effect, may be lower than requested due to the budget
+     */
+    public CaptureLimit getLimit() {
+        return limit;
+    }
+
+    private final CaptureBudget budget;
+
+    public CaptureBudget getBudget() {
+        return budget;
+    }
+
+    private final TruncationReason initialReason;
+
+    private TruncationReason reason;
+
+    /**
+     * @return why the content is incomplete, or {@code null} if it is not truncated
+     */
+    public TruncationReason getTruncationReason() {
+        return isTruncated() ? reason : null;
+    }
+
+    private int headLimit;          // lowered if the budget runs out
+
+    private int tailLimit;          // zeroed if the budget runs out
+
+    private long reservedBytes;
+
+    private SpillPolicy spillPolicy;
+
+    public SpillPolicy getSpillPolicy() {
+        return spillPolicy;
+    }
+
+    /**
+     * Switch to spill-to-disk mode, must be called before anything is written.
+     *
+     * @param spillPolicy   where and when to spill, {@code null} to keep the {@link CaptureLimit} mode
+     */
+    public void setSpillPolicy(final SpillPolicy spillPolicy) {
+        if (total > 0) {
+            throw new IllegalStateException("already written to");
+        }
+        this.spillPolicy = spillPolicy;
+        resetLimits();
+    }
+
+    private int spillThreshold;     // lowered if the budget runs out
+
+    private SpillFile spill;
+
+    private boolean spillFailed;
+
+    /**
+     * @return {@code true} if the content is in a temp file
+     */
+    public boolean isSpilled() {
+        return spill != null;
+    }
+
+    private final ChunkPool pool;
+
+    public ChunkPool getPool() {
+        return pool;
+    }
+
+    private final int chunkShift;
+
+    private final int chunkMask;
+
+    private byte[][] headChunks = NO_CHUNKS;
+
+    private int headChunkCount;
+
+    private int headSize;
+
+    private byte[][] tailChunks;    // ring of limit.getTail() bytes, chunks allocated on demand
+
+    private int tailPos;            // next write position in ring
+
+    private long total;
+
+    /**
+     * @return total number of bytes written, kept or not
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of bytes kept
+     */
+    public int size() {
+        if (spill != null) {
+            return (int)Math.min(total, Integer.MAX_VALUE);
+        }
+        return headSize + getTailSize();
+    }
+
+    private int getTailSize() {
+        return (int)Math.min(total - headSize, tailLimit);
+    }
+
+    /**
+     * @return {@code true} if some bytes were discarded
+     */
+    public boolean isTruncated() {
+        return spill == null && total > headSize + getTailSize();
+    }
+
+    public void write(final int b) {
+        if (spillPolicy != null) {
+            writeSpillMode(b);
+            return;
+        }
+        total++;
+        if (headSize < headLimit) {
+            final int chunk = headSize >>> chunkShift;
+            if (chunk < headChunkCount || addHeadChunk()) {
+                headChunks[chunk][headSize & chunkMask] = (byte)b;
+                headSize++;
+            }
+        }
+        else if (tailLimit > 0 && (tailChunks != null || reserveTail())) {
+            tailChunk(tailPos >>> chunkShift)[tailPos & chunkMask] = (byte)b;
+            if (++tailPos == tailLimit) {
+                tailPos = 0;
+            }
+        }
+    }
+
+    public void write(final byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    public void write(final byte[] b, int off, int len) {
+        if (len <= 0) {
+            return;
+        }
+        if (spillPolicy != null) {
+            writeSpillMode(b, off, len);
+            return;
+        }
+        total += len;
+        final int headRoom = headLimit - headSize;
+        if (headRoom > 0) {
+            final int n = Math.min(headRoom, len);
+            writeHead(b, off, n);
+            off += n;
+            len -= n;
+        }
+        if (len > 0 && tailLimit > 0 && (tailChunks != null || reserveTail())) {
+            writeTail(b, off, len);
+        }
+    }
+
+    private void writeSpillMode(final int b) {
+        total++;
+        if (spill == null && headSize < spillThreshold) {
+            final int chunk = headSize >>> chunkShift;
+            if (chunk < headChunkCount || addHeadChunk()) {
+                headChunks[chunk][headSize & chunkMask] = (byte)b;
+                headSize++;
+                return;
+            }
+        }
+        if (spill != null || startSpill()) {
+            try {
+                spill.write(b);
+            }
+            catch (final IOException e) {
+                spillFailed(e);
+            }
+        }
+    }
+
+    private void writeSpillMode(final byte[] b, int off, int len) {
+        total += len;
+        if (spill == null) {
+            final int n = writeHead(b, off, Math.min(len, spillThreshold - headSize));
+            off += n;
+            len -= n;
+            if (len == 0 || !startSpill()) {
+                return;
+            }
+        }
+        try {
+            spill.write(b, off, len);
+        }
+        catch (final IOException e) {
+            spillFailed(e);
+        }
+    }
+
+    /**
+     * Moves everything in memory to a new temp file, and gives back all but one chunk, which is kept for staging.
+     *
+     * @return {@code false} if failed, nothing more will be captured then
+     */
+    private boolean startSpill() {
+        if (spillFailed) {
+            return false;
+        }
+        final byte[] staging;
+        if (headChunkCount > 0) {
+            staging = headChunks[--headChunkCount];
+            headChunks[headChunkCount] = null;
+        }
+        else {
+            staging = pool.acquire();
+        }
+        final int stagedSize = headSize - (headChunkCount << chunkShift);
+        try {
+            spill = new SpillFile(spillPolicy.getDirectory(), staging);
+            for (int i = 0; i < headChunkCount; i++) {
+                spill.write(headChunks[i], 0, chunkMask + 1);
+            }
+            // last head chunk becomes the staging chunk, its content is already in place
+            spill.adoptStaged(stagedSize);
+        }
+        catch (final IOException e) {
+            if (spill != null) {
+                spill.delete();
+                spill = null;
+            }
+            if (headChunkCount < headChunks.length) {
+                headChunks[headChunkCount++] = staging;     // put it back, content intact
+            }
+            else {
+                pool.release(staging);
+            }
+            spillFailed(e);
+            return false;
+        }
+        for (int i = 0; i < headChunkCount; i++) {
+            pool.release(headChunks[i]);
+            headChunks[i] = null;
+        }
+        if (budget != null && reservedBytes > 0) {
+            budget.release(reservedBytes - (chunkMask + 1));   // still holding the staging chunk
+            reservedBytes = chunkMask + 1;
+        }
+        headChunkCount = 0;
+        headSize = 0;
+        LOG.debug("spilled to {}", spill.getPath());
+        return true;
+    }
+
+    private void spillFailed(final IOException e) {
+        LOG.warn("Unable to spill capture to disk, giving up capture", e);
+        if (spill != null) {
+            pool.release(spill.getStaging());
+            spill.delete();
+            spill = null;
+        }
+        spillFailed = true;
+        spillThreshold = headSize;      // keep what is still in memory, capture no more
+        reason = TruncationReason.SPILL_FAILED;
+    }
+
+    /**
+     * @return number of bytes written, less than len if the budget ran out
+     */
+    private int writeHead(final byte[] b, int off, int len) {
+        final int ret = len;
+        while (len > 0) {
+            final int chunk = headSize >>> chunkShift;
+            if (chunk == headChunkCount && !addHeadChunk()) {
+                return ret - len;
+            }
+            final int pos = headSize & chunkMask;
+            final int count = Math.min(len, chunkMask + 1 - pos);
+            System.arraycopy(b, off, headChunks[chunk], pos, count);
+            headSize += count;
+            off += count;
+            len -= count;
+        }
+        return ret;
+    }
+
+    private void writeTail(final byte[] b, int off, int len) {
+        final int capacity = tailLimit;
+        if (len > capacity) {
+            // only the last capacity bytes can survive
+            off += len - capacity;
+            len = capacity;
+        }
+        while (len > 0) {
+            final int pos = tailPos & chunkMask;
+            final int count = Math.min(len, Math.min(chunkMask + 1 - pos, capacity - tailPos));
+            System.arraycopy(b, off, tailChunk(tailPos >>> chunkShift), pos, count);
+            off += count;
+            len -= count;
+            tailPos += count;
+            if (tailPos == capacity) {
+                tailPos = 0;
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the budget ran out, head is frozen at its current size then
+     */
+    private boolean addHeadChunk() {
+        if (budget != null) {
+            if (!budget.tryReserve(chunkMask + 1)) {
+                budgetExhausted();
+                return false;
+            }
+            reservedBytes += chunkMask + 1;
+        }
+        if (headChunkCount == headChunks.length) {
+            headChunks = Arrays.copyOf(headChunks, Math.max(4, headChunkCount << 1));
+        }
+        headChunks[headChunkCount++] = pool.acquire();
+        return true;
+    }
+
+    /**
+     * Reserve the whole tail up front, so it never has to give up part way.
+     *
+     * @return {@code false} if the budget ran out, tail is disabled then
+     */
+    private boolean reserveTail() {
+        final int count = ((tailLimit - 1) >>> chunkShift) + 1;
+        if (budget != null) {
+            final long bytes = (long)count << chunkShift;
+            if (!budget.tryReserve(bytes)) {
+                budgetExhausted();
+                return false;
+            }
+            reservedBytes += bytes;
+        }
+        tailChunks = new byte[count][];
+        return true;
+    }
+
+    private void budgetExhausted() {
+        if (spillPolicy != null) {
+            spillThreshold = headSize;      // spill early instead
+            return;
+        }
+        headLimit = headSize;
+        tailLimit = 0;
+        reason = TruncationReason.BUDGET_EXHAUSTED;
+    }
+
+    private byte[] tailChunk(final int index) {
+        byte[] chunk = tailChunks[index];
+        if (chunk == null) {
+            chunk = pool.acquire();
+            tailChunks[index] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * @param total     total number of bytes written
+     * @return marker separating the head and the tail of a body truncated by {@link TruncationReason#LIMIT}
+     */
+    public static byte[] getTruncationMarker(final long total) {
+        return getTruncationMarker(total, TruncationReason.LIMIT);
+    }
+
+    /**
+     * @param total     total number of bytes written
+     * @param reason    why the body is truncated
+     * @return marker separating the head and the tail of a truncated body
+     */
+    public static byte[] getTruncationMarker(final long total, final TruncationReason reason) {
+        return ("\n... [truncated, " + total + " bytes total, " + reason.getDescription() + "] ...\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return writable views, in order, over the backing chunks and the truncation marker
+     */
+    private List<ByteBuffer> segments() {
+        return segments(true, true, true);
+    }
+
+    /**
+     * @param head      views over the head, a spilled body is all head
+     * @param marker    the truncation marker, if truncated
+     * @param tail      views over the tail
+     * @return writable views, in order
+     */
+    private List<ByteBuffer> segments(final boolean head, final boolean marker, final boolean tail) {
+        if (spill != null) {
+            if (!head) {
+                return Collections.emptyList();
+            }
+            try {
+                return spill.map();
+            }
+            catch (final IOException e) {
+                throw new IllegalStateException("Unable to map " + spill.getPath(), e);
+            }
+        }
+        final int tailSize = tail ? getTailSize() : 0;
+        if ((!head || headSize == 0) && tailSize == 0 && !(marker && isTruncated())) {
+            return Collections.emptyList();
+        }
+        final List<ByteBuffer> ret = new ArrayList<>(headChunkCount + (tailChunks == null ? 1 : tailChunks.length + 2));
+        final int chunkSize = chunkMask + 1;
+        for (int i = 0, remaining = head ? headSize : 0; remaining > 0; i++) {
+            final int n = Math.min(remaining, chunkSize);
+            ret.add(ByteBuffer.wrap(headChunks[i], 0, n));
+            remaining -= n;
+        }
+        if (marker && isTruncated()) {
+            ret.add(ByteBuffer.wrap(getTruncationMarker(total, reason)));
+        }
+        if (tailSize > 0) {
+            final int capacity = tailLimit;
+            int pos = tailSize == capacity ? tailPos : 0;     // oldest byte
+            for (int remaining = tailSize; remaining > 0; ) {
+                final int off = pos & chunkMask;
+                final int n = Math.min(remaining, Math.min(chunkSize - off, capacity - pos));
+                ret.add(ByteBuffer.wrap(tailChunks[pos >>> chunkShift], off, n));
+                remaining -= n;
+                pos += n;
+                if (pos == capacity) {
+                    pos = 0;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Zero-copy read access: the head, then the truncation marker and the tail if truncated.<br>
+     * <br>
+     * The views share the backing chunks, and are only valid until {@link #release()}.
+     *
+     * @return read-only views, in order
+     */
+    public List<ByteBuffer> asByteBuffers() {
+        final List<ByteBuffer> ret = segments();
+        for (int i = 0; i < ret.size(); i++) {
+            ret.set(i, ret.get(i).asReadOnlyBuffer());
+        }
+        return ret;
+    }
+
+    /**
+     * @return stream over the same content as {@link #asByteBuffers()}, valid until {@link #release()}
+     */
+    public InputStream getInputStream() {
+        return new SegmentsInputStream(segments());
+    }
+
+    /**
+     * With {@link #getTailInputStream()}, reads a truncated body in parts, to tell the head and the tail apart,
+     * e.g. to restart a tokenizer at the cut.
+     *
+     * @return stream over the head, the whole body if not truncated, valid until {@link #release()}
+     */
+    public InputStream getHeadInputStream() {
+        return new SegmentsInputStream(segments(true, false, false));
+    }
+
+    /**
+     * @return stream over the tail after the truncation marker, empty if not truncated, valid until {@link #release()}
+     */
+    public InputStream getTailInputStream() {
+        return new SegmentsInputStream(isTruncated() ? segments(false, false, true) : Collections.<ByteBuffer>emptyList());
+    }
+
+    /**
+     * Writes the head, then the truncation marker and the tail if truncated.
+     *
+     * @param out   where to write to
+     * @throws IOException
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        byte[] scratch = null;
+        for (final ByteBuffer segment: segments()) {
+            if (segment.hasArray()) {
+                out.write(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
+                continue;
+            }
+            if (scratch == null) {
+                scratch = new byte[chunkMask + 1];
+            }
+            while (segment.hasRemaining()) {
+                final int n = Math.min(scratch.length, segment.remaining());
+                segment.get(scratch, 0, n);
+                out.write(scratch, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Writes the head, then the truncation marker and the tail if truncated.
+     *
+     * @param out   where to write to
+     * @throws IOException
+     */
+    public void writeTo(final WritableByteChannel out) throws IOException {
+        if (spill != null) {
+            spill.transferTo(out);
+            return;
+        }
+        for (final ByteBuffer segment: segments()) {
+            while (segment.hasRemaining()) {
+                out.write(segment);
+            }
+        }
+    }
+
+    /**
+     * Moves the temp file of a spilled buffer, renaming it if on the same file system.
+     * The buffer is empty afterwards.
+     *
+     * @param target    where to move to
+     * @return {@code false} if not {@link #isSpilled()}, nothing is moved then
+     * @throws IOException
+     */
+    public boolean moveTo(final Path target) throws IOException {
+        if (spill == null) {
+            return false;
+        }
+        spill.moveTo(target);
+        pool.release(spill.getStaging());
+        spill = null;
+        release();
+        return true;
+    }
+
+    /**
+     * Copies the content, prefer {@link #asByteBuffers()} or {@link #writeTo(OutputStream)} to avoid the copy.
+     *
+     * @return the head, then the truncation marker and the tail if truncated
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(size() + (isTruncated() ? 64 : 0));
+        try {
+            writeTo(out);
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);   // not possible
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Discard everything, give the chunks back to the pool, and delete any temp file.
+     * The buffer remains usable, and acquires new chunks as needed.
+     */
+    public void release() {
+        for (int i = 0; i < headChunkCount; i++) {
+            pool.release(headChunks[i]);
+            headChunks[i] = null;
+        }
+        headChunkCount = 0;
+        if (tailChunks != null) {
+            for (final byte[] chunk: tailChunks) {
+                pool.release(chunk);
+            }
+            tailChunks = null;
+        }
+        if (spill != null) {
+            pool.release(spill.getStaging());
+            spill.delete();
+            spill = null;
+        }
+        if (budget != null) {
+            budget.release(reservedBytes);
+        }
+        reservedBytes = 0;
+        headSize = 0;
+        tailPos = 0;
+        total = 0;
+        resetLimits();
+    }
+
+    private void resetLimits() {
+        if (spillPolicy == null) {
+            headLimit = limit.getHead();
+            tailLimit = limit.getTail();
+        }
+        else {
+            headLimit = Integer.MAX_VALUE;
+            tailLimit = 0;
+            spillThreshold = spillPolicy.getThreshold();
+        }
+        spillFailed = false;
+        reason = initialReason;
+    }
+
+    /**
+     * Same as {@link #release()}.
+     */
+    public void reset() {
+        release();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[limit=" + limit + ", total=" + total + ", size=" + size()
+                + ", truncationReason=" + getTruncationReason() + "]";
+    }
+
+    private static final class SegmentsInputStream extends InputStream {
+
+        SegmentsInputStream(final List<ByteBuffer> segments) {
+            this.segments = segments;
+        }
+
+        private final List<ByteBuffer> segments;
+
+        private int index;
+
+        private ByteBuffer current() {
+            while (index < segments.size()) {
+                final ByteBuffer segment = segments.get(index);
+                if (segment.hasRemaining()) {
+                    return segment;
+                }
+                index++;
+            }
+            return null;
+        }
+
+        @Override
+        public int read() {
+            final ByteBuffer segment = current();
+            return segment == null ? -1 : segment.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            final ByteBuffer segment = current();
+            if (segment == null) {
+                return -1;
+            }
+            final int n = Math.min(len, segment.remaining());
+            segment.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            final ByteBuffer segment = current();
+            return segment == null ? 0 : segment.remaining();
+        }
+
+    }
+
+}
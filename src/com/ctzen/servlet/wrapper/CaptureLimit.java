@@ -0,0 +1,85 @@
+package com.ctzen.servlet.wrapper;
+
+/**
+ * How much of a body to capture: the first {@link #getHead()} bytes and the last {@link #getTail()} bytes.
+ * Anything in between is counted but not kept.
+ *
+ * @author cchang
+ */
+public final class CaptureLimit {
+
+    /**
+     * Capture everything.
+     */
+    public static final CaptureLimit UNLIMITED = new CaptureLimit(Integer.MAX_VALUE, 0);
+
+    /**
+     * Capture nothing, only count.
+     */
+    public static final CaptureLimit NONE = new CaptureLimit(0, 0);
+
+    /**
+     * @param head  number of leading bytes to keep
+     * @param tail  number of trailing bytes to keep
+     * @return capture limit
+     */
+    public static CaptureLimit of(final int head, final int tail) {
+        if (head == Integer.MAX_VALUE) {
+            return UNLIMITED;
+        }
+        return new CaptureLimit(head, tail);
+    }
+
+    private CaptureLimit(final int head, final int tail) {
+        if (head < 0 || tail < 0) {
+            throw new IllegalArgumentException("negative limit: head=" + head + ", tail=" + tail);
+        }
+        this.head = head;
+        this.tail = head == Integer.MAX_VALUE ? 0 : tail;
+    }
+
+    private final int head;
+
+    /**
+     * @return number of leading bytes to keep
+     */
+    public int getHead() {
+        return head;
+    }
+
+    private final int tail;
+
+    /**
+     * @return number of trailing bytes to keep
+     */
+    public int getTail() {
+        return tail;
+    }
+
+    public boolean isUnlimited() {
+        return head == Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CaptureLimit)) {
+            return false;
+        }
+        final CaptureLimit other = (CaptureLimit)obj;
+        return head == other.head && tail == other.tail;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * head + tail;
+    }
+
+    @Override
+    public String toString() {
+        return isUnlimited() ? "UNLIMITED" : "head=" + head + ", tail=" + tail;
+    }
+
+}
@@ -1,36 +1,83 @@
 package com.ctzen.servlet.wrapper;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
 /**
  * Wraps a {@link HttpServletRequest} and captures request body.<br>
  * <br>
+ * If given the capturing response, {@link #startAsync()} passes both wrappers on, so that async processing
+ * and dispatches keep writing through them.<br>
+ * <br>
  * Does not support multi-parts... yet.
  *
  * @author cchang
  */
 public class CapturingHttpServletRequestWrapper extends HttpServletRequestWrapper {
 
+    /**
+     * Captures the entire body.
+     *
+     * @param request   the real {@link HttpServletRequest}
+     */
     public CapturingHttpServletRequestWrapper(final HttpServletRequest request) {
+        this(request, CaptureLimit.UNLIMITED);
+    }
+
+    /**
+     * @param request   the real {@link HttpServletRequest}
+     * @param limit     how much of the body to capture
+     */
+    public CapturingHttpServletRequestWrapper(final HttpServletRequest request, final CaptureLimit limit) {
+        this(request, new CaptureBuffer(limit));
+    }
+
+    /**
+     * @param request   the real {@link HttpServletRequest}
+     * @param buffer    where to capture bytes read, caller is responsible to {@link CaptureBuffer#release()} it
+     */
+    public CapturingHttpServletRequestWrapper(final HttpServletRequest request, final CaptureBuffer buffer) {
         super(request);
+        this.buffer = buffer;
     }
 
-    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final CaptureBuffer buffer;
 
     /**
      * @return buffer containing bytes read
      */
-    public ByteArrayOutputStream getBuffer() {
+    public CaptureBuffer getBuffer() {
         return buffer;
     }
 
+    private ServletResponse capturingResponse;
+
+    /**
+     * @param capturingResponse     response for {@link #startAsync()} to pass on, e.g. a
+     *                              {@link CapturingHttpServletResponseWrapper}
+     */
+    public void setCapturingResponse(final ServletResponse capturingResponse) {
+        this.capturingResponse = capturingResponse;
+    }
+
+    /**
+     * Same as {@code startAsync(this, capturingResponse)}, if there is a capturing response.
+     */
+    @Override
+    public AsyncContext startAsync() throws IllegalStateException {
+        if (capturingResponse == null) {
+            return super.startAsync();
+        }
+        return super.startAsync(this, capturingResponse);
+    }
+
     private CapturingServletInputStream stream;
 
     @Override
@@ -1,6 +1,5 @@
 package com.ctzen.servlet.wrapper;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -16,16 +15,38 @@ import javax.servlet.http.HttpServletResponseWrapper;
  */
 public class CapturingHttpServletResponseWrapper extends HttpServletResponseWrapper {
 
+    /**
+     * Captures the entire body.
+     *
+     * @param response  the real {@link HttpServletResponse}
+     */
     public CapturingHttpServletResponseWrapper(final HttpServletResponse response) {
+        this(response, CaptureLimit.UNLIMITED);
+    }
+
+    /**
+     * @param response  the real {@link HttpServletResponse}
+     * @param limit     how much of the body to capture
+     */
+    public CapturingHttpServletResponseWrapper(final HttpServletResponse response, final CaptureLimit limit) {
+        this(response, new CaptureBuffer(limit));
+    }
+
+    /**
+     * @param response  the real {@link HttpServletResponse}
+     * @param buffer    where to capture bytes written, caller is responsible to {@link CaptureBuffer#release()} it
+     */
+    public CapturingHttpServletResponseWrapper(final HttpServletResponse response, final CaptureBuffer buffer) {
         super(response);
+        this.buffer = buffer;
     }
 
-    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final CaptureBuffer buffer;
 
     /**
      * @return buffer containing bytes written
      */
-    public ByteArrayOutputStream getBuffer() {
+    public CaptureBuffer getBuffer() {
         return buffer;
     }
 
@@ -34,7 +55,7 @@ public class CapturingHttpServletResponseWrapper extends HttpServletResponseWrap
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
         if (stream == null) {
-            stream = new CapturingServletOutputStream(super.getOutputStream(), buffer);
+            stream = new CapturingServletOutputStream(super.getOutputStream(), buffer, this);
         }
         return stream;
     }
@@ -1,6 +1,5 @@
 package com.ctzen.servlet.wrapper;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import javax.servlet.ReadListener;
@@ -19,15 +18,16 @@ public class CapturingServletInputStream extends ServletInputStream {
 
     /**
      * @param delegate  the real {@link ServletInputStream}
+     * @param buffer    where to capture bytes read
      */
-    public CapturingServletInputStream(final ServletInputStream delegate, final ByteArrayOutputStream buffer) {
+    public CapturingServletInputStream(final ServletInputStream delegate, final CaptureBuffer buffer) {
         this.delegate = delegate;
         this.buffer = buffer;
     }
 
     private final ServletInputStream delegate;
 
-    private final ByteArrayOutputStream buffer;
+    private final CaptureBuffer buffer;
 
     @Override
     public int readLine(final byte[] b, final int off, final int len) throws IOException {
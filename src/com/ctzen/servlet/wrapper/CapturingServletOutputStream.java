@@ -1,15 +1,26 @@
 package com.ctzen.servlet.wrapper;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.ResourceBundle;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
 import javax.servlet.WriteListener;
 
 /**
- *
- * Wraps a {@link ServletOutputStream} and capture written bytes.
+ * Wraps a {@link ServletOutputStream} and capture written bytes.<br>
+ * <br>
+ * print() and println() are captured encoded in the response character encoding, ISO-8859-1 if none
+ * (the servlet default), without intermediate Strings: chars go through a per-stream {@link CharsetEncoder}
+ * and scratch buffers straight into the capture buffer, ASCII is copied as is for ASCII compatible charsets,
+ * booleans and line separators are encoded once per charset.
  *
  * @author cchang
  */
@@ -17,117 +28,290 @@ public class CapturingServletOutputStream extends ServletOutputStream {
 
     private static final String LSTRING_FILE = "javax.servlet.LocalStrings";
 
-    private static ResourceBundle lStrings = ResourceBundle.getBundle(LSTRING_FILE);
+    private static final ResourceBundle L_STRINGS = ResourceBundle.getBundle(LSTRING_FILE);
+
+    private static final String TRUE_STRING = L_STRINGS.getString("value.true");
+
+    private static final String FALSE_STRING = L_STRINGS.getString("value.false");
+
+    private static final String LN = "\r\n";
+
+    private static final int SCRATCH_CHARS = 256;
+
+    private static final int SCRATCH_BYTES = 1024;
 
     /**
+     * Printable ASCII and CR LF, encode to the same bytes in an ASCII compatible charset.
+     */
+    private static final String ASCII_PROBE;
+
+    static {
+        final StringBuilder sb = new StringBuilder("\r\n");
+        for (char c = 0x20; c < 0x7f; c++) {
+            sb.append(c);
+        }
+        ASCII_PROBE = sb.toString();
+    }
+
+    /**
+     * Captures print() and println() in ISO-8859-1.
+     *
      * @param delegate  the real {@link ServletOutputStream}
+     * @param buffer    where to capture bytes written
      */
-    public CapturingServletOutputStream(final ServletOutputStream delegate, final ByteArrayOutputStream buffer) {
+    public CapturingServletOutputStream(final ServletOutputStream delegate, final CaptureBuffer buffer) {
+        this(delegate, buffer, null);
+    }
+
+    /**
+     * @param delegate  the real {@link ServletOutputStream}
+     * @param buffer    where to capture bytes written
+     * @param response  response whose character encoding print() and println() are captured in,
+     *                  {@code null} for ISO-8859-1
+     */
+    public CapturingServletOutputStream(final ServletOutputStream delegate, final CaptureBuffer buffer,
+            final ServletResponse response) {
         this.delegate = delegate;
         this.buffer = buffer;
+        this.response = response;
     }
 
     private final ServletOutputStream delegate;
 
-    private final ByteArrayOutputStream buffer;
+    private final CaptureBuffer buffer;
+
+    private final ServletResponse response;
+
+    // encoding state, set up on first print
+
+    private String encoding;
+
+    private CharsetEncoder encoder;
+
+    private boolean asciiCompatible;
+
+    private byte[] trueBytes;
+
+    private byte[] falseBytes;
+
+    private byte[] lnBytes;
 
-    private static final byte[] LN_BYTES = "\r\n".getBytes();
+    private CharBuffer chars;
+
+    private ByteBuffer bytes;
+
+    private StringBuilder text;
+
+    /**
+     * Set up the encoder for the response's current character encoding, if not already.
+     */
+    private void prepare() {
+        final String enc = response == null ? null : response.getCharacterEncoding();
+        if (encoder != null && (enc == null ? encoding == null : enc.equals(encoding))) {
+            return;
+        }
+        Charset charset = StandardCharsets.ISO_8859_1;
+        if (enc != null) {
+            try {
+                charset = Charset.forName(enc);
+            }
+            catch (final IllegalArgumentException e) {
+                // unsupported, capture in the default
+            }
+        }
+        encoding = enc;
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        asciiCompatible = Arrays.equals(ASCII_PROBE.getBytes(charset), ASCII_PROBE.getBytes(StandardCharsets.US_ASCII));
+        trueBytes = TRUE_STRING.getBytes(charset);
+        falseBytes = FALSE_STRING.getBytes(charset);
+        lnBytes = LN.getBytes(charset);
+        if (chars == null) {
+            chars = CharBuffer.allocate(SCRATCH_CHARS);
+            bytes = ByteBuffer.allocate(SCRATCH_BYTES);
+            text = new StringBuilder(32);
+        }
+    }
+
+    /**
+     * @param s     a {@link String} or {@link StringBuilder}
+     */
+    private void capture(final CharSequence s) {
+        prepare();
+        final int length = s.length();
+        int i = 0;
+        if (asciiCompatible) {
+            final byte[] b = bytes.array();
+            int n = 0;
+            for (; i < length; i++) {
+                final char c = s.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                if (n == b.length) {
+                    buffer.write(b, 0, n);
+                    n = 0;
+                }
+                b[n++] = (byte)c;
+            }
+            buffer.write(b, 0, n);
+        }
+        if (i < length) {
+            encode(s, i, length);
+        }
+    }
+
+    private void encode(final CharSequence s, final int start, final int end) {
+        encoder.reset();
+        chars.clear();
+        bytes.clear();
+        int i = start;
+        boolean endOfInput;
+        do {
+            final int n = Math.min(end - i, chars.remaining());
+            getChars(s, i, i + n, chars.array(), chars.position());
+            chars.position(chars.position() + n);
+            i += n;
+            endOfInput = i == end;
+            chars.flip();
+            while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+                drain();
+            }
+            chars.compact();        // keeps a high surrogate split off its low one
+        }
+        while (!endOfInput);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain();
+        }
+        drain();
+    }
+
+    private static void getChars(final CharSequence s, final int start, final int end, final char[] dst, final int dstStart) {
+        if (s instanceof String) {
+            ((String)s).getChars(start, end, dst, dstStart);
+        }
+        else {
+            ((StringBuilder)s).getChars(start, end, dst, dstStart);
+        }
+    }
+
+    private void drain() {
+        buffer.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+
+    /**
+     * @return scratch builder for a primitive, appending one does not allocate
+     */
+    private StringBuilder text() {
+        prepare();
+        text.setLength(0);
+        return text;
+    }
+
+    private void captureLn() {
+        prepare();
+        buffer.write(lnBytes);
+    }
 
     @Override
     public void print(final String s) throws IOException {
         delegate.print(s);
-        buffer.write((s == null ? "null" : s).getBytes());
+        capture(s == null ? "null" : s);
     }
 
     @Override
     public void print(final boolean b) throws IOException {
         delegate.print(b);
-        buffer.write(lStrings.getString(b ? "value.true" : "value.false").getBytes());
+        prepare();
+        buffer.write(b ? trueBytes : falseBytes);
     }
 
     @Override
     public void print(final char c) throws IOException {
         delegate.print(c);
-        buffer.write(String.valueOf(c).getBytes());
+        capture(text().append(c));
     }
 
     @Override
     public void print(final int i) throws IOException {
         delegate.print(i);
-        buffer.write(String.valueOf(i).getBytes());
+        capture(text().append(i));
     }
 
     @Override
     public void print(final long l) throws IOException {
         delegate.print(l);
-        buffer.write(String.valueOf(l).getBytes());
+        capture(text().append(l));
     }
 
     @Override
     public void print(final float f) throws IOException {
         delegate.print(f);
-        buffer.write(String.valueOf(f).getBytes());
+        capture(text().append(f));
     }
 
     @Override
     public void print(final double d) throws IOException {
         delegate.print(d);
-        buffer.write(String.valueOf(d).getBytes());
+        capture(text().append(d));
     }
 
     @Override
     public void println() throws IOException {
         delegate.println();
-        buffer.write(LN_BYTES);
+        captureLn();
     }
 
     @Override
     public void println(final String s) throws IOException {
         delegate.println(s);
-        buffer.write((s == null ? "null" : s).getBytes());
-        buffer.write(LN_BYTES);
+        capture(s == null ? "null" : s);
+        captureLn();
     }
 
     @Override
     public void println(final boolean b) throws IOException {
         delegate.println(b);
-        buffer.write(lStrings.getString(b ? "value.true" : "value.false").getBytes());
-        buffer.write(LN_BYTES);
+        prepare();
+        buffer.write(b ? trueBytes : falseBytes);
+        captureLn();
     }
 
     @Override
     public void println(final char c) throws IOException {
         delegate.println(c);
-        buffer.write(String.valueOf(c).getBytes());
-        buffer.write(LN_BYTES);
+        capture(text().append(c));
+        captureLn();
     }
 
     @Override
     public void println(final int i) throws IOException {
         delegate.println(i);
-        buffer.write(String.valueOf(i).getBytes());
-        buffer.write(LN_BYTES);
+        capture(text().append(i));
+        captureLn();
     }
 
     @Override
     public void println(final long l) throws IOException {
         delegate.println(l);
-        buffer.write(String.valueOf(l).getBytes());
-        buffer.write(LN_BYTES);
+        capture(text().append(l));
+        captureLn();
     }
 
     @Override
     public void println(final float f) throws IOException {
         delegate.println(f);
-        buffer.write(String.valueOf(f).getBytes());
-        buffer.write(LN_BYTES);
+        capture(text().append(f));
+        captureLn();
     }
 
     @Override
     public void println(final double d) throws IOException {
         delegate.println(d);
-        buffer.write(String.valueOf(d).getBytes());
-        buffer.write(LN_BYTES);
+        capture(text().append(d));
+        captureLn();
     }
 
     @Override
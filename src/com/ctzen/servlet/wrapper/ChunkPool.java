@@ -0,0 +1,138 @@
+package com.ctzen.servlet.wrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of fixed-size byte chunks used by {@link CaptureBuffer}s, so captured bodies are recycled
+ * across requests instead of reallocated.<br>
+ * <br>
+ * The pool is striped by thread to keep contention low. Each stripe is a small stack guarded by
+ * its own monitor, held only long enough to push or pop one chunk. When a stripe is empty a new chunk
+ * is allocated; when it is full the returned chunk is left to the garbage collector.
+ *
+ * @author cchang
+ */
+public class ChunkPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkPool.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    public static final long DEFAULT_MAX_POOLED_BYTES = 16L * 1024 * 1024;
+
+    private static final ChunkPool DEFAULT = new ChunkPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED_BYTES);
+
+    /**
+     * @return the shared JVM-wide pool
+     */
+    public static ChunkPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param chunkSize         bytes per chunk, rounded up to the next power of 2
+     * @param maxPooledBytes    max bytes kept in the pool when idle
+     */
+    public ChunkPool(final int chunkSize, final long maxPooledBytes) {
+        if (chunkSize < 16 || chunkSize > (1 << 30)) {
+            throw new IllegalArgumentException("chunkSize out of range: " + chunkSize);
+        }
+        this.chunkSize = Integer.highestOneBit(chunkSize - 1) << 1;
+        this.chunkShift = Integer.numberOfTrailingZeros(this.chunkSize);
+        final int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.stripeMask = stripeCount - 1;
+        final int chunksPerStripe = (int)Math.min(Integer.MAX_VALUE, maxPooledBytes / this.chunkSize / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(chunksPerStripe);
+        }
+        LOG.info("chunkSize={}, stripes={}, chunksPerStripe={}", this.chunkSize, stripeCount, chunksPerStripe);
+    }
+
+    private final int chunkSize;
+
+    /**
+     * @return bytes per chunk, a power of 2
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    private final int chunkShift;
+
+    /**
+     * @return log2 of {@link #getChunkSize()}
+     */
+    public int getChunkShift() {
+        return chunkShift;
+    }
+
+    private final int stripeMask;
+
+    private final Stripe[] stripes;
+
+    private Stripe stripe() {
+        return stripes[(int)Thread.currentThread().getId() & stripeMask];
+    }
+
+    /**
+     * @return a pooled chunk, or a new one if none is available; content is undefined
+     */
+    public byte[] acquire() {
+        final byte[] chunk = stripe().pop();
+        return chunk == null ? new byte[chunkSize] : chunk;
+    }
+
+    /**
+     * @param chunk     chunk previously {@link #acquire()}d, must not be used afterwards
+     */
+    public void release(final byte[] chunk) {
+        if (chunk != null && chunk.length == chunkSize) {
+            stripe().push(chunk);
+        }
+    }
+
+    /**
+     * @return approximate number of idle chunks in the pool
+     */
+    public int getPooledCount() {
+        int count = 0;
+        for (final Stripe stripe: stripes) {
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    private static final class Stripe {
+
+        Stripe(final int capacity) {
+            this.chunks = new byte[capacity][];
+        }
+
+        private final byte[][] chunks;
+
+        private int size;
+
+        synchronized byte[] pop() {
+            if (size == 0) {
+                return null;
+            }
+            final byte[] chunk = chunks[--size];
+            chunks[size] = null;
+            return chunk;
+        }
+
+        synchronized void push(final byte[] chunk) {
+            if (size < chunks.length) {
+                chunks[size++] = chunk;
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+    }
+
+}
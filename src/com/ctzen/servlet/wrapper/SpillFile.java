@@ -0,0 +1,146 @@
+package com.ctzen.servlet.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temp file behind a spilled {@link CaptureBuffer}. Writes are staged in one chunk and appended
+ * through a {@link FileChannel}.
+ *
+ * @author cchang
+ */
+final class SpillFile {
+
+    private static final long MAX_MAP_SIZE = 1L << 30;
+
+    SpillFile(final File directory, final byte[] staging) throws IOException {
+        this.path = directory == null
+                ? Files.createTempFile("capture-", ".body")
+                : Files.createTempFile(directory.toPath(), "capture-", ".body");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.staging = staging;
+    }
+
+    private final Path path;
+
+    Path getPath() {
+        return path;
+    }
+
+    private final FileChannel channel;
+
+    private final byte[] staging;
+
+    byte[] getStaging() {
+        return staging;
+    }
+
+    private int staged;
+
+    private long flushed;
+
+    long size() {
+        return flushed + staged;
+    }
+
+    void write(final int b) throws IOException {
+        if (staged == staging.length) {
+            flush();
+        }
+        staging[staged++] = (byte)b;
+    }
+
+    void write(final byte[] b, final int off, final int len) throws IOException {
+        if (len >= staging.length) {
+            flush();
+            writeFully(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        if (len > staging.length - staged) {
+            flush();
+        }
+        System.arraycopy(b, off, staging, staged, len);
+        staged += len;
+    }
+
+    /**
+     * @param count     number of bytes already in the staging chunk
+     */
+    void adoptStaged(final int count) {
+        staged = count;
+    }
+
+    void flush() throws IOException {
+        if (staged > 0) {
+            writeFully(ByteBuffer.wrap(staging, 0, staged));
+            staged = 0;
+        }
+    }
+
+    private void writeFully(final ByteBuffer buf) throws IOException {
+        flushed += buf.remaining();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * @return read-only memory-mapped views over the whole file, in order
+     */
+    List<ByteBuffer> map() throws IOException {
+        flush();
+        final List<ByteBuffer> ret = new ArrayList<>((int)(flushed / MAX_MAP_SIZE) + 1);
+        for (long pos = 0; pos < flushed; pos += MAX_MAP_SIZE) {
+            ret.add(channel.map(MapMode.READ_ONLY, pos, Math.min(MAX_MAP_SIZE, flushed - pos)));
+        }
+        return ret;
+    }
+
+    void transferTo(final WritableByteChannel target) throws IOException {
+        flush();
+        for (long pos = 0; pos < flushed; ) {
+            pos += channel.transferTo(pos, flushed - pos, target);
+        }
+    }
+
+    /**
+     * Moves the file, renaming it if on the same file system. The file no longer belongs to this object afterwards.
+     */
+    void moveTo(final Path target) throws IOException {
+        flush();
+        channel.close();
+        try {
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (final AtomicMoveNotSupportedException e) {
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    void delete() {
+        try {
+            channel.close();
+        }
+        catch (final IOException e) {
+            // ignore, deleting anyway
+        }
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (final IOException e) {
+            path.toFile().deleteOnExit();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.ctzen.servlet.wrapper;
+
+import java.io.File;
+
+/**
+ * Spill-to-disk capture mode: the entire body is captured, in memory up to {@link #getThreshold()} bytes,
+ * then in a temp file under {@link #getDirectory()}.
+ *
+ * @author cchang
+ */
+public final class SpillPolicy {
+
+    /**
+     * @param directory     where temp files go, {@code null} for the default temp directory
+     * @param threshold     bytes kept in memory before spilling
+     */
+    public SpillPolicy(final File directory, final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("negative threshold: " + threshold);
+        }
+        if (directory != null) {
+            if (!directory.exists()) {
+                directory.mkdirs();
+            }
+            if (!directory.isDirectory()) {
+                throw new IllegalArgumentException("Unable to make directory: " + directory);
+            }
+        }
+        this.directory = directory;
+        this.threshold = threshold;
+    }
+
+    private final File directory;
+
+    /**
+     * @return where temp files go, {@code null} for the default temp directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    private final int threshold;
+
+    /**
+     * @return bytes kept in memory before spilling
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "directory=" + directory + ", threshold=" + threshold;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.ctzen.servlet.wrapper;
+
+/**
+ * Why a captured body is incomplete.
+ *
+ * @author cchang
+ */
+public enum TruncationReason {
+
+    /**
+     * The body is larger than the configured {@link CaptureLimit}.
+     */
+    LIMIT("capture limit"),
+
+    /**
+     * The {@link CaptureBudget} was running low when capture started, a smaller window was used.
+     */
+    BUDGET_LOW("capture budget low"),
+
+    /**
+     * The {@link CaptureBudget} ran out.
+     */
+    BUDGET_EXHAUSTED("capture budget exhausted"),
+
+    /**
+     * Spilling to disk failed, see {@link SpillPolicy}.
+     */
+    SPILL_FAILED("spill to disk failed");
+
+    private TruncationReason(final String description) {
+        this.description = description;
+    }
+
+    private final String description;
+
+    public String getDescription() {
+        return description;
+    }
+
+}